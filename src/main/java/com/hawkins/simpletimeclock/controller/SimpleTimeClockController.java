@@ -1,33 +1,51 @@
 package com.hawkins.simpletimeclock.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.hawkins.simpletimeclock.domain.LiveStatus;
 import com.hawkins.simpletimeclock.domain.ReportDataFilters;
 import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.domain.UserActivity;
+import com.hawkins.simpletimeclock.domain.UserShiftCount;
 import com.hawkins.simpletimeclock.enums.BreakType;
 import com.hawkins.simpletimeclock.enums.Role;
 import com.hawkins.simpletimeclock.exception.*;
 import com.hawkins.simpletimeclock.service.ContextURIService;
 import com.hawkins.simpletimeclock.service.UserService;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 @RestController
 public class SimpleTimeClockController
 {
 	private static final String INPUT_DATE_FORMAT = "yyyy-MM-dd HH:mm";
+	private static final String NDJSON_TAG_SUFFIX = "-ndjson";
 	
 	private final UserService userService;
 	private final ContextURIService contextURIService;
+	private final ObjectMapper objectMapper;
 	
-	public SimpleTimeClockController(UserService userService, ContextURIService contextURIService)
+	public SimpleTimeClockController(UserService userService, ContextURIService contextURIService, ObjectMapper objectMapper)
 	{
 		this.userService = userService;
 		this.contextURIService = contextURIService;
+		this.objectMapper = objectMapper;
 	}
 	
 	@PostMapping("/user/{userId}")
@@ -40,13 +58,17 @@ public class SimpleTimeClockController
 				.body(user);
 	}
 	
+	// The user's version is their ETag; sending it back as If-Match only applies the update if nobody has changed them since
 	@PostMapping("/user/{userId}/update")
-	public ResponseEntity<User> updateUser(@PathVariable String userId, @RequestParam(required = false) String name, @RequestParam(required = false) Role role)
-			throws UserNotFoundException
+	public ResponseEntity<User> updateUser(@PathVariable String userId, @RequestParam(required = false) String name, @RequestParam(required = false) Role role,
+										   @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
+			throws UserNotFoundException, UserModifiedException
 	{
-		User user = userService.updateUser(userId, name, role);
+		User user = userService.updateUser(userId, name, role, parseVersion(ifMatch));
 		
-		return ResponseEntity.accepted().body(user);
+		return ResponseEntity.accepted()
+				.eTag(String.valueOf(user.getVersion()))
+				.body(user);
 	}
 	
 	@PostMapping("/user/{userId}/startShift")
@@ -84,27 +106,182 @@ public class SimpleTimeClockController
 		return ResponseEntity.accepted().build();
 	}
 	
+	// With explain, the plan the report would follow is returned instead of running it. Otherwise the report's ETag changes whenever
+	// the report could, so sending it back as If-None-Match answers Not Modified without running the report again.
 	@GetMapping("/admin/{adminUserId}/userActivity")
-	public ResponseEntity<Map<String, User>> findUserActivity(@PathVariable String adminUserId,
-															  @RequestParam(required = false) String userIdToView,
-															  @RequestParam(required = false, defaultValue = "0") int priorWorkShiftsThreshold,
-															  @RequestParam(required = false, defaultValue = "0") int priorBreaksThreshold,
-															  @RequestParam(required = false, defaultValue = "false") boolean isCurrentlyOnBreak,
-															  @RequestParam(required = false, defaultValue = "false") boolean isCurrentlyOnLunch,
-															  @RequestParam(required = false)
-															  @DateTimeFormat(pattern = INPUT_DATE_FORMAT) LocalDateTime shiftBeginsBefore,
-															  @RequestParam(required = false)
-															  @DateTimeFormat(pattern = INPUT_DATE_FORMAT) LocalDateTime shiftBeginsAfter,
-															  @RequestParam(required = false)
-															  @DateTimeFormat(pattern = INPUT_DATE_FORMAT) LocalDateTime breakBeginsBefore,
-															  @RequestParam(required = false)
-															  @DateTimeFormat(pattern = INPUT_DATE_FORMAT) LocalDateTime breakBeginsAfter,
-															  @RequestParam(required = false) Role roleToView)
+	public ResponseEntity<?> findUserActivity(@PathVariable String adminUserId,
+											  @RequestParam(required = false) String userIdToView,
+											  @RequestParam(required = false, defaultValue = "0") int priorWorkShiftsThreshold,
+											  @RequestParam(required = false, defaultValue = "0") int priorBreaksThreshold,
+											  @RequestParam(required = false, defaultValue = "false") boolean isCurrentlyOnBreak,
+											  @RequestParam(required = false, defaultValue = "false") boolean isCurrentlyOnLunch,
+											  @RequestParam(required = false)
+											  @DateTimeFormat(pattern = INPUT_DATE_FORMAT) LocalDateTime shiftBeginsBefore,
+											  @RequestParam(required = false)
+											  @DateTimeFormat(pattern = INPUT_DATE_FORMAT) LocalDateTime shiftBeginsAfter,
+											  @RequestParam(required = false)
+											  @DateTimeFormat(pattern = INPUT_DATE_FORMAT) LocalDateTime breakBeginsBefore,
+											  @RequestParam(required = false)
+											  @DateTimeFormat(pattern = INPUT_DATE_FORMAT) LocalDateTime breakBeginsAfter,
+											  @RequestParam(required = false) Role roleToView,
+											  @RequestParam(required = false, defaultValue = "false") boolean onlyActiveInRange,
+											  @RequestParam(required = false, defaultValue = "false") boolean explain,
+											  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch)
+			throws AccessDeniedException, UserNotFoundException
+	{
+		ReportDataFilters filters = new ReportDataFilters(userIdToView, priorWorkShiftsThreshold, priorBreaksThreshold, isCurrentlyOnBreak, isCurrentlyOnLunch,
+														  roleToView, shiftBeginsBefore, shiftBeginsAfter, breakBeginsBefore, breakBeginsAfter,
+														  onlyActiveInRange);
+		
+		if (explain)
+		{
+			return ResponseEntity.ok(userService.explainUserActivity(adminUserId, filters));
+		}
+		
+		// Taken before the report runs, so a change made while it runs leaves the tag stale rather than the report
+		String eTag = userService.findUserActivityTag(adminUserId, filters);
+		if (matchesAny(ifNoneMatch, eTag))
+		{
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+					.eTag(eTag)
+					.header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+					.build();
+		}
+		return ResponseEntity.ok()
+				.eTag(eTag)
+				.header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+				.body(userService.findUserActivity(adminUserId, filters));
+	}
+	
+	// The same report as findUserActivity, streamed one user per line as each passes the filters rather than built whole first.
+	// Its ETag differs from the whole report's, so neither representation is answered Not Modified for a tag of the other.
+	@GetMapping(value = "/admin/{adminUserId}/userActivity", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public ResponseEntity<StreamingResponseBody> streamUserActivity(@PathVariable String adminUserId,
+																	@RequestParam(required = false) String userIdToView,
+																	@RequestParam(required = false, defaultValue = "0") int priorWorkShiftsThreshold,
+																	@RequestParam(required = false, defaultValue = "0") int priorBreaksThreshold,
+																	@RequestParam(required = false, defaultValue = "false") boolean isCurrentlyOnBreak,
+																	@RequestParam(required = false, defaultValue = "false") boolean isCurrentlyOnLunch,
+																	@RequestParam(required = false)
+																	@DateTimeFormat(pattern = INPUT_DATE_FORMAT) LocalDateTime shiftBeginsBefore,
+																	@RequestParam(required = false)
+																	@DateTimeFormat(pattern = INPUT_DATE_FORMAT) LocalDateTime shiftBeginsAfter,
+																	@RequestParam(required = false)
+																	@DateTimeFormat(pattern = INPUT_DATE_FORMAT) LocalDateTime breakBeginsBefore,
+																	@RequestParam(required = false)
+																	@DateTimeFormat(pattern = INPUT_DATE_FORMAT) LocalDateTime breakBeginsAfter,
+																	@RequestParam(required = false) Role roleToView,
+																	@RequestParam(required = false, defaultValue = "false") boolean onlyActiveInRange,
+																	@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch)
 			throws AccessDeniedException, UserNotFoundException
 	{
 		ReportDataFilters filters = new ReportDataFilters(userIdToView, priorWorkShiftsThreshold, priorBreaksThreshold, isCurrentlyOnBreak, isCurrentlyOnLunch,
-														  roleToView, shiftBeginsBefore, shiftBeginsAfter, breakBeginsBefore, breakBeginsAfter);
+														  roleToView, shiftBeginsBefore, shiftBeginsAfter, breakBeginsBefore, breakBeginsAfter,
+														  onlyActiveInRange);
+		
+		String eTag = userService.findUserActivityTag(adminUserId, filters) + NDJSON_TAG_SUFFIX;
+		if (matchesAny(ifNoneMatch, eTag))
+		{
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+					.eTag(eTag)
+					.header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+					.build();
+		}
+		
+		Stream<UserActivity> activity = userService.streamUserActivity(adminUserId, filters);
+		
+		return ResponseEntity.ok()
+				.eTag(eTag)
+				.header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+				.contentType(MediaType.APPLICATION_NDJSON)
+				.body(outputStream -> writeLines(activity, outputStream));
+	}
+	
+	@GetMapping("/admin/{adminUserId}/liveStatus")
+	public ResponseEntity<LiveStatus> findLiveStatus(@PathVariable String adminUserId) throws AccessDeniedException, UserNotFoundException
+	{
+		return ResponseEntity.ok(userService.findLiveStatus(adminUserId));
+	}
+	
+	@GetMapping("/admin/{adminUserId}/topUsersByShiftCount")
+	public ResponseEntity<List<UserShiftCount>> findTopUsersByShiftCount(@PathVariable String adminUserId,
+																		 @RequestParam(required = false, defaultValue = "10") int limit)
+			throws AccessDeniedException, UserNotFoundException
+	{
+		return ResponseEntity.ok(userService.findTopUsersByShiftCount(adminUserId, limit));
+	}
+	
+	// The headers and the first line are flushed straight away, so the response starts at once even if the first user passing the
+	// filters is a long way in. After that lines only go out as buffers fill.
+	private void writeLines(Stream<UserActivity> activity, OutputStream outputStream) throws IOException
+	{
+		ObjectWriter writer = objectMapper.writer()
+				.withRootValueSeparator("")
+				.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		
+		try (JsonGenerator generator = writer.createGenerator(outputStream))
+		{
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			generator.flush();
+			
+			Iterator<UserActivity> users = activity.iterator();
+			boolean flushed = false;
+			while (users.hasNext())
+			{
+				writer.writeValue(generator, users.next());
+				generator.writeRaw('\n');
+				if (!flushed)
+				{
+					generator.flush();
+					flushed = true;
+				}
+			}
+		}
+	}
+	
+	private boolean matchesAny(String eTags, String eTag)
+	{
+		if (eTags == null)
+		{
+			return false;
+		}
+		
+		for (String candidate : eTags.split(","))
+		{
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/"))
+			{
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.replace("\"", "").equals(eTag))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private Long parseVersion(String eTag) throws UserModifiedException
+	{
+		if (eTag == null || eTag.trim().equals("*"))
+		{
+			return null;
+		}
+		
+		String version = eTag.trim();
+		if (version.startsWith("W/"))
+		{
+			version = version.substring(2);
+		}
+		version = version.replace("\"", "");
 		
-		return ResponseEntity.ok(userService.findUserActivity(adminUserId, filters));
+		try
+		{
+			return Long.parseLong(version);
+		} catch (NumberFormatException ignored)
+		{
+			// Not a version this service handed out, so it cannot match the user's current one
+			throw new UserModifiedException();
+		}
 	}
 }
\ No newline at end of file
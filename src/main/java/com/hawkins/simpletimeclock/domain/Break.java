@@ -6,7 +6,7 @@ import org.springframework.lang.NonNull;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 
-public class Break implements Serializable
+public class Break implements Serializable, Timed
 {
 	private final LocalDateTime startTime;
 	private final BreakType breakType;
@@ -25,6 +25,14 @@ public class Break implements Serializable
 		this.breakType = breakType;
 	}
 	
+	public Break(@NonNull Break workBreak)
+	{
+		this.startTime = workBreak.getStartTime();
+		this.breakType = workBreak.getBreakType();
+		this.endTime = workBreak.getEndTime();
+	}
+	
+	@Override
 	public LocalDateTime getStartTime()
 	{
 		return startTime;
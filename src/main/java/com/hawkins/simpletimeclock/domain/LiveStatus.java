@@ -0,0 +1,50 @@
+package com.hawkins.simpletimeclock.domain;
+
+import org.springframework.lang.NonNull;
+
+import java.util.Set;
+
+// Who is on shift, on break and on lunch right now, all as of the same point in time
+public class LiveStatus
+{
+	private final Set<String> onShift;
+	private final Set<String> onBreak;
+	private final Set<String> onLunch;
+	
+	public LiveStatus(@NonNull Set<String> onShift, @NonNull Set<String> onBreak, @NonNull Set<String> onLunch)
+	{
+		this.onShift = onShift;
+		this.onBreak = onBreak;
+		this.onLunch = onLunch;
+	}
+	
+	public int getOnShiftCount()
+	{
+		return onShift.size();
+	}
+	
+	public Set<String> getOnShift()
+	{
+		return onShift;
+	}
+	
+	public int getOnBreakCount()
+	{
+		return onBreak.size();
+	}
+	
+	public Set<String> getOnBreak()
+	{
+		return onBreak;
+	}
+	
+	public int getOnLunchCount()
+	{
+		return onLunch.size();
+	}
+	
+	public Set<String> getOnLunch()
+	{
+		return onLunch;
+	}
+}
\ No newline at end of file
@@ -17,6 +17,7 @@ public class ReportDataFilters implements Serializable
 	private LocalDateTime shiftBeginsAfter;
 	private LocalDateTime breakBeginsBefore;
 	private LocalDateTime breakBeginsAfter;
+	private boolean onlyActiveInRange;
 	
 	// Required for Jackson
 	public ReportDataFilters()
@@ -25,7 +26,7 @@ public class ReportDataFilters implements Serializable
 	
 	public ReportDataFilters(String userIdToView, int priorWorkShiftsThreshold, int priorBreaksThreshold, boolean isCurrentlyOnBreak,
 							 boolean isCurrentlyOnLunch, Role roleToView, LocalDateTime shiftBeginsBefore, LocalDateTime shiftBeginsAfter,
-							 LocalDateTime breakBeginsBefore, LocalDateTime breakBeginsAfter)
+							 LocalDateTime breakBeginsBefore, LocalDateTime breakBeginsAfter, boolean onlyActiveInRange)
 	{
 		this.userIdToView = userIdToView;
 		this.priorWorkShiftsThreshold = priorWorkShiftsThreshold;
@@ -37,6 +38,7 @@ public class ReportDataFilters implements Serializable
 		this.shiftBeginsAfter = shiftBeginsAfter;
 		this.breakBeginsBefore = breakBeginsBefore;
 		this.breakBeginsAfter = breakBeginsAfter;
+		this.onlyActiveInRange = onlyActiveInRange;
 	}
 	
 	public String getUserIdToView()
@@ -138,4 +140,14 @@ public class ReportDataFilters implements Serializable
 	{
 		this.breakBeginsAfter = breakBeginsAfter;
 	}
+	
+	public boolean isOnlyActiveInRange()
+	{
+		return onlyActiveInRange;
+	}
+	
+	public void setOnlyActiveInRange(boolean onlyActiveInRange)
+	{
+		this.onlyActiveInRange = onlyActiveInRange;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package com.hawkins.simpletimeclock.domain;
+
+import com.hawkins.simpletimeclock.enums.ReportAccessPath;
+import com.hawkins.simpletimeclock.enums.ReportPredicate;
+import org.springframework.lang.NonNull;
+
+import java.util.Map;
+import java.util.Set;
+
+// How a report finds its users: the access path it takes them from, how many users each path it could have taken was estimated
+// to give, and which filters are left to check on each user given, as the path already guarantees the rest
+public class ReportPlan
+{
+	private final ReportAccessPath accessPath;
+	private final Map<ReportAccessPath, Integer> estimates;
+	private final Set<ReportPredicate> indexedPredicates;
+	private final Set<ReportPredicate> residualPredicates;
+	private final int totalUsers;
+	
+	public ReportPlan(@NonNull ReportAccessPath accessPath, @NonNull Map<ReportAccessPath, Integer> estimates, @NonNull Set<ReportPredicate> indexedPredicates,
+					  @NonNull Set<ReportPredicate> residualPredicates, int totalUsers)
+	{
+		this.accessPath = accessPath;
+		this.estimates = estimates;
+		this.indexedPredicates = indexedPredicates;
+		this.residualPredicates = residualPredicates;
+		this.totalUsers = totalUsers;
+	}
+	
+	public ReportAccessPath getAccessPath()
+	{
+		return accessPath;
+	}
+	
+	public int getEstimatedCandidates()
+	{
+		return estimates.get(accessPath);
+	}
+	
+	public Map<ReportAccessPath, Integer> getEstimates()
+	{
+		return estimates;
+	}
+	
+	public Set<ReportPredicate> getIndexedPredicates()
+	{
+		return indexedPredicates;
+	}
+	
+	public Set<ReportPredicate> getResidualPredicates()
+	{
+		return residualPredicates;
+	}
+	
+	public int getTotalUsers()
+	{
+		return totalUsers;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,125 @@
+package com.hawkins.simpletimeclock.domain;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+// Shifts or breaks kept in order of when they started, next to a plain array of those start times, so that the entries
+// starting within a range of times are found by binary search instead of checking every one of them
+public class TimeOrderedList<T extends Timed> extends AbstractList<T> implements RandomAccess, Serializable
+{
+	private final List<T> entries = new ArrayList<>();
+	// Start times are split into epoch seconds and nanoseconds, as nanoseconds alone overflow a long outside 1677 to 2262
+	private long[] startSeconds = new long[10];
+	private int[] startNanos = new int[10];
+	
+	@Override
+	public T get(int index)
+	{
+		return entries.get(index);
+	}
+	
+	@Override
+	public int size()
+	{
+		return entries.size();
+	}
+	
+	// Entries nearly always arrive in order and go on the end; anything older is placed after those starting at the same time
+	@Override
+	public boolean add(T entry)
+	{
+		long seconds = secondsOf(entry.getStartTime());
+		int nanos = nanosOf(entry.getStartTime());
+		int size = entries.size();
+		int index = size == 0 || compareStartTime(size - 1, seconds, nanos) <= 0 ? size : firstStartingAfter(seconds, nanos);
+		
+		if (size == startSeconds.length)
+		{
+			startSeconds = Arrays.copyOf(startSeconds, size * 2);
+			startNanos = Arrays.copyOf(startNanos, size * 2);
+		}
+		System.arraycopy(startSeconds, index, startSeconds, index + 1, size - index);
+		System.arraycopy(startNanos, index, startNanos, index + 1, size - index);
+		startSeconds[index] = seconds;
+		startNanos[index] = nanos;
+		entries.add(index, entry);
+		modCount++;
+		return true;
+	}
+	
+	@Override
+	public T remove(int index)
+	{
+		T removed = entries.remove(index);
+		System.arraycopy(startSeconds, index + 1, startSeconds, index, entries.size() - index);
+		System.arraycopy(startNanos, index + 1, startNanos, index, entries.size() - index);
+		modCount++;
+		return removed;
+	}
+	
+	// Read-only view of the entries starting strictly after and strictly before the given times, either of which may be left out
+	public List<T> startingBetween(LocalDateTime after, LocalDateTime before)
+	{
+		int from = after != null ? firstStartingAfter(secondsOf(after), nanosOf(after)) : 0;
+		int to = before != null ? firstStartingAtOrAfter(secondsOf(before), nanosOf(before)) : entries.size();
+		
+		if (from >= to)
+		{
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(entries.subList(from, to));
+	}
+	
+	private int firstStartingAfter(long seconds, int nanos)
+	{
+		return firstStarting(seconds, nanos, false);
+	}
+	
+	private int firstStartingAtOrAfter(long seconds, int nanos)
+	{
+		return firstStarting(seconds, nanos, true);
+	}
+	
+	private int firstStarting(long seconds, int nanos, boolean atOrAfter)
+	{
+		int low = 0;
+		int high = entries.size();
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			int comparison = compareStartTime(middle, seconds, nanos);
+			if (comparison < 0 || (comparison == 0 && !atOrAfter))
+			{
+				low = middle + 1;
+			} else
+			{
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	private int compareStartTime(int index, long seconds, int nanos)
+	{
+		int comparison = Long.compare(startSeconds[index], seconds);
+		return comparison != 0 ? comparison : Integer.compare(startNanos[index], nanos);
+	}
+	
+	// Start times carry no zone, so any fixed offset keeps them in order. Entries without one sort before every real time.
+	private static long secondsOf(LocalDateTime time)
+	{
+		return time != null ? time.toEpochSecond(ZoneOffset.UTC) : Long.MIN_VALUE;
+	}
+	
+	private static int nanosOf(LocalDateTime time)
+	{
+		return time != null ? time.getNano() : 0;
+	}
+}
\ No newline at end of file
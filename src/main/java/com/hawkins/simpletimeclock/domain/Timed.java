@@ -0,0 +1,8 @@
+package com.hawkins.simpletimeclock.domain;
+
+import java.time.LocalDateTime;
+
+public interface Timed
+{
+	LocalDateTime getStartTime();
+}
\ No newline at end of file
@@ -4,19 +4,18 @@ import com.hawkins.simpletimeclock.enums.Role;
 import org.springframework.lang.NonNull;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 
 public class User implements Serializable
 {
 	private final String userId;
-	private final List<WorkShift> priorWorkShifts = new ArrayList<>();
-	private final List<Break> priorBreaks = new ArrayList<>();
+	private final TimeOrderedList<WorkShift> priorWorkShifts = new TimeOrderedList<>();
+	private final TimeOrderedList<Break> priorBreaks = new TimeOrderedList<>();
 	private String name;
 	private WorkShift currentWorkShift;
 	private Break currentBreak;
 	private Break currentLunchBreak;
 	private Role role;
+	private long version;
 	
 	// Required for Jackson
 	public User()
@@ -29,17 +28,31 @@ public class User implements Serializable
 		this.userId = userId;
 	}
 	
+	// Prior shifts and breaks are never modified once recorded, so only the in-progress ones need copying
+	public User(@NonNull User user)
+	{
+		this.userId = user.getUserId();
+		this.priorWorkShifts.addAll(user.getPriorWorkShifts());
+		this.priorBreaks.addAll(user.getPriorBreaks());
+		this.name = user.getName();
+		this.currentWorkShift = user.getCurrentWorkShift() != null ? new WorkShift(user.getCurrentWorkShift()) : null;
+		this.currentBreak = user.getCurrentBreak() != null ? new Break(user.getCurrentBreak()) : null;
+		this.currentLunchBreak = user.getCurrentLunchBreak() != null ? new Break(user.getCurrentLunchBreak()) : null;
+		this.role = user.getRole();
+		this.version = user.getVersion();
+	}
+	
 	public String getUserId()
 	{
 		return userId;
 	}
 	
-	public List<WorkShift> getPriorWorkShifts()
+	public TimeOrderedList<WorkShift> getPriorWorkShifts()
 	{
 		return priorWorkShifts;
 	}
 	
-	public List<Break> getPriorBreaks()
+	public TimeOrderedList<Break> getPriorBreaks()
 	{
 		return priorBreaks;
 	}
@@ -93,4 +106,14 @@ public class User implements Serializable
 	{
 		this.role = role;
 	}
+	
+	public long getVersion()
+	{
+		return version;
+	}
+	
+	public void setVersion(long version)
+	{
+		this.version = version;
+	}
 }
\ No newline at end of file
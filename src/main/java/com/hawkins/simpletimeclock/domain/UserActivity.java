@@ -0,0 +1,67 @@
+package com.hawkins.simpletimeclock.domain;
+
+import com.hawkins.simpletimeclock.enums.Role;
+import org.springframework.lang.NonNull;
+
+import java.util.List;
+
+// A user as shown in a report. Reads straight through to the stored user, which is never modified once stored,
+// and only narrows down which of their prior shifts and breaks are shown.
+public class UserActivity
+{
+	private final User user;
+	private final List<WorkShift> priorWorkShifts;
+	private final List<Break> priorBreaks;
+	
+	public UserActivity(@NonNull User user, @NonNull List<WorkShift> priorWorkShifts, @NonNull List<Break> priorBreaks)
+	{
+		this.user = user;
+		this.priorWorkShifts = priorWorkShifts;
+		this.priorBreaks = priorBreaks;
+	}
+	
+	public String getUserId()
+	{
+		return user.getUserId();
+	}
+	
+	public List<WorkShift> getPriorWorkShifts()
+	{
+		return priorWorkShifts;
+	}
+	
+	public List<Break> getPriorBreaks()
+	{
+		return priorBreaks;
+	}
+	
+	public String getName()
+	{
+		return user.getName();
+	}
+	
+	public WorkShift getCurrentWorkShift()
+	{
+		return user.getCurrentWorkShift();
+	}
+	
+	public Break getCurrentBreak()
+	{
+		return user.getCurrentBreak();
+	}
+	
+	public Break getCurrentLunchBreak()
+	{
+		return user.getCurrentLunchBreak();
+	}
+	
+	public Role getRole()
+	{
+		return user.getRole();
+	}
+	
+	public long getVersion()
+	{
+		return user.getVersion();
+	}
+}
\ No newline at end of file
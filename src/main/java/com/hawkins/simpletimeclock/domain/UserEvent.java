@@ -0,0 +1,165 @@
+package com.hawkins.simpletimeclock.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.hawkins.simpletimeclock.enums.BreakType;
+import com.hawkins.simpletimeclock.enums.Role;
+import com.hawkins.simpletimeclock.enums.UserEventType;
+import org.springframework.lang.NonNull;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+// Single change to a User as recorded in the event log, kept to as few bytes as possible
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserEvent implements Serializable
+{
+	@JsonProperty("e")
+	private final UserEventType type;
+	@JsonProperty("u")
+	private final String userId;
+	@JsonProperty("v")
+	private final long version;
+	@JsonProperty("t")
+	private final LocalDateTime time;
+	@JsonProperty("b")
+	private final BreakType breakType;
+	@JsonProperty("n")
+	private final String name;
+	@JsonProperty("r")
+	private final Role role;
+	
+	// Required for Jackson
+	public UserEvent()
+	{
+		this(null, null, null, null, null, null);
+	}
+	
+	// Each event moves the user on to the next version, which lets replay skip events a snapshot already contains
+	private UserEvent(UserEventType type, User user, LocalDateTime time, BreakType breakType, String name, Role role)
+	{
+		this.type = type;
+		this.userId = user != null ? user.getUserId() : null;
+		this.version = user != null ? user.getVersion() + 1 : 0;
+		this.time = time;
+		this.breakType = breakType;
+		this.name = name;
+		this.role = role;
+	}
+	
+	public static UserEvent userCreated(@NonNull User user)
+	{
+		return new UserEvent(UserEventType.UserCreated, user, null, null, user.getName(), user.getRole());
+	}
+	
+	public static UserEvent userUpdated(@NonNull User user, String name, Role role)
+	{
+		return new UserEvent(UserEventType.UserUpdated, user, null, null, name, role);
+	}
+	
+	public static UserEvent shiftStarted(@NonNull User user, @NonNull LocalDateTime time)
+	{
+		return new UserEvent(UserEventType.ShiftStarted, user, time, null, null, null);
+	}
+	
+	public static UserEvent shiftEnded(@NonNull User user, @NonNull LocalDateTime time)
+	{
+		return new UserEvent(UserEventType.ShiftEnded, user, time, null, null, null);
+	}
+	
+	public static UserEvent breakStarted(@NonNull User user, @NonNull BreakType breakType, @NonNull LocalDateTime time)
+	{
+		return new UserEvent(UserEventType.BreakStarted, user, time, breakType, null, null);
+	}
+	
+	public static UserEvent breakEnded(@NonNull User user, @NonNull BreakType breakType, @NonNull LocalDateTime time)
+	{
+		return new UserEvent(UserEventType.BreakEnded, user, time, breakType, null, null);
+	}
+	
+	// Assumes the change has already been validated, which also makes it safe to use when replaying the log
+	public void applyTo(@NonNull User user)
+	{
+		user.setVersion(version);
+		
+		switch (type)
+		{
+			case UserCreated:
+			case UserUpdated:
+				if (name != null)
+				{
+					user.setName(name);
+				}
+				if (role != null)
+				{
+					user.setRole(role);
+				}
+				break;
+			case ShiftStarted:
+				user.setCurrentWorkShift(new WorkShift(time));
+				break;
+			case ShiftEnded:
+				user.getCurrentWorkShift().setEndTime(time);
+				user.getPriorWorkShifts().add(user.getCurrentWorkShift());
+				user.setCurrentWorkShift(null);
+				break;
+			case BreakStarted:
+				if (breakType == BreakType.Lunch)
+				{
+					user.setCurrentLunchBreak(new Break(breakType, time));
+				} else
+				{
+					user.setCurrentBreak(new Break(breakType, time));
+				}
+				break;
+			case BreakEnded:
+				if (breakType == BreakType.Lunch)
+				{
+					user.getCurrentLunchBreak().setEndTime(time);
+					user.getPriorBreaks().add(user.getCurrentLunchBreak());
+					user.setCurrentLunchBreak(null);
+				} else
+				{
+					user.getCurrentBreak().setEndTime(time);
+					user.getPriorBreaks().add(user.getCurrentBreak());
+					user.setCurrentBreak(null);
+				}
+				break;
+		}
+	}
+	
+	public long getVersion()
+	{
+		return version;
+	}
+	
+	public UserEventType getType()
+	{
+		return type;
+	}
+	
+	public String getUserId()
+	{
+		return userId;
+	}
+	
+	public LocalDateTime getTime()
+	{
+		return time;
+	}
+	
+	public BreakType getBreakType()
+	{
+		return breakType;
+	}
+	
+	public String getName()
+	{
+		return name;
+	}
+	
+	public Role getRole()
+	{
+		return role;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,31 @@
+package com.hawkins.simpletimeclock.domain;
+
+// How many shifts a user has recorded, for ranking users without sending their whole history
+public class UserShiftCount
+{
+	private final String userId;
+	private final String name;
+	private final int shiftCount;
+	
+	public UserShiftCount(String userId, String name, int shiftCount)
+	{
+		this.userId = userId;
+		this.name = name;
+		this.shiftCount = shiftCount;
+	}
+	
+	public String getUserId()
+	{
+		return userId;
+	}
+	
+	public String getName()
+	{
+		return name;
+	}
+	
+	public int getShiftCount()
+	{
+		return shiftCount;
+	}
+}
\ No newline at end of file
@@ -5,7 +5,7 @@ import org.springframework.lang.NonNull;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 
-public class WorkShift implements Serializable
+public class WorkShift implements Serializable, Timed
 {
 	private final LocalDateTime startTime;
 	private LocalDateTime endTime;
@@ -21,6 +21,13 @@ public class WorkShift implements Serializable
 		this.startTime = startTime;
 	}
 	
+	public WorkShift(@NonNull WorkShift workShift)
+	{
+		this.startTime = workShift.getStartTime();
+		this.endTime = workShift.getEndTime();
+	}
+	
+	@Override
 	public LocalDateTime getStartTime()
 	{
 		return startTime;
@@ -0,0 +1,7 @@
+package com.hawkins.simpletimeclock.enums;
+
+public enum DatabaseFormat
+{
+	Json,
+	Binary
+}
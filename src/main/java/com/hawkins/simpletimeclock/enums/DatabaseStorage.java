@@ -0,0 +1,7 @@
+package com.hawkins.simpletimeclock.enums;
+
+public enum DatabaseStorage
+{
+	SingleFile,
+	Sharded
+}
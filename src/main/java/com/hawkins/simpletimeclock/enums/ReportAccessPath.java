@@ -0,0 +1,11 @@
+package com.hawkins.simpletimeclock.enums;
+
+// Where a report takes the users it checks from, in the order preferred when they are estimated to find as many
+public enum ReportAccessPath
+{
+	UserId,
+	Bitmaps,
+	ShiftDays,
+	BreakDays,
+	AllUsers
+}
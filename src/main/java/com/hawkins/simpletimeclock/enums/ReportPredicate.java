@@ -0,0 +1,14 @@
+package com.hawkins.simpletimeclock.enums;
+
+// The filters a report can apply to each user, in the order they are checked, cheapest first
+public enum ReportPredicate
+{
+	UserId,
+	Role,
+	OnBreak,
+	OnLunch,
+	PriorWorkShifts,
+	PriorBreaks,
+	ShiftsInRange,
+	BreaksInRange
+}
@@ -0,0 +1,11 @@
+package com.hawkins.simpletimeclock.enums;
+
+public enum UserEventType
+{
+	UserCreated,
+	UserUpdated,
+	ShiftStarted,
+	ShiftEnded,
+	BreakStarted,
+	BreakEnded
+}
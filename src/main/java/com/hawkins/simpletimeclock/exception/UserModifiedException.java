@@ -0,0 +1,9 @@
+package com.hawkins.simpletimeclock.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.PRECONDITION_FAILED, reason = "User has been modified")
+public class UserModifiedException extends Exception
+{
+}
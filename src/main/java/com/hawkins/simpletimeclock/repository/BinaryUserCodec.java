@@ -0,0 +1,284 @@
+package com.hawkins.simpletimeclock.repository;
+
+import com.hawkins.simpletimeclock.domain.Break;
+import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.domain.WorkShift;
+import com.hawkins.simpletimeclock.enums.BreakType;
+import com.hawkins.simpletimeclock.enums.DatabaseFormat;
+import com.hawkins.simpletimeclock.enums.Role;
+import org.springframework.stereotype.Component;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact layout: a header of magic number and format version, then a count-prefixed list of users. Users are decoded straight
+// from the buffer, which is usually the memory-mapped database file, without copying it first. Times are epoch seconds
+// plus nanoseconds, so nothing is lost when switching formats, enums are stored by ordinal, and absent values are flagged.
+// The order of the enum constants is therefore part of the format; only add new constants at the end.
+@Component
+public class BinaryUserCodec implements UserCodec
+{
+	private static final int MAGIC = 0x54434442;
+	private static final int FORMAT_VERSION = 1;
+	private static final long NO_TIME = Long.MIN_VALUE;
+	private static final byte ABSENT = -1;
+	private static final byte PRESENT = 1;
+	
+	@Override
+	public DatabaseFormat getFormat()
+	{
+		return DatabaseFormat.Binary;
+	}
+	
+	@Override
+	public String getFileExtension()
+	{
+		return "bin";
+	}
+	
+	@Override
+	public void write(Map<String, User> users, OutputStream outputStream) throws IOException
+	{
+		DataOutputStream output = new DataOutputStream(outputStream);
+		output.writeInt(MAGIC);
+		output.writeInt(FORMAT_VERSION);
+		output.writeInt(users.size());
+		
+		for (User user : users.values())
+		{
+			writeUser(output, user);
+		}
+		
+		output.flush();
+	}
+	
+	@Override
+	public Map<String, User> read(ByteBuffer buffer) throws IOException
+	{
+		try
+		{
+			return readUsers(buffer.duplicate());
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException ignored)
+		{
+			throw new IOException("Binary users database is truncated or corrupt.");
+		}
+	}
+	
+	private Map<String, User> readUsers(ByteBuffer input) throws IOException
+	{
+		if (input.getInt() != MAGIC)
+		{
+			throw new IOException("Not a binary users database.");
+		}
+		
+		int formatVersion = input.getInt();
+		if (formatVersion != FORMAT_VERSION)
+		{
+			throw new IOException("Unsupported binary users database version " + formatVersion + ".");
+		}
+		
+		int userCount = input.getInt();
+		Map<String, User> users = new HashMap<>(userCount * 4 / 3 + 1);
+		
+		for (int i = 0; i < userCount; i++)
+		{
+			User user = readUser(input);
+			users.put(user.getUserId(), user);
+		}
+		
+		return users;
+	}
+	
+	//region users
+	
+	private void writeUser(DataOutputStream output, User user) throws IOException
+	{
+		writeUtf8(output, user.getUserId());
+		output.writeLong(user.getVersion());
+		writeString(output, user.getName());
+		writeEnum(output, user.getRole());
+		writeWorkShift(output, user.getCurrentWorkShift());
+		writeBreak(output, user.getCurrentBreak());
+		writeBreak(output, user.getCurrentLunchBreak());
+		
+		output.writeInt(user.getPriorWorkShifts().size());
+		for (WorkShift workShift : user.getPriorWorkShifts())
+		{
+			writeWorkShift(output, workShift);
+		}
+		
+		output.writeInt(user.getPriorBreaks().size());
+		for (Break workBreak : user.getPriorBreaks())
+		{
+			writeBreak(output, workBreak);
+		}
+	}
+	
+	private User readUser(ByteBuffer input)
+	{
+		User user = new User(readUtf8(input));
+		user.setVersion(input.getLong());
+		user.setName(readString(input));
+		user.setRole(readEnum(input, Role.values()));
+		user.setCurrentWorkShift(readWorkShift(input));
+		user.setCurrentBreak(readBreak(input));
+		user.setCurrentLunchBreak(readBreak(input));
+		
+		readList(input, user.getPriorWorkShifts(), this::readWorkShift);
+		readList(input, user.getPriorBreaks(), this::readBreak);
+		
+		return user;
+	}
+	
+	//endregion
+	
+	//region shifts and breaks
+	
+	private void writeWorkShift(DataOutputStream output, WorkShift workShift) throws IOException
+	{
+		if (workShift == null)
+		{
+			output.writeByte(ABSENT);
+			return;
+		}
+		
+		output.writeByte(PRESENT);
+		writeTime(output, workShift.getStartTime());
+		writeTime(output, workShift.getEndTime());
+	}
+	
+	private WorkShift readWorkShift(ByteBuffer input)
+	{
+		if (input.get() == ABSENT)
+		{
+			return null;
+		}
+		
+		WorkShift workShift = new WorkShift(readTime(input));
+		workShift.setEndTime(readTime(input));
+		
+		return workShift;
+	}
+	
+	private void writeBreak(DataOutputStream output, Break workBreak) throws IOException
+	{
+		if (workBreak == null)
+		{
+			output.writeByte(ABSENT);
+			return;
+		}
+		
+		output.writeByte(PRESENT);
+		writeEnum(output, workBreak.getBreakType());
+		writeTime(output, workBreak.getStartTime());
+		writeTime(output, workBreak.getEndTime());
+	}
+	
+	private Break readBreak(ByteBuffer input)
+	{
+		if (input.get() == ABSENT)
+		{
+			return null;
+		}
+		
+		Break workBreak = new Break(readEnum(input, BreakType.values()), readTime(input));
+		workBreak.setEndTime(readTime(input));
+		
+		return workBreak;
+	}
+	
+	//endregion
+	
+	//region values
+	
+	private void writeTime(DataOutputStream output, LocalDateTime time) throws IOException
+	{
+		if (time == null)
+		{
+			output.writeLong(NO_TIME);
+			return;
+		}
+		
+		output.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+		output.writeInt(time.getNano());
+	}
+	
+	private LocalDateTime readTime(ByteBuffer input)
+	{
+		long epochSecond = input.getLong();
+		
+		return epochSecond != NO_TIME ? LocalDateTime.ofEpochSecond(epochSecond, input.getInt(), ZoneOffset.UTC) : null;
+	}
+	
+	private void writeString(DataOutputStream output, String value) throws IOException
+	{
+		output.writeByte(value != null ? PRESENT : ABSENT);
+		if (value != null)
+		{
+			writeUtf8(output, value);
+		}
+	}
+	
+	private String readString(ByteBuffer input)
+	{
+		return input.get() != ABSENT ? readUtf8(input) : null;
+	}
+	
+	private void writeEnum(DataOutputStream output, Enum<?> value) throws IOException
+	{
+		output.writeByte(value != null ? value.ordinal() : ABSENT);
+	}
+	
+	private <E extends Enum<E>> E readEnum(ByteBuffer input, E[] values)
+	{
+		byte ordinal = input.get();
+		
+		return ordinal != ABSENT ? values[ordinal] : null;
+	}
+	
+	// Plain UTF-8 behind its length in bytes, so strings can be decoded straight out of a buffer
+	private void writeUtf8(DataOutputStream output, String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+	
+	private String readUtf8(ByteBuffer input)
+	{
+		int length = input.getInt();
+		ByteBuffer bytes = input.slice();
+		// Called through Buffer, as ByteBuffer only overrides these from Java 9 and this still has to run on Java 8
+		((Buffer) bytes).limit(length);
+		((Buffer) input).position(input.position() + length);
+		
+		return StandardCharsets.UTF_8.decode(bytes).toString();
+	}
+	
+	private <T> void readList(ByteBuffer input, List<T> list, Reader<T> reader)
+	{
+		int size = input.getInt();
+		
+		for (int i = 0; i < size; i++)
+		{
+			list.add(reader.read(input));
+		}
+	}
+	
+	private interface Reader<T>
+	{
+		T read(ByteBuffer input);
+	}
+	
+	//endregion
+}
\ No newline at end of file
@@ -0,0 +1,175 @@
+package com.hawkins.simpletimeclock.repository;
+
+// Users' ordinals ordered by a count of theirs, highest first, with ties in user ID order. Kept as a treap whose nodes know how many
+// nodes are under them, so the users at or above a count, or the first few, are found without looking at anyone else.
+// Never modified once built: adding or removing a user copies only the nodes on their path.
+public final class CountIndex
+{
+	private static final CountIndex EMPTY = new CountIndex(null);
+	
+	private final Node root;
+	
+	private CountIndex(Node root)
+	{
+		this.root = root;
+	}
+	
+	public static CountIndex empty()
+	{
+		return EMPTY;
+	}
+	
+	public int size()
+	{
+		return size(root);
+	}
+	
+	// Returns an index that also holds the user at the given count, leaving this one as it is. They must not already be held.
+	public CountIndex with(String userId, int ordinal, int count)
+	{
+		Node[] split = split(root, count, userId);
+		return new CountIndex(merge(merge(split[0], new Node(count, userId, ordinal, null, null)), split[1]));
+	}
+	
+	// Returns an index without the user, who must be held at the given count, leaving this one as it is
+	public CountIndex without(String userId, int count)
+	{
+		Node[] split = split(root, count, userId);
+		Node[] rest = split(split[1], count, userId + '\0');
+		return size(rest[0]) == 0 ? this : new CountIndex(merge(split[0], rest[1]));
+	}
+	
+	// Those at or above the threshold come before everyone else, so this is the position of the first one below it
+	public int countAtLeast(int threshold)
+	{
+		int found = 0;
+		Node node = root;
+		
+		while (node != null)
+		{
+			if (node.count >= threshold)
+			{
+				found += size(node.left) + 1;
+				node = node.right;
+			} else
+			{
+				node = node.left;
+			}
+		}
+		return found;
+	}
+	
+	public RoaringBitmap atLeast(int threshold)
+	{
+		return RoaringBitmap.of(first(countAtLeast(threshold)));
+	}
+	
+	// The ordinals of the users with the highest counts, highest first
+	public int[] first(int limit)
+	{
+		int[] ordinals = new int[Math.max(0, Math.min(limit, size()))];
+		collect(root, ordinals, 0);
+		return ordinals;
+	}
+	
+	// Fills in the node's part of the ordinals from the given position, stopping once they are full. Returns the next position.
+	private static int collect(Node node, int[] ordinals, int position)
+	{
+		if (node == null || position == ordinals.length)
+		{
+			return position;
+		}
+		
+		position = collect(node.left, ordinals, position);
+		if (position < ordinals.length)
+		{
+			ordinals[position++] = node.ordinal;
+		}
+		return collect(node.right, ordinals, position);
+	}
+	
+	// Parts the nodes into those ordered before the given count and user ID and the rest
+	private static Node[] split(Node node, int count, String userId)
+	{
+		if (node == null)
+		{
+			return new Node[2];
+		}
+		
+		if (node.isBefore(count, userId))
+		{
+			Node[] split = split(node.right, count, userId);
+			return new Node[]{node.withChildren(node.left, split[0]), split[1]};
+		}
+		
+		Node[] split = split(node.left, count, userId);
+		return new Node[]{split[0], node.withChildren(split[1], node.right)};
+	}
+	
+	// Every node in first must be ordered before every node in second
+	private static Node merge(Node first, Node second)
+	{
+		if (first == null)
+		{
+			return second;
+		}
+		if (second == null)
+		{
+			return first;
+		}
+		
+		if (first.priority >= second.priority)
+		{
+			return first.withChildren(first.left, merge(first.right, second));
+		}
+		return second.withChildren(merge(first, second.left), second.right);
+	}
+	
+	private static int size(Node node)
+	{
+		return node != null ? node.size : 0;
+	}
+	
+	private static final class Node
+	{
+		private final int count;
+		private final String userId;
+		private final int ordinal;
+		// Taken from the user ID so that the same users always make the same shape, whatever order they came in
+		private final int priority;
+		private final Node left;
+		private final Node right;
+		private final int size;
+		
+		private Node(int count, String userId, int ordinal, Node left, Node right)
+		{
+			this.count = count;
+			this.userId = userId;
+			this.ordinal = ordinal;
+			this.priority = mix(userId.hashCode());
+			this.left = left;
+			this.right = right;
+			this.size = size(left) + size(right) + 1;
+		}
+		
+		private Node withChildren(Node left, Node right)
+		{
+			return left == this.left && right == this.right ? this : new Node(count, userId, ordinal, left, right);
+		}
+		
+		private boolean isBefore(int count, String userId)
+		{
+			return this.count != count ? this.count > count : this.userId.compareTo(userId) < 0;
+		}
+		
+		// Spreads similar user IDs' hash codes apart, as neighbouring IDs would otherwise make the treap a list
+		private static int mix(int hash)
+		{
+			hash ^= hash >>> 16;
+			hash *= 0x85ebca6b;
+			hash ^= hash >>> 13;
+			hash *= 0xc2b2ae35;
+			return hash ^ (hash >>> 16);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.hawkins.simpletimeclock.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// User ids bucketed by the day something of theirs started on, so that a report over a range of days only looks at the users
+// with anything in it. Ids are only ever added, so a bucket may still name a user who has since lost what put them there;
+// each one found has to be checked against their own history.
+public class DayIndex
+{
+	private final ConcurrentSkipListMap<Long, Set<String>> userIdsByDay = new ConcurrentSkipListMap<>();
+	
+	public void add(String userId, LocalDateTime startTime)
+	{
+		if (startTime != null)
+		{
+			userIdsByDay.computeIfAbsent(dayOf(startTime), day -> ConcurrentHashMap.newKeySet()).add(userId);
+		}
+	}
+	
+	// Users with anything starting on the days from the one after falls on to the one before falls on, either of which may be left out
+	public Set<String> findUserIds(LocalDateTime after, LocalDateTime before)
+	{
+		Set<String> userIds = new HashSet<>();
+		for (Set<String> bucket : findUserIdsByDay(after, before).values())
+		{
+			userIds.addAll(bucket);
+		}
+		return userIds;
+	}
+	
+	// As findUserIds, but by day in order and without collecting them: a view of the days, each with the users who had anything
+	// start on it, so a user with anything on more than one of the days is in each of them
+	public NavigableMap<Long, Set<String>> findUserIdsByDay(LocalDateTime after, LocalDateTime before)
+	{
+		long firstDay = after != null ? dayOf(after) : Long.MIN_VALUE;
+		long lastDay = before != null ? dayOf(before) : Long.MAX_VALUE;
+		
+		if (firstDay > lastDay)
+		{
+			return Collections.emptyNavigableMap();
+		}
+		return userIdsByDay.subMap(firstDay, true, lastDay, true);
+	}
+	
+	// At least as many as findUserIds would find, without collecting them. Users in more than one of the days are counted for each.
+	public int estimateUserIds(LocalDateTime after, LocalDateTime before)
+	{
+		long estimate = 0;
+		for (Set<String> bucket : findUserIdsByDay(after, before).values())
+		{
+			estimate += bucket.size();
+		}
+		return (int) Math.min(estimate, Integer.MAX_VALUE);
+	}
+	
+	public void clear()
+	{
+		userIdsByDay.clear();
+	}
+	
+	public static long dayOf(LocalDateTime time)
+	{
+		return time.toLocalDate().toEpochDay();
+	}
+}
\ No newline at end of file
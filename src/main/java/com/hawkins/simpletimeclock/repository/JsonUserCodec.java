@@ -0,0 +1,52 @@
+package com.hawkins.simpletimeclock.repository;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.enums.DatabaseFormat;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+// Pretty-printed so the database can be read and edited by hand
+@Component
+public class JsonUserCodec implements UserCodec
+{
+	private final ObjectMapper objectMapper;
+	
+	public JsonUserCodec(ObjectMapper objectMapper)
+	{
+		this.objectMapper = objectMapper;
+	}
+	
+	@Override
+	public DatabaseFormat getFormat()
+	{
+		return DatabaseFormat.Json;
+	}
+	
+	@Override
+	public String getFileExtension()
+	{
+		return "json";
+	}
+	
+	@Override
+	public void write(Map<String, User> users, OutputStream outputStream) throws IOException
+	{
+		objectMapper.writerWithDefaultPrettyPrinter()
+				.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+				.writeValue(outputStream, users);
+	}
+	
+	@Override
+	public Map<String, User> read(ByteBuffer buffer) throws IOException
+	{
+		return objectMapper.readValue(new ByteBufferBackedInputStream(buffer.duplicate()), new TypeReference<Map<String, User>>() {});
+	}
+}
\ No newline at end of file
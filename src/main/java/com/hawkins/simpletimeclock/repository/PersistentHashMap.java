@@ -0,0 +1,442 @@
+package com.hawkins.simpletimeclock.repository;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Immutable map stored as a hash array mapped trie. Each level of the trie takes five more bits of a key's hash to pick one of up
+// to 32 children, and only keeps slots for the children that exist. Adding or removing a key copies the nodes on its path and
+// shares everything else with the map it came from, so every version stays valid and taking one costs nothing.
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V>
+{
+	private static final int BITS_PER_LEVEL = 5;
+	private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+	// Seven levels use up all 32 bits of a hash, plus one for keys whose hashes are equal
+	private static final int MAX_DEPTH = 8;
+	private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+	
+	private final Node root;
+	private final int size;
+	
+	private PersistentHashMap(Node root, int size)
+	{
+		this.root = root;
+		this.size = size;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public static <K, V> PersistentHashMap<K, V> empty()
+	{
+		return (PersistentHashMap<K, V>) EMPTY;
+	}
+	
+	public static <K, V> PersistentHashMap<K, V> copyOf(Map<? extends K, ? extends V> map)
+	{
+		PersistentHashMap<K, V> copy = empty();
+		for (Map.Entry<? extends K, ? extends V> entry : map.entrySet())
+		{
+			copy = copy.with(entry.getKey(), entry.getValue());
+		}
+		return copy;
+	}
+	
+	@Override
+	public int size()
+	{
+		return size;
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key)
+	{
+		Leaf leaf = find(key);
+		return leaf != null ? (V) leaf.getValue() : null;
+	}
+	
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return find(key) != null;
+	}
+	
+	// Returns a map that also holds the given key, leaving this one as it is
+	public PersistentHashMap<K, V> with(K key, V value)
+	{
+		Leaf leaf = new Leaf(hash(key), key, value);
+		
+		if (root == null)
+		{
+			return new PersistentHashMap<>(leaf, 1);
+		}
+		
+		return new PersistentHashMap<>(root.with(leaf, 0), containsKey(key) ? size : size + 1);
+	}
+	
+	// Returns a map without the given key, leaving this one as it is
+	public PersistentHashMap<K, V> without(Object key)
+	{
+		if (!containsKey(key))
+		{
+			return this;
+		}
+		
+		return new PersistentHashMap<>(root.without(hash(key), key, 0), size - 1);
+	}
+	
+	@Override
+	public Set<Map.Entry<K, V>> entrySet()
+	{
+		return new AbstractSet<Map.Entry<K, V>>()
+		{
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator()
+			{
+				return new EntryIterator<>(root);
+			}
+			
+			@Override
+			public int size()
+			{
+				return size;
+			}
+		};
+	}
+	
+	private Leaf find(Object key)
+	{
+		return root != null ? root.find(hash(key), key, 0) : null;
+	}
+	
+	// Spreads the high bits down as HashMap does, so that keys differing only there still part at the first levels
+	private static int hash(Object key)
+	{
+		int hash = key.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+	
+	private static int bit(int hash, int shift)
+	{
+		return 1 << ((hash >>> shift) & LEVEL_MASK);
+	}
+	
+	private interface Node
+	{
+		Leaf find(int hash, Object key, int shift);
+		
+		Node with(Leaf leaf, int shift);
+		
+		// Returns null once nothing is left in the node
+		Node without(int hash, Object key, int shift);
+		
+		// Null for a leaf, which has no children
+		Node[] children();
+	}
+	
+	private static final class Leaf extends AbstractMap.SimpleImmutableEntry<Object, Object> implements Node
+	{
+		private final int hash;
+		
+		private Leaf(int hash, Object key, Object value)
+		{
+			super(key, value);
+			this.hash = hash;
+		}
+		
+		@Override
+		public Leaf find(int hash, Object key, int shift)
+		{
+			return this.hash == hash && getKey().equals(key) ? this : null;
+		}
+		
+		@Override
+		public Node with(Leaf leaf, int shift)
+		{
+			if (leaf.hash != hash)
+			{
+				return BitmapNode.pair(hash, this, leaf.hash, leaf, shift);
+			}
+			if (getKey().equals(leaf.getKey()))
+			{
+				return leaf;
+			}
+			return new CollisionNode(hash, new Leaf[]{this, leaf});
+		}
+		
+		@Override
+		public Node without(int hash, Object key, int shift)
+		{
+			return find(hash, key, shift) != null ? null : this;
+		}
+		
+		@Override
+		public Node[] children()
+		{
+			return null;
+		}
+	}
+	
+	// Holds a slot for each of the 32 possible children that exists, in the order of the bits set in the bitmap
+	private static final class BitmapNode implements Node
+	{
+		private final int bitmap;
+		private final Node[] children;
+		
+		private BitmapNode(int bitmap, Node[] children)
+		{
+			this.bitmap = bitmap;
+			this.children = children;
+		}
+		
+		// Builds the path down to the first level where the two hashes part
+		private static Node pair(int firstHash, Node first, int secondHash, Node second, int shift)
+		{
+			int firstBit = bit(firstHash, shift);
+			int secondBit = bit(secondHash, shift);
+			
+			if (firstBit == secondBit)
+			{
+				return new BitmapNode(firstBit, new Node[]{pair(firstHash, first, secondHash, second, shift + BITS_PER_LEVEL)});
+			}
+			return new BitmapNode(firstBit | secondBit, Integer.compareUnsigned(firstBit, secondBit) < 0
+														? new Node[]{first, second}
+														: new Node[]{second, first});
+		}
+		
+		@Override
+		public Leaf find(int hash, Object key, int shift)
+		{
+			int bit = bit(hash, shift);
+			
+			if ((bitmap & bit) == 0)
+			{
+				return null;
+			}
+			return children[index(bit)].find(hash, key, shift + BITS_PER_LEVEL);
+		}
+		
+		@Override
+		public Node with(Leaf leaf, int shift)
+		{
+			int bit = bit(leaf.hash, shift);
+			int index = index(bit);
+			
+			if ((bitmap & bit) == 0)
+			{
+				Node[] added = new Node[children.length + 1];
+				System.arraycopy(children, 0, added, 0, index);
+				added[index] = leaf;
+				System.arraycopy(children, index, added, index + 1, children.length - index);
+				return new BitmapNode(bitmap | bit, added);
+			}
+			
+			Node[] replaced = children.clone();
+			replaced[index] = children[index].with(leaf, shift + BITS_PER_LEVEL);
+			return new BitmapNode(bitmap, replaced);
+		}
+		
+		@Override
+		public Node without(int hash, Object key, int shift)
+		{
+			int bit = bit(hash, shift);
+			
+			if ((bitmap & bit) == 0)
+			{
+				return this;
+			}
+			
+			int index = index(bit);
+			Node child = children[index];
+			Node remaining = child.without(hash, key, shift + BITS_PER_LEVEL);
+			
+			if (remaining == child)
+			{
+				return this;
+			}
+			if (remaining != null)
+			{
+				// A lone leaf or collision node needs no node above it, as it is matched on its whole hash
+				if (children.length == 1 && !(remaining instanceof BitmapNode))
+				{
+					return remaining;
+				}
+				Node[] replaced = children.clone();
+				replaced[index] = remaining;
+				return new BitmapNode(bitmap, replaced);
+			}
+			if (children.length == 1)
+			{
+				return null;
+			}
+			if (children.length == 2 && !(children[1 - index] instanceof BitmapNode))
+			{
+				return children[1 - index];
+			}
+			
+			Node[] removed = new Node[children.length - 1];
+			System.arraycopy(children, 0, removed, 0, index);
+			System.arraycopy(children, index + 1, removed, index, children.length - index - 1);
+			return new BitmapNode(bitmap & ~bit, removed);
+		}
+		
+		@Override
+		public Node[] children()
+		{
+			return children;
+		}
+		
+		private int index(int bit)
+		{
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+	}
+	
+	// Keys whose whole hashes are equal, which no number of levels can tell apart
+	private static final class CollisionNode implements Node
+	{
+		private final int hash;
+		private final Leaf[] leaves;
+		
+		private CollisionNode(int hash, Leaf[] leaves)
+		{
+			this.hash = hash;
+			this.leaves = leaves;
+		}
+		
+		@Override
+		public Leaf find(int hash, Object key, int shift)
+		{
+			int index = indexOf(hash, key);
+			return index >= 0 ? leaves[index] : null;
+		}
+		
+		@Override
+		public Node with(Leaf leaf, int shift)
+		{
+			if (leaf.hash != hash)
+			{
+				return BitmapNode.pair(hash, this, leaf.hash, leaf, shift);
+			}
+			
+			int index = indexOf(leaf.hash, leaf.getKey());
+			Leaf[] changed = index >= 0 ? leaves.clone() : Arrays.copyOf(leaves, leaves.length + 1);
+			changed[index >= 0 ? index : leaves.length] = leaf;
+			return new CollisionNode(hash, changed);
+		}
+		
+		@Override
+		public Node without(int hash, Object key, int shift)
+		{
+			int index = indexOf(hash, key);
+			
+			if (index < 0)
+			{
+				return this;
+			}
+			if (leaves.length == 2)
+			{
+				return leaves[1 - index];
+			}
+			
+			Leaf[] removed = new Leaf[leaves.length - 1];
+			System.arraycopy(leaves, 0, removed, 0, index);
+			System.arraycopy(leaves, index + 1, removed, index, leaves.length - index - 1);
+			return new CollisionNode(this.hash, removed);
+		}
+		
+		@Override
+		public Node[] children()
+		{
+			return leaves;
+		}
+		
+		private int indexOf(int hash, Object key)
+		{
+			if (hash != this.hash)
+			{
+				return -1;
+			}
+			for (int i = 0; i < leaves.length; i++)
+			{
+				if (leaves[i].getKey().equals(key))
+				{
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+	
+	// Walks the trie depth first, keeping the position reached in each node on the way down
+	private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>>
+	{
+		private final Node[][] path = new Node[MAX_DEPTH][];
+		private final int[] positions = new int[MAX_DEPTH];
+		private int depth = -1;
+		private Leaf next;
+		
+		private EntryIterator(Node root)
+		{
+			if (root instanceof Leaf)
+			{
+				next = (Leaf) root;
+			} else if (root != null)
+			{
+				descend(root);
+				advance();
+			}
+		}
+		
+		@Override
+		public boolean hasNext()
+		{
+			return next != null;
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		public Map.Entry<K, V> next()
+		{
+			if (next == null)
+			{
+				throw new NoSuchElementException();
+			}
+			
+			Leaf current = next;
+			advance();
+			return (Map.Entry<K, V>) (Map.Entry<?, ?>) current;
+		}
+		
+		private void advance()
+		{
+			while (depth >= 0)
+			{
+				if (positions[depth] == path[depth].length)
+				{
+					depth--;
+					continue;
+				}
+				
+				Node node = path[depth][positions[depth]++];
+				if (node instanceof Leaf)
+				{
+					next = (Leaf) node;
+					return;
+				}
+				descend(node);
+			}
+			next = null;
+		}
+		
+		private void descend(Node node)
+		{
+			depth++;
+			path[depth] = node.children();
+			positions[depth] = 0;
+		}
+	}
+}
\ No newline at end of file
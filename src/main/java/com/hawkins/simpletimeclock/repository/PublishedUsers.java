@@ -0,0 +1,234 @@
+package com.hawkins.simpletimeclock.repository;
+
+import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.enums.Role;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// Every stored user, along with bitmaps of who has each role and who is currently on shift, on break and on lunch,
+// and everyone ordered by how many shifts and breaks they have recorded. Each user is given the next ordinal the first time
+// they are published, which is what the bitmaps and orders hold. Replaced as a whole on each change, so they always agree
+// with the users they were published with. Each replacement has the next version, so a version names a single set of users,
+// and each user keeps the version they were last replaced in.
+public final class PublishedUsers
+{
+	private static final PublishedUsers EMPTY = new PublishedUsers(PersistentHashMap.empty(), PersistentHashMap.empty(), PersistentHashMap.empty(),
+																	PersistentHashMap.empty(), 0,
+																	emptyRoles(), RoaringBitmap.empty(), RoaringBitmap.empty(), RoaringBitmap.empty(),
+																	CountIndex.empty(), CountIndex.empty(), 0);
+	
+	private final PersistentHashMap<String, User> users;
+	private final PersistentHashMap<String, Integer> ordinals;
+	private final PersistentHashMap<Integer, User> usersByOrdinal;
+	private final PersistentHashMap<String, Long> versions;
+	private final int nextOrdinal;
+	private final RoaringBitmap[] roles;
+	private final RoaringBitmap onShift;
+	private final RoaringBitmap onBreak;
+	private final RoaringBitmap onLunch;
+	private final CountIndex shiftCounts;
+	private final CountIndex breakCounts;
+	private final long version;
+	
+	private PublishedUsers(PersistentHashMap<String, User> users, PersistentHashMap<String, Integer> ordinals, PersistentHashMap<Integer, User> usersByOrdinal,
+						   PersistentHashMap<String, Long> versions, int nextOrdinal, RoaringBitmap[] roles, RoaringBitmap onShift, RoaringBitmap onBreak, RoaringBitmap onLunch,
+						   CountIndex shiftCounts, CountIndex breakCounts, long version)
+	{
+		this.users = users;
+		this.ordinals = ordinals;
+		this.usersByOrdinal = usersByOrdinal;
+		this.versions = versions;
+		this.nextOrdinal = nextOrdinal;
+		this.roles = roles;
+		this.onShift = onShift;
+		this.onBreak = onBreak;
+		this.onLunch = onLunch;
+		this.shiftCounts = shiftCounts;
+		this.breakCounts = breakCounts;
+		this.version = version;
+	}
+	
+	public static PublishedUsers empty()
+	{
+		return EMPTY;
+	}
+	
+	public static PublishedUsers copyOf(Map<String, User> users)
+	{
+		PublishedUsers copy = EMPTY;
+		for (Map.Entry<String, User> entry : users.entrySet())
+		{
+			copy = copy.with(entry.getKey(), entry.getValue());
+		}
+		return copy;
+	}
+	
+	public User get(String userId)
+	{
+		return users.get(userId);
+	}
+	
+	// Returns users that also hold the given user, leaving these as they are
+	public PublishedUsers with(String userId, User user)
+	{
+		Integer ordinal = ordinals.get(userId);
+		boolean isNew = ordinal == null;
+		if (isNew)
+		{
+			ordinal = nextOrdinal;
+		}
+		User previous = users.get(userId);
+		
+		return new PublishedUsers(users.with(userId, user),
+								  isNew ? ordinals.with(userId, ordinal) : ordinals,
+								  usersByOrdinal.with(ordinal, user),
+								  versions.with(userId, version + 1),
+								  isNew ? nextOrdinal + 1 : nextOrdinal,
+								  withRole(ordinal, user.getRole()),
+								  onShift.with(ordinal, user.getCurrentWorkShift() != null),
+								  onBreak.with(ordinal, user.getCurrentBreak() != null),
+								  onLunch.with(ordinal, user.getCurrentLunchBreak() != null),
+								  withCount(shiftCounts, userId, ordinal, previous != null ? previous.getPriorWorkShifts().size() : null,
+											user.getPriorWorkShifts().size()),
+								  withCount(breakCounts, userId, ordinal, previous != null ? previous.getPriorBreaks().size() : null, user.getPriorBreaks().size()),
+								  version + 1);
+	}
+	
+	// Returns users without the given user, leaving these as they are. Their ordinal is not given out again.
+	public PublishedUsers without(String userId)
+	{
+		Integer ordinal = ordinals.get(userId);
+		
+		if (ordinal == null)
+		{
+			return this;
+		}
+		
+		User previous = users.get(userId);
+		return new PublishedUsers(users.without(userId), ordinals.without(userId), usersByOrdinal.without(ordinal), versions.without(userId), nextOrdinal,
+								  withRole(ordinal, null), onShift.without(ordinal), onBreak.without(ordinal), onLunch.without(ordinal),
+								  shiftCounts.without(userId, previous.getPriorWorkShifts().size()), breakCounts.without(userId, previous.getPriorBreaks().size()),
+								  version + 1);
+	}
+	
+	public PersistentHashMap<String, User> getUsers()
+	{
+		return users;
+	}
+	
+	public RoaringBitmap getRole(Role role)
+	{
+		return roles[role.ordinal()];
+	}
+	
+	public RoaringBitmap getOnShift()
+	{
+		return onShift;
+	}
+	
+	public RoaringBitmap getOnBreak()
+	{
+		return onBreak;
+	}
+	
+	public RoaringBitmap getOnLunch()
+	{
+		return onLunch;
+	}
+	
+	public CountIndex getShiftCounts()
+	{
+		return shiftCounts;
+	}
+	
+	public CountIndex getBreakCounts()
+	{
+		return breakCounts;
+	}
+	
+	public long getVersion()
+	{
+		return version;
+	}
+	
+	// The version the user was last replaced in, or null when they are not held
+	public Long getVersion(String userId)
+	{
+		return versions.get(userId);
+	}
+	
+	public Map<String, User> usersIn(RoaringBitmap bitmap)
+	{
+		Map<String, User> found = new HashMap<>(bitmap.cardinality() * 4 / 3 + 1);
+		bitmap.forEach(ordinal -> {
+			User user = usersByOrdinal.get(ordinal);
+			found.put(user.getUserId(), user);
+		});
+		return found;
+	}
+	
+	// As usersIn, but each user is only looked up once the stream reaches them
+	public Stream<User> streamUsersIn(RoaringBitmap bitmap)
+	{
+		return bitmap.stream().mapToObj(usersByOrdinal::get);
+	}
+	
+	public Set<String> userIdsIn(RoaringBitmap bitmap)
+	{
+		Set<String> found = new HashSet<>(bitmap.cardinality() * 4 / 3 + 1);
+		bitmap.forEach(ordinal -> found.add(usersByOrdinal.get(ordinal).getUserId()));
+		return found;
+	}
+	
+	public List<User> usersAt(int[] ordinals)
+	{
+		List<User> found = new ArrayList<>(ordinals.length);
+		for (int ordinal : ordinals)
+		{
+			found.add(usersByOrdinal.get(ordinal));
+		}
+		return found;
+	}
+	
+	// Only moves the user when their count has changed
+	private static CountIndex withCount(CountIndex counts, String userId, int ordinal, Integer previousCount, int count)
+	{
+		if (previousCount == null)
+		{
+			return counts.with(userId, ordinal, count);
+		}
+		return previousCount != count ? counts.without(userId, previousCount).with(userId, ordinal, count) : counts;
+	}
+	
+	// Only copies the roles when the user's role has changed
+	private RoaringBitmap[] withRole(int ordinal, Role role)
+	{
+		RoaringBitmap[] changed = roles;
+		for (Role each : Role.values())
+		{
+			RoaringBitmap bitmap = roles[each.ordinal()].with(ordinal, each == role);
+			if (bitmap != roles[each.ordinal()])
+			{
+				changed = changed == roles ? roles.clone() : changed;
+				changed[each.ordinal()] = bitmap;
+			}
+		}
+		return changed;
+	}
+	
+	private static RoaringBitmap[] emptyRoles()
+	{
+		RoaringBitmap[] roles = new RoaringBitmap[Role.values().length];
+		for (Role role : Role.values())
+		{
+			roles[role.ordinal()] = RoaringBitmap.empty();
+		}
+		return roles;
+	}
+}
\ No newline at end of file
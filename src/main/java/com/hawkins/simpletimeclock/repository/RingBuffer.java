@@ -0,0 +1,73 @@
+package com.hawkins.simpletimeclock.repository;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded queue for many producers and a single consumer that never locks. Each slot carries a sequence number saying whose turn
+// it is: producers claim positions with a CAS and hand a slot over by moving its sequence on, and the consumer hands it back the same way.
+public class RingBuffer<T>
+{
+	private final Object[] slots;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong nextClaim = new AtomicLong();
+	// Only ever touched by the consumer
+	private long nextPoll;
+	
+	public RingBuffer(int capacity)
+	{
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+		{
+			throw new IllegalArgumentException("Ring buffer capacity must be a power of two.");
+		}
+		
+		this.slots = new Object[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		this.mask = capacity - 1;
+		for (int i = 0; i < capacity; i++)
+		{
+			sequences.set(i, i);
+		}
+	}
+	
+	// Returns false without waiting when every slot is still waiting to be polled
+	public boolean offer(T value)
+	{
+		while (true)
+		{
+			long position = nextClaim.get();
+			int index = (int) position & mask;
+			long sequence = sequences.get(index);
+			
+			if (sequence < position)
+			{
+				return false;
+			}
+			if (sequence == position && nextClaim.compareAndSet(position, position + 1))
+			{
+				slots[index] = value;
+				sequences.set(index, position + 1);
+				return true;
+			}
+		}
+	}
+	
+	// Returns null when nothing has been published yet
+	@SuppressWarnings("unchecked")
+	public T poll()
+	{
+		int index = (int) nextPoll & mask;
+		
+		if (sequences.get(index) != nextPoll + 1)
+		{
+			return null;
+		}
+		
+		T value = (T) slots[index];
+		slots[index] = null;
+		sequences.set(index, nextPoll + slots.length);
+		nextPoll++;
+		
+		return value;
+	}
+}
\ No newline at end of file
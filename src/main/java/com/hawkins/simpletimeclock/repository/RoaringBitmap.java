@@ -0,0 +1,551 @@
+package com.hawkins.simpletimeclock.repository;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+// Set of non-negative ints, split by their high 16 bits into containers of up to 65536 values each. As in Roaring bitmaps,
+// a container with few values keeps them as a sorted array and one with many as a plain bitmap, whichever is smaller.
+// Never modified once built: adding or removing a value copies only the container it falls in.
+public final class RoaringBitmap
+{
+	// Past this many values an array takes more room than the 8KB a bitmap always does
+	private static final int MAX_ARRAY_SIZE = 4096;
+	private static final int WORDS_PER_BITMAP = 1024;
+	private static final RoaringBitmap EMPTY = new RoaringBitmap(new char[0], new Container[0]);
+	
+	private final char[] keys;
+	private final Container[] containers;
+	private final int cardinality;
+	
+	private RoaringBitmap(char[] keys, Container[] containers)
+	{
+		this.keys = keys;
+		this.containers = containers;
+		
+		int cardinality = 0;
+		for (Container container : containers)
+		{
+			cardinality += container.cardinality();
+		}
+		this.cardinality = cardinality;
+	}
+	
+	public static RoaringBitmap empty()
+	{
+		return EMPTY;
+	}
+	
+	// Builds each container once from the sorted values, rather than copying it for every value added
+	public static RoaringBitmap of(int... values)
+	{
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		
+		if (sorted.length > 0 && sorted[0] < 0)
+		{
+			throw new IllegalArgumentException("Only non-negative values can be held");
+		}
+		
+		char[] keys = new char[sorted.length];
+		Container[] containers = new Container[sorted.length];
+		int size = 0;
+		
+		for (int start = 0, end; start < sorted.length; start = end)
+		{
+			end = start;
+			while (end < sorted.length && high(sorted[end]) == high(sorted[start]))
+			{
+				end++;
+			}
+			keys[size] = high(sorted[start]);
+			containers[size++] = containerOf(sorted, start, end);
+		}
+		
+		return size == 0 ? EMPTY : new RoaringBitmap(Arrays.copyOf(keys, size), Arrays.copyOf(containers, size));
+	}
+	
+	public int cardinality()
+	{
+		return cardinality;
+	}
+	
+	public boolean isEmpty()
+	{
+		return cardinality == 0;
+	}
+	
+	public boolean contains(int value)
+	{
+		int index = Arrays.binarySearch(keys, high(value));
+		return index >= 0 && containers[index].contains(low(value));
+	}
+	
+	// Returns a bitmap that also holds the given value, leaving this one as it is
+	public RoaringBitmap with(int value)
+	{
+		if (value < 0)
+		{
+			throw new IllegalArgumentException("Only non-negative values can be held");
+		}
+		
+		int index = Arrays.binarySearch(keys, high(value));
+		
+		if (index < 0)
+		{
+			int insertAt = -index - 1;
+			char[] addedKeys = new char[keys.length + 1];
+			Container[] addedContainers = new Container[containers.length + 1];
+			System.arraycopy(keys, 0, addedKeys, 0, insertAt);
+			System.arraycopy(containers, 0, addedContainers, 0, insertAt);
+			addedKeys[insertAt] = high(value);
+			addedContainers[insertAt] = new ArrayContainer(new char[]{low(value)});
+			System.arraycopy(keys, insertAt, addedKeys, insertAt + 1, keys.length - insertAt);
+			System.arraycopy(containers, insertAt, addedContainers, insertAt + 1, containers.length - insertAt);
+			return new RoaringBitmap(addedKeys, addedContainers);
+		}
+		
+		Container changed = containers[index].with(low(value));
+		return changed == containers[index] ? this : replace(index, changed);
+	}
+	
+	// Returns a bitmap without the given value, leaving this one as it is
+	public RoaringBitmap without(int value)
+	{
+		int index = Arrays.binarySearch(keys, high(value));
+		
+		if (index < 0)
+		{
+			return this;
+		}
+		
+		Container changed = containers[index].without(low(value));
+		return changed == containers[index] ? this : replace(index, changed);
+	}
+	
+	// Returns the bitmap holding the given value when the condition holds, and one without it otherwise
+	public RoaringBitmap with(int value, boolean condition)
+	{
+		return condition ? with(value) : without(value);
+	}
+	
+	// Only containers under keys both bitmaps share can hold anything in common
+	public RoaringBitmap and(RoaringBitmap other)
+	{
+		char[] andKeys = new char[Math.min(keys.length, other.keys.length)];
+		Container[] andContainers = new Container[andKeys.length];
+		int size = 0;
+		
+		for (int i = 0, j = 0; i < keys.length && j < other.keys.length; )
+		{
+			if (keys[i] < other.keys[j])
+			{
+				i++;
+			} else if (keys[i] > other.keys[j])
+			{
+				j++;
+			} else
+			{
+				Container container = containers[i].and(other.containers[j]);
+				if (container != null)
+				{
+					andKeys[size] = keys[i];
+					andContainers[size++] = container;
+				}
+				i++;
+				j++;
+			}
+		}
+		
+		return size == 0 ? EMPTY : new RoaringBitmap(Arrays.copyOf(andKeys, size), Arrays.copyOf(andContainers, size));
+	}
+	
+	// Values are given in ascending order
+	public void forEach(IntConsumer action)
+	{
+		for (int i = 0; i < keys.length; i++)
+		{
+			containers[i].forEach(keys[i] << 16, action);
+		}
+	}
+	
+	// As forEach, but each value is only found once the stream reaches it
+	public IntStream stream()
+	{
+		return StreamSupport.intStream(Spliterators.spliterator(iterator(), cardinality, Spliterator.ORDERED | Spliterator.DISTINCT), false);
+	}
+	
+	public PrimitiveIterator.OfInt iterator()
+	{
+		return new PrimitiveIterator.OfInt()
+		{
+			private int index = -1;
+			private PrimitiveIterator.OfInt values;
+			
+			@Override
+			public boolean hasNext()
+			{
+				while ((values == null || !values.hasNext()) && index + 1 < keys.length)
+				{
+					index++;
+					values = containers[index].iterator(keys[index] << 16);
+				}
+				return values != null && values.hasNext();
+			}
+			
+			@Override
+			public int nextInt()
+			{
+				if (!hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				return values.nextInt();
+			}
+		};
+	}
+	
+	public int[] toArray()
+	{
+		int[] values = new int[cardinality];
+		int[] position = {0};
+		forEach(value -> values[position[0]++] = value);
+		return values;
+	}
+	
+	private RoaringBitmap replace(int index, Container changed)
+	{
+		if (changed != null)
+		{
+			Container[] replaced = containers.clone();
+			replaced[index] = changed;
+			return new RoaringBitmap(keys, replaced);
+		}
+		if (containers.length == 1)
+		{
+			return EMPTY;
+		}
+		
+		char[] removedKeys = new char[keys.length - 1];
+		Container[] removedContainers = new Container[containers.length - 1];
+		System.arraycopy(keys, 0, removedKeys, 0, index);
+		System.arraycopy(containers, 0, removedContainers, 0, index);
+		System.arraycopy(keys, index + 1, removedKeys, index, keys.length - index - 1);
+		System.arraycopy(containers, index + 1, removedContainers, index, containers.length - index - 1);
+		return new RoaringBitmap(removedKeys, removedContainers);
+	}
+	
+	// The values between start and end all share the same high bits, but may repeat
+	private static Container containerOf(int[] sorted, int start, int end)
+	{
+		char[] values = new char[end - start];
+		int size = 0;
+		
+		for (int i = start; i < end; i++)
+		{
+			if (size == 0 || values[size - 1] != low(sorted[i]))
+			{
+				values[size++] = low(sorted[i]);
+			}
+		}
+		
+		char[] distinct = Arrays.copyOf(values, size);
+		return size <= MAX_ARRAY_SIZE ? new ArrayContainer(distinct) : BitmapContainer.of(distinct);
+	}
+	
+	private static char high(int value)
+	{
+		return (char) (value >>> 16);
+	}
+	
+	private static char low(int value)
+	{
+		return (char) value;
+	}
+	
+	private interface Container
+	{
+		int cardinality();
+		
+		boolean contains(char value);
+		
+		Container with(char value);
+		
+		// Returns null once nothing is left in the container
+		Container without(char value);
+		
+		// Returns null when nothing is shared
+		Container and(Container other);
+		
+		void forEach(int high, IntConsumer action);
+		
+		PrimitiveIterator.OfInt iterator(int high);
+	}
+	
+	private static final class ArrayContainer implements Container
+	{
+		private final char[] values;
+		
+		private ArrayContainer(char[] values)
+		{
+			this.values = values;
+		}
+		
+		@Override
+		public int cardinality()
+		{
+			return values.length;
+		}
+		
+		@Override
+		public boolean contains(char value)
+		{
+			return Arrays.binarySearch(values, value) >= 0;
+		}
+		
+		@Override
+		public Container with(char value)
+		{
+			int index = Arrays.binarySearch(values, value);
+			
+			if (index >= 0)
+			{
+				return this;
+			}
+			if (values.length == MAX_ARRAY_SIZE)
+			{
+				return BitmapContainer.of(values).with(value);
+			}
+			
+			int insertAt = -index - 1;
+			char[] added = new char[values.length + 1];
+			System.arraycopy(values, 0, added, 0, insertAt);
+			added[insertAt] = value;
+			System.arraycopy(values, insertAt, added, insertAt + 1, values.length - insertAt);
+			return new ArrayContainer(added);
+		}
+		
+		@Override
+		public Container without(char value)
+		{
+			int index = Arrays.binarySearch(values, value);
+			
+			if (index < 0)
+			{
+				return this;
+			}
+			if (values.length == 1)
+			{
+				return null;
+			}
+			
+			char[] removed = new char[values.length - 1];
+			System.arraycopy(values, 0, removed, 0, index);
+			System.arraycopy(values, index + 1, removed, index, values.length - index - 1);
+			return new ArrayContainer(removed);
+		}
+		
+		// Whatever the other container is, the result can be no bigger than this one
+		@Override
+		public Container and(Container other)
+		{
+			char[] shared = new char[values.length];
+			int size = 0;
+			
+			for (char value : values)
+			{
+				if (other.contains(value))
+				{
+					shared[size++] = value;
+				}
+			}
+			
+			return size == 0 ? null : new ArrayContainer(Arrays.copyOf(shared, size));
+		}
+		
+		@Override
+		public void forEach(int high, IntConsumer action)
+		{
+			for (char value : values)
+			{
+				action.accept(high | value);
+			}
+		}
+		
+		@Override
+		public PrimitiveIterator.OfInt iterator(int high)
+		{
+			return new PrimitiveIterator.OfInt()
+			{
+				private int index;
+				
+				@Override
+				public boolean hasNext()
+				{
+					return index < values.length;
+				}
+				
+				@Override
+				public int nextInt()
+				{
+					if (!hasNext())
+					{
+						throw new NoSuchElementException();
+					}
+					return high | values[index++];
+				}
+			};
+		}
+	}
+	
+	private static final class BitmapContainer implements Container
+	{
+		private final long[] words;
+		private final int cardinality;
+		
+		private BitmapContainer(long[] words, int cardinality)
+		{
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+		
+		private static BitmapContainer of(char[] values)
+		{
+			long[] words = new long[WORDS_PER_BITMAP];
+			for (char value : values)
+			{
+				words[value >>> 6] |= 1L << value;
+			}
+			return new BitmapContainer(words, values.length);
+		}
+		
+		@Override
+		public int cardinality()
+		{
+			return cardinality;
+		}
+		
+		@Override
+		public boolean contains(char value)
+		{
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+		
+		@Override
+		public Container with(char value)
+		{
+			if (contains(value))
+			{
+				return this;
+			}
+			
+			long[] added = words.clone();
+			added[value >>> 6] |= 1L << value;
+			return new BitmapContainer(added, cardinality + 1);
+		}
+		
+		@Override
+		public Container without(char value)
+		{
+			if (!contains(value))
+			{
+				return this;
+			}
+			
+			long[] removed = words.clone();
+			removed[value >>> 6] &= ~(1L << value);
+			return cardinality - 1 <= MAX_ARRAY_SIZE ? toArrayContainer(removed, cardinality - 1) : new BitmapContainer(removed, cardinality - 1);
+		}
+		
+		@Override
+		public Container and(Container other)
+		{
+			if (other instanceof ArrayContainer)
+			{
+				return other.and(this);
+			}
+			
+			long[] otherWords = ((BitmapContainer) other).words;
+			long[] shared = new long[WORDS_PER_BITMAP];
+			int sharedCardinality = 0;
+			for (int i = 0; i < WORDS_PER_BITMAP; i++)
+			{
+				shared[i] = words[i] & otherWords[i];
+				sharedCardinality += Long.bitCount(shared[i]);
+			}
+			
+			if (sharedCardinality == 0)
+			{
+				return null;
+			}
+			return sharedCardinality <= MAX_ARRAY_SIZE ? toArrayContainer(shared, sharedCardinality) : new BitmapContainer(shared, sharedCardinality);
+		}
+		
+		@Override
+		public void forEach(int high, IntConsumer action)
+		{
+			for (int i = 0; i < WORDS_PER_BITMAP; i++)
+			{
+				long word = words[i];
+				while (word != 0)
+				{
+					action.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+		
+		@Override
+		public PrimitiveIterator.OfInt iterator(int high)
+		{
+			return new PrimitiveIterator.OfInt()
+			{
+				private int index;
+				private long word = words[0];
+				
+				@Override
+				public boolean hasNext()
+				{
+					while (word == 0 && index + 1 < WORDS_PER_BITMAP)
+					{
+						word = words[++index];
+					}
+					return word != 0;
+				}
+				
+				@Override
+				public int nextInt()
+				{
+					if (!hasNext())
+					{
+						throw new NoSuchElementException();
+					}
+					int value = high | (index << 6) | Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+					return value;
+				}
+			};
+		}
+		
+		private static ArrayContainer toArrayContainer(long[] words, int cardinality)
+		{
+			char[] values = new char[cardinality];
+			int size = 0;
+			for (int i = 0; i < WORDS_PER_BITMAP; i++)
+			{
+				long word = words[i];
+				while (word != 0)
+				{
+					values[size++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new ArrayContainer(values);
+		}
+	}
+}
\ No newline at end of file
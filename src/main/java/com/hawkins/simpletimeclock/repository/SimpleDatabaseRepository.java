@@ -1,69 +1,291 @@
 package com.hawkins.simpletimeclock.repository;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.enums.DatabaseFormat;
+import com.hawkins.simpletimeclock.enums.DatabaseStorage;
 import com.hawkins.simpletimeclock.enums.Role;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 import javax.annotation.PostConstruct;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static java.nio.file.Paths.get;
 
+// Users are kept either in a single users_db.<format> file or spread over users_db.<shard>.<format> files by a hash of their id.
+// Files in any layout and format are still read, and once the configured layout has been written the others are removed,
+// apart from those in another format, which are kept as backups.
 @Repository
 public class SimpleDatabaseRepository
 {
-	private static final String USERS_DB_PATH = "src/main/resources/";
-	private static final String USERS_DB_FILE = "users_db.json";
-	private static final String USERS_DB_FULL_PATH = USERS_DB_PATH + USERS_DB_FILE;
-	private static final File DATABASE_FILE = get(USERS_DB_FULL_PATH).toFile();
+	private static final String DATABASE_FILE_PREFIX = "users_db.";
+	private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+	private static final String BACKUP_FILE_SUFFIX = ".bak";
+	private static final boolean IS_WINDOWS = File.separatorChar == '\\';
 	
-	private final ObjectMapper objectMapper;
+	private final Path databaseDirectory;
+	private final Map<String, UserCodec> codecsByExtension;
+	private final UserCodec codec;
+	// users_db.<extension> or users_db.<shard>.<extension>, for the extension of any codec
+	private final Pattern databaseFilePattern;
+	private final DatabaseStorage storage;
+	private final int shardCount;
+	// Shards that have to be written next time regardless of which users changed, as their files are missing or out of date
+	private final Set<Integer> staleShards = new HashSet<>();
 	
-	public SimpleDatabaseRepository(ObjectMapper objectMapper)
+	public SimpleDatabaseRepository(List<UserCodec> codecs, @Value("${simple-time-clock.database.directory}") String databaseDirectory,
+									@Value("${simple-time-clock.database.format}") DatabaseFormat format,
+									@Value("${simple-time-clock.database.storage}") DatabaseStorage storage,
+									@Value("${simple-time-clock.database.shards}") int shardCount)
 	{
-		this.objectMapper = objectMapper;
+		this.databaseDirectory = get(databaseDirectory);
+		this.codecsByExtension = codecs.stream().collect(Collectors.toMap(UserCodec::getFileExtension, Function.identity()));
+		this.codec = codecs.stream()
+				.filter(candidate -> candidate.getFormat() == format)
+				.findFirst()
+				.orElseThrow(() -> new IllegalArgumentException("No codec for database format " + format + "."));
+		this.databaseFilePattern = Pattern.compile("users_db\\.(\\d+\\.)?(" + String.join("|", codecsByExtension.keySet()) + ")");
+		this.storage = storage;
+		this.shardCount = shardCount;
 	}
 	
-	public void write(Map<String, User> users)
+	public synchronized void write(Map<String, User> users)
+	{
+		IntStream.range(0, shardCount).forEach(staleShards::add);
+		write(users, users.keySet());
+	}
+	
+	// When sharded, only the shards holding one of the changed users are rewritten, in parallel
+	public synchronized void write(Map<String, User> users, Set<String> changedUserIds)
 	{
 		try
 		{
-			writeUsersToFile(users);
-		} catch (IOException ignored)
+			if (storage == DatabaseStorage.Sharded)
+			{
+				writeShards(users, changedUserIds);
+			} else
+			{
+				writeUsersToFile(databaseFile(), users);
+				deleteFilesNotConfigured();
+			}
+		} catch (IOException | UncheckedIOException ignored)
 		{
 			throw new RuntimeException("Issue communicating with database.");
 		}
 	}
 	
-	public Map<String, User> read()
+	// Every database file found is loaded in parallel; a user found in more than one keeps its most recent version
+	public synchronized Map<String, User> read()
 	{
 		try
 		{
-			return objectMapper.readValue(DATABASE_FILE, new TypeReference<Map<String, User>>() {});
-		} catch (IOException ignored)
+			List<File> files = findDatabaseFiles();
+			Map<String, User> users = new ConcurrentHashMap<>();
+			
+			files.parallelStream()
+					.map(this::readUsersFromFile)
+					.forEach(fileUsers -> fileUsers.forEach((userId, user) -> users.merge(userId, user, SimpleDatabaseRepository::latestOf)));
+			
+			if (storage == DatabaseStorage.Sharded && !isConfiguredLayout(files))
+			{
+				IntStream.range(0, shardCount).forEach(staleShards::add);
+			}
+			
+			return users;
+		} catch (IOException | UncheckedIOException ignored)
 		{
 			throw new RuntimeException("Issue communicating with database.");
 		}
+	}
+	
+	private void writeShards(Map<String, User> users, Set<String> changedUserIds) throws IOException
+	{
+		Set<Integer> shards = new HashSet<>(staleShards);
+		changedUserIds.forEach(userId -> shards.add(shardOf(userId)));
+		
+		Map<Integer, Map<String, User>> usersByShard = users.entrySet().stream()
+				.filter(entry -> shards.contains(shardOf(entry.getKey())))
+				.collect(Collectors.groupingBy(entry -> shardOf(entry.getKey()),
+											   Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+		
+		shards.parallelStream()
+				.forEach(shard -> writeUsersToFile(shardFile(shard), usersByShard.getOrDefault(shard, new HashMap<>())));
+		
+		if (staleShards.size() == shardCount)
+		{
+			deleteFilesNotConfigured();
+		}
+		staleShards.removeAll(shards);
+	}
+	
+	private int shardOf(String userId)
+	{
+		return Math.floorMod(userId.hashCode(), shardCount);
+	}
+	
+	//region files
+	
+	private File databaseFile()
+	{
+		return databaseDirectory.resolve(DATABASE_FILE_PREFIX + codec.getFileExtension()).toFile();
+	}
+	
+	private File shardFile(int shard)
+	{
+		return databaseDirectory.resolve(DATABASE_FILE_PREFIX + shard + "." + codec.getFileExtension()).toFile();
+	}
+	
+	private Set<File> configuredFiles()
+	{
+		if (storage == DatabaseStorage.Sharded)
+		{
+			return IntStream.range(0, shardCount).mapToObj(this::shardFile).collect(Collectors.toSet());
+		}
 		
+		return Stream.of(databaseFile()).collect(Collectors.toSet());
 	}
 	
-	private void writeUsersToFile(Map<String, User> users) throws IOException
+	private boolean isConfiguredLayout(List<File> files)
 	{
-		objectMapper.writerWithDefaultPrettyPrinter()
-				.writeValue(DATABASE_FILE, users);
+		return configuredFiles().equals(new HashSet<>(files));
 	}
 	
+	private List<File> findDatabaseFiles() throws IOException
+	{
+		try (Stream<Path> files = Files.list(databaseDirectory))
+		{
+			return files.map(Path::toFile)
+					.filter(file -> databaseFilePattern.matcher(file.getName()).matches())
+					.collect(Collectors.toList());
+		}
+	}
+	
+	// Files in another format are kept as users_db.<...>.bak rather than deleted, in case the conversion needs undoing by hand.
+	// They no longer match the database file names, so they are never read again.
+	private void deleteFilesNotConfigured() throws IOException
+	{
+		Set<File> configuredFiles = configuredFiles();
+		
+		for (File file : findDatabaseFiles())
+		{
+			if (configuredFiles.contains(file))
+			{
+				continue;
+			}
+			
+			if (file.getName().endsWith("." + codec.getFileExtension()))
+			{
+				Files.deleteIfExists(file.toPath());
+			} else
+			{
+				Files.move(file.toPath(), file.toPath().resolveSibling(file.getName() + BACKUP_FILE_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+	}
+	
+	// Mapped rather than read, so decoding works straight from the page cache without copying the file onto the heap first.
+	// A mapping is only released once collected, and Windows will not replace or rename a mapped file, which would stop the next
+	// snapshot moving over it; there the file is read onto the heap instead.
+	private Map<String, User> readUsersFromFile(File file)
+	{
+		UserCodec fileCodec = codecsByExtension.get(file.getName().substring(file.getName().lastIndexOf('.') + 1));
+		
+		try
+		{
+			if (IS_WINDOWS)
+			{
+				return fileCodec.read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+			}
+			
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+			{
+				return fileCodec.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+		} catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	// Written beside the database, synced, and then moved over it, so a crash part way through never leaves a half-written database.
+	// The directory is synced as well so that the move itself survives a crash before any log segment it covers is deleted.
+	private void writeUsersToFile(File file, Map<String, User> users)
+	{
+		File temporaryFile = new File(file.getPath() + TEMPORARY_FILE_SUFFIX);
+		
+		try
+		{
+			try (FileChannel channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+														StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel));
+				codec.write(users, outputStream);
+				outputStream.flush();
+				channel.force(true);
+			}
+			Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			syncDirectory();
+		} catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	// Windows cannot open a directory to sync it, and makes renames durable without being asked
+	private void syncDirectory() throws IOException
+	{
+		if (IS_WINDOWS)
+		{
+			return;
+		}
+		
+		try (FileChannel channel = FileChannel.open(databaseDirectory, StandardOpenOption.READ))
+		{
+			channel.force(true);
+		}
+	}
+	
+	//endregion
+	
+	private static User latestOf(User user, User other)
+	{
+		return user.getVersion() >= other.getVersion() ? user : other;
+	}
+	
+	// Anything not yet in the configured layout and format is converted straight away rather than at the next snapshot
 	@PostConstruct
 	public void initializeDB() throws IOException
 	{
-		if (!DATABASE_FILE.canRead())
+		List<File> files = findDatabaseFiles();
+		
+		if (files.isEmpty())
+		{
+			write(buildDefaultUsers());
+		} else if (!isConfiguredLayout(files))
 		{
-			writeUsersToFile(buildDefaultUsers());
+			write(read());
 		}
 	}
 	
@@ -0,0 +1,21 @@
+package com.hawkins.simpletimeclock.repository;
+
+import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.enums.DatabaseFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+// Converts the contents of a single users database file; every codec bean can be read, the configured one is written
+public interface UserCodec
+{
+	DatabaseFormat getFormat();
+	
+	String getFileExtension();
+	
+	void write(Map<String, User> users, OutputStream outputStream) throws IOException;
+	
+	Map<String, User> read(ByteBuffer buffer) throws IOException;
+}
\ No newline at end of file
@@ -0,0 +1,365 @@
+package com.hawkins.simpletimeclock.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hawkins.simpletimeclock.domain.UserEvent;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.Paths.get;
+import static java.nio.file.StandardOpenOption.*;
+
+// Append-only log holding one line of compact JSON per change, replayed over the users database on startup.
+// The log is split into numbered segments so that everything covered by a snapshot can be dropped as whole files.
+// Appends are queued for a single writer thread, which writes and syncs whatever has queued up as one batch (group commit).
+@Repository
+public class UserEventLog
+{
+	private static final String EVENT_LOG_FILE_PREFIX = "users_db.log.";
+	private static final byte NEW_LINE = '\n';
+	private static final PendingEvent CLOSE = new PendingEvent(null, null);
+	
+	private final ObjectMapper objectMapper;
+	private final Path databaseDirectory;
+	private final int maxBatchSize;
+	private final long maxLingerNanos;
+	private final DistributionSummary batchSizes;
+	private final BlockingQueue<PendingEvent> pendingEvents = new LinkedBlockingQueue<>();
+	// Set once a batch fails and held until resume is called; guarded by pendingEvents
+	private boolean refusing;
+	private FileChannel channel;
+	private long currentSegment;
+	private Thread writer;
+	
+	public UserEventLog(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+						@Value("${simple-time-clock.database.directory}") String databaseDirectory,
+						@Value("${simple-time-clock.event-log.max-batch-size}") int maxBatchSize,
+						@Value("${simple-time-clock.event-log.max-linger}") Duration maxLinger)
+	{
+		this.objectMapper = objectMapper;
+		this.databaseDirectory = get(databaseDirectory);
+		this.maxBatchSize = maxBatchSize;
+		this.maxLingerNanos = maxLinger.toNanos();
+		this.batchSizes = DistributionSummary.builder("timeclock.eventlog.batch.size").register(meterRegistry);
+	}
+	
+	@PostConstruct
+	public synchronized void open() throws IOException
+	{
+		List<Long> segments = findSegments();
+		currentSegment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+		
+		channel = openSegment(currentSegment);
+		truncateIncompleteEvent();
+		channel.position(channel.size());
+		
+		writer = new Thread(this::writeBatches, "user-event-log-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	// Everything appended before closing is still written
+	@PreDestroy
+	public void close() throws IOException, InterruptedException
+	{
+		pendingEvents.add(CLOSE);
+		writer.join();
+		
+		synchronized (this)
+		{
+			channel.close();
+		}
+	}
+	
+	// Events are written in the order they are appended; the returned future completes once the event is synced to disk.
+	// After a batch fails, every append fails straight away until resume is called, as it may build on a change being undone.
+	public CompletableFuture<Void> append(UserEvent event)
+	{
+		CompletableFuture<Void> durable = new CompletableFuture<>();
+		
+		try
+		{
+			byte[] json = objectMapper.writeValueAsBytes(event);
+			ByteBuffer line = ByteBuffer.allocate(json.length + 1);
+			line.put(json).put(NEW_LINE);
+			// Called through Buffer, as ByteBuffer only overrides it from Java 9 and this still has to run on Java 8
+			((Buffer) line).flip();
+			enqueue(new PendingEvent(line, durable));
+		} catch (IOException ignored)
+		{
+			durable.completeExceptionally(new RuntimeException("Issue communicating with database."));
+		}
+		
+		return durable;
+	}
+	
+	// Completes once every event appended before it is on disk, or fails if any of them could not be written
+	public CompletableFuture<Void> sync()
+	{
+		CompletableFuture<Void> durable = new CompletableFuture<>();
+		enqueue(new PendingEvent(ByteBuffer.allocate(0), durable));
+		
+		return durable;
+	}
+	
+	// Called once every change whose event failed has been undone, so that appends are accepted again
+	public void resume()
+	{
+		synchronized (pendingEvents)
+		{
+			refusing = false;
+		}
+	}
+	
+	// Starts a new segment for all further appends and returns the number of the one that was just finished
+	public synchronized long roll()
+	{
+		try
+		{
+			channel.force(false);
+			channel.close();
+			channel = openSegment(currentSegment + 1);
+			return currentSegment++;
+		} catch (IOException ignored)
+		{
+			throw new RuntimeException("Issue communicating with database.");
+		}
+	}
+	
+	public void deleteSegmentsThrough(long lastSegment)
+	{
+		try
+		{
+			for (long segment : findSegments())
+			{
+				if (segment <= lastSegment)
+				{
+					Files.deleteIfExists(segmentFile(segment));
+				}
+			}
+		} catch (IOException ignored)
+		{
+			throw new RuntimeException("Issue communicating with database.");
+		}
+	}
+	
+	public void replay(Consumer<UserEvent> consumer)
+	{
+		try
+		{
+			for (long segment : findSegments())
+			{
+				replaySegment(segment, consumer);
+			}
+		} catch (IOException ignored)
+		{
+			throw new RuntimeException("Issue communicating with database.");
+		}
+	}
+	
+	private void enqueue(PendingEvent pendingEvent)
+	{
+		synchronized (pendingEvents)
+		{
+			if (!refusing)
+			{
+				pendingEvents.add(pendingEvent);
+				return;
+			}
+		}
+		pendingEvent.durable.completeExceptionally(new RuntimeException("Issue communicating with database."));
+	}
+	
+	private void writeBatches()
+	{
+		List<PendingEvent> batch = new ArrayList<>(maxBatchSize);
+		boolean closing = false;
+		
+		try
+		{
+			while (!closing)
+			{
+				PendingEvent next = pendingEvents.take();
+				long deadline = System.nanoTime() + maxLingerNanos;
+				
+				// Keep collecting until the batch is full or the first event has waited long enough
+				while (next != null && next != CLOSE)
+				{
+					batch.add(next);
+					next = batch.size() < maxBatchSize ? pendingEvents.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) : null;
+				}
+				closing = next == CLOSE;
+				
+				if (!batch.isEmpty())
+				{
+					writeBatch(batch);
+					batch.clear();
+				}
+			}
+		} catch (InterruptedException ignored)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void writeBatch(List<PendingEvent> batch)
+	{
+		ByteBuffer[] lines = batch.stream().map(pendingEvent -> pendingEvent.line).toArray(ByteBuffer[]::new);
+		
+		try
+		{
+			synchronized (this)
+			{
+				writeAndSync(lines);
+			}
+		} catch (IOException ignored)
+		{
+			failBatch(batch);
+			return;
+		}
+		
+		batchSizes.record(batch.size());
+		batch.forEach(pendingEvent -> pendingEvent.durable.complete(null));
+	}
+	
+	private void writeAndSync(ByteBuffer[] lines) throws IOException
+	{
+		long start = channel.position();
+		long remaining = Arrays.stream(lines).mapToLong(ByteBuffer::remaining).sum();
+		
+		try
+		{
+			while (remaining > 0)
+			{
+				remaining -= channel.write(lines);
+			}
+			channel.force(false);
+		} catch (IOException e)
+		{
+			// Leave no part of a failed batch behind for the next one to be written after
+			channel.truncate(start);
+			channel.position(start);
+			throw e;
+		}
+	}
+	
+	// Events still queued may build on the failed ones, so they fail too, as does anything appended until resume is called.
+	// Failing newest first lets each caller undo its change in the reverse order the changes were made.
+	private void failBatch(List<PendingEvent> batch)
+	{
+		List<PendingEvent> failed = new ArrayList<>(batch);
+		synchronized (pendingEvents)
+		{
+			refusing = true;
+			pendingEvents.drainTo(failed);
+		}
+		
+		if (failed.remove(CLOSE))
+		{
+			pendingEvents.add(CLOSE);
+		}
+		
+		for (int i = failed.size() - 1; i >= 0; i--)
+		{
+			failed.get(i).durable.completeExceptionally(new RuntimeException("Issue communicating with database."));
+		}
+	}
+	
+	private void replaySegment(long segment, Consumer<UserEvent> consumer) throws IOException
+	{
+		try (BufferedReader reader = Files.newBufferedReader(segmentFile(segment), StandardCharsets.UTF_8))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				if (!line.isEmpty())
+				{
+					consumer.accept(objectMapper.readValue(line, UserEvent.class));
+				}
+			}
+		}
+	}
+	
+	private List<Long> findSegments() throws IOException
+	{
+		try (Stream<Path> files = Files.list(databaseDirectory))
+		{
+			return files.map(file -> file.getFileName().toString())
+					.filter(name -> name.startsWith(EVENT_LOG_FILE_PREFIX))
+					.map(name -> name.substring(EVENT_LOG_FILE_PREFIX.length()))
+					.filter(suffix -> !suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit))
+					.map(Long::parseLong)
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+	
+	private Path segmentFile(long segment)
+	{
+		return databaseDirectory.resolve(EVENT_LOG_FILE_PREFIX + segment);
+	}
+	
+	private FileChannel openSegment(long segment) throws IOException
+	{
+		return FileChannel.open(segmentFile(segment), CREATE, WRITE, READ);
+	}
+	
+	// A crash part way through an append leaves a line without its newline; drop it so the next append starts cleanly
+	private void truncateIncompleteEvent() throws IOException
+	{
+		long size = channel.size();
+		long end = size;
+		ByteBuffer buffer = ByteBuffer.allocate(1);
+		
+		while (end > 0)
+		{
+			((Buffer) buffer).clear();
+			channel.read(buffer, end - 1);
+			if (buffer.get(0) == NEW_LINE)
+			{
+				break;
+			}
+			end--;
+		}
+		
+		if (end < size)
+		{
+			channel.truncate(end);
+		}
+	}
+	
+	private static class PendingEvent
+	{
+		private final ByteBuffer line;
+		private final CompletableFuture<Void> durable;
+		
+		private PendingEvent(ByteBuffer line, CompletableFuture<Void> durable)
+		{
+			this.line = line;
+			this.durable = durable;
+		}
+	}
+}
\ No newline at end of file
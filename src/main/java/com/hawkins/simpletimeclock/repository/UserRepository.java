@@ -1,68 +1,603 @@
 package com.hawkins.simpletimeclock.repository;
 
+import com.hawkins.simpletimeclock.domain.LiveStatus;
+import com.hawkins.simpletimeclock.domain.TimeOrderedList;
+import com.hawkins.simpletimeclock.domain.Timed;
 import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.domain.UserEvent;
+import com.hawkins.simpletimeclock.enums.Role;
+import com.hawkins.simpletimeclock.enums.UserEventType;
 import com.hawkins.simpletimeclock.exception.UserAlreadyExistsException;
+import com.hawkins.simpletimeclock.exception.UserModifiedException;
 import com.hawkins.simpletimeclock.exception.UserNotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.lang.NonNull;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Repository
 public class UserRepository
 {
+	public static final long NO_VERSION = -1;
+	
 	private final SimpleDatabaseRepository simpleDatabaseRepository;
+	private final UserEventLog userEventLog;
+	private final UserWriter userWriter;
+	// Authoritative copy of the database; reads are served from here and every change is appended to the event log.
+	// The users are never modified once published, only replaced, so whoever holds on to them sees a single point in time.
+	// Being persistent, each replacement shares all but the changed user's path with the users before it.
+	private final AtomicReference<PublishedUsers> users = new AtomicReference<>(PublishedUsers.empty());
+	// Filled in before a change is published, so that they cover every user in any map taken from users before them
+	private final DayIndex shiftDays = new DayIndex();
+	private final DayIndex breakDays = new DayIndex();
+	// Changes published but not yet known to be durable, oldest first. Only touched on the user writer, apart from removing
+	// those that turn out durable.
+	private final Deque<PendingChange> pendingChanges = new ConcurrentLinkedDeque<>();
+	// Users changed since the last snapshot, so that a sharded database only rewrites the shards holding them
+	private volatile Set<String> changedUserIds = ConcurrentHashMap.newKeySet();
+	private final Timer snapshotTimer;
+	private volatile long lastSnapshotMillis = System.currentTimeMillis();
+	private volatile long lastReplayMillis;
 	
-	public UserRepository(SimpleDatabaseRepository simpleDatabaseRepository)
+	public UserRepository(SimpleDatabaseRepository simpleDatabaseRepository, UserEventLog userEventLog, UserWriter userWriter, MeterRegistry meterRegistry,
+						  @Value("${simple-time-clock.snapshot.interval}") Duration snapshotInterval)
 	{
 		this.simpleDatabaseRepository = simpleDatabaseRepository;
+		this.userEventLog = userEventLog;
+		this.userWriter = userWriter;
+		this.snapshotTimer = Timer.builder("timeclock.snapshot.duration").register(meterRegistry);
+		
+		TimeGauge.builder("timeclock.snapshot.interval", snapshotInterval, TimeUnit.MILLISECONDS, Duration::toMillis).register(meterRegistry);
+		TimeGauge.builder("timeclock.snapshot.age", this, TimeUnit.MILLISECONDS, UserRepository::millisSinceLastSnapshot).register(meterRegistry);
+		TimeGauge.builder("timeclock.replay.duration", this, TimeUnit.MILLISECONDS, repository -> repository.lastReplayMillis).register(meterRegistry);
 	}
 	
-	public User create(@NonNull User user) throws UserAlreadyExistsException
+	@PostConstruct
+	public void loadUsers()
+	{
+		long start = System.nanoTime();
+		
+		Map<String, User> loaded = new HashMap<>(simpleDatabaseRepository.read());
+		changedUserIds.clear();
+		userEventLog.replay(event -> replayEvent(loaded, event));
+		shiftDays.clear();
+		breakDays.clear();
+		loaded.values().forEach(user -> indexAdded(null, user));
+		users.set(PublishedUsers.copyOf(loaded));
+		
+		lastReplayMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+	
+	// Stored users are replaced rather than modified, so taking the published map while the log is cut is enough for a consistent snapshot.
+	// It is only written once every change in it is durable, as one that fails is undone and must not outlive that in the database.
+	// Once written, every segment up to the cut is covered by the snapshot and can be dropped.
+	@Scheduled(fixedDelayString = "${simple-time-clock.snapshot.interval}", initialDelayString = "${simple-time-clock.snapshot.interval}")
+	public void snapshot()
 	{
-		Map<String, User> users = simpleDatabaseRepository.read();
+		long start = System.nanoTime();
+		
+		SnapshotCut cut;
+		try
+		{
+			cut = userWriter.submit(this::cutSnapshot).join();
+		} catch (CompletionException ignored)
+		{
+			throw new RuntimeException("Issue communicating with database.");
+		}
 		
-		if (users.get(user.getUserId()) != null)
+		try
 		{
-			throw new UserAlreadyExistsException();
+			cut.durable.join();
+			simpleDatabaseRepository.write(cut.users, cut.changedUserIds);
+		} catch (CompletionException ignored)
+		{
+			// The log refuses appends until whatever failed is undone, even when no change failed along with the sync
+			changedUserIds.addAll(cut.changedUserIds);
+			userWriter.submit(this::undoFailedChanges);
+			throw new RuntimeException("Issue communicating with database.");
+		} catch (RuntimeException e)
+		{
+			changedUserIds.addAll(cut.changedUserIds);
+			throw e;
 		}
+		userEventLog.deleteSegmentsThrough(cut.lastSegment);
+		
+		lastSnapshotMillis = System.currentTimeMillis();
+		snapshotTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+	
+	public User create(@NonNull User user) throws UserAlreadyExistsException
+	{
+		CompletableFuture<Void> durable = userWriter.submit(() -> {
+			if (users.get().get(user.getUserId()) != null)
+			{
+				throw new UserAlreadyExistsException();
+			}
+			
+			// Applied like any other event, so the stored user is at the version the log records and later events build on it
+			UserEvent event = UserEvent.userCreated(user);
+			event.applyTo(user);
+			
+			return writeThrough(user, event);
+		}).thenCompose(Function.identity());
 		
-		users.put(user.getUserId(), user);
-		simpleDatabaseRepository.write(users);
+		try
+		{
+			durable.join();
+		} catch (CompletionException e)
+		{
+			rethrowIf(UserAlreadyExistsException.class, e.getCause());
+			throw new RuntimeException("Issue communicating with database.");
+		}
 		
 		return user;
 	}
 	
+	// Callers get their own copy, so nothing they do to it is visible until it is passed back through update
 	public User find(String userId) throws UserNotFoundException
 	{
-		Map<String, User> users = simpleDatabaseRepository.read();
-		User user = users.get(userId);
+		User user = users.get().get(userId);
 		
 		if (user == null)
 		{
 			throw new UserNotFoundException();
 		}
 		
-		return user;
+		return new User(user);
 	}
 	
-	public Map<String, User> findAllUsers()
+	// Reads straight from the stored user, for checks that would otherwise copy a user's whole history just to look at its role
+	public Role findRole(String userId) throws UserNotFoundException
 	{
-		return simpleDatabaseRepository.read();
+		User user = users.get().get(userId);
+		
+		if (user == null)
+		{
+			throw new UserNotFoundException();
+		}
+		
+		return user.getRole();
+	}
+	
+	// Every stored user as of a single point in time, without copying any of them. They are shared with every other reader,
+	// so they must not be modified; later changes replace them rather than altering what has already been handed out.
+	public Map<String, User> snapshotUsers()
+	{
+		return users.get().getUsers();
+	}
+	
+	// As snapshotUsers, but only the user with the given ID, if they exist
+	public Map<String, User> snapshotUsersWithId(String userId)
+	{
+		User user = users.get().get(userId);
+		
+		return user != null ? Collections.singletonMap(userId, user) : Collections.emptyMap();
+	}
+	
+	// As snapshotUsers, but only those with the given role, if there is one, who are also on break and on lunch when asked for,
+	// and have recorded at least the given numbers of shifts and breaks. Found by intersecting bitmaps and orders kept up to date
+	// as each change is published, so no other user is looked at.
+	public Map<String, User> snapshotUsersWith(Role role, boolean onBreak, boolean onLunch, int priorWorkShiftsThreshold, int priorBreaksThreshold)
+	{
+		PublishedUsers published = users.get();
+		RoaringBitmap matching = matching(published, role, onBreak, onLunch, priorWorkShiftsThreshold, priorBreaksThreshold);
+		
+		return matching != null ? published.usersIn(matching) : published.getUsers();
 	}
 	
-	public User update(@NonNull User user) throws UserNotFoundException
+	// As snapshotUsersWith, but each user is only looked up once the stream reaches them, rather than all collected up front
+	public Stream<User> streamUsersWith(Role role, boolean onBreak, boolean onLunch, int priorWorkShiftsThreshold, int priorBreaksThreshold)
 	{
-		Map<String, User> users = simpleDatabaseRepository.read();
+		PublishedUsers published = users.get();
+		RoaringBitmap matching = matching(published, role, onBreak, onLunch, priorWorkShiftsThreshold, priorBreaksThreshold);
 		
-		if (users.get(user.getUserId()) == null)
+		return matching != null ? published.streamUsersIn(matching) : published.getUsers().values().stream();
+	}
+	
+	public int countUsers()
+	{
+		return users.get().getUsers().size();
+	}
+	
+	// Moves on with every change to any user, so whatever was worked out from the users still holds while it stays the same
+	public long findUsersVersion()
+	{
+		return users.get().getVersion();
+	}
+	
+	// As findUsersVersion, but only moves on with changes to the given user, including ones undone. There is no version before
+	// they are created.
+	public long findVersion(String userId)
+	{
+		Long version = users.get().getVersion(userId);
+		
+		return version != null ? version : NO_VERSION;
+	}
+	
+	// How many users snapshotUsersWith could give at most, from the sizes of the bitmaps and orders it would intersect
+	public int estimateUsersWith(Role role, boolean onBreak, boolean onLunch, int priorWorkShiftsThreshold, int priorBreaksThreshold)
+	{
+		PublishedUsers published = users.get();
+		int estimate = published.getUsers().size();
+		
+		if (role != null)
 		{
-			throw new UserNotFoundException();
+			estimate = Math.min(estimate, published.getRole(role).cardinality());
+		}
+		if (priorWorkShiftsThreshold > 0)
+		{
+			estimate = Math.min(estimate, published.getShiftCounts().countAtLeast(priorWorkShiftsThreshold));
+		}
+		if (priorBreaksThreshold > 0)
+		{
+			estimate = Math.min(estimate, published.getBreakCounts().countAtLeast(priorBreaksThreshold));
 		}
+		if (onBreak)
+		{
+			estimate = Math.min(estimate, published.getOnBreak().cardinality());
+		}
+		if (onLunch)
+		{
+			estimate = Math.min(estimate, published.getOnLunch().cardinality());
+		}
+		return estimate;
+	}
+	
+	// How many users snapshotUsersWithShiftsBetween could give at most, without looking at any of them
+	public int estimateUsersWithShiftsBetween(LocalDateTime after, LocalDateTime before)
+	{
+		return Math.min(shiftDays.estimateUserIds(after, before), countUsers());
+	}
+	
+	public int estimateUsersWithBreaksBetween(LocalDateTime after, LocalDateTime before)
+	{
+		return Math.min(breakDays.estimateUserIds(after, before), countUsers());
+	}
+	
+	// The stored users with the most recorded shifts, most first. Shared with every other reader, so they must not be modified.
+	public List<User> findTopUsersByShiftCount(int limit)
+	{
+		PublishedUsers published = users.get();
+		
+		return published.usersAt(published.getShiftCounts().first(limit));
+	}
+	
+	public LiveStatus findLiveStatus()
+	{
+		PublishedUsers published = users.get();
+		
+		return new LiveStatus(published.userIdsIn(published.getOnShift()), published.userIdsIn(published.getOnBreak()),
+							  published.userIdsIn(published.getOnLunch()));
+	}
+	
+	// As snapshotUsers, but only the users with shifts starting strictly after and strictly before the given times,
+	// either of which may be left out. Found through the days those shifts started on rather than by looking at every user.
+	public Map<String, User> snapshotUsersWithShiftsBetween(LocalDateTime after, LocalDateTime before)
+	{
+		return snapshotUsersIn(shiftDays, User::getPriorWorkShifts, after, before);
+	}
+	
+	public Map<String, User> snapshotUsersWithBreaksBetween(LocalDateTime after, LocalDateTime before)
+	{
+		return snapshotUsersIn(breakDays, User::getPriorBreaks, after, before);
+	}
+	
+	// As snapshotUsersWithShiftsBetween, but each user is only looked up once the stream reaches them, rather than all collected up front
+	public Stream<User> streamUsersWithShiftsBetween(LocalDateTime after, LocalDateTime before)
+	{
+		return streamUsersIn(shiftDays, User::getPriorWorkShifts, after, before);
+	}
+	
+	public Stream<User> streamUsersWithBreaksBetween(LocalDateTime after, LocalDateTime before)
+	{
+		return streamUsersIn(breakDays, User::getPriorBreaks, after, before);
+	}
+	
+	public Map<String, User> findAllUsers()
+	{
+		return users.get().getUsers().entrySet().stream()
+				.collect(Collectors.toMap(Map.Entry::getKey, entry -> new User(entry.getValue())));
+	}
+	
+	// The event must describe exactly the change made to the user since it was found. If anything else changed them in between,
+	// the update is refused rather than overwriting that change, and the caller decides whether to find them again and retry.
+	public User update(@NonNull User user, @NonNull UserEvent event) throws UserNotFoundException, UserModifiedException
+	{
+		CompletableFuture<Void> durable = userWriter.submit(() -> {
+			User stored = users.get().get(user.getUserId());
+			
+			if (stored == null)
+			{
+				throw new UserNotFoundException();
+			}
+			if (stored.getVersion() != event.getVersion() - 1)
+			{
+				throw new UserModifiedException();
+			}
+			
+			return writeThrough(user, event);
+		}).thenCompose(Function.identity());
 		
-		users.put(user.getUserId(), user);
-		simpleDatabaseRepository.write(users);
+		try
+		{
+			durable.join();
+		} catch (CompletionException e)
+		{
+			rethrowIf(UserNotFoundException.class, e.getCause());
+			rethrowIf(UserModifiedException.class, e.getCause());
+			throw new RuntimeException("Issue communicating with database.");
+		}
 		
 		return user;
 	}
+	
+	private void replayEvent(Map<String, User> loaded, UserEvent event)
+	{
+		User user = loaded.get(event.getUserId());
+		
+		if (user == null && event.getType() == UserEventType.UserCreated)
+		{
+			user = new User(event.getUserId());
+			loaded.put(event.getUserId(), user);
+		}
+		
+		// Nothing has been published yet while loading, so the loaded users can be changed in place.
+		// Events at or below the stored version were already included when the database was last written.
+		if (user != null && event.getVersion() > user.getVersion())
+		{
+			event.applyTo(user);
+			changedUserIds.add(user.getUserId());
+		}
+	}
+	
+	// The users are taken before the index, so that the index covers all of them
+	private Map<String, User> snapshotUsersIn(DayIndex index, Function<User, TimeOrderedList<?>> history, LocalDateTime after, LocalDateTime before)
+	{
+		PersistentHashMap<String, User> snapshot = users.get().getUsers();
+		Map<String, User> found = new HashMap<>();
+		
+		for (String userId : index.findUserIds(after, before))
+		{
+			User user = snapshot.get(userId);
+			if (user != null && !history.apply(user).startingBetween(after, before).isEmpty())
+			{
+				found.put(userId, user);
+			}
+		}
+		return found;
+	}
+	
+	// Users are found day by day, and each is only given on the first day they have anything starting on within the range.
+	// That gives each of them once without keeping track of who has already been given.
+	private Stream<User> streamUsersIn(DayIndex index, Function<User, TimeOrderedList<?>> history, LocalDateTime after, LocalDateTime before)
+	{
+		PersistentHashMap<String, User> snapshot = users.get().getUsers();
+		
+		return index.findUserIdsByDay(after, before).entrySet().stream()
+				.flatMap(day -> day.getValue().stream()
+						.map(snapshot::get)
+						.filter(user -> user != null && startsFirstOn(history.apply(user).startingBetween(after, before), day.getKey())));
+	}
+	
+	private static boolean startsFirstOn(List<? extends Timed> inRange, long day)
+	{
+		return !inRange.isEmpty() && DayIndex.dayOf(inRange.get(0).getStartTime()) == day;
+	}
+	
+	// Everyone has recorded at least none, and null when nothing narrows the users down
+	private static RoaringBitmap matching(PublishedUsers published, Role role, boolean onBreak, boolean onLunch, int priorWorkShiftsThreshold,
+										  int priorBreaksThreshold)
+	{
+		RoaringBitmap matching = role != null ? published.getRole(role) : null;
+		
+		if (priorWorkShiftsThreshold > 0)
+		{
+			RoaringBitmap atLeast = published.getShiftCounts().atLeast(priorWorkShiftsThreshold);
+			matching = matching != null ? matching.and(atLeast) : atLeast;
+		}
+		if (priorBreaksThreshold > 0)
+		{
+			RoaringBitmap atLeast = published.getBreakCounts().atLeast(priorBreaksThreshold);
+			matching = matching != null ? matching.and(atLeast) : atLeast;
+		}
+		if (onBreak)
+		{
+			matching = matching != null ? matching.and(published.getOnBreak()) : published.getOnBreak();
+		}
+		if (onLunch)
+		{
+			matching = matching != null ? matching.and(published.getOnLunch()) : published.getOnLunch();
+		}
+		return matching;
+	}
+	
+	private double millisSinceLastSnapshot()
+	{
+		return System.currentTimeMillis() - lastSnapshotMillis;
+	}
+	
+	// Made through the user writer like any other change, so that no change is half made while the log is cut,
+	// and every change in the users taken has already queued its event ahead of the sync
+	private SnapshotCut cutSnapshot()
+	{
+		SnapshotCut cut = new SnapshotCut(userEventLog.roll(), userEventLog.sync(), users.get().getUsers(), changedUserIds);
+		changedUserIds = ConcurrentHashMap.newKeySet();
+		
+		return cut;
+	}
+	
+	// Only the event is queued while the change is being made; waiting for it to reach the disk happens afterwards,
+	// so that concurrent changes can be synced together. A failed change is undone through the user writer before its
+	// caller hears of it, so nothing made afterwards is checked against it.
+	private CompletableFuture<Void> writeThrough(User user, UserEvent event)
+	{
+		User stored = new User(user);
+		indexAdded(users.get().get(user.getUserId()), stored);
+		User previous = publish(current -> current.with(user.getUserId(), stored)).get(user.getUserId());
+		changedUserIds.add(user.getUserId());
+		
+		CompletableFuture<Void> append = userEventLog.append(event);
+		PendingChange change = new PendingChange(user.getUserId(), stored, previous, append);
+		pendingChanges.addLast(change);
+		
+		// The log may fail the append at any moment, including before handle is registered, in which case the callback runs
+		// right here on the user writer. That must undo directly, as submitting to itself would wait forever on a full ring buffer.
+		return append.handle((ignored, e) -> {
+			if (e == null)
+			{
+				pendingChanges.remove(change);
+				return CompletableFuture.<Void>completedFuture(null);
+			}
+			if (userWriter.isMakingChange())
+			{
+				undoFailedChanges();
+				return append;
+			}
+			return userWriter.submit(this::undoFailedChanges).thenCompose(undone -> append);
+		}).thenCompose(Function.identity());
+	}
+	
+	// Failed changes are undone newest first, so each finds its own change still in place. Once none is left that has failed
+	// or may yet fail, the log is told to accept appends again. Run on the user writer, so no change is made in between.
+	private Void undoFailedChanges()
+	{
+		Iterator<PendingChange> newestFirst = pendingChanges.descendingIterator();
+		boolean settled = true;
+		
+		while (newestFirst.hasNext())
+		{
+			PendingChange change = newestFirst.next();
+			
+			if (change.append.isCompletedExceptionally())
+			{
+				undo(change.userId, change.stored, change.previous);
+				newestFirst.remove();
+			} else if (!change.append.isDone())
+			{
+				settled = false;
+			}
+		}
+		
+		if (settled)
+		{
+			userEventLog.resume();
+		}
+		return null;
+	}
+	
+	// Recorded shifts and breaks are only ever added to, so only those the previous user did not have need indexing
+	private void indexAdded(User previous, User user)
+	{
+		indexAdded(previous != null ? previous.getPriorWorkShifts() : null, user.getPriorWorkShifts(), shiftDays, user.getUserId());
+		indexAdded(previous != null ? previous.getPriorBreaks() : null, user.getPriorBreaks(), breakDays, user.getUserId());
+	}
+	
+	// Both lists hold the same recorded entries, so walking back from the latest finds those added, nearly always straight away
+	private void indexAdded(List<? extends Timed> previous, List<? extends Timed> current, DayIndex index, String userId)
+	{
+		int previousIndex = previous != null ? previous.size() - 1 : -1;
+		int added = current.size() - (previousIndex + 1);
+		
+		for (int i = current.size() - 1; i >= 0 && added > 0; i--)
+		{
+			if (previousIndex >= 0 && current.get(i) == previous.get(previousIndex))
+			{
+				previousIndex--;
+			} else
+			{
+				index.add(userId, current.get(i).getStartTime());
+				added--;
+			}
+		}
+	}
+	
+	// Only undone if nothing has replaced the failed change since
+	private void undo(String userId, User stored, User previous)
+	{
+		publish(current -> {
+			if (current.get(userId) != stored)
+			{
+				return current;
+			}
+			return previous != null ? current.with(userId, previous) : current.without(userId);
+		});
+	}
+	
+	// Each change makes new users that replace the published ones, so readers of the old ones never see it.
+	// Returns the users that were replaced.
+	private PublishedUsers publish(UnaryOperator<PublishedUsers> change)
+	{
+		PublishedUsers current;
+		do
+		{
+			current = users.get();
+		} while (!users.compareAndSet(current, change.apply(current)));
+		
+		return current;
+	}
+	
+	private static <E extends Exception> void rethrowIf(Class<E> type, Throwable cause) throws E
+	{
+		if (type.isInstance(cause))
+		{
+			throw type.cast(cause);
+		}
+	}
+	
+	private static class PendingChange
+	{
+		private final String userId;
+		private final User stored;
+		private final User previous;
+		private final CompletableFuture<Void> append;
+		
+		private PendingChange(String userId, User stored, User previous, CompletableFuture<Void> append)
+		{
+			this.userId = userId;
+			this.stored = stored;
+			this.previous = previous;
+			this.append = append;
+		}
+	}
+	
+	private static class SnapshotCut
+	{
+		private final long lastSegment;
+		private final CompletableFuture<Void> durable;
+		private final Map<String, User> users;
+		private final Set<String> changedUserIds;
+		
+		private SnapshotCut(long lastSegment, CompletableFuture<Void> durable, Map<String, User> users, Set<String> changedUserIds)
+		{
+			this.lastSegment = lastSegment;
+			this.durable = durable;
+			this.users = users;
+			this.changedUserIds = changedUserIds;
+		}
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,169 @@
+package com.hawkins.simpletimeclock.repository;
+
+import com.hawkins.simpletimeclock.enums.MutationMode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+// Every change to the stored users is made through here, one at a time, so that each is checked against the latest state.
+// Synchronous makes the change on the caller's thread under a lock. SingleWriter hands it over a ring buffer to one writer thread
+// that makes every change itself, so callers never contend with each other and only wait on the returned future.
+@Component
+public class UserWriter
+{
+	private static final long FULL_RING_BUFFER_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	
+	private final MutationMode mode;
+	private final RingBuffer<SubmittedChange<?>> changes;
+	private volatile boolean running;
+	private Thread writer;
+	
+	public UserWriter(@Value("${simple-time-clock.mutations.mode}") MutationMode mode,
+					  @Value("${simple-time-clock.mutations.ring-buffer-size}") int ringBufferSize)
+	{
+		this.mode = mode;
+		this.changes = new RingBuffer<>(ringBufferSize);
+	}
+	
+	@PostConstruct
+	public void start()
+	{
+		if (mode == MutationMode.SingleWriter)
+		{
+			running = true;
+			writer = new Thread(this::makeChanges, "user-writer");
+			writer.setDaemon(true);
+			writer.start();
+		}
+	}
+	
+	// Changes submitted before closing are still made. Any that arrive while the writer is stopping are failed rather than
+	// left waiting forever; once the writer has stopped, nothing else polls the ring buffer.
+	@PreDestroy
+	public void close() throws InterruptedException
+	{
+		if (writer != null)
+		{
+			running = false;
+			LockSupport.unpark(writer);
+			writer.join();
+			
+			SubmittedChange<?> change;
+			while ((change = changes.poll()) != null)
+			{
+				change.fail();
+			}
+		}
+	}
+	
+	// The returned future completes with whatever the change returns, or fails with whatever it throws
+	public <T> CompletableFuture<T> submit(Callable<T> change)
+	{
+		CompletableFuture<T> result = new CompletableFuture<>();
+		
+		if (mode == MutationMode.Synchronous)
+		{
+			synchronized (this)
+			{
+				make(change, result);
+			}
+			return result;
+		}
+		
+		SubmittedChange<T> submitted = new SubmittedChange<>(change, result);
+		
+		if (!running)
+		{
+			submitted.fail();
+			return result;
+		}
+		
+		while (!changes.offer(submitted))
+		{
+			// The writer is a whole ring buffer behind; wait for it to free up a slot
+			LockSupport.parkNanos(FULL_RING_BUFFER_BACKOFF_NANOS);
+		}
+		LockSupport.unpark(writer);
+		
+		// Closed while offering, possibly after close had already emptied the ring buffer
+		if (!running)
+		{
+			submitted.fail();
+		}
+		
+		return result;
+	}
+	
+	// Whether the calling thread is the one making changes right now, so it can act directly rather than submit to itself
+	public boolean isMakingChange()
+	{
+		return mode == MutationMode.Synchronous ? Thread.holdsLock(this) : Thread.currentThread() == writer;
+	}
+	
+	private void makeChanges()
+	{
+		while (true)
+		{
+			SubmittedChange<?> change = changes.poll();
+			
+			if (change != null)
+			{
+				change.make();
+			} else if (running)
+			{
+				LockSupport.park(this);
+			} else
+			{
+				return;
+			}
+		}
+	}
+	
+	private <T> void make(Callable<T> change, CompletableFuture<T> result)
+	{
+		try
+		{
+			result.complete(change.call());
+		} catch (Exception e)
+		{
+			result.completeExceptionally(e);
+		}
+	}
+	
+	// Whichever of making and failing the change comes first wins, so a change is never made after its caller was told it failed
+	private class SubmittedChange<T>
+	{
+		private final Callable<T> change;
+		private final CompletableFuture<T> result;
+		private final AtomicBoolean taken = new AtomicBoolean();
+		
+		private SubmittedChange(Callable<T> change, CompletableFuture<T> result)
+		{
+			this.change = change;
+			this.result = result;
+		}
+		
+		private void make()
+		{
+			if (taken.compareAndSet(false, true))
+			{
+				UserWriter.this.make(change, result);
+			}
+		}
+		
+		private void fail()
+		{
+			if (taken.compareAndSet(false, true))
+			{
+				result.completeExceptionally(new RuntimeException("Issue communicating with database."));
+			}
+		}
+	}
+}
\ No newline at end of file
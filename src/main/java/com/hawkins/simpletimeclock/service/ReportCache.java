@@ -0,0 +1,291 @@
+package com.hawkins.simpletimeclock.service;
+
+import com.hawkins.simpletimeclock.domain.ReportDataFilters;
+import com.hawkins.simpletimeclock.domain.UserActivity;
+import com.hawkins.simpletimeclock.enums.Role;
+import com.hawkins.simpletimeclock.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+// Keeps the results of recent activity reports, so the same report asked for again before anything it covers has changed is
+// answered from memory. A report for one user only goes stale when that user changes; any other report goes stale with any change.
+// Holds at most max-entries reports, dropping whichever was asked for least recently, and none for longer than time-to-live.
+// Reports asked for again while they are still running are not run twice: later callers wait for the running one's result.
+// The same filters and versions also make the same tag, so clients holding a report can ask whether it is still current.
+@Component
+public class ReportCache
+{
+	// Versions start over with each run of the service and differ between instances, so tags from another one never match
+	private final String instanceId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+	private final UserRepository userRepository;
+	private final Clock clock;
+	private final Duration timeToLive;
+	private final Map<Key, CachedReport> entries;
+	// Reports being run, guarded by entries
+	private final Map<Key, RunningReport> running = new HashMap<>();
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter coalesced;
+	private final Counter sizeEvictions;
+	private final Counter expiredEvictions;
+	private final Counter staleEvictions;
+	
+	public ReportCache(UserRepository userRepository, Clock clock, MeterRegistry meterRegistry,
+					   @Value("${simple-time-clock.reports.cache.max-entries}") int maxEntries,
+					   @Value("${simple-time-clock.reports.cache.time-to-live}") Duration timeToLive)
+	{
+		this.userRepository = userRepository;
+		this.clock = clock;
+		this.timeToLive = timeToLive;
+		this.hits = Counter.builder("timeclock.report.cache.hits").register(meterRegistry);
+		this.misses = Counter.builder("timeclock.report.cache.misses").register(meterRegistry);
+		this.coalesced = Counter.builder("timeclock.report.cache.coalesced").register(meterRegistry);
+		this.sizeEvictions = evictions(meterRegistry, "size");
+		this.expiredEvictions = evictions(meterRegistry, "expired");
+		this.staleEvictions = evictions(meterRegistry, "stale");
+		// Ordered by when each report was last asked for, so the eldest is the least recently used
+		this.entries = new LinkedHashMap<Key, CachedReport>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CachedReport> eldest)
+			{
+				if (size() > maxEntries)
+				{
+					sizeEvictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+		
+		Gauge.builder("timeclock.report.cache.size", this, ReportCache::size).register(meterRegistry);
+	}
+	
+	// Runs the report only when there is no result for the same filters that is still current, and it is not already running
+	public Map<String, UserActivity> find(ReportDataFilters filters, Supplier<Map<String, UserActivity>> report)
+	{
+		Key key = new Key(filters);
+		// Taken before the report runs, so a change made while it runs leaves its result already stale
+		long version = versionOf(key);
+		RunningReport runningReport;
+		boolean started = false;
+		
+		synchronized (entries)
+		{
+			CachedReport entry = entries.get(key);
+			
+			if (entry != null && entry.version == version && clock.now().isBefore(entry.expiresAt))
+			{
+				hits.increment();
+				return entry.activity;
+			}
+			if (entry != null)
+			{
+				entries.remove(key);
+				(entry.version != version ? staleEvictions : expiredEvictions).increment();
+			}
+			
+			// One started before a change this caller has already seen would not cover it
+			runningReport = running.get(key);
+			if (runningReport != null && runningReport.version == version)
+			{
+				coalesced.increment();
+			} else
+			{
+				runningReport = new RunningReport(version);
+				running.put(key, runningReport);
+				started = true;
+			}
+		}
+		
+		return started ? run(key, runningReport, report) : runningReport.await();
+	}
+	
+	// Tells what the report for the given filters would be without running it: the tag only changes when the report could
+	public String tagOf(ReportDataFilters filters)
+	{
+		Key key = new Key(filters);
+		return instanceId + "-" + Long.toHexString(versionOf(key)) + "-" + key.digest();
+	}
+	
+	public int size()
+	{
+		synchronized (entries)
+		{
+			return entries.size();
+		}
+	}
+	
+	// Whoever started the report stores its result and hands it to everyone waiting on it
+	private Map<String, UserActivity> run(Key key, RunningReport runningReport, Supplier<Map<String, UserActivity>> report)
+	{
+		misses.increment();
+		
+		try
+		{
+			Map<String, UserActivity> activity = Collections.unmodifiableMap(report.get());
+			
+			synchronized (entries)
+			{
+				// A report that started later may have stored a newer result already
+				CachedReport stored = entries.get(key);
+				if (stored == null || stored.version <= runningReport.version)
+				{
+					entries.put(key, new CachedReport(runningReport.version, clock.now().plus(timeToLive), activity));
+				}
+				running.remove(key, runningReport);
+			}
+			runningReport.result.complete(activity);
+			return activity;
+		} catch (RuntimeException | Error e)
+		{
+			synchronized (entries)
+			{
+				running.remove(key, runningReport);
+			}
+			runningReport.result.completeExceptionally(e);
+			throw e;
+		}
+	}
+	
+	private long versionOf(Key key)
+	{
+		return key.userIdToView != null ? userRepository.findVersion(key.userIdToView) : userRepository.findUsersVersion();
+	}
+	
+	private static Counter evictions(MeterRegistry meterRegistry, String cause)
+	{
+		return Counter.builder("timeclock.report.cache.evictions").tag("cause", cause).register(meterRegistry);
+	}
+	
+	private static final class CachedReport
+	{
+		private final long version;
+		private final LocalDateTime expiresAt;
+		private final Map<String, UserActivity> activity;
+		
+		private CachedReport(long version, LocalDateTime expiresAt, Map<String, UserActivity> activity)
+		{
+			this.version = version;
+			this.expiresAt = expiresAt;
+			this.activity = activity;
+		}
+	}
+	
+	private static final class RunningReport
+	{
+		private final long version;
+		private final CompletableFuture<Map<String, UserActivity>> result = new CompletableFuture<>();
+		
+		private RunningReport(long version)
+		{
+			this.version = version;
+		}
+		
+		// Fails with whatever running the report threw
+		private Map<String, UserActivity> await()
+		{
+			try
+			{
+				return result.join();
+			} catch (CompletionException e)
+			{
+				if (e.getCause() instanceof RuntimeException)
+				{
+					throw (RuntimeException) e.getCause();
+				}
+				if (e.getCause() instanceof Error)
+				{
+					throw (Error) e.getCause();
+				}
+				throw e;
+			}
+		}
+	}
+	
+	// Filters that always give the same report make the same key: thresholds below zero leave no one out, as zero does,
+	// and onlyActiveInRange leaves no one out without a range to be active in
+	private static final class Key
+	{
+		private final String userIdToView;
+		private final int priorWorkShiftsThreshold;
+		private final int priorBreaksThreshold;
+		private final boolean isCurrentlyOnBreak;
+		private final boolean isCurrentlyOnLunch;
+		private final Role roleToView;
+		private final LocalDateTime shiftBeginsBefore;
+		private final LocalDateTime shiftBeginsAfter;
+		private final LocalDateTime breakBeginsBefore;
+		private final LocalDateTime breakBeginsAfter;
+		private final boolean onlyActiveInRange;
+		
+		private Key(ReportDataFilters filters)
+		{
+			this.userIdToView = filters.getUserIdToView();
+			this.priorWorkShiftsThreshold = Math.max(0, filters.getPriorWorkShiftsThreshold());
+			this.priorBreaksThreshold = Math.max(0, filters.getPriorBreaksThreshold());
+			this.isCurrentlyOnBreak = filters.isCurrentlyOnBreak();
+			this.isCurrentlyOnLunch = filters.isCurrentlyOnLunch();
+			this.roleToView = filters.getRoleToView();
+			this.shiftBeginsBefore = filters.getShiftBeginsBefore();
+			this.shiftBeginsAfter = filters.getShiftBeginsAfter();
+			this.breakBeginsBefore = filters.getBreakBeginsBefore();
+			this.breakBeginsAfter = filters.getBreakBeginsAfter();
+			this.onlyActiveInRange = filters.isOnlyActiveInRange() &&
+					(shiftBeginsBefore != null || shiftBeginsAfter != null || breakBeginsBefore != null || breakBeginsAfter != null);
+		}
+		
+		// Unlike hashCode, the same for the same filters in every instance and unlikely to be shared by any others
+		private String digest()
+		{
+			String fields = userIdToView + "|" + priorWorkShiftsThreshold + "|" + priorBreaksThreshold + "|" + isCurrentlyOnBreak + "|" +
+					isCurrentlyOnLunch + "|" + roleToView + "|" + shiftBeginsBefore + "|" + shiftBeginsAfter + "|" + breakBeginsBefore + "|" +
+					breakBeginsAfter + "|" + onlyActiveInRange;
+			return UUID.nameUUIDFromBytes(fields.getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+		}
+		
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o)
+			{
+				return true;
+			}
+			if (o == null || getClass() != o.getClass())
+			{
+				return false;
+			}
+			
+			Key key = (Key) o;
+			return priorWorkShiftsThreshold == key.priorWorkShiftsThreshold && priorBreaksThreshold == key.priorBreaksThreshold &&
+					isCurrentlyOnBreak == key.isCurrentlyOnBreak && isCurrentlyOnLunch == key.isCurrentlyOnLunch &&
+					onlyActiveInRange == key.onlyActiveInRange && Objects.equals(userIdToView, key.userIdToView) && roleToView == key.roleToView &&
+					Objects.equals(shiftBeginsBefore, key.shiftBeginsBefore) && Objects.equals(shiftBeginsAfter, key.shiftBeginsAfter) &&
+					Objects.equals(breakBeginsBefore, key.breakBeginsBefore) && Objects.equals(breakBeginsAfter, key.breakBeginsAfter);
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(userIdToView, priorWorkShiftsThreshold, priorBreaksThreshold, isCurrentlyOnBreak, isCurrentlyOnLunch, roleToView,
+								shiftBeginsBefore, shiftBeginsAfter, breakBeginsBefore, breakBeginsAfter, onlyActiveInRange);
+		}
+	}
+}
\ No newline at end of file
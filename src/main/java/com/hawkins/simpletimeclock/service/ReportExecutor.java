@@ -0,0 +1,122 @@
+package com.hawkins.simpletimeclock.service;
+
+import com.hawkins.simpletimeclock.domain.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+// Checks each user a report looks at and turns those that pass into results. Reports looking at fewer users than the threshold
+// are run on the caller's thread. Larger ones are split into chunks run on a pool of their own, kept apart from the common pool
+// and the request threads, and each chunk fills a map of its own that is only merged with another once both are done.
+@Component
+public class ReportExecutor
+{
+	private static final int MIN_CHUNK_SIZE = 512;
+	// Enough chunks for each thread that one finishing early can take another's rather than sit idle
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	private final int parallelThreshold;
+	private final ForkJoinPool pool;
+	
+	public ReportExecutor(@Value("${simple-time-clock.reports.parallel-threshold}") int parallelThreshold,
+						  @Value("${simple-time-clock.reports.parallelism}") int parallelism)
+	{
+		this.parallelThreshold = parallelThreshold;
+		this.pool = new ForkJoinPool(parallelism, ReportExecutor::newReportThread, null, false);
+	}
+	
+	@PreDestroy
+	public void close()
+	{
+		pool.shutdown();
+	}
+	
+	public <T> Map<String, T> collect(Map<String, User> users, Predicate<Map.Entry<String, User>> filter, Function<User, T> toResult)
+	{
+		if (users.size() < parallelThreshold)
+		{
+			return users.entrySet().stream()
+					.filter(filter)
+					.collect(Collectors.toMap(Map.Entry::getKey, entry -> toResult.apply(entry.getValue())));
+		}
+		
+		@SuppressWarnings("unchecked")
+		Map.Entry<String, User>[] entries = users.entrySet().toArray(new Map.Entry[0]);
+		int chunkSize = Math.max(MIN_CHUNK_SIZE, entries.length / (pool.getParallelism() * CHUNKS_PER_THREAD));
+		
+		return pool.invoke(new Chunk<>(entries, 0, entries.length, chunkSize, filter, toResult));
+	}
+	
+	private static ForkJoinWorkerThread newReportThread(ForkJoinPool pool)
+	{
+		ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+		thread.setName("report-" + thread.getPoolIndex());
+		return thread;
+	}
+	
+	private static final class Chunk<T> extends RecursiveTask<Map<String, T>>
+	{
+		private final Map.Entry<String, User>[] entries;
+		private final int start;
+		private final int end;
+		private final int chunkSize;
+		private final Predicate<Map.Entry<String, User>> filter;
+		private final Function<User, T> toResult;
+		
+		private Chunk(Map.Entry<String, User>[] entries, int start, int end, int chunkSize, Predicate<Map.Entry<String, User>> filter,
+					  Function<User, T> toResult)
+		{
+			this.entries = entries;
+			this.start = start;
+			this.end = end;
+			this.chunkSize = chunkSize;
+			this.filter = filter;
+			this.toResult = toResult;
+		}
+		
+		@Override
+		protected Map<String, T> compute()
+		{
+			if (end - start <= chunkSize)
+			{
+				Map<String, T> results = new HashMap<>();
+				for (int i = start; i < end; i++)
+				{
+					if (filter.test(entries[i]))
+					{
+						results.put(entries[i].getKey(), toResult.apply(entries[i].getValue()));
+					}
+				}
+				return results;
+			}
+			
+			int middle = (start + end) >>> 1;
+			Chunk<T> first = new Chunk<>(entries, start, middle, chunkSize, filter, toResult);
+			first.fork();
+			Map<String, T> second = new Chunk<>(entries, middle, end, chunkSize, filter, toResult).compute();
+			
+			// Users only appear in one chunk, so the smaller map is simply added to the larger
+			return merge(first.join(), second);
+		}
+		
+		private static <T> Map<String, T> merge(Map<String, T> first, Map<String, T> second)
+		{
+			if (first.size() < second.size())
+			{
+				second.putAll(first);
+				return second;
+			}
+			first.putAll(second);
+			return first;
+		}
+	}
+}
\ No newline at end of file
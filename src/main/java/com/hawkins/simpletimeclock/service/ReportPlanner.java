@@ -0,0 +1,139 @@
+package com.hawkins.simpletimeclock.service;
+
+import com.hawkins.simpletimeclock.domain.ReportDataFilters;
+import com.hawkins.simpletimeclock.domain.ReportPlan;
+import com.hawkins.simpletimeclock.enums.ReportAccessPath;
+import com.hawkins.simpletimeclock.enums.ReportPredicate;
+import com.hawkins.simpletimeclock.repository.UserRepository;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+// Picks where a report takes its users from by asking the repository how many each available index would give, and takes
+// whichever gives fewest. Whatever the chosen index guarantees is left out of the filters checked on each user it gives.
+@Component
+public class ReportPlanner
+{
+	private static final Set<ReportPredicate> BITMAP_PREDICATES = EnumSet.of(ReportPredicate.Role, ReportPredicate.OnBreak, ReportPredicate.OnLunch,
+																			  ReportPredicate.PriorWorkShifts, ReportPredicate.PriorBreaks);
+	
+	private final UserRepository userRepository;
+	
+	public ReportPlanner(UserRepository userRepository)
+	{
+		this.userRepository = userRepository;
+	}
+	
+	public ReportPlan plan(ReportDataFilters filters)
+	{
+		Set<ReportPredicate> predicates = predicatesOf(filters);
+		int totalUsers = userRepository.countUsers();
+		Map<ReportAccessPath, Integer> estimates = new EnumMap<>(ReportAccessPath.class);
+		
+		if (predicates.contains(ReportPredicate.UserId))
+		{
+			estimates.put(ReportAccessPath.UserId, Math.min(1, totalUsers));
+		}
+		if (predicates.stream().anyMatch(BITMAP_PREDICATES::contains))
+		{
+			estimates.put(ReportAccessPath.Bitmaps, userRepository.estimateUsersWith(filters.getRoleToView(), filters.isCurrentlyOnBreak(),
+																					 filters.isCurrentlyOnLunch(), filters.getPriorWorkShiftsThreshold(),
+																					 filters.getPriorBreaksThreshold()));
+		}
+		if (predicates.contains(ReportPredicate.ShiftsInRange))
+		{
+			estimates.put(ReportAccessPath.ShiftDays, userRepository.estimateUsersWithShiftsBetween(filters.getShiftBeginsAfter(),
+																									filters.getShiftBeginsBefore()));
+		}
+		if (predicates.contains(ReportPredicate.BreaksInRange))
+		{
+			estimates.put(ReportAccessPath.BreakDays, userRepository.estimateUsersWithBreaksBetween(filters.getBreakBeginsAfter(),
+																									filters.getBreakBeginsBefore()));
+		}
+		estimates.put(ReportAccessPath.AllUsers, totalUsers);
+		
+		// An index costs more per user than looking at everyone, so it is only taken when estimated to give fewer users.
+		// Indexes are looked at in the order they are declared, so ties between them go to the one declared first.
+		ReportAccessPath chosen = ReportAccessPath.AllUsers;
+		for (Map.Entry<ReportAccessPath, Integer> estimate : estimates.entrySet())
+		{
+			if (estimate.getValue() < estimates.get(chosen))
+			{
+				chosen = estimate.getKey();
+			}
+		}
+		
+		Set<ReportPredicate> indexed = indexedBy(chosen, predicates);
+		Set<ReportPredicate> residual = EnumSet.copyOf(predicates);
+		residual.removeAll(indexed);
+		
+		return new ReportPlan(chosen, estimates, indexed, residual, totalUsers);
+	}
+	
+	// Ranges only leave users out when asked to, otherwise they only trim what is shown of each user
+	private Set<ReportPredicate> predicatesOf(ReportDataFilters filters)
+	{
+		Set<ReportPredicate> predicates = EnumSet.noneOf(ReportPredicate.class);
+		
+		if (filters.getUserIdToView() != null)
+		{
+			predicates.add(ReportPredicate.UserId);
+		}
+		if (filters.getRoleToView() != null)
+		{
+			predicates.add(ReportPredicate.Role);
+		}
+		if (filters.isCurrentlyOnBreak())
+		{
+			predicates.add(ReportPredicate.OnBreak);
+		}
+		if (filters.isCurrentlyOnLunch())
+		{
+			predicates.add(ReportPredicate.OnLunch);
+		}
+		if (filters.getPriorWorkShiftsThreshold() > 0)
+		{
+			predicates.add(ReportPredicate.PriorWorkShifts);
+		}
+		if (filters.getPriorBreaksThreshold() > 0)
+		{
+			predicates.add(ReportPredicate.PriorBreaks);
+		}
+		if (filters.isOnlyActiveInRange() && (filters.getShiftBeginsAfter() != null || filters.getShiftBeginsBefore() != null))
+		{
+			predicates.add(ReportPredicate.ShiftsInRange);
+		}
+		if (filters.isOnlyActiveInRange() && (filters.getBreakBeginsAfter() != null || filters.getBreakBeginsBefore() != null))
+		{
+			predicates.add(ReportPredicate.BreaksInRange);
+		}
+		return predicates;
+	}
+	
+	private Set<ReportPredicate> indexedBy(ReportAccessPath accessPath, Set<ReportPredicate> predicates)
+	{
+		Set<ReportPredicate> indexed = EnumSet.noneOf(ReportPredicate.class);
+		
+		switch (accessPath)
+		{
+			case UserId:
+				indexed.add(ReportPredicate.UserId);
+				break;
+			case Bitmaps:
+				indexed.addAll(BITMAP_PREDICATES);
+				break;
+			case ShiftDays:
+				indexed.add(ReportPredicate.ShiftsInRange);
+				break;
+			case BreakDays:
+				indexed.add(ReportPredicate.BreaksInRange);
+				break;
+		}
+		
+		indexed.retainAll(predicates);
+		return indexed;
+	}
+}
\ No newline at end of file
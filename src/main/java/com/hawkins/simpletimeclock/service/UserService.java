@@ -1,10 +1,16 @@
 package com.hawkins.simpletimeclock.service;
 
 import com.hawkins.simpletimeclock.domain.Break;
+import com.hawkins.simpletimeclock.domain.LiveStatus;
 import com.hawkins.simpletimeclock.domain.ReportDataFilters;
+import com.hawkins.simpletimeclock.domain.ReportPlan;
 import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.domain.UserActivity;
+import com.hawkins.simpletimeclock.domain.UserEvent;
+import com.hawkins.simpletimeclock.domain.UserShiftCount;
 import com.hawkins.simpletimeclock.domain.WorkShift;
 import com.hawkins.simpletimeclock.enums.BreakType;
+import com.hawkins.simpletimeclock.enums.ReportPredicate;
 import com.hawkins.simpletimeclock.enums.Role;
 import com.hawkins.simpletimeclock.exception.*;
 import com.hawkins.simpletimeclock.repository.UserRepository;
@@ -14,17 +20,24 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class UserService
 {
 	private final UserRepository userRepository;
 	private final Clock clock;
+	private final ReportExecutor reportExecutor;
+	private final ReportCache reportCache;
+	private final ReportPlanner reportPlanner;
 	
-	public UserService(UserRepository userRepository, Clock clock)
+	public UserService(UserRepository userRepository, Clock clock, ReportExecutor reportExecutor, ReportCache reportCache, ReportPlanner reportPlanner)
 	{
 		this.userRepository = userRepository;
 		this.clock = clock;
+		this.reportExecutor = reportExecutor;
+		this.reportCache = reportCache;
+		this.reportPlanner = reportPlanner;
 	}
 	
 	public User createUser(String userId) throws UserAlreadyExistsException
@@ -35,114 +48,182 @@ public class UserService
 		return userRepository.create(user);
 	}
 	
-	public User updateUser(String userId, String name, Role role) throws UserNotFoundException
+	// Without an expected version the latest user is always updated. With one, the update is refused if the user has moved past it,
+	// so that an admin cannot overwrite a change they have not seen.
+	public User updateUser(String userId, String name, Role role, Long expectedVersion) throws UserNotFoundException, UserModifiedException
 	{
-		User user = userRepository.find(userId);
-		if (name != null)
+		while (true)
 		{
-			user.setName(name);
-		}
-		if (role != null)
-		{
-			user.setRole(role);
+			User user = userRepository.find(userId);
+			
+			if (expectedVersion != null && expectedVersion != user.getVersion())
+			{
+				throw new UserModifiedException();
+			}
+			
+			UserEvent event = UserEvent.userUpdated(user, name, role);
+			event.applyTo(user);
+			
+			try
+			{
+				return userRepository.update(user, event);
+			} catch (UserModifiedException e)
+			{
+				if (expectedVersion != null)
+				{
+					throw e;
+				}
+			}
 		}
-		
-		return userRepository.update(user);
 	}
 	
 	public void startShift(String userId) throws UserNotFoundException, WorkShiftInProgressException
 	{
-		User user = userRepository.find(userId);
-		validateUserNotWorking(user);
-		
-		user.setCurrentWorkShift(new WorkShift(clock.now()));
-		
-		userRepository.update(user);
+		User user;
+		UserEvent event;
+		do
+		{
+			user = userRepository.find(userId);
+			validateUserNotWorking(user);
+			
+			event = UserEvent.shiftStarted(user, clock.now());
+			event.applyTo(user);
+		} while (!tryUpdate(user, event));
 	}
 	
 	public void endShift(String userId) throws UserNotFoundException, WorkShiftNotStartedException, BreakInProgressException
 	{
-		User user = userRepository.find(userId);
-		validateUserIsWorking(user);
-		validateUserNotOnBreak(user);
-		
-		user.getCurrentWorkShift().setEndTime(clock.now());
-		user.getPriorWorkShifts().add(user.getCurrentWorkShift());
-		user.setCurrentWorkShift(null);
-		
-		userRepository.update(user);
+		User user;
+		UserEvent event;
+		do
+		{
+			user = userRepository.find(userId);
+			validateUserIsWorking(user);
+			validateUserNotOnBreak(user);
+			
+			event = UserEvent.shiftEnded(user, clock.now());
+			event.applyTo(user);
+		} while (!tryUpdate(user, event));
 	}
 	
 	public void startBreak(String userId, BreakType breakType) throws UserNotFoundException, BreakInProgressException, WorkShiftNotStartedException
 	{
-		User user = userRepository.find(userId);
-		validateUserIsWorking(user);
-		
-		if (breakType == BreakType.Break)
+		User user;
+		UserEvent event;
+		do
 		{
-			if (user.getCurrentBreak() != null)
+			user = userRepository.find(userId);
+			validateUserIsWorking(user);
+			
+			if (breakType == BreakType.Break && user.getCurrentBreak() != null)
 			{
 				throw new BreakInProgressException();
 			}
-			
-			user.setCurrentBreak(new Break(breakType, clock.now()));
-		}
-		if (breakType == BreakType.Lunch)
-		{
-			if (user.getCurrentLunchBreak() != null)
+			if (breakType == BreakType.Lunch && user.getCurrentLunchBreak() != null)
 			{
 				throw new BreakInProgressException();
 			}
 			
-			user.setCurrentLunchBreak(new Break(breakType, clock.now()));
-		}
-		
-		userRepository.update(user);
+			event = UserEvent.breakStarted(user, breakType, clock.now());
+			event.applyTo(user);
+		} while (!tryUpdate(user, event));
 	}
 	
 	public void endBreak(String userId) throws UserNotFoundException, BreakNotStartedException
 	{
-		User user = userRepository.find(userId);
-		
-		if (user.getCurrentBreak() != null)
+		User user;
+		UserEvent event;
+		do
 		{
-			user.getCurrentBreak().setEndTime(clock.now());
-			user.getPriorBreaks().add(user.getCurrentBreak());
-			user.setCurrentBreak(null);
-		} else if (user.getCurrentLunchBreak() != null)
+			user = userRepository.find(userId);
+			
+			if (user.getCurrentBreak() != null)
+			{
+				event = UserEvent.breakEnded(user, BreakType.Break, clock.now());
+			} else if (user.getCurrentLunchBreak() != null)
+			{
+				event = UserEvent.breakEnded(user, BreakType.Lunch, clock.now());
+			} else
+			{
+				throw new BreakNotStartedException();
+			}
+			event.applyTo(user);
+		} while (!tryUpdate(user, event));
+	}
+	
+	public Map<String, UserActivity> findUserActivity(String adminUserId, ReportDataFilters filters) throws AccessDeniedException, UserNotFoundException
+	{
+		validateUserIsAdministrator(adminUserId);
+		
+		return reportCache.find(filters, () -> runUserActivity(filters));
+	}
+	
+	// The same users findUserActivity would return, each only looked up once the stream reaches them, so neither the report nor the
+	// users it could include are ever all held at once. Streams are taken from the same point in time as a whole report, but are
+	// neither cached nor split across threads.
+	public Stream<UserActivity> streamUserActivity(String adminUserId, ReportDataFilters filters) throws AccessDeniedException, UserNotFoundException
+	{
+		validateUserIsAdministrator(adminUserId);
+		
+		ReportPlan plan = reportPlanner.plan(filters);
+		
+		return streamCandidates(plan, filters)
+				.filter(passesResidualFilters(plan, filters))
+				.map(user -> toActivity(filters, user));
+	}
+	
+	// Only changes when what findUserActivity returns for the same filters could have, without running it
+	public String findUserActivityTag(String adminUserId, ReportDataFilters filters) throws AccessDeniedException, UserNotFoundException
+	{
+		validateUserIsAdministrator(adminUserId);
+		
+		return reportCache.tagOf(filters);
+	}
+	
+	// The plan findUserActivity would follow for the same filters, without running it
+	public ReportPlan explainUserActivity(String adminUserId, ReportDataFilters filters) throws AccessDeniedException, UserNotFoundException
+	{
+		validateUserIsAdministrator(adminUserId);
+		
+		return reportPlanner.plan(filters);
+	}
+	
+	public List<UserShiftCount> findTopUsersByShiftCount(String adminUserId, int limit) throws AccessDeniedException, UserNotFoundException
+	{
+		validateUserIsAdministrator(adminUserId);
+		
+		return userRepository.findTopUsersByShiftCount(limit).stream()
+				.map(user -> new UserShiftCount(user.getUserId(), user.getName(), user.getPriorWorkShifts().size()))
+				.collect(Collectors.toList());
+	}
+	
+	public LiveStatus findLiveStatus(String adminUserId) throws AccessDeniedException, UserNotFoundException
+	{
+		validateUserIsAdministrator(adminUserId);
+		
+		return userRepository.findLiveStatus();
+	}
+	
+	// Punches are only ever based on the user's latest state. If someone else changed the user after they were found,
+	// the punch is dropped and the caller finds them again, checking it still makes sense against that change.
+	private boolean tryUpdate(User user, UserEvent event) throws UserNotFoundException
+	{
+		try
 		{
-			user.getCurrentLunchBreak().setEndTime(clock.now());
-			user.getPriorBreaks().add(user.getCurrentLunchBreak());
-			user.setCurrentLunchBreak(null);
-		} else
+			userRepository.update(user, event);
+			return true;
+		} catch (UserModifiedException ignored)
 		{
-			throw new BreakNotStartedException();
+			return false;
 		}
-		
-		userRepository.update(user);
 	}
 	
-	public Map<String, User> findUserActivity(String adminUserId, ReportDataFilters filters) throws AccessDeniedException, UserNotFoundException
+	private void validateUserIsAdministrator(String userId) throws AccessDeniedException, UserNotFoundException
 	{
-		User adminUser = userRepository.find(adminUserId);
-		
-		if (adminUser.getRole() != Role.Administrator)
+		if (userRepository.findRole(userId) != Role.Administrator)
 		{
 			throw new AccessDeniedException();
 		}
-		
-		Map<String, User> filteredUsers = userRepository.findAllUsers().entrySet().stream()
-				.filter(passesUserIdFilter(filters))
-				.filter(passesRoleFilter(filters))
-				.filter(passesPriorWorkShiftFilter(filters))
-				.filter(passesPriorBreaksFilter(filters))
-				.filter(passesOnBreakFilter(filters))
-				.filter(passesOnLunchFilter(filters))
-				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-		
-		filterShiftsAndBreaksForUsers(filters, filteredUsers);
-		
-		return filteredUsers;
 	}
 	
 	private void validateUserIsWorking(User user) throws WorkShiftNotStartedException
@@ -169,52 +250,132 @@ public class UserService
 		}
 	}
 	
-	private void filterShiftsAndBreaksForUsers(ReportDataFilters filters, Map<String, User> filteredUsers)
+	// The whole report is taken from one point in time, which punches made while it runs do not change
+	private Map<String, UserActivity> runUserActivity(ReportDataFilters filters)
 	{
-		filteredUsers.entrySet().forEach(entry -> {
-			List<WorkShift> filteredShifts = entry.getValue().getPriorWorkShifts().stream()
-					.filter(shift -> filters.getShiftBeginsBefore() == null || shift.getStartTime().isBefore(filters.getShiftBeginsBefore()))
-					.filter(shift -> filters.getShiftBeginsAfter() == null || shift.getStartTime().isAfter(filters.getShiftBeginsAfter()))
-					.collect(Collectors.toList());
-			List<Break> filteredBreaks = entry.getValue().getPriorBreaks().stream()
-					.filter(workBreak -> filters.getBreakBeginsBefore() == null || workBreak.getStartTime().isBefore(filters.getBreakBeginsBefore()))
-					.filter(workBreak -> filters.getBreakBeginsAfter() == null || workBreak.getStartTime().isAfter(filters.getBreakBeginsAfter()))
-					.collect(Collectors.toList());
-			
-			entry.getValue().getPriorWorkShifts().clear();
-			entry.getValue().getPriorWorkShifts().addAll(filteredShifts);
-			entry.getValue().getPriorBreaks().clear();
-			entry.getValue().getPriorBreaks().addAll(filteredBreaks);
-		});
+		ReportPlan plan = reportPlanner.plan(filters);
+		Predicate<User> residual = passesResidualFilters(plan, filters);
+		
+		return reportExecutor.collect(findCandidates(plan, filters), entry -> residual.test(entry.getValue()), user -> toActivity(filters, user));
+	}
+	
+	// Users who could not pass the filters are never looked at when the repository can find the others directly
+	private Map<String, User> findCandidates(ReportPlan plan, ReportDataFilters filters)
+	{
+		switch (plan.getAccessPath())
+		{
+			case UserId:
+				return userRepository.snapshotUsersWithId(filters.getUserIdToView());
+			case Bitmaps:
+				return userRepository.snapshotUsersWith(filters.getRoleToView(), filters.isCurrentlyOnBreak(), filters.isCurrentlyOnLunch(),
+														filters.getPriorWorkShiftsThreshold(), filters.getPriorBreaksThreshold());
+			case ShiftDays:
+				return userRepository.snapshotUsersWithShiftsBetween(filters.getShiftBeginsAfter(), filters.getShiftBeginsBefore());
+			case BreakDays:
+				return userRepository.snapshotUsersWithBreaksBetween(filters.getBreakBeginsAfter(), filters.getBreakBeginsBefore());
+			default:
+				return userRepository.snapshotUsers();
+		}
+	}
+	
+	// As findCandidates, but each is only looked up once the stream reaches them
+	private Stream<User> streamCandidates(ReportPlan plan, ReportDataFilters filters)
+	{
+		switch (plan.getAccessPath())
+		{
+			case UserId:
+				return userRepository.snapshotUsersWithId(filters.getUserIdToView()).values().stream();
+			case Bitmaps:
+				return userRepository.streamUsersWith(filters.getRoleToView(), filters.isCurrentlyOnBreak(), filters.isCurrentlyOnLunch(),
+													  filters.getPriorWorkShiftsThreshold(), filters.getPriorBreaksThreshold());
+			case ShiftDays:
+				return userRepository.streamUsersWithShiftsBetween(filters.getShiftBeginsAfter(), filters.getShiftBeginsBefore());
+			case BreakDays:
+				return userRepository.streamUsersWithBreaksBetween(filters.getBreakBeginsAfter(), filters.getBreakBeginsBefore());
+			default:
+				return userRepository.snapshotUsers().values().stream();
+		}
+	}
+	
+	// Users in the snapshot are shared with every other reader, so the report only views their history and never changes it
+	private UserActivity toActivity(ReportDataFilters filters, User user)
+	{
+		return new UserActivity(user,
+				user.getPriorWorkShifts().startingBetween(filters.getShiftBeginsAfter(), filters.getShiftBeginsBefore()),
+				user.getPriorBreaks().startingBetween(filters.getBreakBeginsAfter(), filters.getBreakBeginsBefore()));
+	}
+	
+	// Only the filters the plan's access path does not already guarantee are checked, cheapest first
+	private Predicate<User> passesResidualFilters(ReportPlan plan, ReportDataFilters filters)
+	{
+		Predicate<User> residual = user -> true;
+		for (ReportPredicate predicate : plan.getResidualPredicates())
+		{
+			residual = residual.and(filterFor(predicate, filters));
+		}
+		return residual;
+	}
+	
+	private Predicate<User> filterFor(ReportPredicate predicate, ReportDataFilters filters)
+	{
+		switch (predicate)
+		{
+			case UserId:
+				return passesUserIdFilter(filters);
+			case Role:
+				return passesRoleFilter(filters);
+			case OnBreak:
+				return passesOnBreakFilter(filters);
+			case OnLunch:
+				return passesOnLunchFilter(filters);
+			case PriorWorkShifts:
+				return passesPriorWorkShiftFilter(filters);
+			case PriorBreaks:
+				return passesPriorBreaksFilter(filters);
+			case ShiftsInRange:
+				return passesShiftsInRangeFilter(filters);
+			default:
+				return passesBreaksInRangeFilter(filters);
+		}
+	}
+	
+	private Predicate<User> passesShiftsInRangeFilter(ReportDataFilters filters)
+	{
+		return user -> !user.getPriorWorkShifts().startingBetween(filters.getShiftBeginsAfter(), filters.getShiftBeginsBefore()).isEmpty();
+	}
+	
+	private Predicate<User> passesBreaksInRangeFilter(ReportDataFilters filters)
+	{
+		return user -> !user.getPriorBreaks().startingBetween(filters.getBreakBeginsAfter(), filters.getBreakBeginsBefore()).isEmpty();
 	}
 	
-	private Predicate<Map.Entry<String, User>> passesUserIdFilter(ReportDataFilters filters)
+	private Predicate<User> passesUserIdFilter(ReportDataFilters filters)
 	{
-		return entry -> filters.getUserIdToView() == null || filters.getUserIdToView().equals(entry.getValue().getUserId());
+		return user -> filters.getUserIdToView() == null || filters.getUserIdToView().equals(user.getUserId());
 	}
 	
-	private Predicate<Map.Entry<String, User>> passesRoleFilter(ReportDataFilters filters)
+	private Predicate<User> passesRoleFilter(ReportDataFilters filters)
 	{
-		return entry -> filters.getRoleToView() == null || filters.getRoleToView().equals(entry.getValue().getRole());
+		return user -> filters.getRoleToView() == null || filters.getRoleToView().equals(user.getRole());
 	}
 	
-	private Predicate<Map.Entry<String, User>> passesPriorWorkShiftFilter(ReportDataFilters filters)
+	private Predicate<User> passesPriorWorkShiftFilter(ReportDataFilters filters)
 	{
-		return entry -> entry.getValue().getPriorWorkShifts().size() >= filters.getPriorWorkShiftsThreshold();
+		return user -> user.getPriorWorkShifts().size() >= filters.getPriorWorkShiftsThreshold();
 	}
 	
-	private Predicate<Map.Entry<String, User>> passesPriorBreaksFilter(ReportDataFilters filters)
+	private Predicate<User> passesPriorBreaksFilter(ReportDataFilters filters)
 	{
-		return entry -> entry.getValue().getPriorBreaks().size() >= filters.getPriorBreaksThreshold();
+		return user -> user.getPriorBreaks().size() >= filters.getPriorBreaksThreshold();
 	}
 	
-	private Predicate<Map.Entry<String, User>> passesOnBreakFilter(ReportDataFilters filters)
+	private Predicate<User> passesOnBreakFilter(ReportDataFilters filters)
 	{
-		return entry -> !filters.isCurrentlyOnBreak() || entry.getValue().getCurrentBreak() != null;
+		return user -> !filters.isCurrentlyOnBreak() || user.getCurrentBreak() != null;
 	}
 	
-	private Predicate<Map.Entry<String, User>> passesOnLunchFilter(ReportDataFilters filters)
+	private Predicate<User> passesOnLunchFilter(ReportDataFilters filters)
 	{
-		return entry -> !filters.isCurrentlyOnLunch() || entry.getValue().getCurrentLunchBreak() != null;
+		return user -> !filters.isCurrentlyOnLunch() || user.getCurrentLunchBreak() != null;
 	}
 }
\ No newline at end of file
@@ -1,8 +1,13 @@
 package com.hawkins.simpletimeclock.controller;
 
+import com.hawkins.simpletimeclock.domain.LiveStatus;
 import com.hawkins.simpletimeclock.domain.ReportDataFilters;
+import com.hawkins.simpletimeclock.domain.ReportPlan;
 import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.domain.UserActivity;
+import com.hawkins.simpletimeclock.domain.UserShiftCount;
 import com.hawkins.simpletimeclock.enums.BreakType;
+import com.hawkins.simpletimeclock.enums.ReportAccessPath;
 import com.hawkins.simpletimeclock.enums.Role;
 import com.hawkins.simpletimeclock.exception.*;
 import com.hawkins.simpletimeclock.service.ContextURIService;
@@ -18,21 +23,38 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(SpringExtension.class)
@@ -44,6 +66,8 @@ public class SimpleTimeClockControllerTests
 	private static final String CONTEXT_BASE_URI = "http://localhost:8080/simple-time-clock";
 	private static final LocalDateTime BEFORE_TIME = LocalDateTime.of(2021, 12, 31, 12, 30);
 	private static final LocalDateTime AFTER_TIME = LocalDateTime.of(2021, 12, 31, 12, 30);
+	private static final String TAG = "1a2b-3-4c5d";
+	private static final String NDJSON_TAG = TAG + "-ndjson";
 	
 	@Captor
 	private ArgumentCaptor<ReportDataFilters> filtersCaptor;
@@ -57,14 +81,16 @@ public class SimpleTimeClockControllerTests
 	@Autowired
 	private SimpleTimeClockController controller;
 	
-	private Map<String, User> users;
+	private Map<String, UserActivity> users;
 	
 	@BeforeEach
-	public void setUp() throws AccessDeniedException, UserNotFoundException
+	public void setUp() throws AccessDeniedException, UserNotFoundException, UserModifiedException
 	{
 		users = new HashMap<>();
 		when(contextURIService.fullContextPath()).thenReturn(CONTEXT_BASE_URI);
 		lenient().when(userService.findUserActivity(anyString(), any())).thenReturn(users);
+		lenient().when(userService.findUserActivityTag(anyString(), any())).thenReturn(TAG);
+		lenient().when(userService.updateUser(any(), any(), any(), any())).thenReturn(new User(USER_ID));
 	}
 	
 	@Test
@@ -144,7 +170,7 @@ public class SimpleTimeClockControllerTests
 	@ValueSource(strings = {USER_ID, "123456789"})
 	public void findUserActivity_CallsUserService(String userId) throws AccessDeniedException, UserNotFoundException
 	{
-		controller.findUserActivity(userId, "1234", 2, 3, true, false, AFTER_TIME, BEFORE_TIME, AFTER_TIME, BEFORE_TIME, Role.Administrator);
+		controller.findUserActivity(userId, "1234", 2, 3, true, false, AFTER_TIME, BEFORE_TIME, AFTER_TIME, BEFORE_TIME, Role.Administrator, true, false, null);
 		
 		verify(userService).findUserActivity(eq(userId), filtersCaptor.capture());
 		ReportDataFilters filters = filtersCaptor.getValue();
@@ -158,12 +184,13 @@ public class SimpleTimeClockControllerTests
 		assertEquals(BEFORE_TIME, filters.getShiftBeginsAfter());
 		assertEquals(AFTER_TIME, filters.getBreakBeginsBefore());
 		assertEquals(BEFORE_TIME, filters.getBreakBeginsAfter());
+		assertTrue(filters.isOnlyActiveInRange());
 	}
 	
 	@Test
 	public void findUserActivity_SetsFiltersOnValuesPassedToUserService() throws AccessDeniedException, UserNotFoundException
 	{
-		controller.findUserActivity(USER_ID, "12345", 0, 1, false, true, BEFORE_TIME, AFTER_TIME, BEFORE_TIME, AFTER_TIME, Role.NonAdministrator);
+		controller.findUserActivity(USER_ID, "12345", 0, 1, false, true, BEFORE_TIME, AFTER_TIME, BEFORE_TIME, AFTER_TIME, Role.NonAdministrator, false, false, null);
 		
 		verify(userService).findUserActivity(eq(USER_ID), filtersCaptor.capture());
 		ReportDataFilters filters = filtersCaptor.getValue();
@@ -177,12 +204,13 @@ public class SimpleTimeClockControllerTests
 		assertEquals(AFTER_TIME, filters.getShiftBeginsAfter());
 		assertEquals(BEFORE_TIME, filters.getBreakBeginsBefore());
 		assertEquals(AFTER_TIME, filters.getBreakBeginsAfter());
+		assertFalse(filters.isOnlyActiveInRange());
 	}
 	
 	@Test
 	public void findUserActivity_SetsFiltersOnNullValuesPassedToUserService() throws AccessDeniedException, UserNotFoundException
 	{
-		controller.findUserActivity(USER_ID, null, 0, 0, false, false, null, null, null, null, null);
+		controller.findUserActivity(USER_ID, null, 0, 0, false, false, null, null, null, null, null, false, false, null);
 		
 		verify(userService).findUserActivity(eq(USER_ID), filtersCaptor.capture());
 		ReportDataFilters filters = filtersCaptor.getValue();
@@ -196,14 +224,15 @@ public class SimpleTimeClockControllerTests
 		assertNull(filters.getShiftBeginsAfter());
 		assertNull(filters.getBreakBeginsBefore());
 		assertNull(filters.getBreakBeginsAfter());
+		assertFalse(filters.isOnlyActiveInRange());
 	}
 	
 	@Test
 	public void findUserActivity_When_UserServiceReturnsUser_Then_ReturnsWhatUserServiceReturnsInBody() throws AccessDeniedException, UserNotFoundException
 	{
 		when(userService.findUserActivity(anyString(), any())).thenReturn(users);
-		ResponseEntity<Map<String, User>> actual = controller.findUserActivity(USER_ID, "1234", 2, 3, true, false, BEFORE_TIME, AFTER_TIME, BEFORE_TIME,
-																			   AFTER_TIME, Role.Administrator);
+		ResponseEntity<?> actual = controller.findUserActivity(USER_ID, "1234", 2, 3, true, false, BEFORE_TIME, AFTER_TIME, BEFORE_TIME,
+															   AFTER_TIME, Role.Administrator, false, false, null);
 		
 		assertEquals(users, actual.getBody());
 	}
@@ -214,7 +243,7 @@ public class SimpleTimeClockControllerTests
 		when(userService.findUserActivity(anyString(), any())).thenThrow(new UserNotFoundException());
 		
 		assertThrows(UserNotFoundException.class, () -> controller.findUserActivity(USER_ID, "1234", 2, 3, true, false, BEFORE_TIME, AFTER_TIME, BEFORE_TIME,
-																					AFTER_TIME, Role.Administrator));
+																					AFTER_TIME, Role.Administrator, false, false, null));
 	}
 	
 	@Test
@@ -223,7 +252,280 @@ public class SimpleTimeClockControllerTests
 		when(userService.findUserActivity(anyString(), any())).thenThrow(new AccessDeniedException());
 		
 		assertThrows(AccessDeniedException.class, () -> controller.findUserActivity(USER_ID, "1234", 2, 3, true, false, BEFORE_TIME, AFTER_TIME,
-																					BEFORE_TIME, AFTER_TIME, Role.Administrator));
+																					BEFORE_TIME, AFTER_TIME, Role.Administrator, false, false, null));
+	}
+	
+	@Test
+	public void findUserActivity_EndpointExistsWithExplain() throws Exception
+	{
+		mockMvc.perform(get("/admin/987654321/userActivity?roleToView=Administrator&explain=true"))
+				.andExpect(status().isOk());
+		
+		verify(userService).explainUserActivity(eq("987654321"), filtersCaptor.capture());
+		assertEquals(Role.Administrator, filtersCaptor.getValue().getRoleToView());
+		verify(userService, never()).findUserActivity(anyString(), any());
+	}
+	
+	@Test
+	public void findUserActivity_When_Explain_Then_ReturnsPlanUserServiceReturnsInBody() throws AccessDeniedException, UserNotFoundException
+	{
+		ReportPlan plan = new ReportPlan(ReportAccessPath.AllUsers, singletonMap(ReportAccessPath.AllUsers, 3), emptySet(), emptySet(), 3);
+		when(userService.explainUserActivity(anyString(), any())).thenReturn(plan);
+		
+		ResponseEntity<?> actual = controller.findUserActivity(USER_ID, null, 0, 0, false, false, null, null, null, null, null, false, true, null);
+		
+		assertSame(plan, actual.getBody());
+		verify(userService, never()).findUserActivity(anyString(), any());
+	}
+	
+	@Test
+	public void findUserActivity_EndpointReturnsReportTagAsETag() throws Exception
+	{
+		mockMvc.perform(get("/admin/987654321/userActivity"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, "\"" + TAG + "\""));
+	}
+	
+	@ParameterizedTest
+	@ValueSource(strings = {"\"" + TAG + "\"", "W/\"" + TAG + "\"", "\"other\", \"" + TAG + "\"", "*"})
+	public void findUserActivity_When_IfNoneMatchHasReportTag_Then_ReturnsNotModifiedWithoutRunningReport(String ifNoneMatch) throws Exception
+	{
+		mockMvc.perform(get("/admin/987654321/userActivity").header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string(HttpHeaders.ETAG, "\"" + TAG + "\""));
+		
+		verify(userService, never()).findUserActivity(anyString(), any());
+	}
+	
+	@Test
+	public void findUserActivity_When_IfNoneMatchHasOtherTag_Then_ReturnsReport() throws AccessDeniedException, UserNotFoundException
+	{
+		ResponseEntity<?> actual = controller.findUserActivity(USER_ID, null, 0, 0, false, false, null, null, null, null, null, false, false, "\"other\"");
+		
+		assertEquals(HttpStatus.OK, actual.getStatusCode());
+		assertEquals(users, actual.getBody());
+	}
+	
+	@Test
+	public void findUserActivity_When_UserServiceThrowsAccessDeniedExceptionForTag_Then_ThrowsSameException() throws AccessDeniedException, UserNotFoundException
+	{
+		when(userService.findUserActivityTag(anyString(), any())).thenThrow(new AccessDeniedException());
+		
+		assertThrows(AccessDeniedException.class, () -> controller.findUserActivity(USER_ID, null, 0, 0, false, false, null, null, null, null, null, false,
+																					false, "*"));
+		verify(userService, never()).findUserActivity(anyString(), any());
+	}
+	
+	@Test
+	public void findUserActivity_EndpointReturnsWholeReportUnlessAskedForNdjson() throws Exception
+	{
+		mockMvc.perform(get("/admin/987654321/userActivity").accept(MediaType.ALL))
+				.andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+				.andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT));
+		
+		verify(userService, never()).streamUserActivity(anyString(), any());
+	}
+	
+	//endregion
+	
+	//region streamUserActivity
+	
+	@Test
+	public void streamUserActivity_EndpointStreamsOneUserPerLineWhenAcceptingNdjson() throws Exception
+	{
+		when(userService.streamUserActivity(anyString(), any())).thenReturn(Stream.of(activityOf("111111111"), activityOf("222222222")));
+		
+		MvcResult result = mockMvc.perform(get("/admin/987654321/userActivity").accept(MediaType.APPLICATION_NDJSON))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+				.andExpect(header().string(HttpHeaders.ETAG, "\"" + NDJSON_TAG + "\""))
+				.andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT));
+		String[] lines = result.getResponse().getContentAsString().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0].startsWith("{") && lines[0].contains("\"userId\":\"111111111\""));
+		assertTrue(lines[1].startsWith("{") && lines[1].contains("\"userId\":\"222222222\""));
+		verify(userService, never()).findUserActivity(anyString(), any());
+	}
+	
+	@Test
+	public void streamUserActivity_EndpointPassesFiltersToUserService() throws Exception
+	{
+		when(userService.streamUserActivity(anyString(), any())).thenReturn(Stream.empty());
+		
+		MvcResult result = mockMvc.perform(get("/admin/987654321/userActivity?roleToView=Administrator&priorWorkShiftsThreshold=2")
+														.accept(MediaType.APPLICATION_NDJSON))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk());
+		
+		verify(userService).streamUserActivity(eq("987654321"), filtersCaptor.capture());
+		assertEquals(Role.Administrator, filtersCaptor.getValue().getRoleToView());
+		assertEquals(2, filtersCaptor.getValue().getPriorWorkShiftsThreshold());
+	}
+	
+	@Test
+	public void streamUserActivity_When_IfNoneMatchHasWholeReportTag_Then_StreamsReport() throws Exception
+	{
+		when(userService.streamUserActivity(anyString(), any())).thenReturn(Stream.empty());
+		
+		MvcResult result = mockMvc.perform(get("/admin/987654321/userActivity").accept(MediaType.APPLICATION_NDJSON)
+														.header(HttpHeaders.IF_NONE_MATCH, "\"" + TAG + "\""))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk());
+	}
+	
+	@Test
+	public void findUserActivity_When_IfNoneMatchHasStreamedReportTag_Then_ReturnsReport() throws Exception
+	{
+		mockMvc.perform(get("/admin/987654321/userActivity").header(HttpHeaders.IF_NONE_MATCH, "\"" + NDJSON_TAG + "\""))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, "\"" + TAG + "\""));
+	}
+	
+	@Test
+	public void streamUserActivity_WritesEachUserOnItsOwnLine() throws AccessDeniedException, UserNotFoundException, IOException
+	{
+		when(userService.streamUserActivity(anyString(), any())).thenReturn(Stream.of(activityOf("111111111"), activityOf("222222222")));
+		
+		ResponseEntity<StreamingResponseBody> actual = controller.streamUserActivity(USER_ID, null, 0, 0, false, false, null, null, null, null, null,
+																					 false, null);
+		
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		actual.getBody().writeTo(outputStream);
+		String body = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+		assertEquals(MediaType.APPLICATION_NDJSON, actual.getHeaders().getContentType());
+		assertTrue(body.endsWith("}\n"));
+		assertEquals(2, body.split("\n").length);
+		verify(userService, never()).findUserActivity(anyString(), any());
+	}
+	
+	@Test
+	public void streamUserActivity_When_NoUsersPass_Then_WritesNothing() throws AccessDeniedException, UserNotFoundException, IOException
+	{
+		when(userService.streamUserActivity(anyString(), any())).thenReturn(Stream.empty());
+		
+		ResponseEntity<StreamingResponseBody> actual = controller.streamUserActivity(USER_ID, null, 0, 0, false, false, null, null, null, null, null,
+																					 false, null);
+		
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		actual.getBody().writeTo(outputStream);
+		assertEquals(0, outputStream.size());
+	}
+	
+	@Test
+	public void streamUserActivity_When_IfNoneMatchHasStreamedReportTag_Then_ReturnsNotModifiedWithoutStreaming()
+			throws AccessDeniedException, UserNotFoundException
+	{
+		ResponseEntity<StreamingResponseBody> actual = controller.streamUserActivity(USER_ID, null, 0, 0, false, false, null, null, null, null, null,
+																					 false, "\"" + NDJSON_TAG + "\"");
+		
+		assertEquals(HttpStatus.NOT_MODIFIED, actual.getStatusCode());
+		assertEquals(singletonList(HttpHeaders.ACCEPT), actual.getHeaders().get(HttpHeaders.VARY));
+		verify(userService, never()).streamUserActivity(anyString(), any());
+	}
+	
+	@Test
+	public void streamUserActivity_When_UserServiceThrowsAccessDeniedException_Then_ThrowsSameException() throws AccessDeniedException, UserNotFoundException
+	{
+		when(userService.streamUserActivity(anyString(), any())).thenThrow(new AccessDeniedException());
+		
+		assertThrows(AccessDeniedException.class, () -> controller.streamUserActivity(USER_ID, null, 0, 0, false, false, null, null, null, null, null,
+																					  false, null));
+	}
+	
+	//endregion
+	
+	//region findLiveStatus
+	
+	@Test
+	public void findLiveStatus_EndpointExists() throws Exception
+	{
+		mockMvc.perform(get("/admin/987654321/liveStatus"))
+				.andExpect(status().isOk());
+	}
+	
+	@ParameterizedTest
+	@ValueSource(strings = {USER_ID, "123456789"})
+	public void findLiveStatus_CallsUserService(String userId) throws AccessDeniedException, UserNotFoundException
+	{
+		controller.findLiveStatus(userId);
+		
+		verify(userService).findLiveStatus(userId);
+	}
+	
+	@Test
+	public void findLiveStatus_ReturnsWhatUserServiceReturnsInBody() throws AccessDeniedException, UserNotFoundException
+	{
+		LiveStatus liveStatus = new LiveStatus(singleton("1234"), emptySet(), emptySet());
+		when(userService.findLiveStatus(anyString())).thenReturn(liveStatus);
+		
+		ResponseEntity<LiveStatus> actual = controller.findLiveStatus(USER_ID);
+		
+		assertSame(liveStatus, actual.getBody());
+	}
+	
+	@Test
+	public void findLiveStatus_When_UserServiceThrowsAccessDeniedException_Then_ThrowsSameException() throws AccessDeniedException, UserNotFoundException
+	{
+		when(userService.findLiveStatus(anyString())).thenThrow(new AccessDeniedException());
+		
+		assertThrows(AccessDeniedException.class, () -> controller.findLiveStatus(USER_ID));
+	}
+	
+	//endregion
+	
+	//region findTopUsersByShiftCount
+	
+	@Test
+	public void findTopUsersByShiftCount_EndpointExists() throws Exception
+	{
+		mockMvc.perform(get("/admin/987654321/topUsersByShiftCount"))
+				.andExpect(status().isOk());
+	}
+	
+	@Test
+	public void findTopUsersByShiftCount_When_LimitIsNotGiven_Then_AsksForTen() throws Exception
+	{
+		mockMvc.perform(get("/admin/987654321/topUsersByShiftCount"));
+		
+		verify(userService).findTopUsersByShiftCount("987654321", 10);
+	}
+	
+	@Test
+	public void findTopUsersByShiftCount_EndpointExistsWithParameters() throws Exception
+	{
+		mockMvc.perform(get("/admin/987654321/topUsersByShiftCount?limit=3"))
+				.andExpect(status().isOk());
+		
+		verify(userService).findTopUsersByShiftCount("987654321", 3);
+	}
+	
+	@Test
+	public void findTopUsersByShiftCount_ReturnsWhatUserServiceReturnsInBody() throws AccessDeniedException, UserNotFoundException
+	{
+		List<UserShiftCount> topUsers = singletonList(new UserShiftCount("1234", "Bob", 5));
+		when(userService.findTopUsersByShiftCount(anyString(), anyInt())).thenReturn(topUsers);
+		
+		ResponseEntity<List<UserShiftCount>> actual = controller.findTopUsersByShiftCount(USER_ID, 10);
+		
+		assertSame(topUsers, actual.getBody());
+	}
+	
+	@Test
+	public void findTopUsersByShiftCount_When_UserServiceThrowsAccessDeniedException_Then_ThrowsSameException()
+			throws AccessDeniedException, UserNotFoundException
+	{
+		when(userService.findTopUsersByShiftCount(anyString(), anyInt())).thenThrow(new AccessDeniedException());
+		
+		assertThrows(AccessDeniedException.class, () -> controller.findTopUsersByShiftCount(USER_ID, 10));
 	}
 	
 	//endregion
@@ -245,29 +547,83 @@ public class SimpleTimeClockControllerTests
 	}
 	
 	@Test
-	public void updateUser_CallsUserService() throws UserNotFoundException
+	public void updateUser_EndpointReturnsUserVersionAsETag() throws Exception
+	{
+		User user = new User(USER_ID);
+		user.setVersion(7);
+		when(userService.updateUser(any(), any(), any(), any())).thenReturn(user);
+		
+		mockMvc.perform(post("/user/987654321/update"))
+				.andExpect(status().isAccepted())
+				.andExpect(header().string(HttpHeaders.ETAG, "\"7\""));
+	}
+	
+	@Test
+	public void updateUser_When_UserServiceThrowsUserModifiedException_Then_EndpointReturnsPreconditionFailed() throws Exception
 	{
-		controller.updateUser(USER_ID, NAME, Role.Administrator);
+		when(userService.updateUser(any(), any(), any(), any())).thenThrow(new UserModifiedException());
 		
-		verify(userService).updateUser(USER_ID, NAME, Role.Administrator);
+		mockMvc.perform(post("/user/987654321/update").header(HttpHeaders.IF_MATCH, "\"7\""))
+				.andExpect(status().isPreconditionFailed());
 	}
 	
 	@Test
-	public void updateUser_When_UserServiceReturnsUser_Then_ReturnsWhatUserServiceReturnsInBody() throws UserNotFoundException
+	public void updateUser_CallsUserService() throws UserNotFoundException, UserModifiedException
+	{
+		controller.updateUser(USER_ID, NAME, Role.Administrator, null);
+		
+		verify(userService).updateUser(USER_ID, NAME, Role.Administrator, null);
+	}
+	
+	@ParameterizedTest
+	@ValueSource(strings = {"\"7\"", "W/\"7\"", "7"})
+	public void updateUser_When_IfMatchIsGiven_Then_PassesItsVersionToUserService(String ifMatch) throws UserNotFoundException, UserModifiedException
+	{
+		controller.updateUser(USER_ID, NAME, Role.Administrator, ifMatch);
+		
+		verify(userService).updateUser(USER_ID, NAME, Role.Administrator, 7L);
+	}
+	
+	@Test
+	public void updateUser_When_IfMatchIsWildcard_Then_PassesNoVersionToUserService() throws UserNotFoundException, UserModifiedException
+	{
+		controller.updateUser(USER_ID, NAME, Role.Administrator, "*");
+		
+		verify(userService).updateUser(USER_ID, NAME, Role.Administrator, null);
+	}
+	
+	@Test
+	public void updateUser_When_IfMatchIsNotAVersion_Then_ThrowsUserModifiedException() throws UserNotFoundException, UserModifiedException
+	{
+		assertThrows(UserModifiedException.class, () -> controller.updateUser(USER_ID, NAME, Role.Administrator, "\"abc\""));
+		
+		verify(userService, never()).updateUser(any(), any(), any(), any());
+	}
+	
+	@Test
+	public void updateUser_When_UserServiceReturnsUser_Then_ReturnsWhatUserServiceReturnsInBody() throws UserNotFoundException, UserModifiedException
 	{
 		User expectedUser = new User();
-		when(userService.updateUser(anyString(), anyString(), any())).thenReturn(expectedUser);
-		ResponseEntity<User> actual = controller.updateUser(USER_ID, NAME, Role.Administrator);
+		when(userService.updateUser(anyString(), anyString(), any(), any())).thenReturn(expectedUser);
+		ResponseEntity<User> actual = controller.updateUser(USER_ID, NAME, Role.Administrator, null);
 		
 		assertEquals(expectedUser, actual.getBody());
 	}
 	
 	@Test
-	public void updateUser_When_UserServiceThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
+	public void updateUser_When_UserServiceThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException, UserModifiedException
+	{
+		when(userService.updateUser(anyString(), anyString(), any(), any())).thenThrow(new UserNotFoundException());
+		
+		assertThrows(UserNotFoundException.class, () -> controller.updateUser(USER_ID, NAME, Role.Administrator, null));
+	}
+	
+	@Test
+	public void updateUser_When_UserServiceThrowsUserModifiedException_Then_ThrowsSameException() throws UserNotFoundException, UserModifiedException
 	{
-		when(userService.updateUser(anyString(), anyString(), any())).thenThrow(new UserNotFoundException());
+		when(userService.updateUser(anyString(), anyString(), any(), any())).thenThrow(new UserModifiedException());
 		
-		assertThrows(UserNotFoundException.class, () -> controller.updateUser(USER_ID, NAME, Role.Administrator));
+		assertThrows(UserModifiedException.class, () -> controller.updateUser(USER_ID, NAME, Role.Administrator, "\"7\""));
 	}
 	
 	//endregion
@@ -463,4 +819,9 @@ public class SimpleTimeClockControllerTests
 	}
 	
 	//endregion
+	
+	private UserActivity activityOf(String userId)
+	{
+		return new UserActivity(new User(userId), emptyList(), emptyList());
+	}
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package com.hawkins.simpletimeclock.exception;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+public class UserModifiedExceptionTests
+{
+	@Test
+	public void class_HasCorrectAnnotations()
+	{
+		ResponseStatus annotation = UserModifiedException.class.getAnnotation(ResponseStatus.class);
+		
+		assertNotNull(annotation);
+		assertEquals(HttpStatus.PRECONDITION_FAILED, annotation.value());
+		assertEquals("User has been modified", annotation.reason());
+	}
+}
\ No newline at end of file
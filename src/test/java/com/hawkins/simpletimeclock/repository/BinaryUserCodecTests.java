@@ -0,0 +1,170 @@
+package com.hawkins.simpletimeclock.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hawkins.simpletimeclock.domain.Break;
+import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.domain.WorkShift;
+import com.hawkins.simpletimeclock.enums.BreakType;
+import com.hawkins.simpletimeclock.enums.DatabaseFormat;
+import com.hawkins.simpletimeclock.enums.Role;
+import org.junit.jupiter.api.Test;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryUserCodecTests
+{
+	private static final LocalDateTime START_TIME = LocalDateTime.of(2022, 12, 31, 12, 30, 15, 123456789);
+	private static final LocalDateTime END_TIME = LocalDateTime.of(2022, 12, 31, 20, 30);
+	
+	private final BinaryUserCodec binaryUserCodec = new BinaryUserCodec();
+	
+	@Test
+	public void class_HasCorrectAnnotations()
+	{
+		assertNotNull(BinaryUserCodec.class.getAnnotation(Component.class));
+	}
+	
+	@Test
+	public void getFormat_ReturnsBinary()
+	{
+		assertEquals(DatabaseFormat.Binary, binaryUserCodec.getFormat());
+	}
+	
+	@Test
+	public void read_When_UsersWereWritten_Then_ReadsThemBackUnchanged() throws IOException
+	{
+		Map<String, User> users = new HashMap<>();
+		User anna = buildUserWithHistory();
+		User bob = new User("1234");
+		users.put(anna.getUserId(), anna);
+		users.put(bob.getUserId(), bob);
+		
+		Map<String, User> actual = binaryUserCodec.read(ByteBuffer.wrap(write(users)));
+		
+		assertEquals(2, actual.size());
+		User actualAnna = actual.get("123");
+		assertEquals("Anna", actualAnna.getName());
+		assertEquals(Role.Administrator, actualAnna.getRole());
+		assertEquals(7, actualAnna.getVersion());
+		assertEquals(START_TIME, actualAnna.getCurrentWorkShift().getStartTime());
+		assertNull(actualAnna.getCurrentWorkShift().getEndTime());
+		assertEquals(BreakType.Lunch, actualAnna.getCurrentLunchBreak().getBreakType());
+		assertNull(actualAnna.getCurrentBreak());
+		assertEquals(1, actualAnna.getPriorWorkShifts().size());
+		assertEquals(END_TIME, actualAnna.getPriorWorkShifts().get(0).getEndTime());
+		assertEquals(1, actualAnna.getPriorBreaks().size());
+		assertEquals(BreakType.Break, actualAnna.getPriorBreaks().get(0).getBreakType());
+		User actualBob = actual.get("1234");
+		assertNull(actualBob.getName());
+		assertNull(actualBob.getRole());
+		assertNull(actualBob.getCurrentWorkShift());
+		assertTrue(actualBob.getPriorWorkShifts().isEmpty());
+	}
+	
+	@Test
+	public void write_IsSmallerThanJson() throws IOException
+	{
+		ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+				.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+		Map<String, User> users = new HashMap<>();
+		users.put("123", buildUserWithHistory());
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		new JsonUserCodec(objectMapper).write(users, json);
+		
+		byte[] actual = write(users);
+		
+		assertTrue(actual.length * 3 < json.size(), actual.length + " bytes against " + json.size());
+	}
+	
+	@Test
+	public void read_When_HeaderIsMissing_Then_ThrowsIOException()
+	{
+		byte[] json = "{\"123\":{}}".getBytes(StandardCharsets.UTF_8);
+		
+		assertThrows(IOException.class, () -> binaryUserCodec.read(ByteBuffer.wrap(json)));
+	}
+	
+	@Test
+	public void read_When_FormatVersionIsUnknown_Then_ThrowsIOException() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		byte[] valid = write(new HashMap<>());
+		output.write(valid, 0, 4);
+		output.writeInt(99);
+		output.writeInt(0);
+		
+		assertThrows(IOException.class, () -> binaryUserCodec.read(ByteBuffer.wrap(bytes.toByteArray())));
+	}
+	
+	@Test
+	public void read_When_DatabaseIsTruncated_Then_ThrowsIOException() throws IOException
+	{
+		Map<String, User> users = new HashMap<>();
+		users.put("123", buildUserWithHistory());
+		byte[] written = write(users);
+		
+		ByteBuffer truncated = ByteBuffer.wrap(written, 0, written.length - 5).slice();
+		
+		assertThrows(IOException.class, () -> binaryUserCodec.read(truncated));
+	}
+	
+	@Test
+	public void read_LeavesBufferPositionAlone() throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(write(new HashMap<>()));
+		
+		binaryUserCodec.read(buffer);
+		
+		assertEquals(0, buffer.position());
+	}
+	
+	@Test
+	public void read_When_NameIsNotAscii_Then_ReadsItBackUnchanged() throws IOException
+	{
+		Map<String, User> users = new HashMap<>();
+		User user = new User("123");
+		user.setName("Zo\u00EB \uD83D\uDE00");
+		users.put(user.getUserId(), user);
+		
+		Map<String, User> actual = binaryUserCodec.read(ByteBuffer.wrap(write(users)));
+		
+		assertEquals("Zo\u00EB \uD83D\uDE00", actual.get("123").getName());
+	}
+	
+	private byte[] write(Map<String, User> users) throws IOException
+	{
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		binaryUserCodec.write(users, outputStream);
+		return outputStream.toByteArray();
+	}
+	
+	private User buildUserWithHistory()
+	{
+		User user = new User("123");
+		user.setName("Anna");
+		user.setRole(Role.Administrator);
+		user.setVersion(7);
+		WorkShift priorWorkShift = new WorkShift(START_TIME.minusDays(1));
+		priorWorkShift.setEndTime(END_TIME);
+		user.getPriorWorkShifts().add(priorWorkShift);
+		Break priorBreak = new Break(BreakType.Break, START_TIME.minusDays(1));
+		priorBreak.setEndTime(END_TIME.minusDays(1));
+		user.getPriorBreaks().add(priorBreak);
+		user.setCurrentWorkShift(new WorkShift(START_TIME));
+		user.setCurrentLunchBreak(new Break(BreakType.Lunch, START_TIME.plusHours(4)));
+		return user;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,124 @@
+package com.hawkins.simpletimeclock.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CountIndexTests
+{
+	@Test
+	public void empty_HoldsNoUsers()
+	{
+		CountIndex index = CountIndex.empty();
+		
+		assertEquals(0, index.size());
+		assertEquals(0, index.countAtLeast(0));
+		assertTrue(index.atLeast(0).isEmpty());
+		assertEquals(0, index.first(10).length);
+	}
+	
+	@Test
+	public void first_GivesUsersWithHighestCountsFirst()
+	{
+		CountIndex index = CountIndex.empty().with("111", 0, 1).with("222", 1, 5).with("333", 2, 3);
+		
+		assertArrayEquals(new int[]{1, 2, 0}, index.first(3));
+		assertArrayEquals(new int[]{1, 2}, index.first(2));
+		assertArrayEquals(new int[]{1, 2, 0}, index.first(10));
+		assertEquals(0, index.first(-1).length);
+	}
+	
+	@Test
+	public void first_When_CountsAreEqual_Then_GivesUsersInUserIdOrder()
+	{
+		CountIndex index = CountIndex.empty().with("333", 0, 2).with("111", 1, 2).with("222", 2, 2);
+		
+		assertArrayEquals(new int[]{1, 2, 0}, index.first(3));
+	}
+	
+	@Test
+	public void countAtLeast_CountsUsersAtOrAboveThreshold()
+	{
+		CountIndex index = CountIndex.empty().with("111", 0, 1).with("222", 1, 5).with("333", 2, 3).with("444", 3, 3);
+		
+		assertEquals(4, index.countAtLeast(0));
+		assertEquals(4, index.countAtLeast(1));
+		assertEquals(3, index.countAtLeast(2));
+		assertEquals(3, index.countAtLeast(3));
+		assertEquals(1, index.countAtLeast(5));
+		assertEquals(0, index.countAtLeast(6));
+	}
+	
+	@Test
+	public void atLeast_ReturnsOrdinalsOfUsersAtOrAboveThreshold()
+	{
+		CountIndex index = CountIndex.empty().with("111", 0, 1).with("222", 1, 5).with("333", 2, 3);
+		
+		assertArrayEquals(new int[]{1, 2}, index.atLeast(2).toArray());
+	}
+	
+	@Test
+	public void without_RemovesOnlyGivenUser()
+	{
+		CountIndex index = CountIndex.empty().with("111", 0, 2).with("222", 1, 2).with("333", 2, 2);
+		
+		CountIndex actual = index.without("222", 2);
+		
+		assertArrayEquals(new int[]{0, 2}, actual.first(3));
+		assertEquals(3, index.size());
+	}
+	
+	@Test
+	public void without_When_UserIsNotHeldAtCount_Then_ReturnsSameIndex()
+	{
+		CountIndex index = CountIndex.empty().with("111", 0, 2);
+		
+		assertSame(index, index.without("111", 1));
+		assertSame(index, index.without("222", 2));
+	}
+	
+	@Test
+	public void withAndWithout_When_ManyCountsChange_Then_MatchesSortedList()
+	{
+		Random random = new Random(42);
+		Map<String, Integer> counts = new HashMap<>();
+		Map<String, Integer> ordinals = new HashMap<>();
+		CountIndex actual = CountIndex.empty();
+		
+		for (int i = 0; i < 20_000; i++)
+		{
+			String userId = String.valueOf(100_000_000 + random.nextInt(2_000));
+			Integer previous = counts.get(userId);
+			if (previous != null)
+			{
+				actual = actual.without(userId, previous);
+			}
+			ordinals.putIfAbsent(userId, ordinals.size());
+			
+			if (random.nextInt(5) == 0)
+			{
+				counts.remove(userId);
+			} else
+			{
+				int count = random.nextInt(50);
+				counts.put(userId, count);
+				actual = actual.with(userId, ordinals.get(userId), count);
+			}
+		}
+		
+		List<String> expected = new ArrayList<>(counts.keySet());
+		expected.sort(Comparator.comparing((String userId) -> -counts.get(userId)).thenComparing(userId -> userId));
+		int[] expectedOrdinals = expected.stream().mapToInt(ordinals::get).toArray();
+		
+		assertEquals(expected.size(), actual.size());
+		assertArrayEquals(expectedOrdinals, actual.first(expected.size()));
+		assertEquals(counts.values().stream().filter(count -> count >= 25).count(), actual.countAtLeast(25));
+	}
+}
\ No newline at end of file
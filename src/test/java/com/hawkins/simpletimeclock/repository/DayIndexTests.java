@@ -0,0 +1,131 @@
+package com.hawkins.simpletimeclock.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.NavigableMap;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DayIndexTests
+{
+	private static final LocalDateTime START_TIME = LocalDateTime.of(2022, 12, 31, 12, 30);
+	
+	@Test
+	public void findUserIds_When_NothingAdded_Then_ReturnsNoUserIds()
+	{
+		assertTrue(new DayIndex().findUserIds(null, null).isEmpty());
+	}
+	
+	@Test
+	public void findUserIds_ReturnsUserIdsAddedOnDaysInRange()
+	{
+		DayIndex dayIndex = new DayIndex();
+		dayIndex.add("111", START_TIME.minusDays(2));
+		dayIndex.add("222", START_TIME.minusDays(1));
+		dayIndex.add("333", START_TIME);
+		dayIndex.add("444", START_TIME.plusDays(1));
+		dayIndex.add("555", START_TIME.plusDays(2));
+		
+		assertEquals(new HashSet<>(Arrays.asList("222", "333", "444")), dayIndex.findUserIds(START_TIME.minusDays(1), START_TIME.plusDays(1)));
+	}
+	
+	@Test
+	public void findUserIds_When_TimesFallPartWayThroughDays_Then_IncludesWholeOfThoseDays()
+	{
+		DayIndex dayIndex = new DayIndex();
+		dayIndex.add("111", START_TIME.withHour(0));
+		dayIndex.add("222", START_TIME.withHour(23));
+		
+		assertEquals(new HashSet<>(Arrays.asList("111", "222")), dayIndex.findUserIds(START_TIME, START_TIME));
+	}
+	
+	@Test
+	public void findUserIds_When_EitherTimeIsLeftOut_Then_RangeIsOpenOnThatSide()
+	{
+		DayIndex dayIndex = new DayIndex();
+		dayIndex.add("111", START_TIME.minusYears(5));
+		dayIndex.add("222", START_TIME.plusYears(5));
+		
+		assertEquals(Collections.singleton("111"), dayIndex.findUserIds(null, START_TIME));
+		assertEquals(Collections.singleton("222"), dayIndex.findUserIds(START_TIME, null));
+		assertEquals(new HashSet<>(Arrays.asList("111", "222")), dayIndex.findUserIds(null, null));
+	}
+	
+	@Test
+	public void findUserIds_When_AfterIsLaterThanBefore_Then_ReturnsNoUserIds()
+	{
+		DayIndex dayIndex = new DayIndex();
+		dayIndex.add("111", START_TIME);
+		
+		assertTrue(dayIndex.findUserIds(START_TIME.plusDays(1), START_TIME.minusDays(1)).isEmpty());
+	}
+	
+	@Test
+	public void findUserIds_When_UserAddedSeveralTimesOnSeveralDays_Then_ReturnsThemOnce()
+	{
+		DayIndex dayIndex = new DayIndex();
+		dayIndex.add("111", START_TIME);
+		dayIndex.add("111", START_TIME);
+		dayIndex.add("111", START_TIME.plusDays(1));
+		
+		assertEquals(Collections.singleton("111"), dayIndex.findUserIds(null, null));
+	}
+	
+	@Test
+	public void findUserIdsByDay_GivesDaysInRangeInOrderWithUsersOnEach()
+	{
+		DayIndex dayIndex = new DayIndex();
+		dayIndex.add("111", START_TIME.plusDays(1));
+		dayIndex.add("111", START_TIME);
+		dayIndex.add("222", START_TIME);
+		dayIndex.add("333", START_TIME.plusDays(2));
+		
+		NavigableMap<Long, Set<String>> actual = dayIndex.findUserIdsByDay(START_TIME, START_TIME.plusDays(1));
+		
+		assertEquals(Arrays.asList(DayIndex.dayOf(START_TIME), DayIndex.dayOf(START_TIME.plusDays(1))), new ArrayList<>(actual.keySet()));
+		assertEquals(new HashSet<>(Arrays.asList("111", "222")), actual.firstEntry().getValue());
+		assertEquals(Collections.singleton("111"), actual.lastEntry().getValue());
+		assertTrue(dayIndex.findUserIdsByDay(START_TIME.plusDays(1), START_TIME).isEmpty());
+	}
+	
+	@Test
+	public void estimateUserIds_When_UserAddedOnSeveralDaysInRange_Then_CountsThemOnEach()
+	{
+		DayIndex dayIndex = new DayIndex();
+		dayIndex.add("111", START_TIME.minusDays(1));
+		dayIndex.add("111", START_TIME);
+		dayIndex.add("222", START_TIME);
+		dayIndex.add("333", START_TIME.plusDays(2));
+		
+		assertEquals(3, dayIndex.estimateUserIds(START_TIME.minusDays(1), START_TIME.plusDays(1)));
+		assertEquals(4, dayIndex.estimateUserIds(null, null));
+		assertEquals(0, dayIndex.estimateUserIds(START_TIME.plusDays(1), START_TIME.minusDays(1)));
+	}
+		
+		@Test
+	public void add_When_StartTimeIsNull_Then_AddsNothing()
+	{
+		DayIndex dayIndex = new DayIndex();
+		
+		dayIndex.add("111", null);
+		
+		assertTrue(dayIndex.findUserIds(null, null).isEmpty());
+	}
+	
+	@Test
+	public void clear_RemovesAllUserIds()
+	{
+		DayIndex dayIndex = new DayIndex();
+		dayIndex.add("111", START_TIME);
+		
+		dayIndex.clear();
+		
+		assertTrue(dayIndex.findUserIds(null, null).isEmpty());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,153 @@
+package com.hawkins.simpletimeclock.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// Compares the user map against HashMap and ConcurrentHashMap copied for every snapshot, at the number of users we run with.
+// Run its main method directly; numbers are only comparable between runs on the same machine.
+public class PersistentHashMapBenchmark
+{
+	private static final int[] USER_COUNTS = {1_000, 8_000, 32_000};
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 10;
+	private static final int OPERATIONS = 20_000;
+	
+	// Stops the JIT from dropping work whose result is never used
+	private static long sink;
+	
+	public static void main(String[] args)
+	{
+		for (int users : USER_COUNTS)
+		{
+			String[] userIds = new String[users];
+			for (int i = 0; i < users; i++)
+			{
+				userIds[i] = String.valueOf(100_000_000 + i);
+			}
+			
+			System.out.printf("%,d users%n", users);
+			report("  HashMap            snapshot", () -> hashMapSnapshots(userIds));
+			report("  ConcurrentHashMap  snapshot", () -> concurrentHashMapSnapshots(userIds));
+			report("  PersistentHashMap  snapshot", () -> persistentHashMapSnapshots(userIds));
+			report("  HashMap            update", () -> hashMapUpdates(userIds));
+			report("  ConcurrentHashMap  update", () -> concurrentHashMapUpdates(userIds));
+			report("  PersistentHashMap  update", () -> persistentHashMapUpdates(userIds));
+			report("  HashMap            get", () -> gets(new HashMap<>(fill(userIds)), userIds));
+			report("  ConcurrentHashMap  get", () -> gets(new ConcurrentHashMap<>(fill(userIds)), userIds));
+			report("  PersistentHashMap  get", () -> gets(PersistentHashMap.copyOf(fill(userIds)), userIds));
+		}
+	}
+	
+	private static long hashMapSnapshots(String[] userIds)
+	{
+		Map<String, Integer> map = fill(userIds);
+		long start = System.nanoTime();
+		for (int i = 0; i < OPERATIONS / 100; i++)
+		{
+			sink += new HashMap<>(map).size();
+		}
+		return (System.nanoTime() - start) / (OPERATIONS / 100);
+	}
+	
+	private static long concurrentHashMapSnapshots(String[] userIds)
+	{
+		Map<String, Integer> map = new ConcurrentHashMap<>(fill(userIds));
+		long start = System.nanoTime();
+		for (int i = 0; i < OPERATIONS / 100; i++)
+		{
+			sink += new HashMap<>(map).size();
+		}
+		return (System.nanoTime() - start) / (OPERATIONS / 100);
+	}
+	
+	private static long persistentHashMapSnapshots(String[] userIds)
+	{
+		PersistentHashMap<String, Integer> map = PersistentHashMap.copyOf(fill(userIds));
+		Map<String, Integer> snapshot = map;
+		long start = System.nanoTime();
+		for (int i = 0; i < OPERATIONS; i++)
+		{
+			// Holding on to the current version is the whole snapshot
+			snapshot = map;
+			sink += snapshot.size();
+		}
+		return (System.nanoTime() - start) / OPERATIONS;
+	}
+	
+	// A punch replaces one user and publishes the result, which for a plain map means copying it
+	private static long hashMapUpdates(String[] userIds)
+	{
+		Map<String, Integer> map = fill(userIds);
+		long start = System.nanoTime();
+		for (int i = 0; i < OPERATIONS / 100; i++)
+		{
+			Map<String, Integer> next = new HashMap<>(map);
+			next.put(userIds[i % userIds.length], i);
+			map = next;
+		}
+		sink += map.size();
+		return (System.nanoTime() - start) / (OPERATIONS / 100);
+	}
+	
+	// Updated in place; only a snapshot would pay for a copy
+	private static long concurrentHashMapUpdates(String[] userIds)
+	{
+		Map<String, Integer> map = new ConcurrentHashMap<>(fill(userIds));
+		long start = System.nanoTime();
+		for (int i = 0; i < OPERATIONS; i++)
+		{
+			map.put(userIds[i % userIds.length], i);
+		}
+		sink += map.size();
+		return (System.nanoTime() - start) / OPERATIONS;
+	}
+	
+	private static long persistentHashMapUpdates(String[] userIds)
+	{
+		PersistentHashMap<String, Integer> map = PersistentHashMap.copyOf(fill(userIds));
+		long start = System.nanoTime();
+		for (int i = 0; i < OPERATIONS; i++)
+		{
+			map = map.with(userIds[i % userIds.length], i);
+		}
+		sink += map.size();
+		return (System.nanoTime() - start) / OPERATIONS;
+	}
+	
+	private static long gets(Map<String, Integer> map, String[] userIds)
+	{
+		long start = System.nanoTime();
+		for (int i = 0; i < OPERATIONS; i++)
+		{
+			sink += map.get(userIds[i % userIds.length]);
+		}
+		return (System.nanoTime() - start) / OPERATIONS;
+	}
+	
+	private static Map<String, Integer> fill(String[] userIds)
+	{
+		Map<String, Integer> map = new HashMap<>();
+		for (int i = 0; i < userIds.length; i++)
+		{
+			map.put(userIds[i], i);
+		}
+		return map;
+	}
+	
+	private static void report(String name, Supplier<Long> round)
+	{
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+		{
+			round.get();
+		}
+		
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < MEASURED_ROUNDS; i++)
+		{
+			best = Math.min(best, round.get());
+		}
+		System.out.printf("%s: %,d ns/op%n", name, best);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,160 @@
+package com.hawkins.simpletimeclock.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistentHashMapTests
+{
+	// "Aa" and "BB" have the same hash code
+	private static final String COLLIDING_KEY_1 = "Aa";
+	private static final String COLLIDING_KEY_2 = "BB";
+	
+	@Test
+	public void empty_HasNoEntries()
+	{
+		PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+		
+		assertEquals(0, map.size());
+		assertNull(map.get("1"));
+		assertFalse(map.entrySet().iterator().hasNext());
+	}
+	
+	@Test
+	public void with_When_KeyIsNew_Then_ReturnsMapHoldingIt()
+	{
+		PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer>empty().with("1", 1).with("2", 2);
+		
+		assertEquals(2, map.size());
+		assertEquals(1, map.get("1"));
+		assertEquals(2, map.get("2"));
+	}
+	
+	@Test
+	public void with_When_KeyExists_Then_ReplacesValue()
+	{
+		PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer>empty().with("1", 1).with("1", 2);
+		
+		assertEquals(1, map.size());
+		assertEquals(2, map.get("1"));
+	}
+	
+	@Test
+	public void with_DoesNotChangeOriginalMap()
+	{
+		PersistentHashMap<String, Integer> original = PersistentHashMap.<String, Integer>empty().with("1", 1);
+		
+		original.with("1", 2).with("2", 2);
+		
+		assertEquals(1, original.size());
+		assertEquals(1, original.get("1"));
+		assertFalse(original.containsKey("2"));
+	}
+	
+	@Test
+	public void without_When_KeyExists_Then_ReturnsMapWithoutIt()
+	{
+		PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer>empty().with("1", 1).with("2", 2);
+		
+		PersistentHashMap<String, Integer> actual = map.without("1");
+		
+		assertEquals(1, actual.size());
+		assertFalse(actual.containsKey("1"));
+		assertEquals(2, actual.get("2"));
+		assertTrue(map.containsKey("1"));
+	}
+	
+	@Test
+	public void without_When_KeyDoesNotExist_Then_ReturnsSameMap()
+	{
+		PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer>empty().with("1", 1);
+		
+		assertSame(map, map.without("2"));
+	}
+	
+	@Test
+	public void without_When_LastKeyRemoved_Then_ReturnsEmptyMap()
+	{
+		PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer>empty().with("1", 1).without("1");
+		
+		assertEquals(0, map.size());
+		assertTrue(map.isEmpty());
+		assertFalse(map.entrySet().iterator().hasNext());
+	}
+	
+	@Test
+	public void with_When_KeysHaveSameHashCode_Then_KeepsBoth()
+	{
+		PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer>empty().with(COLLIDING_KEY_1, 1).with(COLLIDING_KEY_2, 2);
+		
+		assertEquals(2, map.size());
+		assertEquals(1, map.get(COLLIDING_KEY_1));
+		assertEquals(2, map.get(COLLIDING_KEY_2));
+	}
+	
+	@Test
+	public void without_When_KeysHaveSameHashCode_Then_OnlyRemovesGivenKey()
+	{
+		PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer>empty().with(COLLIDING_KEY_1, 1).with(COLLIDING_KEY_2, 2).with("1", 3);
+		
+		PersistentHashMap<String, Integer> actual = map.without(COLLIDING_KEY_1);
+		
+		assertEquals(2, actual.size());
+		assertNull(actual.get(COLLIDING_KEY_1));
+		assertEquals(2, actual.get(COLLIDING_KEY_2));
+		assertEquals(3, actual.get("1"));
+	}
+	
+	@Test
+	public void put_ThrowsUnsupportedOperationException()
+	{
+		PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+		
+		assertThrows(UnsupportedOperationException.class, () -> map.put("1", 1));
+	}
+	
+	@Test
+	public void copyOf_HoldsSameEntriesAsGivenMap()
+	{
+		Map<String, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 10_000; i++)
+		{
+			expected.put(String.valueOf(i), i);
+		}
+		
+		PersistentHashMap<String, Integer> actual = PersistentHashMap.copyOf(expected);
+		
+		assertEquals(expected, actual);
+		assertEquals(expected.hashCode(), actual.hashCode());
+	}
+	
+	@Test
+	public void withAndWithout_When_ManyKeysChange_Then_MatchesHashMap()
+	{
+		Random random = new Random(42);
+		Map<String, Integer> expected = new HashMap<>();
+		PersistentHashMap<String, Integer> actual = PersistentHashMap.empty();
+		
+		for (int i = 0; i < 50_000; i++)
+		{
+			String key = String.valueOf(random.nextInt(5_000));
+			if (random.nextInt(3) == 0)
+			{
+				expected.remove(key);
+				actual = actual.without(key);
+			} else
+			{
+				expected.put(key, i);
+				actual = actual.with(key, i);
+			}
+		}
+		
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected, actual);
+		assertEquals(actual, expected);
+	}
+}
\ No newline at end of file
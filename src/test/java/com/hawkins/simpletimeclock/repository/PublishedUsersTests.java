@@ -0,0 +1,274 @@
+package com.hawkins.simpletimeclock.repository;
+
+import com.hawkins.simpletimeclock.domain.Break;
+import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.domain.WorkShift;
+import com.hawkins.simpletimeclock.enums.BreakType;
+import com.hawkins.simpletimeclock.enums.Role;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static java.util.Collections.singleton;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PublishedUsersTests
+{
+	private static final String USER_ID = "987654321";
+	private static final LocalDateTime START_TIME = LocalDateTime.of(2022, 12, 31, 12, 30);
+	
+	@Test
+	public void empty_HasNoUsers()
+	{
+		PublishedUsers published = PublishedUsers.empty();
+		
+		assertTrue(published.getUsers().isEmpty());
+		assertTrue(published.getOnShift().isEmpty());
+		assertTrue(published.getOnBreak().isEmpty());
+		assertTrue(published.getOnLunch().isEmpty());
+		assertTrue(published.getRole(Role.Administrator).isEmpty());
+	}
+	
+	@Test
+	public void copyOf_HoldsGivenUsersAndTheirStatuses()
+	{
+		Map<String, User> users = new HashMap<>();
+		users.put("111", new User("111"));
+		users.put("222", onShift("222"));
+		users.put("333", onLunch(onShift("333")));
+		
+		PublishedUsers published = PublishedUsers.copyOf(users);
+		
+		assertEquals(users, published.getUsers());
+		assertEquals(new HashSet<>(Arrays.asList("222", "333")), published.userIdsIn(published.getOnShift()));
+		assertSame(users.get("222"), published.usersIn(published.getOnShift()).get("222"));
+		assertSame(users.get("333"), published.usersIn(published.getOnShift()).get("333"));
+		assertTrue(published.getOnBreak().isEmpty());
+		assertEquals(singleton("333"), published.userIdsIn(published.getOnLunch()));
+	}
+	
+	@Test
+	public void with_When_UserStartsShift_Then_AddsThemToOnShift()
+	{
+		PublishedUsers published = PublishedUsers.empty().with(USER_ID, new User(USER_ID));
+		User user = onShift(USER_ID);
+		
+		PublishedUsers actual = published.with(USER_ID, user);
+		
+		assertSame(user, actual.get(USER_ID));
+		assertSame(user, actual.usersIn(actual.getOnShift()).get(USER_ID));
+		assertTrue(published.getOnShift().isEmpty());
+	}
+	
+	@Test
+	public void streamUsersIn_GivesSameUsersAsUsersIn()
+	{
+		PublishedUsers published = PublishedUsers.empty().with("111", onShift("111")).with("222", new User("222")).with("333", onShift("333"));
+		
+		List<User> actual = published.streamUsersIn(published.getOnShift()).collect(Collectors.toList());
+		
+		assertEquals(2, actual.size());
+		assertSame(published.get("111"), actual.get(0));
+		assertSame(published.get("333"), actual.get(1));
+	}
+	
+	@Test
+	public void with_When_UserEndsBreak_Then_RemovesThemFromOnBreak()
+	{
+		User onBreak = onShift(USER_ID);
+		onBreak.setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		PublishedUsers published = PublishedUsers.empty().with(USER_ID, onBreak);
+		
+		PublishedUsers actual = published.with(USER_ID, onShift(USER_ID));
+		
+		assertTrue(actual.getOnBreak().isEmpty());
+		assertEquals(singleton(USER_ID), actual.userIdsIn(actual.getOnShift()));
+		assertEquals(singleton(USER_ID), published.userIdsIn(published.getOnBreak()));
+	}
+	
+	@Test
+	public void with_When_UserIsNew_Then_GivesThemNextOrdinal()
+	{
+		PublishedUsers published = PublishedUsers.empty().with("111", onShift("111")).with("222", onShift("222"));
+		
+		assertEquals(2, published.getOnShift().cardinality());
+		assertTrue(published.getOnShift().contains(0));
+		assertTrue(published.getOnShift().contains(1));
+	}
+	
+	@Test
+	public void with_When_UserIsReplaced_Then_KeepsTheirOrdinal()
+	{
+		PublishedUsers published = PublishedUsers.empty().with("111", new User("111")).with(USER_ID, new User(USER_ID));
+		
+		PublishedUsers actual = published.with(USER_ID, onShift(USER_ID));
+		
+		assertArrayEquals(new int[]{1}, actual.getOnShift().toArray());
+	}
+	
+	@Test
+	public void with_When_RoleChanges_Then_MovesUserToNewRole()
+	{
+		PublishedUsers published = PublishedUsers.empty().with(USER_ID, withRole(USER_ID, Role.NonAdministrator));
+		
+		PublishedUsers actual = published.with(USER_ID, withRole(USER_ID, Role.Administrator));
+		
+		assertEquals(singleton(USER_ID), actual.userIdsIn(actual.getRole(Role.Administrator)));
+		assertTrue(actual.getRole(Role.NonAdministrator).isEmpty());
+		assertEquals(singleton(USER_ID), published.userIdsIn(published.getRole(Role.NonAdministrator)));
+	}
+	
+	@Test
+	public void with_When_RoleIsUnchanged_Then_SharesRoles()
+	{
+		PublishedUsers published = PublishedUsers.empty().with(USER_ID, withRole(USER_ID, Role.Administrator));
+		
+		PublishedUsers actual = published.with(USER_ID, onShift(withRole(USER_ID, Role.Administrator)));
+		
+		assertSame(published.getRole(Role.Administrator), actual.getRole(Role.Administrator));
+		assertSame(published.getRole(Role.NonAdministrator), actual.getRole(Role.NonAdministrator));
+	}
+	
+	@Test
+	public void usersIn_When_BitmapsAreIntersected_Then_ReturnsOnlyUsersInAll()
+	{
+		User onBoth = onLunch(onShift("111"));
+		onBoth.setRole(Role.NonAdministrator);
+		User administratorOnLunch = onLunch(withRole("222", Role.Administrator));
+		PublishedUsers published = PublishedUsers.empty().with("111", onBoth).with("222", administratorOnLunch).with("333", onShift("333"));
+		
+		Map<String, User> actual = published.usersIn(published.getOnLunch().and(published.getRole(Role.NonAdministrator)));
+		
+		assertEquals(singleton("111"), actual.keySet());
+		assertSame(onBoth, actual.get("111"));
+	}
+	
+	@Test
+	public void without_RemovesUserFromEveryStatus()
+	{
+		PublishedUsers published = PublishedUsers.empty().with(USER_ID, onLunch(onShift(USER_ID))).with("111", new User("111"));
+		
+		PublishedUsers actual = published.without(USER_ID);
+		
+		assertNull(actual.get(USER_ID));
+		assertTrue(actual.getOnShift().isEmpty());
+		assertTrue(actual.getOnLunch().isEmpty());
+		assertTrue(actual.getRole(Role.NonAdministrator).isEmpty());
+		assertEquals(singleton("111"), actual.getUsers().keySet());
+	}
+	
+	@Test
+	public void with_When_UserRecordsShift_Then_MovesThemUpShiftCounts()
+	{
+		User oneShift = onShift("111");
+		oneShift.getPriorWorkShifts().add(new WorkShift(START_TIME));
+		PublishedUsers published = PublishedUsers.empty().with("111", oneShift).with(USER_ID, new User(USER_ID));
+		User twoShifts = new User(USER_ID);
+		twoShifts.getPriorWorkShifts().add(new WorkShift(START_TIME));
+		twoShifts.getPriorWorkShifts().add(new WorkShift(START_TIME.plusDays(1)));
+		
+		PublishedUsers actual = published.with(USER_ID, twoShifts);
+		
+		assertEquals(Arrays.asList(twoShifts, oneShift), actual.usersAt(actual.getShiftCounts().first(2)));
+		assertEquals(singleton(USER_ID), actual.userIdsIn(actual.getShiftCounts().atLeast(2)));
+		assertEquals(2, actual.getShiftCounts().size());
+		assertEquals(1, published.getShiftCounts().countAtLeast(1));
+	}
+	
+	@Test
+	public void with_When_CountsAreUnchanged_Then_SharesThem()
+	{
+		PublishedUsers published = PublishedUsers.empty().with(USER_ID, new User(USER_ID));
+		
+		PublishedUsers actual = published.with(USER_ID, onShift(USER_ID));
+		
+		assertSame(published.getShiftCounts(), actual.getShiftCounts());
+		assertSame(published.getBreakCounts(), actual.getBreakCounts());
+	}
+	
+	@Test
+	public void without_RemovesUserFromCounts()
+	{
+		User oneBreak = new User(USER_ID);
+		oneBreak.getPriorBreaks().add(new Break(BreakType.Break, START_TIME));
+		PublishedUsers published = PublishedUsers.empty().with(USER_ID, oneBreak).with("111", new User("111"));
+		
+		PublishedUsers actual = published.without(USER_ID);
+		
+		assertEquals(1, actual.getBreakCounts().size());
+		assertEquals(0, actual.getBreakCounts().countAtLeast(1));
+		assertEquals(1, actual.getShiftCounts().size());
+	}
+	
+	@Test
+	public void without_DoesNotGiveOrdinalOutAgain()
+	{
+		PublishedUsers published = PublishedUsers.empty().with(USER_ID, new User(USER_ID)).without(USER_ID);
+		
+		PublishedUsers actual = published.with("111", onShift("111"));
+		
+		assertArrayEquals(new int[]{1}, actual.getOnShift().toArray());
+	}
+	
+	@Test
+	public void without_When_UserDoesNotExist_Then_ReturnsSameUsers()
+	{
+		PublishedUsers published = PublishedUsers.empty().with("111", new User("111"));
+		
+		assertSame(published, published.without(USER_ID));
+	}
+	
+	@Test
+	public void withAndWithout_MoveOnToNextVersion()
+	{
+		PublishedUsers published = PublishedUsers.empty().with(USER_ID, new User(USER_ID));
+		
+		assertEquals(0, PublishedUsers.empty().getVersion());
+		assertEquals(1, published.getVersion());
+		assertEquals(2, published.with(USER_ID, onShift(USER_ID)).getVersion());
+		assertEquals(2, published.without(USER_ID).getVersion());
+	}
+	
+	@Test
+	public void getVersion_ReturnsVersionUserWasLastReplacedIn()
+	{
+		PublishedUsers published = PublishedUsers.empty().with(USER_ID, new User(USER_ID)).with("111", new User("111")).with(USER_ID, onShift(USER_ID));
+		
+		assertEquals(Long.valueOf(3), published.getVersion(USER_ID));
+		assertEquals(Long.valueOf(2), published.getVersion("111"));
+		assertNull(published.without("111").getVersion("111"));
+		assertNull(published.getVersion("222"));
+	}
+	
+	private User onShift(String userId)
+	{
+		User user = new User(userId);
+		user.setCurrentWorkShift(new WorkShift(START_TIME));
+		return user;
+	}
+	
+	private User withRole(String userId, Role role)
+	{
+		User user = new User(userId);
+		user.setRole(role);
+		return user;
+	}
+	
+	private User onShift(User user)
+	{
+		user.setCurrentWorkShift(new WorkShift(START_TIME));
+		return user;
+	}
+	
+	private User onLunch(User user)
+	{
+		user.setCurrentLunchBreak(new Break(BreakType.Lunch, START_TIME));
+		return user;
+	}
+}
\ No newline at end of file
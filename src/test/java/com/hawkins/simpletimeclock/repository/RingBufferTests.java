@@ -0,0 +1,120 @@
+package com.hawkins.simpletimeclock.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RingBufferTests
+{
+	@ParameterizedTest
+	@ValueSource(ints = {0, 3, 6, -4})
+	public void constructor_When_CapacityIsNotPowerOfTwo_Then_ThrowsIllegalArgumentException(int capacity)
+	{
+		assertThrows(IllegalArgumentException.class, () -> new RingBuffer<String>(capacity));
+	}
+	
+	@Test
+	public void poll_When_NothingOffered_Then_ReturnsNull()
+	{
+		RingBuffer<String> ringBuffer = new RingBuffer<>(4);
+		
+		assertNull(ringBuffer.poll());
+	}
+	
+	@Test
+	public void poll_ReturnsValuesInTheOrderTheyWereOffered()
+	{
+		RingBuffer<String> ringBuffer = new RingBuffer<>(4);
+		
+		ringBuffer.offer("a");
+		ringBuffer.offer("b");
+		ringBuffer.offer("c");
+		
+		assertEquals("a", ringBuffer.poll());
+		assertEquals("b", ringBuffer.poll());
+		assertEquals("c", ringBuffer.poll());
+		assertNull(ringBuffer.poll());
+	}
+	
+	@Test
+	public void offer_When_Full_Then_ReturnsFalse()
+	{
+		RingBuffer<String> ringBuffer = new RingBuffer<>(2);
+		
+		assertTrue(ringBuffer.offer("a"));
+		assertTrue(ringBuffer.offer("b"));
+		assertFalse(ringBuffer.offer("c"));
+	}
+	
+	@Test
+	public void offer_When_SlotPolledAfterFull_Then_ReusesSlot()
+	{
+		RingBuffer<String> ringBuffer = new RingBuffer<>(2);
+		ringBuffer.offer("a");
+		ringBuffer.offer("b");
+		
+		ringBuffer.poll();
+		
+		assertTrue(ringBuffer.offer("c"));
+		assertEquals("b", ringBuffer.poll());
+		assertEquals("c", ringBuffer.poll());
+	}
+	
+	@Test
+	public void offer_When_ManyThreadsOffer_Then_EveryValueIsPolledOnce() throws InterruptedException
+	{
+		int threads = 8;
+		int valuesPerThread = 10_000;
+		RingBuffer<Integer> ringBuffer = new RingBuffer<>(64);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> producers = new ArrayList<>();
+		
+		for (int thread = 0; thread < threads; thread++)
+		{
+			int first = thread * valuesPerThread;
+			Thread producer = new Thread(() -> {
+				try
+				{
+					start.await();
+				} catch (InterruptedException e)
+				{
+					return;
+				}
+				for (int value = first; value < first + valuesPerThread; value++)
+				{
+					while (!ringBuffer.offer(value))
+					{
+						Thread.yield();
+					}
+				}
+			});
+			producer.start();
+			producers.add(producer);
+		}
+		
+		start.countDown();
+		boolean[] polled = new boolean[threads * valuesPerThread];
+		for (int count = 0; count < polled.length; )
+		{
+			Integer value = ringBuffer.poll();
+			if (value != null)
+			{
+				assertFalse(polled[value]);
+				polled[value] = true;
+				count++;
+			}
+		}
+		for (Thread producer : producers)
+		{
+			producer.join();
+		}
+		
+		assertNull(ringBuffer.poll());
+	}
+}
\ No newline at end of file
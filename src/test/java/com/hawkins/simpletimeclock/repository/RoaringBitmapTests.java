@@ -0,0 +1,264 @@
+package com.hawkins.simpletimeclock.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoaringBitmapTests
+{
+	// One past the most values a container keeps as an array
+	private static final int BITMAP_CONTAINER_SIZE = 4097;
+
+	@Test
+	public void empty_HoldsNothing()
+	{
+		RoaringBitmap bitmap = RoaringBitmap.empty();
+
+		assertEquals(0, bitmap.cardinality());
+		assertTrue(bitmap.isEmpty());
+		assertFalse(bitmap.contains(0));
+		assertEquals(0, bitmap.toArray().length);
+	}
+
+	@Test
+	public void with_When_ValueIsNew_Then_ReturnsBitmapHoldingIt()
+	{
+		RoaringBitmap bitmap = RoaringBitmap.of(5, 1, 70_000);
+
+		assertEquals(3, bitmap.cardinality());
+		assertTrue(bitmap.contains(1));
+		assertTrue(bitmap.contains(5));
+		assertTrue(bitmap.contains(70_000));
+		assertFalse(bitmap.contains(2));
+		assertFalse(bitmap.contains(4_465));
+	}
+
+	@Test
+	public void of_When_ValuesRepeatOrAreUnordered_Then_HoldsEachOnce()
+	{
+		RoaringBitmap bitmap = RoaringBitmap.of(70_000, 3, 1, 3, 70_000);
+
+		assertArrayEquals(new int[]{1, 3, 70_000}, bitmap.toArray());
+	}
+
+	@Test
+	public void of_When_ManyValuesShareContainer_Then_HoldsEveryValue()
+	{
+		int[] values = new int[BITMAP_CONTAINER_SIZE + 1];
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = i * 2;
+		}
+
+		RoaringBitmap bitmap = RoaringBitmap.of(values);
+
+		assertEquals(values.length, bitmap.cardinality());
+		assertArrayEquals(values, bitmap.toArray());
+		assertEquals(values.length - 1, bitmap.without(0).cardinality());
+	}
+
+	@Test
+	public void of_When_ValueIsNegative_Then_ThrowsIllegalArgumentException()
+	{
+		assertThrows(IllegalArgumentException.class, () -> RoaringBitmap.of(1, -1));
+	}
+
+	@Test
+	public void with_When_ValueExists_Then_ReturnsSameBitmap()
+	{
+		RoaringBitmap bitmap = RoaringBitmap.of(1, 2);
+
+		assertSame(bitmap, bitmap.with(2));
+	}
+
+	@Test
+	public void with_DoesNotChangeOriginalBitmap()
+	{
+		RoaringBitmap original = RoaringBitmap.of(1);
+
+		original.with(2).with(70_000).without(1);
+
+		assertArrayEquals(new int[]{1}, original.toArray());
+	}
+
+	@Test
+	public void with_When_ValueIsNegative_Then_ThrowsIllegalArgumentException()
+	{
+		assertThrows(IllegalArgumentException.class, () -> RoaringBitmap.empty().with(-1));
+	}
+
+	@Test
+	public void without_When_ValueDoesNotExist_Then_ReturnsSameBitmap()
+	{
+		RoaringBitmap bitmap = RoaringBitmap.of(1, 70_000);
+
+		assertSame(bitmap, bitmap.without(2));
+		assertSame(bitmap, bitmap.without(140_000));
+	}
+
+	@Test
+	public void without_When_LastValueRemoved_Then_ReturnsEmptyBitmap()
+	{
+		RoaringBitmap bitmap = RoaringBitmap.of(1, 70_000).without(70_000).without(1);
+
+		assertTrue(bitmap.isEmpty());
+		assertSame(RoaringBitmap.empty(), bitmap);
+	}
+
+	@Test
+	public void withCondition_AddsOrRemovesValue()
+	{
+		RoaringBitmap bitmap = RoaringBitmap.of(1);
+
+		assertTrue(bitmap.with(2, true).contains(2));
+		assertFalse(bitmap.with(1, false).contains(1));
+	}
+
+	@Test
+	public void withAndWithout_When_ContainerGrowsPastArraySizeAndBack_Then_KeepsEveryValue()
+	{
+		RoaringBitmap bitmap = RoaringBitmap.empty();
+		for (int i = 0; i < BITMAP_CONTAINER_SIZE; i++)
+		{
+			bitmap = bitmap.with(i * 3);
+		}
+
+		assertEquals(BITMAP_CONTAINER_SIZE, bitmap.cardinality());
+		assertTrue(bitmap.contains(3 * (BITMAP_CONTAINER_SIZE - 1)));
+		assertFalse(bitmap.contains(1));
+
+		bitmap = bitmap.without(0).without(3);
+
+		assertEquals(BITMAP_CONTAINER_SIZE - 2, bitmap.cardinality());
+		assertFalse(bitmap.contains(0));
+		assertTrue(bitmap.contains(6));
+		assertEquals(6, bitmap.toArray()[0]);
+	}
+
+	@Test
+	public void and_When_BitmapsShareValues_Then_ReturnsOnlyThose()
+	{
+		RoaringBitmap first = RoaringBitmap.of(1, 2, 3, 70_000, 140_000);
+		RoaringBitmap second = RoaringBitmap.of(2, 3, 4, 140_000, 210_000);
+
+		assertArrayEquals(new int[]{2, 3, 140_000}, first.and(second).toArray());
+		assertArrayEquals(new int[]{2, 3, 140_000}, second.and(first).toArray());
+	}
+
+	@Test
+	public void and_When_NothingShared_Then_ReturnsEmptyBitmap()
+	{
+		assertTrue(RoaringBitmap.of(1, 70_000).and(RoaringBitmap.of(2, 140_000)).isEmpty());
+	}
+
+	@Test
+	public void and_When_ContainersAreArraysAndBitmaps_Then_MatchesTreeSet()
+	{
+		TreeSet<Integer> evens = new TreeSet<>();
+		TreeSet<Integer> multiplesOfThree = new TreeSet<>();
+		TreeSet<Integer> few = new TreeSet<>();
+		RoaringBitmap evensBitmap = RoaringBitmap.empty();
+		RoaringBitmap multiplesOfThreeBitmap = RoaringBitmap.empty();
+		RoaringBitmap fewBitmap = RoaringBitmap.empty();
+		for (int i = 0; i < 3 * BITMAP_CONTAINER_SIZE; i++)
+		{
+			evens.add(i * 2);
+			evensBitmap = evensBitmap.with(i * 2);
+			multiplesOfThree.add(i * 3);
+			multiplesOfThreeBitmap = multiplesOfThreeBitmap.with(i * 3);
+		}
+		for (int i = 0; i < 100; i++)
+		{
+			few.add(i * 7);
+			fewBitmap = fewBitmap.with(i * 7);
+		}
+
+		assertAnd(evens, multiplesOfThree, evensBitmap.and(multiplesOfThreeBitmap));
+		assertAnd(evens, few, evensBitmap.and(fewBitmap));
+		assertAnd(evens, few, fewBitmap.and(evensBitmap));
+		assertAnd(few, few, fewBitmap.and(fewBitmap));
+	}
+
+	@Test
+	public void forEach_GivesValuesInAscendingOrder()
+	{
+		List<Integer> actual = new ArrayList<>();
+
+		RoaringBitmap.of(140_000, 3, 70_000, 1, 65_535, 65_536).forEach(actual::add);
+
+		assertEquals(Arrays.asList(1, 3, 65_535, 65_536, 70_000, 140_000), actual);
+	}
+
+	@Test
+	public void stream_GivesSameValuesAsForEachInSameOrder()
+	{
+		RoaringBitmap bitmap = RoaringBitmap.empty();
+		for (int i = 0; i < BITMAP_CONTAINER_SIZE; i++)
+		{
+			bitmap = bitmap.with(i * 2);
+		}
+		bitmap = bitmap.with(70_000).with(140_000).with(140_063).with(140_064);
+
+		assertArrayEquals(bitmap.toArray(), bitmap.stream().toArray());
+		assertEquals(bitmap.cardinality(), bitmap.stream().count());
+	}
+
+	@Test
+	public void stream_When_Empty_Then_GivesNothing()
+	{
+		assertEquals(0, RoaringBitmap.empty().stream().count());
+		assertFalse(RoaringBitmap.of(1).without(1).iterator().hasNext());
+	}
+
+	@Test
+	public void iterator_When_NothingLeft_Then_ThrowsNoSuchElementException()
+	{
+		PrimitiveIterator.OfInt iterator = RoaringBitmap.of(5).iterator();
+
+		assertEquals(5, iterator.nextInt());
+		assertThrows(NoSuchElementException.class, iterator::nextInt);
+	}
+
+	@Test
+	public void withAndWithout_When_ManyValuesChange_Then_MatchesTreeSet()
+	{
+		Random random = new Random(42);
+		TreeSet<Integer> expected = new TreeSet<>();
+		RoaringBitmap actual = RoaringBitmap.empty();
+
+		for (int i = 0; i < 50_000; i++)
+		{
+			// Crowded enough near zero for bitmap containers, and sparse enough further out for array ones
+			int value = random.nextBoolean() ? random.nextInt(10_000) : random.nextInt(1_000_000);
+			if (random.nextInt(3) == 0)
+			{
+				expected.remove(value);
+				actual = actual.without(value);
+			} else
+			{
+				expected.add(value);
+				actual = actual.with(value);
+			}
+		}
+
+		assertEquals(expected.size(), actual.cardinality());
+		assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), actual.toArray());
+	}
+
+	private void assertAnd(TreeSet<Integer> first, TreeSet<Integer> second, RoaringBitmap actual)
+	{
+		TreeSet<Integer> expected = new TreeSet<>(first);
+		expected.retainAll(second);
+
+		assertEquals(expected.size(), actual.cardinality());
+		assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), actual.toArray());
+	}
+}
\ No newline at end of file
@@ -1,15 +1,263 @@
 package com.hawkins.simpletimeclock.repository;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.enums.DatabaseFormat;
+import com.hawkins.simpletimeclock.enums.DatabaseStorage;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.stereotype.Repository;
 
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 public class SimpleDatabaseRepositoryTests
 {
+	private static final int SHARDS = 4;
+	
+	@TempDir
+	Path databaseDirectory;
+	
+	private ObjectMapper objectMapper;
+	
+	@BeforeEach
+	public void setUp()
+	{
+		objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+				.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+	}
+	
 	@Test
 	public void class_HasCorrectAnnotations()
 	{
 		assertNotNull(SimpleDatabaseRepository.class.getAnnotation(Repository.class));
 	}
+	
+	@Test
+	public void initializeDB_When_NoDatabaseExists_Then_WritesDefaultUsers() throws IOException
+	{
+		SimpleDatabaseRepository repository = newRepository(DatabaseStorage.SingleFile);
+		
+		repository.initializeDB();
+		
+		assertTrue(Files.exists(databaseDirectory.resolve("users_db.json")));
+		assertEquals(3, repository.read().size());
+	}
+	
+	@Test
+	public void write_When_Sharded_Then_SpreadsUsersOverShardFiles()
+	{
+		SimpleDatabaseRepository repository = newRepository(DatabaseStorage.Sharded);
+		
+		repository.write(buildUsers(20));
+		
+		for (int shard = 0; shard < SHARDS; shard++)
+		{
+			assertTrue(Files.exists(databaseDirectory.resolve("users_db." + shard + ".json")));
+		}
+		assertFalse(Files.exists(databaseDirectory.resolve("users_db.json")));
+		assertEquals(20, newRepository(DatabaseStorage.Sharded).read().size());
+	}
+	
+	@Test
+	public void write_When_Sharded_Then_OnlyRewritesShardsOfChangedUsers() throws IOException
+	{
+		SimpleDatabaseRepository repository = newRepository(DatabaseStorage.Sharded);
+		Map<String, User> users = buildUsers(20);
+		repository.write(users);
+		Map<Path, FileTime> writeTimes = new HashMap<>();
+		for (int shard = 0; shard < SHARDS; shard++)
+		{
+			Path shardFile = databaseDirectory.resolve("users_db." + shard + ".json");
+			Files.setLastModifiedTime(shardFile, FileTime.fromMillis(0));
+			writeTimes.put(shardFile, Files.getLastModifiedTime(shardFile));
+		}
+		
+		users.get("7").setName("Changed");
+		repository.write(users, Collections.singleton("7"));
+		
+		long rewritten = writeTimes.entrySet().stream()
+				.filter(entry -> !entry.getValue().equals(getLastModifiedTime(entry.getKey())))
+				.count();
+		assertEquals(1, rewritten);
+		assertEquals("Changed", newRepository(DatabaseStorage.Sharded).read().get("7").getName());
+	}
+	
+	@Test
+	public void write_When_LongerTemporaryFileIsLeftFromCrash_Then_ReplacesAllOfIt() throws IOException
+	{
+		byte[] leftOver = new byte[64 * 1024];
+		Arrays.fill(leftOver, (byte) 'x');
+		Files.write(databaseDirectory.resolve("users_db.json.tmp"), leftOver);
+		SimpleDatabaseRepository repository = newRepository(DatabaseStorage.SingleFile);
+		
+		repository.write(buildUsers(2));
+		
+		assertFalse(Files.exists(databaseDirectory.resolve("users_db.json.tmp")));
+		assertEquals(2, newRepository(DatabaseStorage.SingleFile).read().size());
+	}
+	
+	@Test
+	public void read_When_SwitchingFromSingleFileToSharded_Then_KeepsUsersAndRemovesSingleFileOnNextWrite()
+	{
+		newRepository(DatabaseStorage.SingleFile).write(buildUsers(10));
+		SimpleDatabaseRepository repository = newRepository(DatabaseStorage.Sharded);
+		
+		Map<String, User> users = repository.read();
+		repository.write(users, Collections.emptySet());
+		
+		assertEquals(10, users.size());
+		assertFalse(Files.exists(databaseDirectory.resolve("users_db.json")));
+		assertEquals(10, newRepository(DatabaseStorage.Sharded).read().size());
+	}
+	
+	@Test
+	public void read_When_SwitchingFromShardedToSingleFile_Then_KeepsUsersAndRemovesShardsOnNextWrite()
+	{
+		newRepository(DatabaseStorage.Sharded).write(buildUsers(10));
+		SimpleDatabaseRepository repository = newRepository(DatabaseStorage.SingleFile);
+		
+		Map<String, User> users = repository.read();
+		repository.write(users, Collections.emptySet());
+		
+		assertEquals(10, users.size());
+		assertFalse(Files.exists(databaseDirectory.resolve("users_db.0.json")));
+		assertEquals(10, newRepository(DatabaseStorage.SingleFile).read().size());
+	}
+	
+	@Test
+	public void read_When_UserIsInMoreThanOneFile_Then_KeepsLatestVersion()
+	{
+		Map<String, User> older = buildUsers(1);
+		newRepository(DatabaseStorage.Sharded).write(older);
+		Map<String, User> newer = buildUsers(1);
+		newer.get("0").setName("Newer");
+		newer.get("0").setVersion(2);
+		// Written without removing the shard files, as if interrupted part way through switching layouts
+		writeSingleFile(newer);
+		
+		User actual = newRepository(DatabaseStorage.Sharded).read().get("0");
+		
+		assertEquals("Newer", actual.getName());
+	}
+	
+	@Test
+	public void initializeDB_When_DatabaseIsInAnotherFormat_Then_ConvertsIt() throws IOException
+	{
+		newRepository(DatabaseFormat.Json, DatabaseStorage.SingleFile).write(buildUsers(10));
+		SimpleDatabaseRepository repository = newRepository(DatabaseFormat.Binary, DatabaseStorage.SingleFile);
+		
+		repository.initializeDB();
+		
+		assertTrue(Files.exists(databaseDirectory.resolve("users_db.bin")));
+		assertFalse(Files.exists(databaseDirectory.resolve("users_db.json")));
+		assertEquals("User 3", repository.read().get("3").getName());
+	}
+	
+	@Test
+	public void initializeDB_When_DatabaseIsInAnotherFormat_Then_KeepsOriginalAsBackup() throws IOException
+	{
+		newRepository(DatabaseFormat.Json, DatabaseStorage.SingleFile).write(buildUsers(10));
+		byte[] original = Files.readAllBytes(databaseDirectory.resolve("users_db.json"));
+		
+		newRepository(DatabaseFormat.Binary, DatabaseStorage.SingleFile).initializeDB();
+		
+		assertArrayEquals(original, Files.readAllBytes(databaseDirectory.resolve("users_db.json.bak")));
+	}
+	
+	@Test
+	public void initializeDB_When_OnlyLayoutChanges_Then_KeepsNoBackup() throws IOException
+	{
+		newRepository(DatabaseFormat.Binary, DatabaseStorage.SingleFile).write(buildUsers(10));
+		
+		newRepository(DatabaseFormat.Binary, DatabaseStorage.Sharded).initializeDB();
+		
+		assertFalse(Files.exists(databaseDirectory.resolve("users_db.bin.bak")));
+	}
+	
+	@Test
+	public void initializeDB_When_DatabaseIsInAnotherLayout_Then_ConvertsIt() throws IOException
+	{
+		newRepository(DatabaseFormat.Binary, DatabaseStorage.SingleFile).write(buildUsers(10));
+		SimpleDatabaseRepository repository = newRepository(DatabaseFormat.Binary, DatabaseStorage.Sharded);
+		
+		repository.initializeDB();
+		
+		assertTrue(Files.exists(databaseDirectory.resolve("users_db.0.bin")));
+		assertFalse(Files.exists(databaseDirectory.resolve("users_db.bin")));
+		assertEquals(10, repository.read().size());
+	}
+	
+	@Test
+	public void initializeDB_When_DatabaseIsAsConfigured_Then_LeavesItAlone() throws IOException
+	{
+		SimpleDatabaseRepository repository = newRepository(DatabaseFormat.Binary, DatabaseStorage.SingleFile);
+		repository.write(buildUsers(10));
+		Path databaseFile = databaseDirectory.resolve("users_db.bin");
+		Files.setLastModifiedTime(databaseFile, FileTime.fromMillis(0));
+		
+		repository.initializeDB();
+		
+		assertEquals(FileTime.fromMillis(0), Files.getLastModifiedTime(databaseFile));
+	}
+	
+	private void writeSingleFile(Map<String, User> users)
+	{
+		try
+		{
+			objectMapper.writeValue(databaseDirectory.resolve("users_db.json").toFile(), users);
+		} catch (IOException e)
+		{
+			fail(e);
+		}
+	}
+	
+	private FileTime getLastModifiedTime(Path file)
+	{
+		try
+		{
+			return Files.getLastModifiedTime(file);
+		} catch (IOException e)
+		{
+			return fail(e);
+		}
+	}
+	
+	private Map<String, User> buildUsers(int count)
+	{
+		Map<String, User> users = new HashMap<>();
+		
+		for (int i = 0; i < count; i++)
+		{
+			User user = new User(String.valueOf(i));
+			user.setName("User " + i);
+			user.setVersion(1);
+			users.put(user.getUserId(), user);
+		}
+		
+		return users;
+	}
+	
+	private SimpleDatabaseRepository newRepository(DatabaseStorage storage)
+	{
+		return newRepository(DatabaseFormat.Json, storage);
+	}
+	
+	private SimpleDatabaseRepository newRepository(DatabaseFormat format, DatabaseStorage storage)
+	{
+		List<UserCodec> codecs = Arrays.asList(new JsonUserCodec(objectMapper), new BinaryUserCodec());
+		return new SimpleDatabaseRepository(codecs, databaseDirectory.toString(), format, storage, SHARDS);
+	}
 }
\ No newline at end of file
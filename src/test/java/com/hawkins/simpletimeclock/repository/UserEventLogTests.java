@@ -0,0 +1,266 @@
+package com.hawkins.simpletimeclock.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.domain.UserEvent;
+import com.hawkins.simpletimeclock.enums.BreakType;
+import com.hawkins.simpletimeclock.enums.Role;
+import com.hawkins.simpletimeclock.enums.UserEventType;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserEventLogTests
+{
+	private static final String USER_ID = "987654321";
+	private static final LocalDateTime START_TIME = LocalDateTime.of(2022, 12, 31, 12, 30);
+	
+	@TempDir
+	Path databaseDirectory;
+	
+	private final User user = new User(USER_ID);
+	private ObjectMapper objectMapper;
+	private MeterRegistry meterRegistry;
+	private UserEventLog userEventLog;
+	
+	@BeforeEach
+	public void setUp() throws IOException
+	{
+		objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+				.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+		meterRegistry = new SimpleMeterRegistry();
+		userEventLog = newUserEventLog();
+		userEventLog.open();
+	}
+	
+	@AfterEach
+	public void tearDown() throws IOException, InterruptedException
+	{
+		userEventLog.close();
+	}
+	
+	@Test
+	public void class_HasCorrectAnnotations()
+	{
+		assertNotNull(UserEventLog.class.getAnnotation(Repository.class));
+	}
+	
+	@Test
+	public void replay_When_NothingWasAppended_Then_ReplaysNothing()
+	{
+		assertTrue(replayAll().isEmpty());
+	}
+	
+	@Test
+	public void replay_When_EventsWereAppended_Then_ReplaysThemInOrder()
+	{
+		user.setName("Anna");
+		user.setRole(Role.Administrator);
+		userEventLog.append(UserEvent.userCreated(user)).join();
+		userEventLog.append(UserEvent.shiftStarted(user, START_TIME)).join();
+		userEventLog.append(UserEvent.breakStarted(user, BreakType.Lunch, START_TIME.plusHours(4))).join();
+		
+		List<UserEvent> actual = replayAll();
+		
+		assertEquals(3, actual.size());
+		assertEquals(UserEventType.UserCreated, actual.get(0).getType());
+		assertEquals("Anna", actual.get(0).getName());
+		assertEquals(Role.Administrator, actual.get(0).getRole());
+		assertEquals(UserEventType.ShiftStarted, actual.get(1).getType());
+		assertEquals(START_TIME, actual.get(1).getTime());
+		assertEquals(UserEventType.BreakStarted, actual.get(2).getType());
+		assertEquals(BreakType.Lunch, actual.get(2).getBreakType());
+		assertEquals(USER_ID, actual.get(2).getUserId());
+	}
+	
+	@Test
+	public void replay_When_LogIsReopened_Then_ReplaysEventsFromBeforeAndAfter() throws IOException, InterruptedException
+	{
+		userEventLog.append(UserEvent.shiftStarted(user, START_TIME)).join();
+		userEventLog.close();
+		userEventLog = newUserEventLog();
+		userEventLog.open();
+		userEventLog.append(UserEvent.shiftEnded(user, START_TIME.plusHours(8))).join();
+		
+		List<UserEvent> actual = replayAll();
+		
+		assertEquals(2, actual.size());
+		assertEquals(UserEventType.ShiftStarted, actual.get(0).getType());
+		assertEquals(UserEventType.ShiftEnded, actual.get(1).getType());
+	}
+	
+	@Test
+	public void open_When_LastEventWasOnlyPartlyWritten_Then_DropsIt() throws IOException, InterruptedException
+	{
+		userEventLog.append(UserEvent.shiftStarted(user, START_TIME)).join();
+		userEventLog.close();
+		Files.write(databaseDirectory.resolve("users_db.log.1"), "{\"e\":\"ShiftEn".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		userEventLog = newUserEventLog();
+		userEventLog.open();
+		userEventLog.append(UserEvent.shiftEnded(user, START_TIME.plusHours(8))).join();
+		
+		List<UserEvent> actual = replayAll();
+		
+		assertEquals(2, actual.size());
+		assertEquals(UserEventType.ShiftStarted, actual.get(0).getType());
+		assertEquals(UserEventType.ShiftEnded, actual.get(1).getType());
+	}
+	
+	@Test
+	public void append_WritesOneCompactLinePerEvent() throws IOException
+	{
+		userEventLog.append(UserEvent.shiftStarted(user, START_TIME)).join();
+		userEventLog.append(UserEvent.breakEnded(user, BreakType.Break, START_TIME)).join();
+		
+		List<String> lines = Files.readAllLines(databaseDirectory.resolve("users_db.log.1"));
+		
+		assertEquals(2, lines.size());
+		lines.forEach(line -> assertTrue(line.length() < 100, line));
+	}
+	
+	@Test
+	public void roll_StartsNewSegmentAndReturnsFinishedOne()
+	{
+		userEventLog.append(UserEvent.shiftStarted(user, START_TIME)).join();
+		
+		long actual = userEventLog.roll();
+		userEventLog.append(UserEvent.shiftEnded(user, START_TIME.plusHours(8))).join();
+		
+		assertEquals(1, actual);
+		assertTrue(Files.exists(databaseDirectory.resolve("users_db.log.1")));
+		assertTrue(Files.exists(databaseDirectory.resolve("users_db.log.2")));
+		assertEquals(2, replayAll().size());
+	}
+	
+	@Test
+	public void deleteSegmentsThrough_DropsOnlyFinishedSegments()
+	{
+		userEventLog.append(UserEvent.shiftStarted(user, START_TIME)).join();
+		long finished = userEventLog.roll();
+		userEventLog.append(UserEvent.shiftEnded(user, START_TIME.plusHours(8))).join();
+		
+		userEventLog.deleteSegmentsThrough(finished);
+		
+		List<UserEvent> actual = replayAll();
+		assertFalse(Files.exists(databaseDirectory.resolve("users_db.log.1")));
+		assertEquals(1, actual.size());
+		assertEquals(UserEventType.ShiftEnded, actual.get(0).getType());
+	}
+	
+	@Test
+	public void open_When_SeveralSegmentsExist_Then_AppendsToLatest() throws IOException, InterruptedException
+	{
+		userEventLog.roll();
+		userEventLog.roll();
+		userEventLog.close();
+		userEventLog = newUserEventLog();
+		userEventLog.open();
+		
+		userEventLog.append(UserEvent.shiftStarted(user, START_TIME)).join();
+		
+		assertEquals(1, Files.readAllLines(databaseDirectory.resolve("users_db.log.3")).size());
+	}
+	
+	@Test
+	public void append_CompletesOnceEventIsWritten() throws IOException
+	{
+		CompletableFuture<Void> actual = userEventLog.append(UserEvent.shiftStarted(user, START_TIME));
+		
+		actual.join();
+		assertEquals(1, Files.readAllLines(databaseDirectory.resolve("users_db.log.1")).size());
+	}
+	
+	@Test
+	public void sync_CompletesOnlyAfterEveryEventAppendedBeforeIt()
+	{
+		List<CompletableFuture<Void>> appended = new ArrayList<>();
+		for (int i = 0; i < 5; i++)
+		{
+			appended.add(userEventLog.append(UserEvent.userUpdated(user, "User " + i, null)));
+		}
+		
+		userEventLog.sync().join();
+		
+		assertTrue(appended.stream().allMatch(CompletableFuture::isDone));
+		assertEquals(5, replayAll().size());
+	}
+	
+	@Test
+	public void sync_When_NothingWasAppended_Then_CompletesWithoutWritingAnything() throws IOException
+	{
+		userEventLog.sync().join();
+		
+		assertEquals(0, Files.size(databaseDirectory.resolve("users_db.log.1")));
+	}
+	
+	@Test
+	public void append_When_EventsArriveTogether_Then_WritesThemInBatchesOfAtMostMaxBatchSize() throws IOException, InterruptedException
+	{
+		userEventLog.close();
+		userEventLog = new UserEventLog(objectMapper, meterRegistry, databaseDirectory.toString(), 4, Duration.ofMillis(200));
+		userEventLog.open();
+		List<CompletableFuture<Void>> appends = new ArrayList<>();
+		
+		for (int i = 0; i < 10; i++)
+		{
+			appends.add(userEventLog.append(UserEvent.shiftStarted(user, START_TIME.plusMinutes(i))));
+		}
+		appends.forEach(CompletableFuture::join);
+		
+		DistributionSummary batchSizes = meterRegistry.get("timeclock.eventlog.batch.size").summary();
+		assertEquals(3, batchSizes.count());
+		assertEquals(4, batchSizes.max());
+		List<UserEvent> actual = replayAll();
+		assertEquals(10, actual.size());
+		assertEquals(START_TIME.plusMinutes(9), actual.get(9).getTime());
+	}
+	
+	@Test
+	public void close_WritesEventsStillQueued() throws IOException, InterruptedException
+	{
+		userEventLog.close();
+		userEventLog = new UserEventLog(objectMapper, meterRegistry, databaseDirectory.toString(), 4, Duration.ofSeconds(10));
+		userEventLog.open();
+		CompletableFuture<Void> append = userEventLog.append(UserEvent.shiftStarted(user, START_TIME));
+		
+		userEventLog.close();
+		
+		assertTrue(append.isDone());
+		assertFalse(append.isCompletedExceptionally());
+		userEventLog = newUserEventLog();
+		userEventLog.open();
+		assertEquals(1, replayAll().size());
+	}
+	
+	private UserEventLog newUserEventLog()
+	{
+		return new UserEventLog(objectMapper, meterRegistry, databaseDirectory.toString(), 64, Duration.ZERO);
+	}
+	
+	private List<UserEvent> replayAll()
+	{
+		List<UserEvent> events = new ArrayList<>();
+		userEventLog.replay(events::add);
+		return events;
+	}
+}
\ No newline at end of file
@@ -1,19 +1,53 @@
 package com.hawkins.simpletimeclock.repository;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hawkins.simpletimeclock.domain.Break;
+import com.hawkins.simpletimeclock.domain.LiveStatus;
 import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.domain.UserEvent;
+import com.hawkins.simpletimeclock.domain.WorkShift;
+import com.hawkins.simpletimeclock.enums.BreakType;
+import com.hawkins.simpletimeclock.enums.MutationMode;
+import com.hawkins.simpletimeclock.enums.Role;
+import com.hawkins.simpletimeclock.enums.UserEventType;
 import com.hawkins.simpletimeclock.exception.UserAlreadyExistsException;
+import com.hawkins.simpletimeclock.exception.UserModifiedException;
 import com.hawkins.simpletimeclock.exception.UserNotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.ValueSource;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PostConstruct;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -22,12 +56,27 @@ import static org.mockito.Mockito.*;
 public class UserRepositoryTests
 {
 	private static final String USER_ID = "987654321";
+	private static final LocalDateTime START_TIME = LocalDateTime.of(2022, 12, 31, 12, 30);
+	private static final LocalDateTime END_TIME = LocalDateTime.of(2022, 12, 31, 20, 29);
+	
+	@Captor
+	private ArgumentCaptor<UserEvent> eventCaptor;
+	
+	@Captor
+	private ArgumentCaptor<Map<String, User>> usersCaptor;
+	@Captor
+	private ArgumentCaptor<Set<String>> changedUserIdsCaptor;
+	
+	@TempDir
+	Path databaseDirectory;
 	
 	@Mock
 	private SimpleDatabaseRepository simpleDatabaseRepository;
-	@InjectMocks
-	private UserRepository userRepository;
+	@Mock
+	private UserEventLog userEventLog;
 	
+	private UserRepository userRepository;
+	private MeterRegistry meterRegistry;
 	private HashMap<String, User> users;
 	
 	@BeforeEach
@@ -35,6 +84,10 @@ public class UserRepositoryTests
 	{
 		users = new HashMap<>();
 		lenient().when(simpleDatabaseRepository.read()).thenReturn(users);
+		lenient().when(userEventLog.append(any())).thenReturn(CompletableFuture.completedFuture(null));
+		lenient().when(userEventLog.sync()).thenReturn(CompletableFuture.completedFuture(null));
+		meterRegistry = new SimpleMeterRegistry();
+		userRepository = new UserRepository(simpleDatabaseRepository, userEventLog, new UserWriter(MutationMode.Synchronous, 16), meterRegistry, Duration.ofMinutes(5));
 	}
 	
 	@Test
@@ -43,34 +96,283 @@ public class UserRepositoryTests
 		assertNotNull(UserRepository.class.getAnnotation(Repository.class));
 	}
 	
+	//region loadUsers
+	
+	@Test
+	public void loadUsers_HasCorrectAnnotations() throws NoSuchMethodException
+	{
+		assertNotNull(UserRepository.class.getMethod("loadUsers").getAnnotation(PostConstruct.class));
+	}
+	
+	@Test
+	public void loadUsers_When_UsersAreReadRepeatedly_Then_OnlyReadsDatabaseOnce() throws UserNotFoundException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		
+		userRepository.find(USER_ID);
+		userRepository.find(USER_ID);
+		userRepository.findAllUsers();
+		
+		verify(simpleDatabaseRepository, times(1)).read();
+		verify(userEventLog, times(1)).replay(any());
+	}
+	
+	@Test
+	public void loadUsers_When_EventLogHasEvents_Then_AppliesThemOnTopOfDatabase() throws UserNotFoundException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		User anna = newUser("123", "Anna", Role.NonAdministrator);
+		User bob = new User(USER_ID);
+		replayEvents(applied(anna, UserEvent.userCreated(anna)),
+					 applied(anna, UserEvent.shiftStarted(anna, START_TIME)),
+					 applied(anna, UserEvent.shiftEnded(anna, END_TIME)),
+					 applied(bob, UserEvent.userUpdated(bob, "Bob", Role.Administrator)),
+					 applied(bob, UserEvent.shiftStarted(bob, START_TIME)));
+		
+		userRepository.loadUsers();
+		
+		User actualAnna = userRepository.find("123");
+		assertEquals("Anna", actualAnna.getName());
+		assertEquals(Role.NonAdministrator, actualAnna.getRole());
+		assertNull(actualAnna.getCurrentWorkShift());
+		assertEquals(1, actualAnna.getPriorWorkShifts().size());
+		assertEquals(END_TIME, actualAnna.getPriorWorkShifts().get(0).getEndTime());
+		User actualBob = userRepository.find(USER_ID);
+		assertEquals("Bob", actualBob.getName());
+		assertEquals(Role.Administrator, actualBob.getRole());
+		assertEquals(START_TIME, actualBob.getCurrentWorkShift().getStartTime());
+	}
+	
+	@Test
+	public void loadUsers_When_EventLogHasEventsAlreadyInDatabase_Then_OnlyAppliesNewerEvents() throws UserNotFoundException
+	{
+		User user = new User(USER_ID);
+		UserEvent started = applied(user, UserEvent.shiftStarted(user, START_TIME));
+		UserEvent ended = applied(user, UserEvent.shiftEnded(user, END_TIME));
+		users.put(USER_ID, new User(user));
+		UserEvent startedAgain = applied(user, UserEvent.shiftStarted(user, END_TIME));
+		replayEvents(started, ended, startedAgain);
+		
+		userRepository.loadUsers();
+		
+		User actual = userRepository.find(USER_ID);
+		assertEquals(1, actual.getPriorWorkShifts().size());
+		assertEquals(END_TIME, actual.getCurrentWorkShift().getStartTime());
+		assertEquals(3, actual.getVersion());
+	}
+	
+	@Test
+	public void loadUsers_RecordsReplayDuration()
+	{
+		userRepository.loadUsers();
+		
+		assertNotNull(meterRegistry.find("timeclock.replay.duration").timeGauge());
+	}
+	
+	@Test
+	public void loadUsers_When_EventLogHasEventsForUnknownUser_Then_IgnoresThem()
+	{
+		User user = new User(USER_ID);
+		replayEvents(UserEvent.shiftStarted(user, START_TIME));
+		
+		userRepository.loadUsers();
+		
+		assertThrows(UserNotFoundException.class, () -> userRepository.find(USER_ID));
+	}
+	
+	@Test
+	public void findRole_When_UserDoesNotExistWithId_Then_ThrowsUserNotFoundException()
+	{
+		userRepository.loadUsers();
+		
+		assertThrows(UserNotFoundException.class, () -> userRepository.findRole(USER_ID));
+	}
+	
+	@ParameterizedTest
+	@EnumSource(Role.class)
+	public void findRole_When_UserExistsWithId_Then_ReturnsRole(Role role) throws UserNotFoundException
+	{
+		users.put(USER_ID, newUser(USER_ID, "Bob", role));
+		userRepository.loadUsers();
+		
+		Role actual = userRepository.findRole(USER_ID);
+		
+		assertEquals(role, actual);
+	}
+	
+	//endregion
+	
+	//region snapshot
+	
+	@Test
+	public void snapshot_HasCorrectAnnotations() throws NoSuchMethodException
+	{
+		Scheduled annotation = UserRepository.class.getMethod("snapshot").getAnnotation(Scheduled.class);
+		
+		assertNotNull(annotation);
+		assertEquals("${simple-time-clock.snapshot.interval}", annotation.fixedDelayString());
+	}
+	
+	@Test
+	public void snapshot_CutsLogThenWritesDatabaseThenDropsCoveredSegments()
+	{
+		when(userEventLog.roll()).thenReturn(7L);
+		userRepository.loadUsers();
+		
+		userRepository.snapshot();
+		
+		InOrder inOrder = inOrder(userEventLog, simpleDatabaseRepository);
+		inOrder.verify(userEventLog).roll();
+		inOrder.verify(simpleDatabaseRepository).write(anyMap(), anySet());
+		inOrder.verify(userEventLog).deleteSegmentsThrough(7L);
+	}
+	
+	@Test
+	public void snapshot_WritesCurrentUsersToDatabase() throws UserAlreadyExistsException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		userRepository.create(new User("123"));
+		
+		userRepository.snapshot();
+		
+		verify(simpleDatabaseRepository).write(usersCaptor.capture(), anySet());
+		assertEquals(2, usersCaptor.getValue().size());
+		assertEquals("123", usersCaptor.getValue().get("123").getUserId());
+	}
+	
+	@Test
+	public void snapshot_When_DatabaseWriteFails_Then_KeepsLogSegments()
+	{
+		userRepository.loadUsers();
+		doThrow(new RuntimeException()).when(simpleDatabaseRepository).write(anyMap(), anySet());
+		
+		assertThrows(RuntimeException.class, () -> userRepository.snapshot());
+		verify(userEventLog, never()).deleteSegmentsThrough(anyLong());
+	}
+	
+	@Test
+	public void snapshot_When_ChangeBeforeCutFailsToReachLog_Then_WritesNothingAndKeepsLogSegments() throws UserAlreadyExistsException
+	{
+		CompletableFuture<Void> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new RuntimeException());
+		when(userEventLog.sync()).thenReturn(failed);
+		userRepository.loadUsers();
+		userRepository.create(new User("123"));
+		
+		assertThrows(RuntimeException.class, () -> userRepository.snapshot());
+		verify(simpleDatabaseRepository, never()).write(anyMap(), anySet());
+		verify(userEventLog, never()).deleteSegmentsThrough(anyLong());
+	}
+	
+	@Test
+	public void snapshot_When_ChangeBeforeCutFailedToReachLog_Then_PassesChangedUsersAgainNextTime() throws UserAlreadyExistsException
+	{
+		CompletableFuture<Void> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new RuntimeException());
+		when(userEventLog.sync()).thenReturn(failed).thenReturn(CompletableFuture.completedFuture(null));
+		userRepository.loadUsers();
+		userRepository.create(new User("123"));
+		
+		assertThrows(RuntimeException.class, () -> userRepository.snapshot());
+		userRepository.snapshot();
+		
+		verify(simpleDatabaseRepository).write(anyMap(), changedUserIdsCaptor.capture());
+		assertEquals(Collections.singleton("123"), changedUserIdsCaptor.getValue());
+	}
+	
+	@Test
+	public void snapshot_PassesOnlyUsersChangedSinceLastSnapshot() throws UserAlreadyExistsException, UserNotFoundException, UserModifiedException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		users.put("1234", new User("1234"));
+		userRepository.loadUsers();
+		userRepository.create(new User("123"));
+		userRepository.snapshot();
+		User user = userRepository.find(USER_ID);
+		
+		userRepository.update(user, UserEvent.userUpdated(user, "Bob", null));
+		userRepository.snapshot();
+		
+		verify(simpleDatabaseRepository, times(2)).write(anyMap(), changedUserIdsCaptor.capture());
+		assertEquals(Collections.singleton("123"), changedUserIdsCaptor.getAllValues().get(0));
+		assertEquals(Collections.singleton(USER_ID), changedUserIdsCaptor.getAllValues().get(1));
+	}
+	
+	@Test
+	public void snapshot_When_DatabaseWriteFails_Then_PassesChangedUsersAgainNextTime() throws UserAlreadyExistsException
+	{
+		userRepository.loadUsers();
+		userRepository.create(new User("123"));
+		doThrow(new RuntimeException()).doNothing().when(simpleDatabaseRepository).write(anyMap(), anySet());
+		
+		assertThrows(RuntimeException.class, () -> userRepository.snapshot());
+		userRepository.snapshot();
+		
+		verify(simpleDatabaseRepository, times(2)).write(anyMap(), changedUserIdsCaptor.capture());
+		assertEquals(Collections.singleton("123"), changedUserIdsCaptor.getAllValues().get(1));
+	}
+	
+	@Test
+	public void snapshot_RecordsSnapshotMetrics()
+	{
+		userRepository.loadUsers();
+		
+		userRepository.snapshot();
+		
+		assertEquals(1, meterRegistry.get("timeclock.snapshot.duration").timer().count());
+		assertNotNull(meterRegistry.find("timeclock.snapshot.age").timeGauge());
+		assertEquals(5, meterRegistry.get("timeclock.snapshot.interval").timeGauge().value(TimeUnit.MINUTES));
+	}
+	
+	//endregion
+	
 	//region create
 	
 	@ParameterizedTest
 	@ValueSource(strings = {USER_ID, "987654321"})
-	public void create_When_UserDoesNotExistWithId_Then_AddsUserToUsers(String userId) throws UserAlreadyExistsException
+	public void create_When_UserDoesNotExistWithId_Then_AddsUserToUsers(String userId) throws UserAlreadyExistsException, UserNotFoundException
 	{
+		userRepository.loadUsers();
 		User user = new User(userId);
 		
 		userRepository.create(user);
 		
-		assertEquals(user, users.get(userId));
+		assertEquals(userId, userRepository.find(userId).getUserId());
 	}
 	
 	@ParameterizedTest
 	@ValueSource(strings = {USER_ID, "987654321"})
-	public void create_When_UserDoesNotExistWithId_Then_WritesUsersToDatabase(String userId) throws UserAlreadyExistsException
+	public void create_When_UserDoesNotExistWithId_Then_AppendsUserCreatedEvent(String userId) throws UserAlreadyExistsException
 	{
-		User user = new User(userId);
+		userRepository.loadUsers();
+		User user = newUser(userId, "Anna", Role.NonAdministrator);
 		
 		userRepository.create(user);
 		
-		verify(simpleDatabaseRepository).write(users);
+		verify(userEventLog).append(eventCaptor.capture());
+		assertEquals(UserEventType.UserCreated, eventCaptor.getValue().getType());
+		assertEquals(userId, eventCaptor.getValue().getUserId());
+		assertEquals("Anna", eventCaptor.getValue().getName());
+		assertEquals(Role.NonAdministrator, eventCaptor.getValue().getRole());
+	}
+	
+	@Test
+	public void create_When_UserDoesNotExistWithId_Then_DoesNotRewriteDatabase() throws UserAlreadyExistsException
+	{
+		userRepository.loadUsers();
+		
+		userRepository.create(new User(USER_ID));
+		
+		verify(simpleDatabaseRepository, never()).write(anyMap());
 	}
 	
 	@ParameterizedTest
 	@ValueSource(strings = {USER_ID, "123456789"})
 	public void create_When_UserDoesNotExistWithId_Then_ReturnsUser(String userId) throws UserAlreadyExistsException
 	{
+		userRepository.loadUsers();
 		User user = new User(userId);
 		
 		User actual = userRepository.create(user);
@@ -83,6 +385,7 @@ public class UserRepositoryTests
 	public void create_When_MultipleUsersExistButNoneWithId_Then_ReturnsUser(String userId) throws UserAlreadyExistsException
 	{
 		createMultipleTestUsers();
+		userRepository.loadUsers();
 		User user = new User(userId);
 		
 		User actual = userRepository.create(user);
@@ -94,6 +397,7 @@ public class UserRepositoryTests
 	public void create_When_UserExistsWithId_Then_ThrowsUserAlreadyExistsException()
 	{
 		users.put(USER_ID, new User("123"));
+		userRepository.loadUsers();
 		
 		assertThrows(UserAlreadyExistsException.class, () -> userRepository.create(new User(USER_ID)));
 	}
@@ -103,10 +407,63 @@ public class UserRepositoryTests
 	{
 		users.put(USER_ID, new User("123"));
 		createMultipleTestUsers();
+		userRepository.loadUsers();
 		
 		assertThrows(UserAlreadyExistsException.class, () -> userRepository.create(new User(USER_ID)));
 	}
 	
+	@Test
+	public void create_When_EventLogAppendFails_Then_DoesNotKeepUser()
+	{
+		userRepository.loadUsers();
+		when(userEventLog.append(any())).thenReturn(failedAppend());
+		
+		assertThrows(RuntimeException.class, () -> userRepository.create(new User(USER_ID)));
+		assertThrows(UserNotFoundException.class, () -> userRepository.find(USER_ID));
+	}
+	
+	@Test
+	public void create_SetsUserToVersionOfItsEvent() throws UserAlreadyExistsException, UserNotFoundException
+	{
+		userRepository.loadUsers();
+		
+		userRepository.create(new User("123"));
+		
+		verify(userEventLog).append(eventCaptor.capture());
+		assertEquals(1, eventCaptor.getValue().getVersion());
+		assertEquals(1, userRepository.find("123").getVersion());
+	}
+	
+	@Test
+	public void create_When_UserPunchesBeforeNextSnapshot_Then_ReplaysEveryPunchFromRealLog() throws Exception
+	{
+		ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule()).disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+		UserEventLog realEventLog = new UserEventLog(objectMapper, meterRegistry, databaseDirectory.toString(), 16, Duration.ZERO);
+		realEventLog.open();
+		userRepository = new UserRepository(simpleDatabaseRepository, realEventLog, new UserWriter(MutationMode.Synchronous, 16), meterRegistry,
+											Duration.ofMinutes(5));
+		userRepository.loadUsers();
+		userRepository.create(new User("123"));
+		User user = userRepository.find("123");
+		userRepository.update(user, applied(user, UserEvent.shiftStarted(user, START_TIME)));
+		user = userRepository.find("123");
+		userRepository.update(user, applied(user, UserEvent.shiftEnded(user, END_TIME)));
+		realEventLog.close();
+		
+		UserEventLog reopenedEventLog = new UserEventLog(objectMapper, meterRegistry, databaseDirectory.toString(), 16, Duration.ZERO);
+		reopenedEventLog.open();
+		UserRepository reloaded = new UserRepository(simpleDatabaseRepository, reopenedEventLog, new UserWriter(MutationMode.Synchronous, 16),
+													 meterRegistry, Duration.ofMinutes(5));
+		reloaded.loadUsers();
+		reopenedEventLog.close();
+		
+		User actual = reloaded.find("123");
+		assertEquals(3, actual.getVersion());
+		assertNull(actual.getCurrentWorkShift());
+		assertEquals(1, actual.getPriorWorkShifts().size());
+		assertEquals(END_TIME, actual.getPriorWorkShifts().get(0).getEndTime());
+	}
+	
 	//endregion
 	
 	//region find
@@ -114,6 +471,8 @@ public class UserRepositoryTests
 	@Test
 	public void find_When_UserDoesNotExistWithId_Then_ThrowsUserNotFoundException()
 	{
+		userRepository.loadUsers();
+		
 		assertThrows(UserNotFoundException.class, () -> userRepository.find(USER_ID));
 	}
 	
@@ -121,6 +480,7 @@ public class UserRepositoryTests
 	public void find_When_MultipleUsersExistButNoneWithId_Then_ThrowsUserNotFoundException()
 	{
 		createMultipleTestUsers();
+		userRepository.loadUsers();
 		
 		assertThrows(UserNotFoundException.class, () -> userRepository.find(USER_ID));
 	}
@@ -130,11 +490,14 @@ public class UserRepositoryTests
 	public void find_When_UserExistsWithId_Then_ReturnsUser(String userId) throws UserNotFoundException
 	{
 		User user = new User("123");
+		user.setName("Anna");
 		users.put(userId, user);
+		userRepository.loadUsers();
 		
 		User actual = userRepository.find(userId);
 		
-		assertEquals(user, actual);
+		assertEquals("123", actual.getUserId());
+		assertEquals("Anna", actual.getName());
 	}
 	
 	@ParameterizedTest
@@ -144,10 +507,30 @@ public class UserRepositoryTests
 		User user = new User("123");
 		users.put(userId, user);
 		createMultipleTestUsers();
+		userRepository.loadUsers();
 		
 		User actual = userRepository.find(userId);
 		
-		assertEquals(user, actual);
+		assertEquals("123", actual.getUserId());
+	}
+	
+	@Test
+	public void find_When_ReturnedUserIsModified_Then_StoredUserIsUnchanged() throws UserNotFoundException
+	{
+		User user = new User(USER_ID);
+		user.setCurrentWorkShift(new WorkShift(START_TIME));
+		users.put(USER_ID, user);
+		userRepository.loadUsers();
+		
+		User found = userRepository.find(USER_ID);
+		found.setName("Anna");
+		found.getCurrentWorkShift().setEndTime(START_TIME);
+		found.getPriorWorkShifts().add(found.getCurrentWorkShift());
+		
+		User actual = userRepository.find(USER_ID);
+		assertNull(actual.getName());
+		assertNull(actual.getCurrentWorkShift().getEndTime());
+		assertTrue(actual.getPriorWorkShifts().isEmpty());
 	}
 	
 	//endregion
@@ -155,9 +538,603 @@ public class UserRepositoryTests
 	//region findAllUsers
 	
 	@Test
-	public void findAllUsers_When__Then_ReturnsWhatSimpleDatabaseRepositoryReturns()
+	public void findAllUsers_When__Then_ReturnsUsersReadFromDatabase()
+	{
+		createMultipleTestUsers();
+		userRepository.loadUsers();
+		
+		Map<String, User> actual = userRepository.findAllUsers();
+		
+		assertEquals(users.keySet(), actual.keySet());
+		actual.forEach((userId, user) -> assertEquals(userId, user.getUserId()));
+	}
+	
+	@Test
+	public void findAllUsers_When_ReturnedUsersAreModified_Then_StoredUsersAreUnchanged() throws UserNotFoundException
+	{
+		User user = new User(USER_ID);
+		user.getPriorWorkShifts().add(new WorkShift(START_TIME));
+		users.put(USER_ID, user);
+		userRepository.loadUsers();
+		
+		userRepository.findAllUsers().get(USER_ID).getPriorWorkShifts().clear();
+		
+		assertEquals(1, userRepository.find(USER_ID).getPriorWorkShifts().size());
+	}
+	
+	//endregion
+	
+	//region snapshotUsers
+	
+	@Test
+	public void snapshotUsers_ReturnsUsersReadFromDatabase()
+	{
+		createMultipleTestUsers();
+		userRepository.loadUsers();
+		
+		Map<String, User> actual = userRepository.snapshotUsers();
+		
+		assertEquals(users.keySet(), actual.keySet());
+	}
+	
+	@Test
+	public void snapshotUsers_ReturnsMapThatCannotBeModified()
 	{
-		assertEquals(users, userRepository.findAllUsers());
+		userRepository.loadUsers();
+		
+		assertThrows(UnsupportedOperationException.class, () -> userRepository.snapshotUsers().put(USER_ID, new User(USER_ID)));
+	}
+	
+	@Test
+	public void snapshotUsers_When_UsersChangeAfterwards_Then_SnapshotIsUnchanged()
+			throws UserNotFoundException, UserModifiedException, UserAlreadyExistsException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		Map<String, User> snapshot = userRepository.snapshotUsers();
+		User user = userRepository.find(USER_ID);
+		
+		userRepository.update(user, applied(user, UserEvent.userUpdated(user, "Bob", null)));
+		userRepository.create(new User("123456789"));
+		
+		assertNull(snapshot.get(USER_ID).getName());
+		assertFalse(snapshot.containsKey("123456789"));
+		assertEquals("Bob", userRepository.snapshotUsers().get(USER_ID).getName());
+	}
+	
+	//endregion
+	
+	//region snapshotUsersWithId
+	
+	@Test
+	public void snapshotUsersWithId_When_UserExists_Then_ReturnsOnlyThatUser()
+	{
+		createMultipleTestUsers();
+		userRepository.loadUsers();
+		
+		Map<String, User> actual = userRepository.snapshotUsersWithId("222222222");
+		
+		assertEquals(Collections.singleton("222222222"), actual.keySet());
+		assertSame(userRepository.snapshotUsers().get("222222222"), actual.get("222222222"));
+	}
+	
+	@Test
+	public void snapshotUsersWithId_When_UserDoesNotExist_Then_ReturnsNoUsers()
+	{
+		createMultipleTestUsers();
+		userRepository.loadUsers();
+		
+		assertTrue(userRepository.snapshotUsersWithId(USER_ID).isEmpty());
+	}
+	
+	//endregion
+	
+	//region snapshotUsersWith
+	
+	@Test
+	public void snapshotUsersWith_When_NothingAskedFor_Then_ReturnsAllUsers()
+	{
+		createMultipleTestUsers();
+		userRepository.loadUsers();
+		
+		assertSame(userRepository.snapshotUsers(), userRepository.snapshotUsersWith(null, false, false, 0, 0));
+	}
+	
+	@Test
+	public void snapshotUsersWith_When_UsersLoaded_Then_ReturnsOnlyUsersMatchingEverythingAskedFor()
+	{
+		createMultipleTestUsers();
+		users.get("111111111").setRole(Role.Administrator);
+		users.get("111111111").setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		users.get("222222222").setRole(Role.NonAdministrator);
+		users.get("222222222").setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		users.get("333333333").setRole(Role.NonAdministrator);
+		users.get("333333333").setCurrentLunchBreak(new Break(BreakType.Lunch, START_TIME));
+		users.get("444444444").setRole(Role.NonAdministrator);
+		userRepository.loadUsers();
+		
+		assertEquals(new HashSet<>(Arrays.asList("111111111", "222222222")), userRepository.snapshotUsersWith(null, true, false, 0, 0).keySet());
+		assertEquals(Collections.singleton("333333333"), userRepository.snapshotUsersWith(null, false, true, 0, 0).keySet());
+		assertEquals(Collections.singleton("222222222"), userRepository.snapshotUsersWith(Role.NonAdministrator, true, false, 0, 0).keySet());
+		assertEquals(Collections.singleton("111111111"), userRepository.snapshotUsersWith(Role.Administrator, false, false, 0, 0).keySet());
+		assertTrue(userRepository.snapshotUsersWith(null, true, true, 0, 0).isEmpty());
+		assertSame(userRepository.snapshotUsers().get("222222222"), userRepository.snapshotUsersWith(Role.NonAdministrator, true, false, 0, 0).get("222222222"));
+	}
+	
+	@Test
+	public void snapshotUsersWith_When_BreakStartsAndEnds_Then_FollowsIt() throws UserNotFoundException, UserModifiedException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		User user = userRepository.find(USER_ID);
+		
+		userRepository.update(user, applied(user, UserEvent.breakStarted(user, BreakType.Break, START_TIME)));
+		
+		assertSame(userRepository.snapshotUsers().get(USER_ID), userRepository.snapshotUsersWith(null, true, false, 0, 0).get(USER_ID));
+		
+		user = userRepository.find(USER_ID);
+		userRepository.update(user, applied(user, UserEvent.breakEnded(user, BreakType.Break, END_TIME)));
+		
+		assertTrue(userRepository.snapshotUsersWith(null, true, false, 0, 0).isEmpty());
+	}
+	
+	@Test
+	public void snapshotUsersWith_When_RoleChanges_Then_FollowsIt() throws UserNotFoundException, UserModifiedException
+	{
+		users.put(USER_ID, newUser(USER_ID, "Bob", Role.NonAdministrator));
+		userRepository.loadUsers();
+		User user = userRepository.find(USER_ID);
+		
+		userRepository.update(user, applied(user, UserEvent.userUpdated(user, null, Role.Administrator)));
+		
+		assertEquals(Collections.singleton(USER_ID), userRepository.snapshotUsersWith(Role.Administrator, false, false, 0, 0).keySet());
+		assertTrue(userRepository.snapshotUsersWith(Role.NonAdministrator, false, false, 0, 0).isEmpty());
+	}
+	
+	@Test
+	public void snapshotUsersWith_When_ChangeIsUndone_Then_LeavesUserOut() throws UserNotFoundException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		when(userEventLog.append(any())).thenReturn(failedAppend());
+		User user = userRepository.find(USER_ID);
+		
+		assertThrows(RuntimeException.class, () -> userRepository.update(user, applied(user, UserEvent.breakStarted(user, BreakType.Lunch, START_TIME))));
+		
+		assertTrue(userRepository.snapshotUsersWith(null, false, true, 0, 0).isEmpty());
+	}
+	
+	@Test
+	public void snapshotUsersWith_When_ThresholdsGiven_Then_ReturnsOnlyUsersWithEnoughShiftsAndBreaks()
+	{
+		createMultipleTestUsers();
+		users.get("111111111").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		users.get("111111111").getPriorWorkShifts().add(new WorkShift(START_TIME.plusDays(1)));
+		users.get("111111111").getPriorBreaks().add(new Break(BreakType.Break, START_TIME));
+		users.get("222222222").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		users.get("222222222").setRole(Role.Administrator);
+		users.get("333333333").getPriorBreaks().add(new Break(BreakType.Break, START_TIME));
+		userRepository.loadUsers();
+		
+		assertEquals(new HashSet<>(Arrays.asList("111111111", "222222222")), userRepository.snapshotUsersWith(null, false, false, 1, 0).keySet());
+		assertEquals(Collections.singleton("111111111"), userRepository.snapshotUsersWith(null, false, false, 2, 0).keySet());
+		assertEquals(new HashSet<>(Arrays.asList("111111111", "333333333")), userRepository.snapshotUsersWith(null, false, false, 0, 1).keySet());
+		assertEquals(Collections.singleton("111111111"), userRepository.snapshotUsersWith(null, false, false, 1, 1).keySet());
+		assertEquals(Collections.singleton("222222222"), userRepository.snapshotUsersWith(Role.Administrator, false, false, 1, 0).keySet());
+		assertTrue(userRepository.snapshotUsersWith(null, false, false, 3, 0).isEmpty());
+	}
+	
+	@Test
+	public void snapshotUsersWith_When_ShiftEnds_Then_CountsIt() throws UserNotFoundException, UserModifiedException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		User user = userRepository.find(USER_ID);
+		userRepository.update(user, applied(user, UserEvent.shiftStarted(user, START_TIME)));
+		
+		assertTrue(userRepository.snapshotUsersWith(null, false, false, 1, 0).isEmpty());
+		
+		user = userRepository.find(USER_ID);
+		userRepository.update(user, applied(user, UserEvent.shiftEnded(user, END_TIME)));
+		
+		assertEquals(Collections.singleton(USER_ID), userRepository.snapshotUsersWith(null, false, false, 1, 0).keySet());
+	}
+	
+	//endregion
+	
+	//region streamUsersWith
+	
+	@Test
+	public void streamUsersWith_GivesSameUsersAsSnapshotUsersWith()
+	{
+		createMultipleTestUsers();
+		users.get("111111111").setRole(Role.Administrator);
+		users.get("111111111").setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		users.get("222222222").setRole(Role.NonAdministrator);
+		users.get("222222222").setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		users.get("333333333").setRole(Role.NonAdministrator);
+		users.get("444444444").setRole(Role.NonAdministrator);
+		userRepository.loadUsers();
+		
+		assertEquals(userRepository.snapshotUsersWith(null, true, false, 0, 0).keySet(), userIdsOf(userRepository.streamUsersWith(null, true, false, 0, 0)));
+		assertEquals(Collections.singletonList("222222222"), userRepository.streamUsersWith(Role.NonAdministrator, true, false, 0, 0)
+				.map(User::getUserId)
+				.collect(Collectors.toList()));
+		assertEquals(userRepository.snapshotUsers().keySet(), userIdsOf(userRepository.streamUsersWith(null, false, false, 0, 0)));
+		assertSame(userRepository.snapshotUsers().get("111111111"), userRepository.streamUsersWith(Role.Administrator, false, false, 0, 0).findFirst().get());
+	}
+	
+	@Test
+	public void streamUsersWith_When_UserChangesAfterStreamIsTaken_Then_GivesUsersFromWhenItWasTaken() throws UserNotFoundException, UserModifiedException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		User user = userRepository.find(USER_ID);
+		Stream<User> onShift = userRepository.streamUsersWith(null, false, false, 0, 0);
+		
+		userRepository.update(user, applied(user, UserEvent.shiftStarted(user, START_TIME)));
+		
+		assertNull(onShift.findFirst().get().getCurrentWorkShift());
+	}
+	
+	//endregion
+	
+	//region findTopUsersByShiftCount
+	
+	@Test
+	public void findTopUsersByShiftCount_ReturnsUsersWithMostShiftsFirst()
+	{
+		createMultipleTestUsers();
+		users.get("111111111").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		users.get("333333333").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		users.get("333333333").getPriorWorkShifts().add(new WorkShift(START_TIME.plusDays(1)));
+		users.get("444444444").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		userRepository.loadUsers();
+		
+		List<User> actual = userRepository.findTopUsersByShiftCount(3);
+		
+		assertEquals(3, actual.size());
+		assertSame(userRepository.snapshotUsers().get("333333333"), actual.get(0));
+		// Ties go to the lower user ID
+		assertEquals("111111111", actual.get(1).getUserId());
+		assertEquals("444444444", actual.get(2).getUserId());
+	}
+	
+	@Test
+	public void findTopUsersByShiftCount_When_LimitIsMoreThanUsers_Then_ReturnsEveryUser()
+	{
+		createMultipleTestUsers();
+		userRepository.loadUsers();
+		
+		assertEquals(userRepository.snapshotUsers().size(), userRepository.findTopUsersByShiftCount(1_000).size());
+		assertTrue(userRepository.findTopUsersByShiftCount(0).isEmpty());
+	}
+	
+	@Test
+	public void findTopUsersByShiftCount_When_ShiftEnds_Then_MovesUserUp() throws UserNotFoundException, UserModifiedException
+	{
+		users.put("111", new User("111"));
+		users.get("111").getPriorWorkShifts().add(new WorkShift(START_TIME.minusDays(1)));
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		User user = userRepository.find(USER_ID);
+		userRepository.update(user, applied(user, UserEvent.shiftStarted(user, START_TIME)));
+		user = userRepository.find(USER_ID);
+		userRepository.update(user, applied(user, UserEvent.shiftEnded(user, END_TIME)));
+		user = userRepository.find(USER_ID);
+		userRepository.update(user, applied(user, UserEvent.shiftStarted(user, START_TIME.plusDays(1))));
+		user = userRepository.find(USER_ID);
+		
+		userRepository.update(user, applied(user, UserEvent.shiftEnded(user, END_TIME.plusDays(1))));
+		
+		assertEquals(USER_ID, userRepository.findTopUsersByShiftCount(1).get(0).getUserId());
+	}
+	
+	//endregion
+	
+	//region findLiveStatus
+	
+	@Test
+	public void findLiveStatus_ReturnsUsersOnShiftOnBreakAndOnLunch() throws UserNotFoundException, UserModifiedException
+	{
+		createMultipleTestUsers();
+		users.get("111111111").setCurrentWorkShift(new WorkShift(START_TIME));
+		users.get("222222222").setCurrentWorkShift(new WorkShift(START_TIME));
+		users.get("222222222").setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		userRepository.loadUsers();
+		User user = userRepository.find("333333333");
+		userRepository.update(user, applied(user, UserEvent.shiftStarted(user, START_TIME)));
+		user = userRepository.find("333333333");
+		userRepository.update(user, applied(user, UserEvent.breakStarted(user, BreakType.Lunch, START_TIME)));
+		
+		LiveStatus actual = userRepository.findLiveStatus();
+		
+		assertEquals(new HashSet<>(Arrays.asList("111111111", "222222222", "333333333")), actual.getOnShift());
+		assertEquals(3, actual.getOnShiftCount());
+		assertEquals(Collections.singleton("222222222"), actual.getOnBreak());
+		assertEquals(1, actual.getOnBreakCount());
+		assertEquals(Collections.singleton("333333333"), actual.getOnLunch());
+		assertEquals(1, actual.getOnLunchCount());
+	}
+	
+	@Test
+	public void findLiveStatus_When_ShiftEndsAfterwards_Then_StatusIsUnchanged() throws UserNotFoundException, UserModifiedException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		users.get(USER_ID).setCurrentWorkShift(new WorkShift(START_TIME));
+		userRepository.loadUsers();
+		LiveStatus liveStatus = userRepository.findLiveStatus();
+		User user = userRepository.find(USER_ID);
+		
+		userRepository.update(user, applied(user, UserEvent.shiftEnded(user, END_TIME)));
+		
+		assertEquals(Collections.singleton(USER_ID), liveStatus.getOnShift());
+		assertEquals(0, userRepository.findLiveStatus().getOnShiftCount());
+	}
+	
+	//endregion
+	
+	//region snapshotUsersWithShiftsBetween
+	
+	@Test
+	public void snapshotUsersWithShiftsBetween_When_UsersLoaded_Then_ReturnsOnlyUsersWithShiftsInRange()
+	{
+		createMultipleTestUsers();
+		users.get("111111111").getPriorWorkShifts().add(new WorkShift(START_TIME.minusDays(3)));
+		users.get("222222222").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		users.get("333333333").getPriorWorkShifts().add(new WorkShift(START_TIME.plusDays(3)));
+		users.get("444444444").getPriorBreaks().add(new Break(BreakType.Break, START_TIME));
+		userRepository.loadUsers();
+		
+		Map<String, User> actual = userRepository.snapshotUsersWithShiftsBetween(START_TIME.minusDays(1), START_TIME.plusDays(1));
+		
+		assertEquals(Collections.singleton("222222222"), actual.keySet());
+		assertSame(userRepository.snapshotUsers().get("222222222"), actual.get("222222222"));
+	}
+	
+	@Test
+	public void snapshotUsersWithShiftsBetween_When_ShiftIsOnSameDayButOutsideRange_Then_LeavesUserOut()
+	{
+		users.put(USER_ID, new User(USER_ID));
+		users.get(USER_ID).getPriorWorkShifts().add(new WorkShift(START_TIME));
+		userRepository.loadUsers();
+		
+		assertTrue(userRepository.snapshotUsersWithShiftsBetween(START_TIME, END_TIME).isEmpty());
+		assertEquals(Collections.singleton(USER_ID), userRepository.snapshotUsersWithShiftsBetween(START_TIME.minusMinutes(1), END_TIME).keySet());
+	}
+	
+	@Test
+	public void snapshotUsersWithShiftsBetween_When_ShiftEndedAfterLoading_Then_ReturnsUser() throws UserNotFoundException, UserModifiedException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		User user = userRepository.find(USER_ID);
+		userRepository.update(user, applied(user, UserEvent.shiftStarted(user, START_TIME)));
+		user = userRepository.find(USER_ID);
+		
+		userRepository.update(user, applied(user, UserEvent.shiftEnded(user, END_TIME)));
+		
+		assertEquals(Collections.singleton(USER_ID), userRepository.snapshotUsersWithShiftsBetween(START_TIME.minusDays(1), null).keySet());
+		assertTrue(userRepository.snapshotUsersWithBreaksBetween(START_TIME.minusDays(1), null).isEmpty());
+	}
+	
+	@Test
+	public void snapshotUsersWithShiftsBetween_When_EventLogHasShifts_Then_ReturnsUsersWithThem()
+	{
+		User anna = newUser("123", "Anna", Role.NonAdministrator);
+		replayEvents(applied(anna, UserEvent.userCreated(anna)),
+					 applied(anna, UserEvent.shiftStarted(anna, START_TIME)),
+					 applied(anna, UserEvent.shiftEnded(anna, END_TIME)));
+		
+		userRepository.loadUsers();
+		
+		assertEquals(Collections.singleton("123"), userRepository.snapshotUsersWithShiftsBetween(null, END_TIME).keySet());
+	}
+	
+	@Test
+	public void snapshotUsersWithShiftsBetween_When_CreateIsUndone_Then_LeavesUserOut()
+	{
+		when(userEventLog.append(any())).thenReturn(failedAppend());
+		User user = new User(USER_ID);
+		user.getPriorWorkShifts().add(new WorkShift(START_TIME));
+		userRepository.loadUsers();
+		
+		assertThrows(RuntimeException.class, () -> userRepository.create(user));
+		
+		assertTrue(userRepository.snapshotUsersWithShiftsBetween(null, null).isEmpty());
+	}
+	
+	//endregion
+	
+	//region streamUsersWithShiftsBetween
+	
+	@Test
+	public void streamUsersWithShiftsBetween_When_UserHasShiftsOnSeveralDaysInRange_Then_GivesThemOnce()
+	{
+		createMultipleTestUsers();
+		users.get("111111111").getPriorWorkShifts().add(new WorkShift(START_TIME.minusDays(3)));
+		users.get("222222222").getPriorWorkShifts().add(new WorkShift(START_TIME.minusDays(2)));
+		users.get("222222222").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		users.get("222222222").getPriorWorkShifts().add(new WorkShift(START_TIME.plusDays(2)));
+		users.get("333333333").getPriorWorkShifts().add(new WorkShift(START_TIME.plusDays(1)));
+		userRepository.loadUsers();
+		
+		List<String> actual = userRepository.streamUsersWithShiftsBetween(START_TIME.minusDays(2).plusMinutes(1), null)
+				.map(User::getUserId)
+				.collect(Collectors.toList());
+		
+		assertEquals(Arrays.asList("222222222", "333333333"), actual);
+	}
+	
+	@Test
+	public void streamUsersWithShiftsBetween_When_ShiftIsOnSameDayButOutsideRange_Then_LeavesUserOut()
+	{
+		users.put(USER_ID, new User(USER_ID));
+		users.get(USER_ID).getPriorWorkShifts().add(new WorkShift(START_TIME));
+		userRepository.loadUsers();
+		
+		assertEquals(0, userRepository.streamUsersWithShiftsBetween(START_TIME, END_TIME).count());
+		assertEquals(Collections.singleton(USER_ID), userIdsOf(userRepository.streamUsersWithShiftsBetween(START_TIME.minusMinutes(1), END_TIME)));
+	}
+	
+	@Test
+	public void streamUsersWithBreaksBetween_GivesSameUsersAsSnapshotUsersWithBreaksBetween()
+	{
+		createMultipleTestUsers();
+		users.get("111111111").getPriorBreaks().add(new Break(BreakType.Lunch, START_TIME.minusDays(3)));
+		users.get("222222222").getPriorBreaks().add(new Break(BreakType.Lunch, START_TIME));
+		users.get("222222222").getPriorBreaks().add(new Break(BreakType.Break, START_TIME.plusDays(1)));
+		users.get("333333333").getPriorBreaks().add(new Break(BreakType.Break, START_TIME.plusHours(1)));
+		users.get("444444444").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		userRepository.loadUsers();
+		
+		assertEquals(userRepository.snapshotUsersWithBreaksBetween(START_TIME.minusDays(1), START_TIME.plusDays(2)).keySet(),
+					 userIdsOf(userRepository.streamUsersWithBreaksBetween(START_TIME.minusDays(1), START_TIME.plusDays(2))));
+		assertEquals(2, userRepository.streamUsersWithBreaksBetween(START_TIME.minusDays(1), START_TIME.plusDays(2)).count());
+	}
+	
+	//endregion
+	
+	//region snapshotUsersWithBreaksBetween
+	
+	@Test
+	public void snapshotUsersWithBreaksBetween_When_UsersLoaded_Then_ReturnsOnlyUsersWithBreaksInRange()
+	{
+		createMultipleTestUsers();
+		users.get("111111111").getPriorBreaks().add(new Break(BreakType.Lunch, START_TIME.minusDays(3)));
+		users.get("222222222").getPriorBreaks().add(new Break(BreakType.Lunch, START_TIME));
+		users.get("333333333").getPriorBreaks().add(new Break(BreakType.Break, START_TIME.plusHours(1)));
+		users.get("444444444").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		userRepository.loadUsers();
+		
+		Map<String, User> actual = userRepository.snapshotUsersWithBreaksBetween(START_TIME.minusDays(1), START_TIME.plusDays(1));
+		
+		assertEquals(new HashSet<>(Arrays.asList("222222222", "333333333")), actual.keySet());
+	}
+	
+	@Test
+	public void snapshotUsersWithBreaksBetween_When_BreakEndedAfterLoading_Then_ReturnsUser() throws UserNotFoundException, UserModifiedException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		User user = userRepository.find(USER_ID);
+		userRepository.update(user, applied(user, UserEvent.breakStarted(user, BreakType.Lunch, START_TIME)));
+		user = userRepository.find(USER_ID);
+		
+		userRepository.update(user, applied(user, UserEvent.breakEnded(user, BreakType.Lunch, END_TIME)));
+		
+		assertEquals(Collections.singleton(USER_ID), userRepository.snapshotUsersWithBreaksBetween(null, END_TIME).keySet());
+		assertTrue(userRepository.snapshotUsersWithShiftsBetween(null, END_TIME).isEmpty());
+	}
+	
+	//endregion
+	
+	//region estimates
+	
+	@Test
+	public void countUsers_ReturnsNumberOfUsers() throws UserAlreadyExistsException
+	{
+		createMultipleTestUsers();
+		userRepository.loadUsers();
+		
+		userRepository.create(new User(USER_ID));
+		
+		assertEquals(5, userRepository.countUsers());
+	}
+	
+	@Test
+	public void estimateUsersWith_ReturnsFewestUsersAnyOneFilterAllows()
+	{
+		createMultipleTestUsers();
+		users.get("111111111").setRole(Role.Administrator);
+		users.get("111111111").setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		users.get("222222222").setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		users.get("333333333").setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		users.get("333333333").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		users.get("444444444").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		userRepository.loadUsers();
+		
+		assertEquals(4, userRepository.estimateUsersWith(null, false, false, 0, 0));
+		assertEquals(3, userRepository.estimateUsersWith(null, true, false, 0, 0));
+		assertEquals(2, userRepository.estimateUsersWith(null, true, false, 1, 0));
+		assertEquals(1, userRepository.estimateUsersWith(Role.Administrator, true, false, 1, 0));
+		assertEquals(0, userRepository.estimateUsersWith(null, true, true, 0, 0));
+		assertEquals(0, userRepository.estimateUsersWith(null, false, false, 0, 1));
+	}
+	
+	@Test
+	public void estimateUsersWithShiftsBetween_CountsUsersOnEachDayInRangeButNoMoreThanThereAre()
+	{
+		createMultipleTestUsers();
+		users.get("111111111").getPriorWorkShifts().add(new WorkShift(START_TIME.minusDays(1)));
+		users.get("111111111").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		users.get("222222222").getPriorWorkShifts().add(new WorkShift(START_TIME));
+		users.get("333333333").getPriorWorkShifts().add(new WorkShift(START_TIME.plusDays(1)));
+		users.get("333333333").getPriorWorkShifts().add(new WorkShift(START_TIME.plusDays(2)));
+		users.get("333333333").getPriorWorkShifts().add(new WorkShift(START_TIME.plusDays(3)));
+		users.get("444444444").getPriorBreaks().add(new Break(BreakType.Break, START_TIME));
+		userRepository.loadUsers();
+		
+		assertEquals(3, userRepository.estimateUsersWithShiftsBetween(START_TIME.minusDays(1), START_TIME));
+		assertEquals(4, userRepository.estimateUsersWithShiftsBetween(null, null));
+		assertEquals(1, userRepository.estimateUsersWithBreaksBetween(null, null));
+	}
+	
+	//endregion
+	
+	//region findVersion
+	
+	@Test
+	public void findUsersVersion_When_AnyUserChanges_Then_MovesOn() throws UserNotFoundException, UserModifiedException, UserAlreadyExistsException
+	{
+		createMultipleTestUsers();
+		userRepository.loadUsers();
+		long loaded = userRepository.findUsersVersion();
+		
+		userRepository.create(new User(USER_ID));
+		long created = userRepository.findUsersVersion();
+		User user = userRepository.find("111111111");
+		userRepository.update(user, applied(user, UserEvent.shiftStarted(user, START_TIME)));
+		
+		assertTrue(created > loaded);
+		assertTrue(userRepository.findUsersVersion() > created);
+	}
+	
+	@Test
+	public void findVersion_When_UserChanges_Then_MovesOnForThemAlone() throws UserNotFoundException, UserModifiedException
+	{
+		createMultipleTestUsers();
+		userRepository.loadUsers();
+		long changed = userRepository.findVersion("111111111");
+		long unchanged = userRepository.findVersion("222222222");
+		User user = userRepository.find("111111111");
+		
+		userRepository.update(user, applied(user, UserEvent.shiftStarted(user, START_TIME)));
+		
+		assertTrue(userRepository.findVersion("111111111") > changed);
+		assertEquals(unchanged, userRepository.findVersion("222222222"));
+	}
+	
+	@Test
+	public void findVersion_When_ChangeIsUndone_Then_DoesNotGoBack() throws UserNotFoundException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		long before = userRepository.findVersion(USER_ID);
+		when(userEventLog.append(any())).thenReturn(failedAppend());
+		User user = userRepository.find(USER_ID);
+		
+		assertThrows(RuntimeException.class, () -> userRepository.update(user, applied(user, UserEvent.shiftStarted(user, START_TIME))));
+		
+		assertTrue(userRepository.findVersion(USER_ID) > before);
+	}
+	
+	@Test
+	public void findVersion_When_UserDoesNotExist_Then_ReturnsNoVersion()
+	{
+		userRepository.loadUsers();
+		
+		assertEquals(UserRepository.NO_VERSION, userRepository.findVersion(USER_ID));
 	}
 	
 	//endregion
@@ -167,70 +1144,305 @@ public class UserRepositoryTests
 	@Test
 	public void update_When_UserDoesNotExistWithId_Then_ThrowsUserNotFoundException()
 	{
-		assertThrows(UserNotFoundException.class, () -> userRepository.update(new User(USER_ID)));
+		userRepository.loadUsers();
+		User user = new User(USER_ID);
+		
+		assertThrows(UserNotFoundException.class, () -> userRepository.update(user, UserEvent.userUpdated(user, null, null)));
 	}
 	
 	@Test
 	public void update_When_MultipleUsersExistButNoneWithId_Then_ThrowsUserNotFoundException()
 	{
 		createMultipleTestUsers();
+		userRepository.loadUsers();
+		User user = new User(USER_ID);
 		
-		assertThrows(UserNotFoundException.class, () -> userRepository.update(new User(USER_ID)));
+		assertThrows(UserNotFoundException.class, () -> userRepository.update(user, UserEvent.userUpdated(user, null, null)));
 	}
 	
 	@ParameterizedTest
 	@ValueSource(strings = {USER_ID, "987654321"})
-	public void create_When_UserExistsWithId_Then_AddsUserToUsers(String userId) throws UserNotFoundException
+	public void update_When_UserExistsWithId_Then_ReplacesUserInUsers(String userId) throws UserNotFoundException, UserModifiedException
 	{
-		User oldUser = new User("123");
-		users.put(userId, oldUser);
+		users.put(userId, new User(userId));
+		userRepository.loadUsers();
 		User newUser = new User(userId);
+		newUser.setName("Bob");
 		
-		userRepository.update(newUser);
+		userRepository.update(newUser, UserEvent.userUpdated(newUser, null, null));
 		
-		assertEquals(newUser, users.get(userId));
+		assertEquals("Bob", userRepository.find(userId).getName());
 	}
 	
 	@ParameterizedTest
 	@ValueSource(strings = {USER_ID, "987654321"})
-	public void create_When_UserExistsWithId_Then_WritesUsersToDatabase(String userId) throws UserNotFoundException
+	public void update_When_UserExistsWithId_Then_AppendsEvent(String userId) throws UserNotFoundException, UserModifiedException
 	{
-		User oldUser = new User("123");
-		users.put(userId, oldUser);
+		users.put(userId, new User(userId));
+		userRepository.loadUsers();
 		User user = new User(userId);
+		UserEvent event = UserEvent.userUpdated(user, "Bob", null);
 		
-		userRepository.update(user);
+		userRepository.update(user, event);
 		
-		verify(simpleDatabaseRepository).write(users);
+		verify(userEventLog).append(event);
+		verify(simpleDatabaseRepository, never()).write(anyMap());
 	}
 	
 	@ParameterizedTest
 	@ValueSource(strings = {USER_ID, "123456789"})
-	public void update_When_UserExistsWithId_Then_ReturnsUpdatedUser(String userId) throws UserNotFoundException
+	public void update_When_UserExistsWithId_Then_ReturnsUpdatedUser(String userId) throws UserNotFoundException, UserModifiedException
 	{
-		users.put(userId, new User("123"));
+		users.put(userId, new User(userId));
+		userRepository.loadUsers();
 		
 		User updatedUser = new User(userId);
-		User actual = userRepository.update(updatedUser);
+		User actual = userRepository.update(updatedUser, UserEvent.userUpdated(updatedUser, null, null));
 		
 		assertEquals(updatedUser, actual);
 	}
 	
 	@ParameterizedTest
 	@ValueSource(strings = {USER_ID, "987654321"})
-	public void update_When_MultipleUsersExistIncludingOneWithId_Then_ReturnsUser(String userId) throws UserNotFoundException
+	public void update_When_MultipleUsersExistIncludingOneWithId_Then_ReturnsUser(String userId) throws UserNotFoundException, UserModifiedException
 	{
-		users.put(USER_ID, new User("123"));
+		users.put(USER_ID, new User(USER_ID));
 		createMultipleTestUsers();
+		userRepository.loadUsers();
 		
 		User updatedUser = new User(userId);
-		User actual = userRepository.update(updatedUser);
+		User actual = userRepository.update(updatedUser, UserEvent.userUpdated(updatedUser, null, null));
 		
 		assertEquals(updatedUser, actual);
 	}
 	
+	@Test
+	public void update_When_UpdatedUserIsModifiedAfterwards_Then_StoredUserIsUnchanged() throws UserNotFoundException, UserModifiedException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		User user = new User(USER_ID);
+		
+		userRepository.update(user, UserEvent.userUpdated(user, null, null));
+		user.setName("Bob");
+		
+		assertNull(userRepository.find(USER_ID).getName());
+	}
+	
+	@Test
+	public void update_When_EventLogAppendFails_Then_KeepsPreviousUser() throws UserNotFoundException
+	{
+		User previous = new User(USER_ID);
+		previous.setName("Anna");
+		users.put(USER_ID, previous);
+		userRepository.loadUsers();
+		when(userEventLog.append(any())).thenReturn(failedAppend());
+		User user = new User(USER_ID);
+		user.setName("Bob");
+		
+		assertThrows(RuntimeException.class, () -> userRepository.update(user, UserEvent.userUpdated(user, null, null)));
+		assertEquals("Anna", userRepository.find(USER_ID).getName());
+	}
+	
+	@Test
+	public void update_When_EventLogAppendFails_Then_ResumesLogOnceUndone() throws UserNotFoundException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		when(userEventLog.append(any())).thenReturn(failedAppend());
+		User user = userRepository.find(USER_ID);
+		
+		assertThrows(RuntimeException.class, () -> userRepository.update(user, applied(user, UserEvent.shiftStarted(user, START_TIME))));
+		verify(userEventLog).resume();
+	}
+	
+	@Test
+	public void update_When_MadeOnChangeWhoseAppendLaterFails_Then_UndoesBothAndKeepsUserAsBefore() throws Exception
+	{
+		User stored = new User(USER_ID);
+		stored.setName("Anna");
+		users.put(USER_ID, stored);
+		userRepository.loadUsers();
+		CompletableFuture<Void> firstAppend = new CompletableFuture<>();
+		when(userEventLog.append(any())).thenReturn(firstAppend).thenReturn(failedAppend());
+		User first = userRepository.find(USER_ID);
+		CompletableFuture<Void> firstUpdate = CompletableFuture.runAsync(
+				() -> assertThrows(RuntimeException.class, () -> userRepository.update(first, applied(first, UserEvent.shiftStarted(first, START_TIME)))));
+		verify(userEventLog, timeout(1000)).append(any());
+		
+		// Checked against the first change, which is still waiting on the log, so the log refuses its event
+		User second = userRepository.find(USER_ID);
+		assertThrows(RuntimeException.class, () -> userRepository.update(second, applied(second, UserEvent.shiftEnded(second, START_TIME.plusHours(1)))));
+		verify(userEventLog, never()).resume();
+		firstAppend.completeExceptionally(new RuntimeException());
+		firstUpdate.get(1, TimeUnit.SECONDS);
+		
+		User actual = userRepository.find(USER_ID);
+		assertEquals("Anna", actual.getName());
+		assertNull(actual.getCurrentWorkShift());
+		assertTrue(actual.getPriorWorkShifts().isEmpty());
+		verify(userEventLog).resume();
+	}
+	
+	@Test
+	public void update_When_UserChangedSinceFound_Then_ThrowsUserModifiedException()
+	{
+		User stored = new User(USER_ID);
+		stored.setName("Anna");
+		stored.setVersion(1);
+		users.put(USER_ID, stored);
+		userRepository.loadUsers();
+		User staleUser = new User(USER_ID);
+		UserEvent event = UserEvent.userUpdated(staleUser, "Bob", null);
+		event.applyTo(staleUser);
+		
+		assertThrows(UserModifiedException.class, () -> userRepository.update(staleUser, event));
+		verify(userEventLog, never()).append(any());
+	}
+	
+	@Test
+	public void update_When_UserChangedSinceFound_Then_KeepsStoredUser() throws UserNotFoundException
+	{
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		User first = userRepository.find(USER_ID);
+		User second = userRepository.find(USER_ID);
+		UserEvent firstEvent = UserEvent.userUpdated(first, "Anna", null);
+		firstEvent.applyTo(first);
+		UserEvent secondEvent = UserEvent.userUpdated(second, "Bob", null);
+		secondEvent.applyTo(second);
+		
+		assertDoesNotThrow(() -> userRepository.update(first, firstEvent));
+		assertThrows(UserModifiedException.class, () -> userRepository.update(second, secondEvent));
+		assertEquals("Anna", userRepository.find(USER_ID).getName());
+		assertEquals(1, userRepository.find(USER_ID).getVersion());
+	}
+	
 	//endregion
 	
+	//region SingleWriter
+	
+	@Test
+	public void update_When_SingleWriter_Then_ReplacesUserInUsers() throws UserNotFoundException, UserModifiedException, InterruptedException
+	{
+		UserWriter userWriter = startSingleWriter();
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		User user = userRepository.find(USER_ID);
+		UserEvent event = UserEvent.userUpdated(user, "Bob", null);
+		event.applyTo(user);
+		
+		userRepository.update(user, event);
+		userWriter.close();
+		
+		assertEquals("Bob", userRepository.find(USER_ID).getName());
+		verify(userEventLog).append(event);
+	}
+	
+	@Test
+	public void update_When_SingleWriterAndUserChangedSinceFound_Then_ThrowsUserModifiedException() throws InterruptedException
+	{
+		UserWriter userWriter = startSingleWriter();
+		User stored = new User(USER_ID);
+		stored.setVersion(1);
+		users.put(USER_ID, stored);
+		userRepository.loadUsers();
+		User staleUser = new User(USER_ID);
+		
+		assertThrows(UserModifiedException.class, () -> userRepository.update(staleUser, UserEvent.userUpdated(staleUser, "Bob", null)));
+		userWriter.close();
+	}
+	
+	@Test
+	public void create_When_SingleWriterAndUserExists_Then_ThrowsUserAlreadyExistsException() throws InterruptedException
+	{
+		UserWriter userWriter = startSingleWriter();
+		users.put(USER_ID, new User(USER_ID));
+		userRepository.loadUsers();
+		
+		assertThrows(UserAlreadyExistsException.class, () -> userRepository.create(new User(USER_ID)));
+		userWriter.close();
+	}
+	
+	@Test
+	public void update_When_SingleWriterAndAppendFailsOnWriterThread_Then_UndoesWithoutWaitingOnItself() throws InterruptedException, UserNotFoundException
+	{
+		UserWriter userWriter = startSingleWriter();
+		User previous = new User(USER_ID);
+		previous.setName("Anna");
+		users.put(USER_ID, previous);
+		userRepository.loadUsers();
+		when(userEventLog.append(any())).thenReturn(failedAppend());
+		User user = new User(USER_ID);
+		user.setName("Bob");
+		
+		assertTimeoutPreemptively(Duration.ofSeconds(5),
+								  () -> assertThrows(RuntimeException.class, () -> userRepository.update(user, UserEvent.userUpdated(user, null, null))));
+		assertEquals("Anna", userRepository.find(USER_ID).getName());
+		verify(userEventLog).resume();
+		userWriter.close();
+	}
+	
+	@Test
+	public void snapshot_When_SingleWriter_Then_WritesUsersChangedSinceLastSnapshot() throws UserAlreadyExistsException, InterruptedException
+	{
+		UserWriter userWriter = startSingleWriter();
+		userRepository.loadUsers();
+		userRepository.create(new User(USER_ID));
+		
+		userRepository.snapshot();
+		userWriter.close();
+		
+		verify(simpleDatabaseRepository).write(usersCaptor.capture(), changedUserIdsCaptor.capture());
+		assertTrue(usersCaptor.getValue().containsKey(USER_ID));
+		assertEquals(Collections.singleton(USER_ID), changedUserIdsCaptor.getValue());
+	}
+	
+	//endregion
+	
+	private UserWriter startSingleWriter()
+	{
+		UserWriter userWriter = new UserWriter(MutationMode.SingleWriter, 16);
+		userWriter.start();
+		userRepository = new UserRepository(simpleDatabaseRepository, userEventLog, userWriter, meterRegistry, Duration.ofMinutes(5));
+		return userWriter;
+	}
+	
+	private void replayEvents(UserEvent... events)
+	{
+		doAnswer(invocation -> {
+			Consumer<UserEvent> consumer = invocation.getArgument(0);
+			Arrays.asList(events).forEach(consumer);
+			return null;
+		}).when(userEventLog).replay(any());
+	}
+	
+	private CompletableFuture<Void> failedAppend()
+	{
+		CompletableFuture<Void> append = new CompletableFuture<>();
+		append.completeExceptionally(new RuntimeException());
+		return append;
+	}
+	
+	private UserEvent applied(User user, UserEvent event)
+	{
+		event.applyTo(user);
+		return event;
+	}
+	
+	private User newUser(String userId, String name, Role role)
+	{
+		User user = new User(userId);
+		user.setName(name);
+		user.setRole(role);
+		return user;
+	}
+	
+	private Set<String> userIdsOf(Stream<User> users)
+	{
+		return users.map(User::getUserId).collect(Collectors.toSet());
+	}
+	
 	private void createMultipleTestUsers()
 	{
 		users.put("111111111", new User("111111111"));
@@ -0,0 +1,201 @@
+package com.hawkins.simpletimeclock.repository;
+
+import com.hawkins.simpletimeclock.enums.MutationMode;
+import com.hawkins.simpletimeclock.exception.UserNotFoundException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserWriterTests
+{
+	private UserWriter userWriter;
+	
+	@AfterEach
+	public void tearDown() throws InterruptedException
+	{
+		userWriter.close();
+	}
+	
+	@Test
+	public void class_HasCorrectAnnotations()
+	{
+		userWriter = newUserWriter(MutationMode.Synchronous);
+		
+		assertNotNull(UserWriter.class.getAnnotation(Component.class));
+	}
+	
+	@ParameterizedTest
+	@EnumSource(MutationMode.class)
+	public void submit_CompletesWithWhatChangeReturns(MutationMode mode)
+	{
+		userWriter = newUserWriter(mode);
+		
+		assertEquals("done", userWriter.submit(() -> "done").join());
+	}
+	
+	@ParameterizedTest
+	@EnumSource(MutationMode.class)
+	public void submit_When_ChangeThrows_Then_FailsWithSameException(MutationMode mode)
+	{
+		userWriter = newUserWriter(mode);
+		UserNotFoundException expected = new UserNotFoundException();
+		
+		CompletableFuture<Object> actual = userWriter.submit(() -> {
+			throw expected;
+		});
+		
+		CompletionException thrown = assertThrows(CompletionException.class, actual::join);
+		assertSame(expected, thrown.getCause());
+	}
+	
+	@Test
+	public void submit_When_Synchronous_Then_MakesChangeOnCallingThread()
+	{
+		userWriter = newUserWriter(MutationMode.Synchronous);
+		
+		Thread actual = userWriter.submit(Thread::currentThread).join();
+		
+		assertSame(Thread.currentThread(), actual);
+	}
+	
+	@Test
+	public void submit_When_SingleWriter_Then_MakesEveryChangeOnWriterThread() throws InterruptedException
+	{
+		userWriter = newUserWriter(MutationMode.SingleWriter);
+		AtomicReference<Thread> first = new AtomicReference<>();
+		AtomicReference<Thread> second = new AtomicReference<>();
+		
+		Thread submitter = new Thread(() -> first.set(userWriter.submit(Thread::currentThread).join()));
+		submitter.start();
+		submitter.join();
+		second.set(userWriter.submit(Thread::currentThread).join());
+		
+		assertEquals("user-writer", first.get().getName());
+		assertSame(first.get(), second.get());
+	}
+	
+	@ParameterizedTest
+	@EnumSource(MutationMode.class)
+	public void submit_When_ManyThreadsSubmit_Then_ChangesNeverOverlap(MutationMode mode) throws InterruptedException
+	{
+		userWriter = newUserWriter(mode);
+		int[] counter = new int[1];
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> submitters = new ArrayList<>();
+		
+		for (int thread = 0; thread < 8; thread++)
+		{
+			Thread submitter = new Thread(() -> {
+				try
+				{
+					start.await();
+				} catch (InterruptedException e)
+				{
+					return;
+				}
+				for (int i = 0; i < 1_000; i++)
+				{
+					userWriter.submit(() -> counter[0]++).join();
+				}
+			});
+			submitter.start();
+			submitters.add(submitter);
+		}
+		
+		start.countDown();
+		for (Thread submitter : submitters)
+		{
+			submitter.join();
+		}
+		
+		assertEquals(8_000, (int) userWriter.submit(() -> counter[0]).join());
+	}
+	
+	@Test
+	public void close_When_SingleWriter_Then_MakesChangesAlreadySubmitted() throws InterruptedException
+	{
+		userWriter = newUserWriter(MutationMode.SingleWriter);
+		List<CompletableFuture<Integer>> changes = new ArrayList<>();
+		
+		for (int i = 0; i < 100; i++)
+		{
+			int value = i;
+			changes.add(userWriter.submit(() -> value));
+		}
+		userWriter.close();
+		
+		for (int i = 0; i < 100; i++)
+		{
+			assertEquals(i, (int) changes.get(i).getNow(-1));
+		}
+	}
+	
+	@Test
+	public void submit_When_SingleWriterClosed_Then_FailsWithRuntimeException() throws InterruptedException
+	{
+		userWriter = newUserWriter(MutationMode.SingleWriter);
+		userWriter.close();
+		
+		CompletionException thrown = assertThrows(CompletionException.class, () -> userWriter.submit(() -> "done").join());
+		assertEquals("Issue communicating with database.", thrown.getCause().getMessage());
+	}
+	
+	@Test
+	public void submit_When_SingleWriterClosesMeanwhile_Then_EveryChangeIsEitherMadeOrFailed() throws InterruptedException
+	{
+		for (int attempt = 0; attempt < 50; attempt++)
+		{
+			userWriter = newUserWriter(MutationMode.SingleWriter);
+			List<CompletableFuture<Integer>> changes = new ArrayList<>();
+			Thread submitter = new Thread(() -> {
+				for (int i = 0; i < 200; i++)
+				{
+					int value = i;
+					changes.add(userWriter.submit(() -> value));
+				}
+			});
+			
+			submitter.start();
+			userWriter.close();
+			submitter.join();
+			
+			assertTrue(changes.stream().allMatch(CompletableFuture::isDone));
+		}
+	}
+	
+	@ParameterizedTest
+	@EnumSource(MutationMode.class)
+	public void isMakingChange_When_CalledFromChange_Then_ReturnsTrue(MutationMode mode)
+	{
+		userWriter = newUserWriter(mode);
+		
+		assertTrue(userWriter.submit(() -> userWriter.isMakingChange()).join());
+	}
+	
+	@ParameterizedTest
+	@EnumSource(MutationMode.class)
+	public void isMakingChange_When_CalledOutsideChange_Then_ReturnsFalse(MutationMode mode)
+	{
+		userWriter = newUserWriter(mode);
+		
+		assertFalse(userWriter.isMakingChange());
+	}
+	
+	private UserWriter newUserWriter(MutationMode mode)
+	{
+		UserWriter userWriter = new UserWriter(mode, 16);
+		userWriter.start();
+		return userWriter;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,351 @@
+package com.hawkins.simpletimeclock.service;
+
+import com.hawkins.simpletimeclock.domain.ReportDataFilters;
+import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.domain.UserActivity;
+import com.hawkins.simpletimeclock.enums.Role;
+import com.hawkins.simpletimeclock.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ReportCacheTests
+{
+	private static final String USER_ID = "987654321";
+	private static final LocalDateTime START_TIME = LocalDateTime.of(2022, 12, 31, 12, 30);
+	private static final Duration TIME_TO_LIVE = Duration.ofSeconds(30);
+	private static final int MAX_ENTRIES = 2;
+	
+	@Mock
+	private UserRepository userRepository;
+	@Mock
+	private Clock clock;
+	
+	private SimpleMeterRegistry meterRegistry;
+	private ReportCache reportCache;
+	private AtomicInteger runs;
+	private Supplier<Map<String, UserActivity>> report;
+	private ExecutorService executor;
+	private CountDownLatch started;
+	private CountDownLatch finish;
+	
+	@BeforeEach
+	public void setUp()
+	{
+		meterRegistry = new SimpleMeterRegistry();
+		reportCache = new ReportCache(userRepository, clock, meterRegistry, MAX_ENTRIES, TIME_TO_LIVE);
+		runs = new AtomicInteger();
+		report = () -> {
+			runs.incrementAndGet();
+			Map<String, UserActivity> activity = new HashMap<>();
+			activity.put(USER_ID, new UserActivity(new User(USER_ID), emptyList(), emptyList()));
+			return activity;
+		};
+		lenient().when(clock.now()).thenReturn(START_TIME);
+		executor = Executors.newFixedThreadPool(2);
+		started = new CountDownLatch(1);
+		finish = new CountDownLatch(1);
+	}
+	
+	@AfterEach
+	public void tearDown()
+	{
+		executor.shutdownNow();
+	}
+	
+	@Test
+	public void class_HasCorrectAnnotations()
+	{
+		assertNotNull(ReportCache.class.getAnnotation(Component.class));
+	}
+	
+	@Test
+	public void find_When_NothingCached_Then_RunsReport()
+	{
+		Map<String, UserActivity> actual = reportCache.find(new ReportDataFilters(), report);
+		
+		assertEquals(1, runs.get());
+		assertEquals(1, actual.size());
+		assertEquals(1, count("timeclock.report.cache.misses"));
+		assertEquals(0, count("timeclock.report.cache.hits"));
+	}
+	
+	@Test
+	public void find_When_SameFiltersAndNothingChanged_Then_ReturnsSameReportWithoutRunningIt()
+	{
+		Map<String, UserActivity> first = reportCache.find(filtersWithRole(), report);
+		
+		Map<String, UserActivity> actual = reportCache.find(filtersWithRole(), report);
+		
+		assertSame(first, actual);
+		assertEquals(1, runs.get());
+		assertEquals(1, count("timeclock.report.cache.hits"));
+		assertEquals(1, count("timeclock.report.cache.misses"));
+	}
+	
+	@Test
+	public void find_When_FiltersDifferInWaysThatDoNotChangeReport_Then_ReturnsSameReport()
+	{
+		ReportDataFilters filters = filtersWithRole();
+		reportCache.find(filters, report);
+		
+		filters.setPriorWorkShiftsThreshold(-1);
+		filters.setOnlyActiveInRange(true);
+		Map<String, UserActivity> actual = reportCache.find(filters, report);
+		
+		assertEquals(1, runs.get());
+		assertEquals(1, actual.size());
+	}
+	
+	@Test
+	public void find_When_FiltersDiffer_Then_RunsReportForEach()
+	{
+		ReportDataFilters filters = filtersWithRole();
+		reportCache.find(filters, report);
+		
+		filters.setShiftBeginsAfter(START_TIME);
+		reportCache.find(filters, report);
+		
+		assertEquals(2, runs.get());
+		assertEquals(2, reportCache.size());
+	}
+	
+	@Test
+	public void find_When_AnyUserChanged_Then_RunsReportAgain()
+	{
+		when(userRepository.findUsersVersion()).thenReturn(1L, 2L);
+		reportCache.find(filtersWithRole(), report);
+		
+		reportCache.find(filtersWithRole(), report);
+		
+		assertEquals(2, runs.get());
+		assertEquals(1, evictions("stale"));
+		assertEquals(1, reportCache.size());
+	}
+	
+	@Test
+	public void find_When_UserIdFilterGiven_Then_OnlyRunsReportAgainWhenThatUserChanged()
+	{
+		ReportDataFilters filters = new ReportDataFilters();
+		filters.setUserIdToView(USER_ID);
+		when(userRepository.findVersion(USER_ID)).thenReturn(3L, 3L, 4L);
+		
+		reportCache.find(filters, report);
+		reportCache.find(filters, report);
+		
+		assertEquals(1, runs.get());
+		
+		reportCache.find(filters, report);
+		
+		assertEquals(2, runs.get());
+		verify(userRepository, never()).findUsersVersion();
+	}
+	
+	@Test
+	public void find_When_TimeToLivePassed_Then_RunsReportAgain()
+	{
+		reportCache.find(filtersWithRole(), report);
+		when(clock.now()).thenReturn(START_TIME.plus(TIME_TO_LIVE));
+		
+		reportCache.find(filtersWithRole(), report);
+		
+		assertEquals(2, runs.get());
+		assertEquals(1, evictions("expired"));
+	}
+	
+	@Test
+	public void find_When_MoreReportsThanMaxEntries_Then_DropsLeastRecentlyAskedFor()
+	{
+		ReportDataFilters first = filtersWithRole();
+		ReportDataFilters second = new ReportDataFilters();
+		ReportDataFilters third = new ReportDataFilters();
+		third.setCurrentlyOnBreak(true);
+		reportCache.find(first, report);
+		reportCache.find(second, report);
+		reportCache.find(first, report);
+		
+		reportCache.find(third, report);
+		
+		assertEquals(MAX_ENTRIES, reportCache.size());
+		assertEquals(1, evictions("size"));
+		reportCache.find(first, report);
+		assertEquals(3, runs.get());
+		reportCache.find(second, report);
+		assertEquals(4, runs.get());
+	}
+	
+	@Test
+	public void find_ReturnsReportThatCannotBeModified()
+	{
+		Map<String, UserActivity> actual = reportCache.find(new ReportDataFilters(), report);
+		
+		assertThrows(UnsupportedOperationException.class, () -> actual.remove(USER_ID));
+	}
+	
+	@Test
+	public void find_When_ReportThrows_Then_ThrowsSameExceptionAndCachesNothing()
+	{
+		IllegalStateException expected = new IllegalStateException();
+		
+		IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> reportCache.find(new ReportDataFilters(), () -> {
+			throw expected;
+		}));
+		
+		assertSame(expected, thrown);
+		assertEquals(0, reportCache.size());
+	}
+	
+	@Test
+	public void find_When_SameReportIsRunning_Then_WaitsForItsResultRatherThanRunningItAgain() throws Exception
+	{
+		Future<Map<String, UserActivity>> first = executor.submit(() -> reportCache.find(filtersWithRole(), slowly(report)));
+		started.await();
+		
+		Future<Map<String, UserActivity>> second = executor.submit(() -> reportCache.find(filtersWithRole(), report));
+		awaitCoalesced();
+		finish.countDown();
+		
+		assertSame(first.get(), second.get());
+		assertEquals(1, runs.get());
+		assertEquals(1, count("timeclock.report.cache.misses"));
+	}
+	
+	@Test
+	public void find_When_RunningReportThrows_Then_WaitingCallersThrowSameException() throws Exception
+	{
+		IllegalStateException expected = new IllegalStateException();
+		Future<Map<String, UserActivity>> first = executor.submit(() -> reportCache.find(filtersWithRole(), slowly(() -> {
+			throw expected;
+		})));
+		started.await();
+		
+		Future<Map<String, UserActivity>> second = executor.submit(() -> reportCache.find(filtersWithRole(), report));
+		awaitCoalesced();
+		finish.countDown();
+		
+		assertSame(expected, assertThrows(ExecutionException.class, first::get).getCause());
+		assertSame(expected, assertThrows(ExecutionException.class, second::get).getCause());
+		assertEquals(0, runs.get());
+		assertEquals(0, reportCache.size());
+	}
+	
+	@Test
+	public void find_When_SameReportIsRunningButUsersChangedSince_Then_RunsItAgain() throws Exception
+	{
+		when(userRepository.findUsersVersion()).thenReturn(1L, 2L);
+		Future<Map<String, UserActivity>> first = executor.submit(() -> reportCache.find(filtersWithRole(), slowly(report)));
+		started.await();
+		
+		Map<String, UserActivity> second = reportCache.find(filtersWithRole(), report);
+		finish.countDown();
+		
+		assertNotSame(first.get(), second);
+		assertEquals(2, runs.get());
+		assertEquals(0, count("timeclock.report.cache.coalesced"));
+		assertSame(second, reportCache.find(filtersWithRole(), report));
+	}
+	
+	@Test
+	public void tagOf_When_FiltersGiveSameReport_Then_ReturnsSameTag()
+	{
+		ReportDataFilters filters = filtersWithRole();
+		String first = reportCache.tagOf(filters);
+		
+		filters.setPriorWorkShiftsThreshold(-1);
+		filters.setOnlyActiveInRange(true);
+		
+		assertEquals(first, reportCache.tagOf(filters));
+		assertEquals(0, runs.get());
+	}
+	
+	@Test
+	public void tagOf_When_FiltersDiffer_Then_ReturnsDifferentTag()
+	{
+		ReportDataFilters filters = filtersWithRole();
+		String first = reportCache.tagOf(filters);
+		
+		filters.setShiftBeginsAfter(START_TIME);
+		
+		assertNotEquals(first, reportCache.tagOf(filters));
+	}
+	
+	@Test
+	public void tagOf_When_UsersChanged_Then_ReturnsDifferentTag()
+	{
+		when(userRepository.findUsersVersion()).thenReturn(1L, 2L);
+		String first = reportCache.tagOf(filtersWithRole());
+		
+		assertNotEquals(first, reportCache.tagOf(filtersWithRole()));
+	}
+	
+	@Test
+	public void tagOf_When_AnotherInstance_Then_ReturnsDifferentTag()
+	{
+		ReportCache other = new ReportCache(userRepository, clock, meterRegistry, MAX_ENTRIES, TIME_TO_LIVE);
+		
+		assertNotEquals(reportCache.tagOf(filtersWithRole()), other.tagOf(filtersWithRole()));
+	}
+	
+	private Supplier<Map<String, UserActivity>> slowly(Supplier<Map<String, UserActivity>> report)
+	{
+		return () -> {
+			started.countDown();
+			try
+			{
+				finish.await();
+			} catch (InterruptedException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			return report.get();
+		};
+	}
+	
+	// Only lets the running report finish once the other caller is waiting on it
+	private void awaitCoalesced()
+	{
+		while (count("timeclock.report.cache.coalesced") == 0)
+		{
+			Thread.yield();
+		}
+	}
+	
+	private ReportDataFilters filtersWithRole()
+	{
+		ReportDataFilters filters = new ReportDataFilters();
+		filters.setRoleToView(Role.NonAdministrator);
+		return filters;
+	}
+	
+	private double count(String name)
+	{
+		return meterRegistry.get(name).counter().count();
+	}
+	
+	private double evictions(String cause)
+	{
+		return meterRegistry.get("timeclock.report.cache.evictions").tag("cause", cause).counter().count();
+	}
+}
\ No newline at end of file
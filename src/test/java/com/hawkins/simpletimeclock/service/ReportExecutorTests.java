@@ -0,0 +1,119 @@
+package com.hawkins.simpletimeclock.service;
+
+import com.hawkins.simpletimeclock.domain.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReportExecutorTests
+{
+	private static final int USERS = 20_000;
+	
+	private ReportExecutor reportExecutor;
+	
+	@AfterEach
+	public void tearDown()
+	{
+		reportExecutor.close();
+	}
+	
+	@Test
+	public void class_HasCorrectAnnotations()
+	{
+		reportExecutor = new ReportExecutor(USERS, 2);
+		
+		assertNotNull(ReportExecutor.class.getAnnotation(Component.class));
+	}
+	
+	@Test
+	public void collect_When_FewerUsersThanThreshold_Then_RunsOnCallingThread()
+	{
+		reportExecutor = new ReportExecutor(USERS + 1, 2);
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		
+		Map<String, Integer> actual = reportExecutor.collect(createUsers(), passesOnThreadAddedTo(threads), this::toNumber);
+		
+		assertEquals(USERS, actual.size());
+		assertEquals(Collections.singleton(Thread.currentThread().getName()), threads);
+	}
+	
+	@Test
+	public void collect_When_AtLeastThresholdUsers_Then_RunsOnReportThreads()
+	{
+		reportExecutor = new ReportExecutor(USERS, 2);
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		
+		Map<String, Integer> actual = reportExecutor.collect(createUsers(), passesOnThreadAddedTo(threads), this::toNumber);
+		
+		assertEquals(USERS, actual.size());
+		assertFalse(threads.contains(Thread.currentThread().getName()));
+		assertTrue(threads.stream().allMatch(thread -> thread.startsWith("report-")));
+	}
+	
+	@Test
+	public void collect_When_RunInParallel_Then_ReturnsSameResultsAsSequentially()
+	{
+		reportExecutor = new ReportExecutor(USERS, 4);
+		Map<String, User> users = createUsers();
+		
+		Map<String, Integer> actual = reportExecutor.collect(users, entry -> toNumber(entry.getValue()) % 3 == 0, this::toNumber);
+		
+		Map<String, Integer> expected = new HashMap<>();
+		for (int i = 0; i < USERS; i += 3)
+		{
+			expected.put(String.valueOf(i), i);
+		}
+		assertEquals(expected, actual);
+		assertEquals(USERS / 3 + 1, actual.size());
+	}
+	
+	@Test
+	public void collect_When_NoUsers_Then_ReturnsNoResults()
+	{
+		reportExecutor = new ReportExecutor(0, 2);
+		
+		assertTrue(reportExecutor.collect(Collections.emptyMap(), entry -> true, this::toNumber).isEmpty());
+	}
+	
+	@Test
+	public void collect_When_FilterThrowsInParallel_Then_ThrowsSameTypeOfException()
+	{
+		reportExecutor = new ReportExecutor(0, 2);
+		
+		assertThrows(IllegalStateException.class, () -> reportExecutor.collect(createUsers(), entry -> {
+			throw new IllegalStateException();
+		}, this::toNumber));
+	}
+	
+	private Map<String, User> createUsers()
+	{
+		Map<String, User> users = new HashMap<>();
+		for (int i = 0; i < USERS; i++)
+		{
+			users.put(String.valueOf(i), new User(String.valueOf(i)));
+		}
+		return users;
+	}
+	
+	private Predicate<Map.Entry<String, User>> passesOnThreadAddedTo(Set<String> threads)
+	{
+		return entry -> {
+			threads.add(Thread.currentThread().getName());
+			return true;
+		};
+	}
+	
+	private int toNumber(User user)
+	{
+		return Integer.parseInt(user.getUserId());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,167 @@
+package com.hawkins.simpletimeclock.service;
+
+import com.hawkins.simpletimeclock.domain.ReportDataFilters;
+import com.hawkins.simpletimeclock.domain.ReportPlan;
+import com.hawkins.simpletimeclock.enums.ReportAccessPath;
+import com.hawkins.simpletimeclock.enums.ReportPredicate;
+import com.hawkins.simpletimeclock.enums.Role;
+import com.hawkins.simpletimeclock.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ReportPlannerTests
+{
+	private static final String USER_ID = "987654321";
+	private static final LocalDateTime START_TIME = LocalDateTime.of(2022, 12, 31, 12, 30);
+	private static final LocalDateTime END_TIME = LocalDateTime.of(2022, 12, 31, 20, 29);
+	
+	@Mock
+	private UserRepository userRepository;
+	
+	private ReportPlanner reportPlanner;
+	private ReportDataFilters filters;
+	
+	@BeforeEach
+	public void setUp()
+	{
+		reportPlanner = new ReportPlanner(userRepository);
+		filters = new ReportDataFilters();
+		lenient().when(userRepository.countUsers()).thenReturn(10);
+	}
+	
+	@Test
+	public void class_HasCorrectAnnotations()
+	{
+		assertNotNull(ReportPlanner.class.getAnnotation(Component.class));
+	}
+	
+	@Test
+	public void plan_When_NoFiltersExist_Then_LooksAtAllUsers()
+	{
+		ReportPlan actual = reportPlanner.plan(filters);
+		
+		assertEquals(ReportAccessPath.AllUsers, actual.getAccessPath());
+		assertEquals(10, actual.getEstimatedCandidates());
+		assertEquals(10, actual.getTotalUsers());
+		assertTrue(actual.getIndexedPredicates().isEmpty());
+		assertTrue(actual.getResidualPredicates().isEmpty());
+		verify(userRepository, never()).estimateUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt());
+	}
+	
+	@Test
+	public void plan_When_UserIdFilterExists_Then_LooksAtThatUserWithoutAskingForEstimate()
+	{
+		filters.setUserIdToView(USER_ID);
+		
+		ReportPlan actual = reportPlanner.plan(filters);
+		
+		assertEquals(ReportAccessPath.UserId, actual.getAccessPath());
+		assertEquals(1, actual.getEstimatedCandidates());
+		assertEquals(EnumSet.of(ReportPredicate.UserId), actual.getIndexedPredicates());
+		assertTrue(actual.getResidualPredicates().isEmpty());
+	}
+	
+	@Test
+	public void plan_When_NoUsersExist_Then_LooksAtAllUsers()
+	{
+		filters.setUserIdToView(USER_ID);
+		when(userRepository.countUsers()).thenReturn(0);
+		
+		ReportPlan actual = reportPlanner.plan(filters);
+		
+		assertEquals(ReportAccessPath.AllUsers, actual.getAccessPath());
+		assertEquals(EnumSet.of(ReportPredicate.UserId), actual.getResidualPredicates());
+	}
+	
+	@Test
+	public void plan_When_BitmapFiltersExist_Then_AsksForEstimateWithThoseFilters()
+	{
+		filters.setRoleToView(Role.NonAdministrator);
+		filters.setCurrentlyOnBreak(true);
+		filters.setPriorWorkShiftsThreshold(2);
+		filters.setPriorBreaksThreshold(3);
+		when(userRepository.estimateUsersWith(Role.NonAdministrator, true, false, 2, 3)).thenReturn(4);
+		
+		ReportPlan actual = reportPlanner.plan(filters);
+		
+		assertEquals(ReportAccessPath.Bitmaps, actual.getAccessPath());
+		assertEquals(4, actual.getEstimatedCandidates());
+		assertEquals(EnumSet.of(ReportPredicate.Role, ReportPredicate.OnBreak, ReportPredicate.PriorWorkShifts, ReportPredicate.PriorBreaks),
+					 actual.getIndexedPredicates());
+		assertTrue(actual.getResidualPredicates().isEmpty());
+	}
+	
+	@Test
+	public void plan_When_IndexIsEstimatedToFindEveryUser_Then_LooksAtAllUsers()
+	{
+		filters.setCurrentlyOnLunch(true);
+		when(userRepository.estimateUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(10);
+		
+		ReportPlan actual = reportPlanner.plan(filters);
+		
+		assertEquals(ReportAccessPath.AllUsers, actual.getAccessPath());
+		assertEquals(EnumSet.of(ReportPredicate.OnLunch), actual.getResidualPredicates());
+		assertEquals(Integer.valueOf(10), actual.getEstimates().get(ReportAccessPath.Bitmaps));
+	}
+	
+	@Test
+	public void plan_When_RangesExistWithoutOnlyActiveInRange_Then_DoesNotAskForEstimates()
+	{
+		filters.setShiftBeginsAfter(START_TIME);
+		filters.setBreakBeginsBefore(END_TIME);
+		
+		ReportPlan actual = reportPlanner.plan(filters);
+		
+		assertEquals(ReportAccessPath.AllUsers, actual.getAccessPath());
+		assertTrue(actual.getResidualPredicates().isEmpty());
+		verify(userRepository, never()).estimateUsersWithShiftsBetween(any(), any());
+		verify(userRepository, never()).estimateUsersWithBreaksBetween(any(), any());
+	}
+	
+	@Test
+	public void plan_When_RangeIsEstimatedToFindFewestUsers_Then_LooksAtThatRangeAndChecksOtherFiltersOnEachUser()
+	{
+		filters.setOnlyActiveInRange(true);
+		filters.setShiftBeginsAfter(START_TIME);
+		filters.setBreakBeginsAfter(START_TIME);
+		filters.setBreakBeginsBefore(END_TIME);
+		filters.setRoleToView(Role.Administrator);
+		when(userRepository.estimateUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(5);
+		when(userRepository.estimateUsersWithShiftsBetween(START_TIME, null)).thenReturn(4);
+		when(userRepository.estimateUsersWithBreaksBetween(START_TIME, END_TIME)).thenReturn(2);
+		
+		ReportPlan actual = reportPlanner.plan(filters);
+		
+		assertEquals(ReportAccessPath.BreakDays, actual.getAccessPath());
+		assertEquals(2, actual.getEstimatedCandidates());
+		assertEquals(EnumSet.of(ReportPredicate.BreaksInRange), actual.getIndexedPredicates());
+		assertEquals(EnumSet.of(ReportPredicate.Role, ReportPredicate.ShiftsInRange), actual.getResidualPredicates());
+		assertEquals(4, actual.getEstimates().size());
+	}
+	
+	@Test
+	public void plan_When_IndexesAreEstimatedToFindAsMany_Then_LooksAtFirstDeclared()
+	{
+		filters.setOnlyActiveInRange(true);
+		filters.setShiftBeginsBefore(END_TIME);
+		filters.setCurrentlyOnBreak(true);
+		when(userRepository.estimateUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(3);
+		when(userRepository.estimateUsersWithShiftsBetween(any(), any())).thenReturn(3);
+		
+		ReportPlan actual = reportPlanner.plan(filters);
+		
+		assertEquals(ReportAccessPath.Bitmaps, actual.getAccessPath());
+		assertEquals(EnumSet.of(ReportPredicate.ShiftsInRange), actual.getResidualPredicates());
+	}
+}
\ No newline at end of file
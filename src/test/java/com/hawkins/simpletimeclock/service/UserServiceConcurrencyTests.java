@@ -0,0 +1,166 @@
+package com.hawkins.simpletimeclock.service;
+
+import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.enums.MutationMode;
+import com.hawkins.simpletimeclock.exception.WorkShiftInProgressException;
+import com.hawkins.simpletimeclock.exception.WorkShiftNotStartedException;
+import com.hawkins.simpletimeclock.repository.SimpleDatabaseRepository;
+import com.hawkins.simpletimeclock.repository.UserEventLog;
+import com.hawkins.simpletimeclock.repository.UserRepository;
+import com.hawkins.simpletimeclock.repository.UserWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// Runs many punches at once against a real repository to check that none of them is lost
+public class UserServiceConcurrencyTests
+{
+	private static final int THREADS = 32;
+	private static final int CYCLES = 200;
+	
+	private ExecutorService executorService;
+	private SimpleDatabaseRepository simpleDatabaseRepository;
+	private UserEventLog userEventLog;
+	private UserWriter userWriter;
+	private UserRepository userRepository;
+	private UserService userService;
+	private Map<String, User> users;
+	
+	@BeforeEach
+	public void setUp()
+	{
+		users = new HashMap<>();
+		simpleDatabaseRepository = mock(SimpleDatabaseRepository.class);
+		userEventLog = mock(UserEventLog.class);
+		when(simpleDatabaseRepository.read()).thenReturn(users);
+		when(userEventLog.append(any())).thenReturn(CompletableFuture.completedFuture(null));
+		executorService = Executors.newFixedThreadPool(THREADS);
+	}
+	
+	@AfterEach
+	public void tearDown() throws InterruptedException
+	{
+		executorService.shutdownNow();
+		userWriter.close();
+	}
+	
+	@ParameterizedTest
+	@EnumSource(MutationMode.class)
+	public void punches_When_ManyThreadsPunchSameUser_Then_NoUpdateIsLost(MutationMode mode) throws Exception
+	{
+		startUserService(mode);
+		users.put("1", new User("1"));
+		userRepository.loadUsers();
+		AtomicInteger startedShifts = new AtomicInteger();
+		AtomicInteger endedShifts = new AtomicInteger();
+		
+		runConcurrently(thread -> {
+			for (int i = 0; i < CYCLES; i++)
+			{
+				try
+				{
+					userService.startShift("1");
+					startedShifts.incrementAndGet();
+				} catch (WorkShiftInProgressException ignored)
+				{
+				}
+				try
+				{
+					userService.endShift("1");
+					endedShifts.incrementAndGet();
+				} catch (WorkShiftNotStartedException ignored)
+				{
+				}
+			}
+		});
+		
+		User actual = userRepository.find("1");
+		assertEquals(startedShifts.get() + endedShifts.get(), actual.getVersion());
+		assertEquals(endedShifts.get(), actual.getPriorWorkShifts().size());
+		assertEquals(startedShifts.get() - endedShifts.get() == 1, actual.getCurrentWorkShift() != null);
+	}
+	
+	@ParameterizedTest
+	@EnumSource(MutationMode.class)
+	public void punches_When_ThreadsPunchDifferentUsers_Then_EveryUserKeepsAllTheirShifts(MutationMode mode) throws Exception
+	{
+		startUserService(mode);
+		for (int thread = 0; thread < THREADS; thread++)
+		{
+			users.put(String.valueOf(thread), new User(String.valueOf(thread)));
+		}
+		userRepository.loadUsers();
+		
+		runConcurrently(thread -> {
+			for (int i = 0; i < CYCLES; i++)
+			{
+				userService.startShift(String.valueOf(thread));
+				userService.endShift(String.valueOf(thread));
+			}
+		});
+		
+		for (int thread = 0; thread < THREADS; thread++)
+		{
+			User actual = userRepository.find(String.valueOf(thread));
+			assertEquals(CYCLES, actual.getPriorWorkShifts().size());
+			assertEquals(CYCLES * 2, actual.getVersion());
+			assertNull(actual.getCurrentWorkShift());
+		}
+	}
+	
+	private void startUserService(MutationMode mode)
+	{
+		userWriter = new UserWriter(mode, 1024);
+		userWriter.start();
+		userRepository = new UserRepository(simpleDatabaseRepository, userEventLog, userWriter, new SimpleMeterRegistry(), Duration.ofMinutes(5));
+		userService = new UserService(userRepository, new Clock(), new ReportExecutor(Integer.MAX_VALUE, 1),
+									  new ReportCache(userRepository, new Clock(), new SimpleMeterRegistry(), 16, Duration.ofSeconds(30)),
+									  new ReportPlanner(userRepository));
+	}
+	
+	private void runConcurrently(Punches punches) throws Exception
+	{
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Void>> results = new ArrayList<>();
+		
+		for (int thread = 0; thread < THREADS; thread++)
+		{
+			int threadNumber = thread;
+			Callable<Void> task = () -> {
+				start.await();
+				punches.run(threadNumber);
+				return null;
+			};
+			results.add(executorService.submit(task));
+		}
+		
+		start.countDown();
+		for (Future<Void> result : results)
+		{
+			result.get();
+		}
+	}
+	
+	private interface Punches
+	{
+		void run(int thread) throws Exception;
+	}
+}
\ No newline at end of file
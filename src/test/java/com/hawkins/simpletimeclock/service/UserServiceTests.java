@@ -1,11 +1,19 @@
 package com.hawkins.simpletimeclock.service;
 
 import com.hawkins.simpletimeclock.domain.Break;
+import com.hawkins.simpletimeclock.domain.LiveStatus;
 import com.hawkins.simpletimeclock.domain.ReportDataFilters;
+import com.hawkins.simpletimeclock.domain.ReportPlan;
 import com.hawkins.simpletimeclock.domain.User;
+import com.hawkins.simpletimeclock.domain.UserActivity;
+import com.hawkins.simpletimeclock.domain.UserShiftCount;
+import com.hawkins.simpletimeclock.domain.UserEvent;
 import com.hawkins.simpletimeclock.domain.WorkShift;
 import com.hawkins.simpletimeclock.enums.BreakType;
+import com.hawkins.simpletimeclock.enums.ReportAccessPath;
+import com.hawkins.simpletimeclock.enums.ReportPredicate;
 import com.hawkins.simpletimeclock.enums.Role;
+import com.hawkins.simpletimeclock.enums.UserEventType;
 import com.hawkins.simpletimeclock.exception.*;
 import com.hawkins.simpletimeclock.repository.UserRepository;
 import org.junit.jupiter.api.BeforeEach;
@@ -15,15 +23,24 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 import static org.junit.jupiter.api.Assertions.*;
@@ -39,12 +56,19 @@ public class UserServiceTests
 	
 	@Captor
 	private ArgumentCaptor<User> userCaptor;
+	@Captor
+	private ArgumentCaptor<UserEvent> eventCaptor;
 	
 	@Mock
 	private UserRepository userRepository;
 	@Mock
 	private Clock clock;
-	@InjectMocks
+	@Spy
+	private ReportExecutor reportExecutor = new ReportExecutor(Integer.MAX_VALUE, 1);
+	@Mock
+	private ReportCache reportCache;
+	
+	private ReportPlanner reportPlanner;
 	private UserService userService;
 	
 	private User user;
@@ -52,18 +76,22 @@ public class UserServiceTests
 	private Map<String, User> users;
 	
 	@BeforeEach
-	public void setUp() throws UserNotFoundException, UserAlreadyExistsException
+	public void setUp() throws UserNotFoundException, UserAlreadyExistsException, UserModifiedException
 	{
 		user = new User(USER_ID);
 		user.setRole(Role.Administrator);
 		users = new HashMap<>();
 		users.put(USER_ID, user);
 		filters = new ReportDataFilters();
+		reportPlanner = spy(new ReportPlanner(userRepository));
+		userService = new UserService(userRepository, clock, reportExecutor, reportCache, reportPlanner);
 		lenient().when(userRepository.create(any())).thenReturn(user);
 		lenient().when(userRepository.find(anyString())).thenReturn(user);
-		lenient().when(userRepository.findAllUsers()).thenReturn(users);
-		lenient().when(userRepository.update(any())).thenReturn(user);
+		lenient().when(userRepository.findRole(anyString())).thenAnswer(invocation -> user.getRole());
+		lenient().when(userRepository.snapshotUsers()).thenReturn(users);
+		lenient().when(userRepository.update(any(), any())).thenReturn(user);
 		lenient().when(clock.now()).thenReturn(START_TIME);
+		lenient().when(reportCache.find(any(), any())).thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(1).get());
 	}
 	
 	@Test
@@ -118,17 +146,18 @@ public class UserServiceTests
 	
 	@ParameterizedTest
 	@ValueSource(strings = {USER_ID, "987654321"})
-	public void findUserActivity_CallsUserRepositoryFind(String userId) throws AccessDeniedException, UserNotFoundException
+	public void findUserActivity_CallsUserRepositoryFindRole(String userId) throws AccessDeniedException, UserNotFoundException
 	{
 		userService.findUserActivity(userId, filters);
 		
-		verify(userRepository).find(userId);
+		verify(userRepository).findRole(userId);
+		verify(userRepository, never()).find(anyString());
 	}
 	
 	@Test
-	public void findUserActivity_When_UserRepositoryFindThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
+	public void findUserActivity_When_UserRepositoryFindRoleThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
 	{
-		when(userRepository.find(anyString())).thenThrow(new UserNotFoundException());
+		when(userRepository.findRole(anyString())).thenThrow(new UserNotFoundException());
 		
 		assertThrows(UserNotFoundException.class, () -> userService.findUserActivity(USER_ID, filters));
 	}
@@ -148,9 +177,31 @@ public class UserServiceTests
 	@Test
 	public void findUserActivity_When_UserIsAdministrator_Then_ReturnsWhatUserRepositoryReturns() throws AccessDeniedException, UserNotFoundException
 	{
-		Map<String, User> actual = userService.findUserActivity(USER_ID, filters);
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(users.keySet(), actual.keySet());
+	}
+	
+	@Test
+	public void findUserActivity_When_ReportCacheHasReport_Then_ReturnsItWithoutLookingAtUsers() throws AccessDeniedException, UserNotFoundException
+	{
+		Map<String, UserActivity> cached = singletonMap(USER_ID, new UserActivity(user, emptyList(), emptyList()));
+		doReturn(cached).when(reportCache).find(same(filters), any());
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
 		
-		assertEquals(users, actual);
+		assertSame(cached, actual);
+		verify(userRepository, never()).snapshotUsers();
+		verify(userRepository, never()).countUsers();
+	}
+	
+	@Test
+	public void findUserActivity_When_UserIsNotAdministrator_Then_DoesNotAskReportCache()
+	{
+		user.setRole(Role.NonAdministrator);
+		
+		assertThrows(AccessDeniedException.class, () -> userService.findUserActivity(USER_ID, filters));
+		verify(reportCache, never()).find(any(), any());
 	}
 	
 	@Test
@@ -162,9 +213,9 @@ public class UserServiceTests
 		users.put("222", new User("222"));
 		users.put("333", new User("333"));
 		
-		Map<String, User> actual = userService.findUserActivity(USER_ID, filters);
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
 		
-		assertEquals(singletonMap(USER_ID, user), actual);
+		assertEquals(singleton(USER_ID), actual.keySet());
 	}
 	
 	@Test
@@ -182,12 +233,12 @@ public class UserServiceTests
 		twoShifts.getPriorWorkShifts().add(new WorkShift(LocalDateTime.now()));
 		users.put("555", twoShifts);
 		
-		Map<String, User> actual = userService.findUserActivity(USER_ID, filters);
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
 		
 		Map<String, User> expected = new HashMap<>();
 		expected.put("444", oneShift);
 		expected.put("555", twoShifts);
-		assertEquals(expected, actual);
+		assertEquals(expected.keySet(), actual.keySet());
 	}
 	
 	@Test
@@ -205,12 +256,12 @@ public class UserServiceTests
 		twoShifts.getPriorBreaks().add(new Break(BreakType.Break, LocalDateTime.now()));
 		users.put("555", twoShifts);
 		
-		Map<String, User> actual = userService.findUserActivity(USER_ID, filters);
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
 		
 		Map<String, User> expected = new HashMap<>();
 		expected.put("444", oneShift);
 		expected.put("555", twoShifts);
-		assertEquals(expected, actual);
+		assertEquals(expected.keySet(), actual.keySet());
 	}
 	
 	@Test
@@ -228,12 +279,12 @@ public class UserServiceTests
 		users.put("444", onBreak2);
 		users.put("555", new User("555"));
 		
-		Map<String, User> actual = userService.findUserActivity(USER_ID, filters);
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
 		
 		Map<String, User> expected = new HashMap<>();
 		expected.put("222", onBreak1);
 		expected.put("444", onBreak2);
-		assertEquals(expected, actual);
+		assertEquals(expected.keySet(), actual.keySet());
 	}
 	
 	@Test
@@ -251,12 +302,12 @@ public class UserServiceTests
 		users.put("444", onBreak2);
 		users.put("555", new User("555"));
 		
-		Map<String, User> actual = userService.findUserActivity(USER_ID, filters);
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
 		
 		Map<String, User> expected = new HashMap<>();
 		expected.put("222", onBreak1);
 		expected.put("444", onBreak2);
-		assertEquals(expected, actual);
+		assertEquals(expected.keySet(), actual.keySet());
 	}
 	
 	@Test
@@ -276,12 +327,681 @@ public class UserServiceTests
 		nonAdministrator2.setRole(Role.NonAdministrator);
 		users.put("555", nonAdministrator2);
 		
-		Map<String, User> actual = userService.findUserActivity(USER_ID, filters);
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
 		
 		Map<String, User> expected = new HashMap<>();
 		expected.put("444", nonAdministrator1);
 		expected.put("555", nonAdministrator2);
-		assertEquals(expected, actual);
+		assertEquals(expected.keySet(), actual.keySet());
+	}
+	
+	@Test
+	public void findUserActivity_When_UserIsAdministratorAndShiftBeginsFiltersExist_Then_OnlyShowsShiftsBetweenThem()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setShiftBeginsAfter(START_TIME.minusDays(1));
+		filters.setShiftBeginsBefore(START_TIME.plusDays(1));
+		WorkShift inRange = new WorkShift(START_TIME);
+		user.getPriorWorkShifts().add(new WorkShift(START_TIME.minusDays(2)));
+		user.getPriorWorkShifts().add(inRange);
+		user.getPriorWorkShifts().add(new WorkShift(START_TIME.plusDays(2)));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singletonList(inRange), actual.get(USER_ID).getPriorWorkShifts());
+	}
+	
+	@Test
+	public void findUserActivity_When_UserIsAdministratorAndBreakBeginsFiltersExist_Then_OnlyShowsBreaksBetweenThem()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setBreakBeginsAfter(START_TIME.minusDays(1));
+		filters.setBreakBeginsBefore(START_TIME.plusDays(1));
+		Break inRange = new Break(BreakType.Break, START_TIME);
+		user.getPriorBreaks().add(new Break(BreakType.Break, START_TIME.minusDays(2)));
+		user.getPriorBreaks().add(inRange);
+		user.getPriorBreaks().add(new Break(BreakType.Lunch, START_TIME.plusDays(2)));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singletonList(inRange), actual.get(USER_ID).getPriorBreaks());
+	}
+	
+	@Test
+	public void findUserActivity_When_UserIsAdministratorAndShiftAndBreakFiltersExist_Then_DoesNotModifyStoredUsers()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setShiftBeginsBefore(START_TIME);
+		filters.setBreakBeginsBefore(START_TIME);
+		user.getPriorWorkShifts().add(new WorkShift(END_TIME));
+		user.getPriorBreaks().add(new Break(BreakType.Break, END_TIME));
+		
+		userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(1, user.getPriorWorkShifts().size());
+		assertEquals(1, user.getPriorBreaks().size());
+	}
+	
+	@Test
+	public void findUserActivity_When_UserIsAdministrator_Then_ReadsThroughToStoredUser() throws UserNotFoundException, AccessDeniedException
+	{
+		user.setName("Name");
+		user.setCurrentWorkShift(new WorkShift(START_TIME));
+		user.setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		WorkShift priorWorkShift = new WorkShift(START_TIME.minusDays(1));
+		user.getPriorWorkShifts().add(priorWorkShift);
+		
+		UserActivity actual = userService.findUserActivity(USER_ID, filters).get(USER_ID);
+		
+		assertEquals(USER_ID, actual.getUserId());
+		assertEquals("Name", actual.getName());
+		assertEquals(Role.Administrator, actual.getRole());
+		assertEquals(user.getVersion(), actual.getVersion());
+		assertSame(user.getCurrentWorkShift(), actual.getCurrentWorkShift());
+		assertSame(user.getCurrentBreak(), actual.getCurrentBreak());
+		assertSame(priorWorkShift, actual.getPriorWorkShifts().get(0));
+	}
+	
+	@Test
+	public void findUserActivity_When_UserIsAdministrator_Then_ReturnedHistoryCannotBeModified() throws UserNotFoundException, AccessDeniedException
+	{
+		user.getPriorWorkShifts().add(new WorkShift(START_TIME));
+		user.getPriorBreaks().add(new Break(BreakType.Break, START_TIME));
+		
+		UserActivity actual = userService.findUserActivity(USER_ID, filters).get(USER_ID);
+		
+		assertThrows(UnsupportedOperationException.class, () -> actual.getPriorWorkShifts().add(new WorkShift(END_TIME)));
+		assertThrows(UnsupportedOperationException.class, () -> actual.getPriorBreaks().clear());
+		assertEquals(1, user.getPriorWorkShifts().size());
+		assertEquals(1, user.getPriorBreaks().size());
+	}
+	
+	@Test
+	public void findUserActivity_When_ShiftsWereRecordedOutOfOrder_Then_ShowsShiftsInRangeInOrder() throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setShiftBeginsAfter(START_TIME.minusDays(1));
+		filters.setShiftBeginsBefore(START_TIME.plusDays(1));
+		WorkShift inRange1 = new WorkShift(START_TIME);
+		WorkShift inRange2 = new WorkShift(START_TIME.plusHours(1));
+		user.getPriorWorkShifts().add(inRange2);
+		user.getPriorWorkShifts().add(new WorkShift(START_TIME.plusDays(2)));
+		user.getPriorWorkShifts().add(inRange1);
+		user.getPriorWorkShifts().add(new WorkShift(START_TIME.minusDays(2)));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(Arrays.asList(inRange1, inRange2), actual.get(USER_ID).getPriorWorkShifts());
+		assertEquals(4, user.getPriorWorkShifts().size());
+	}
+	
+	@Test
+	public void findUserActivity_When_NoShiftsAreInRange_Then_ShowsNoShifts() throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setShiftBeginsBefore(START_TIME);
+		user.getPriorWorkShifts().add(new WorkShift(END_TIME));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertTrue(actual.get(USER_ID).getPriorWorkShifts().isEmpty());
+	}
+	
+	@Test
+	public void findUserActivity_When_BreaksBeginAtFilterTimes_Then_LeavesThemOut() throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setBreakBeginsAfter(START_TIME);
+		filters.setBreakBeginsBefore(END_TIME);
+		Break inRange = new Break(BreakType.Lunch, START_TIME.plusNanos(1));
+		user.getPriorBreaks().add(new Break(BreakType.Break, START_TIME));
+		user.getPriorBreaks().add(inRange);
+		user.getPriorBreaks().add(new Break(BreakType.Break, END_TIME));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singletonList(inRange), actual.get(USER_ID).getPriorBreaks());
+	}
+	
+	@Test
+	public void findUserActivity_When_ShiftFiltersAreCenturiesAway_Then_ShowsEveryShiftBetweenThem()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setShiftBeginsAfter(LocalDateTime.of(1000, 1, 1, 0, 0));
+		filters.setShiftBeginsBefore(LocalDateTime.of(3000, 1, 1, 0, 0));
+		WorkShift longAgo = new WorkShift(LocalDateTime.of(1500, 6, 1, 9, 0));
+		WorkShift recent = new WorkShift(START_TIME);
+		WorkShift farAhead = new WorkShift(LocalDateTime.of(2500, 6, 1, 9, 0));
+		user.getPriorWorkShifts().add(farAhead);
+		user.getPriorWorkShifts().add(longAgo);
+		user.getPriorWorkShifts().add(recent);
+		user.getPriorWorkShifts().add(new WorkShift(LocalDateTime.of(3000, 1, 1, 0, 0)));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(Arrays.asList(longAgo, recent, farAhead), actual.get(USER_ID).getPriorWorkShifts());
+	}
+	
+	@Test
+	public void findUserActivity_When_ShiftBeginsAfterIsLaterThanShiftBeginsBefore_Then_ShowsNoShifts()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setShiftBeginsAfter(END_TIME);
+		filters.setShiftBeginsBefore(START_TIME);
+		user.getPriorWorkShifts().add(new WorkShift(START_TIME.minusDays(1)));
+		user.getPriorWorkShifts().add(new WorkShift(START_TIME.plusHours(1)));
+		user.getPriorWorkShifts().add(new WorkShift(END_TIME.plusDays(1)));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertTrue(actual.get(USER_ID).getPriorWorkShifts().isEmpty());
+	}
+	
+	@Test
+	public void findUserActivity_When_OnlyActiveInRangeWithoutAnyRange_Then_ShowsAllUsers() throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setOnlyActiveInRange(true);
+		users.put("111", new User("111"));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(users.keySet(), actual.keySet());
+		verify(userRepository, never()).snapshotUsersWithShiftsBetween(any(), any());
+		verify(userRepository, never()).snapshotUsersWithBreaksBetween(any(), any());
+	}
+	
+	@Test
+	public void findUserActivity_When_OnlyActiveInShiftRange_Then_ShowsUsersRepositoryFindsWithShiftsBetween()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setOnlyActiveInRange(true);
+		filters.setShiftBeginsAfter(START_TIME.minusDays(1));
+		filters.setShiftBeginsBefore(START_TIME.plusDays(1));
+		User worked = new User("111");
+		worked.getPriorWorkShifts().add(new WorkShift(START_TIME));
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.snapshotUsersWithShiftsBetween(any(), any())).thenReturn(singletonMap("111", worked));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton("111"), actual.keySet());
+		verify(userRepository).snapshotUsersWithShiftsBetween(START_TIME.minusDays(1), START_TIME.plusDays(1));
+		verify(userRepository, never()).snapshotUsers();
+	}
+	
+	@Test
+	public void findUserActivity_When_OnlyActiveInBreakRange_Then_ShowsUsersRepositoryFindsWithBreaksBetween()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setOnlyActiveInRange(true);
+		filters.setBreakBeginsAfter(START_TIME.minusDays(1));
+		User tookBreak = new User("111");
+		tookBreak.getPriorBreaks().add(new Break(BreakType.Break, START_TIME));
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.snapshotUsersWithBreaksBetween(any(), any())).thenReturn(singletonMap("111", tookBreak));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton("111"), actual.keySet());
+		verify(userRepository).snapshotUsersWithBreaksBetween(START_TIME.minusDays(1), null);
+		verify(userRepository, never()).snapshotUsers();
+	}
+	
+	@Test
+	public void findUserActivity_When_OnlyActiveInShiftAndBreakRanges_Then_OnlyShowsUsersActiveInBoth()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setOnlyActiveInRange(true);
+		filters.setShiftBeginsAfter(START_TIME.minusDays(1));
+		filters.setBreakBeginsAfter(START_TIME.minusDays(1));
+		User workedAndTookBreak = new User("111");
+		workedAndTookBreak.getPriorWorkShifts().add(new WorkShift(START_TIME));
+		workedAndTookBreak.getPriorBreaks().add(new Break(BreakType.Break, START_TIME));
+		User onlyWorked = new User("222");
+		onlyWorked.getPriorWorkShifts().add(new WorkShift(START_TIME));
+		onlyWorked.getPriorBreaks().add(new Break(BreakType.Break, START_TIME.minusDays(2)));
+		Map<String, User> worked = new HashMap<>();
+		worked.put("111", workedAndTookBreak);
+		worked.put("222", onlyWorked);
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.snapshotUsersWithShiftsBetween(any(), any())).thenReturn(worked);
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton("111"), actual.keySet());
+	}
+	
+	@Test
+	public void findUserActivity_When_OnlyActiveInRangeAndOtherFiltersExist_Then_AppliesThemToo() throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setOnlyActiveInRange(true);
+		filters.setShiftBeginsAfter(START_TIME.minusDays(1));
+		filters.setRoleToView(Role.Administrator);
+		User nonAdministrator = new User("111");
+		nonAdministrator.setRole(Role.NonAdministrator);
+		nonAdministrator.getPriorWorkShifts().add(new WorkShift(START_TIME));
+		user.getPriorWorkShifts().add(new WorkShift(START_TIME));
+		Map<String, User> worked = new HashMap<>();
+		worked.put("111", nonAdministrator);
+		worked.put(USER_ID, user);
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.estimateUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(5);
+		when(userRepository.estimateUsersWithShiftsBetween(any(), any())).thenReturn(2);
+		when(userRepository.snapshotUsersWithShiftsBetween(any(), any())).thenReturn(worked);
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton(USER_ID), actual.keySet());
+	}
+	
+	@Test
+	public void findUserActivity_When_IsCurrentlyOnBreakFilterExists_Then_OnlyLooksAtUsersRepositoryFindsOnBreak()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setCurrentlyOnBreak(true);
+		filters.setOnlyActiveInRange(true);
+		filters.setShiftBeginsAfter(START_TIME);
+		User onBreak = new User("111");
+		onBreak.setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		onBreak.getPriorWorkShifts().add(new WorkShift(END_TIME));
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.estimateUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(1);
+		when(userRepository.estimateUsersWithShiftsBetween(any(), any())).thenReturn(5);
+		when(userRepository.snapshotUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(singletonMap("111", onBreak));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton("111"), actual.keySet());
+		verify(userRepository).snapshotUsersWith(null, true, false, 0, 0);
+		verify(userRepository, never()).snapshotUsers();
+		verify(userRepository, never()).snapshotUsersWithShiftsBetween(any(), any());
+	}
+	
+	@Test
+	public void findUserActivity_When_IsCurrentlyOnLunchFilterExists_Then_OnlyLooksAtUsersRepositoryFindsOnLunch()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setCurrentlyOnLunch(true);
+		User onLunch = new User("111");
+		onLunch.setCurrentLunchBreak(new Break(BreakType.Lunch, START_TIME));
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.snapshotUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(singletonMap("111", onLunch));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton("111"), actual.keySet());
+		verify(userRepository).snapshotUsersWith(null, false, true, 0, 0);
+		verify(userRepository, never()).snapshotUsers();
+	}
+	
+	@Test
+	public void findUserActivity_When_RoleAndStatusFiltersExist_Then_AsksUserRepositoryForAllOfThemAtOnce() throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setRoleToView(Role.NonAdministrator);
+		filters.setCurrentlyOnBreak(true);
+		filters.setCurrentlyOnLunch(true);
+		User onBoth = new User("111");
+		onBoth.setRole(Role.NonAdministrator);
+		onBoth.setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		onBoth.setCurrentLunchBreak(new Break(BreakType.Lunch, START_TIME));
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.snapshotUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(singletonMap("111", onBoth));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton("111"), actual.keySet());
+		verify(userRepository).snapshotUsersWith(Role.NonAdministrator, true, true, 0, 0);
+		verify(userRepository, never()).snapshotUsers();
+	}
+	
+	@Test
+	public void findUserActivity_When_OnlyRoleFilterExists_Then_AsksUserRepositoryForUsersWithRole() throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setRoleToView(Role.Administrator);
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.snapshotUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(users);
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton(USER_ID), actual.keySet());
+		verify(userRepository).snapshotUsersWith(Role.Administrator, false, false, 0, 0);
+	}
+	
+	@Test
+	public void findUserActivity_When_ThresholdsAndStatusFiltersExist_Then_AsksUserRepositoryForAllOfThemAtOnce()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setPriorWorkShiftsThreshold(2);
+		filters.setPriorBreaksThreshold(3);
+		filters.setCurrentlyOnBreak(true);
+		when(userRepository.countUsers()).thenReturn(10);
+		
+		userService.findUserActivity(USER_ID, filters);
+		
+		verify(userRepository).snapshotUsersWith(null, true, false, 2, 3);
+		verify(userRepository, never()).snapshotUsers();
+	}
+	
+	@Test
+	public void findUserActivity_When_RangeIsEstimatedToFindFewerUsersThanStatus_Then_OnlyLooksAtUsersRepositoryFindsInRange()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setCurrentlyOnBreak(true);
+		filters.setOnlyActiveInRange(true);
+		filters.setShiftBeginsAfter(START_TIME);
+		User onBreak = new User("111");
+		onBreak.setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		onBreak.getPriorWorkShifts().add(new WorkShift(END_TIME));
+		Map<String, User> worked = new HashMap<>();
+		worked.put("111", onBreak);
+		worked.put("222", new User("222"));
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.estimateUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(5);
+		when(userRepository.estimateUsersWithShiftsBetween(any(), any())).thenReturn(2);
+		when(userRepository.snapshotUsersWithShiftsBetween(any(), any())).thenReturn(worked);
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton("111"), actual.keySet());
+		verify(userRepository, never()).snapshotUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt());
+	}
+	
+	@Test
+	public void findUserActivity_When_IndexIsEstimatedToFindEveryUser_Then_LooksAtAllUsers() throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setRoleToView(Role.Administrator);
+		users.put("111", new User("111"));
+		when(userRepository.countUsers()).thenReturn(2);
+		when(userRepository.estimateUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(2);
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton(USER_ID), actual.keySet());
+		verify(userRepository, never()).snapshotUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt());
+	}
+	
+	@Test
+	public void findUserActivity_When_UserIdFilterExistsWithOtherFilters_Then_OnlyLooksAtThatUser() throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setUserIdToView("111");
+		filters.setRoleToView(Role.NonAdministrator);
+		User nonAdministrator = new User("111");
+		nonAdministrator.setRole(Role.NonAdministrator);
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.estimateUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(9);
+		when(userRepository.snapshotUsersWithId("111")).thenReturn(singletonMap("111", nonAdministrator));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton("111"), actual.keySet());
+		verify(userRepository, never()).snapshotUsers();
+		verify(userRepository, never()).snapshotUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt());
+	}
+	
+	@Test
+	public void findUserActivity_When_UserIdFilterFindsUserFailingOtherFilters_Then_LeavesThemOut() throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setUserIdToView(USER_ID);
+		filters.setPriorWorkShiftsThreshold(1);
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.estimateUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(9);
+		when(userRepository.snapshotUsersWithId(USER_ID)).thenReturn(users);
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertTrue(actual.isEmpty());
+	}
+	
+	@Test
+	public void findUserActivity_When_NotOnlyActiveInRange_Then_ShowsUsersWithNothingInRange() throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setShiftBeginsAfter(START_TIME.minusDays(1));
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton(USER_ID), actual.keySet());
+		assertTrue(actual.get(USER_ID).getPriorWorkShifts().isEmpty());
+		verify(userRepository, never()).snapshotUsersWithShiftsBetween(any(), any());
+	}
+	
+	//endregion
+	
+	//region streamUserActivity
+	
+	@Test
+	public void streamUserActivity_When_UserIsNotAdministrator_Then_ThrowsAccessDeniedException()
+	{
+		user.setRole(Role.NonAdministrator);
+		
+		assertThrows(AccessDeniedException.class, () -> userService.streamUserActivity(USER_ID, filters));
+		verify(userRepository, never()).snapshotUsers();
+	}
+	
+	@Test
+	public void streamUserActivity_When_UserRepositoryFindRoleThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
+	{
+		when(userRepository.findRole(anyString())).thenThrow(new UserNotFoundException());
+		
+		assertThrows(UserNotFoundException.class, () -> userService.streamUserActivity(USER_ID, filters));
+	}
+	
+	@Test
+	public void streamUserActivity_When_UserIsAdministrator_Then_StreamsUsersPassingFiltersWithoutCachingThem()
+			throws AccessDeniedException, UserNotFoundException
+	{
+		User nonAdministrator = new User("123456789");
+		nonAdministrator.setRole(Role.NonAdministrator);
+		users.put(nonAdministrator.getUserId(), nonAdministrator);
+		filters.setRoleToView(Role.NonAdministrator);
+		
+		List<String> actual = userService.streamUserActivity(USER_ID, filters)
+				.map(UserActivity::getUserId)
+				.collect(Collectors.toList());
+		
+		assertEquals(singletonList(nonAdministrator.getUserId()), actual);
+		verify(reportCache, never()).find(any(), any());
+		verify(reportExecutor, never()).collect(any(), any(), any());
+	}
+	
+	@Test
+	public void streamUserActivity_When_PlanUsesBitmaps_Then_StreamsUsersFromRepositoryWithoutSnapshottingThem()
+			throws AccessDeniedException, UserNotFoundException
+	{
+		User onLunch = new User("123456789");
+		onLunch.setCurrentLunchBreak(new Break(BreakType.Lunch, START_TIME));
+		filters.setCurrentlyOnLunch(true);
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.estimateUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(1);
+		when(userRepository.streamUsersWith(null, false, true, 0, 0)).thenReturn(Stream.of(onLunch));
+		
+		List<UserActivity> actual = userService.streamUserActivity(USER_ID, filters).collect(Collectors.toList());
+		
+		assertEquals(1, actual.size());
+		assertEquals(onLunch.getUserId(), actual.get(0).getUserId());
+		verify(userRepository, never()).snapshotUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt());
+	}
+	
+	@Test
+	public void streamUserActivity_When_PlanUsesShiftDays_Then_StreamsUsersFromRepositoryAndTrimsTheirShifts()
+			throws AccessDeniedException, UserNotFoundException
+	{
+		User worked = new User("123456789");
+		worked.getPriorWorkShifts().add(new WorkShift(START_TIME.minusDays(5)));
+		worked.getPriorWorkShifts().add(new WorkShift(START_TIME));
+		filters.setShiftBeginsAfter(START_TIME.minusDays(1));
+		filters.setOnlyActiveInRange(true);
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.estimateUsersWithShiftsBetween(any(), any())).thenReturn(1);
+		when(userRepository.streamUsersWithShiftsBetween(START_TIME.minusDays(1), null)).thenReturn(Stream.of(worked));
+		
+		List<UserActivity> actual = userService.streamUserActivity(USER_ID, filters).collect(Collectors.toList());
+		
+		assertEquals(1, actual.size());
+		assertEquals(1, actual.get(0).getPriorWorkShifts().size());
+		verify(userRepository, never()).snapshotUsersWithShiftsBetween(any(), any());
+	}
+	
+	@Test
+	public void findUserActivity_When_PlanIndexesFilter_Then_TakesCandidatesFromPlannedPathWithoutCheckingItAgain()
+			throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setCurrentlyOnLunch(true);
+		doReturn(new ReportPlan(ReportAccessPath.Bitmaps, singletonMap(ReportAccessPath.Bitmaps, 1), EnumSet.of(ReportPredicate.OnLunch), emptySet(), 10))
+				.when(reportPlanner).plan(filters);
+		when(userRepository.snapshotUsersWith(null, false, true, 0, 0)).thenReturn(users);
+		
+		Map<String, UserActivity> actual = userService.findUserActivity(USER_ID, filters);
+		
+		assertEquals(singleton(USER_ID), actual.keySet());
+		verify(userRepository, never()).snapshotUsers();
+	}
+	
+	//endregion
+	
+	//region findUserActivityTag
+	
+	@Test
+	public void findUserActivityTag_When_UserIsNotAdministrator_Then_ThrowsAccessDeniedException()
+	{
+		user.setRole(Role.NonAdministrator);
+		
+		assertThrows(AccessDeniedException.class, () -> userService.findUserActivityTag(USER_ID, filters));
+		verify(reportCache, never()).tagOf(any());
+	}
+	
+	@Test
+	public void findUserActivityTag_When_UserRepositoryFindRoleThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
+	{
+		when(userRepository.findRole(anyString())).thenThrow(new UserNotFoundException());
+		
+		assertThrows(UserNotFoundException.class, () -> userService.findUserActivityTag(USER_ID, filters));
+	}
+	
+	@Test
+	public void findUserActivityTag_When_UserIsAdministrator_Then_ReturnsReportCacheTagWithoutFindingUsers() throws UserNotFoundException, AccessDeniedException
+	{
+		when(reportCache.tagOf(filters)).thenReturn("1a2b-3-4c5d");
+		
+		assertEquals("1a2b-3-4c5d", userService.findUserActivityTag(USER_ID, filters));
+		verify(userRepository, never()).snapshotUsers();
+		verify(reportCache, never()).find(any(), any());
+	}
+	
+	//endregion
+	
+	//region explainUserActivity
+	
+	@Test
+	public void explainUserActivity_When_UserIsNotAdministrator_Then_ThrowsAccessDeniedException()
+	{
+		user.setRole(Role.NonAdministrator);
+		
+		assertThrows(AccessDeniedException.class, () -> userService.explainUserActivity(USER_ID, filters));
+		verify(userRepository, never()).countUsers();
+	}
+	
+	@Test
+	public void explainUserActivity_When_UserRepositoryFindRoleThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
+	{
+		when(userRepository.findRole(anyString())).thenThrow(new UserNotFoundException());
+		
+		assertThrows(UserNotFoundException.class, () -> userService.explainUserActivity(USER_ID, filters));
+	}
+	
+	@Test
+	public void explainUserActivity_When_UserIsAdministrator_Then_ReturnsPlanWithoutFindingUsers() throws UserNotFoundException, AccessDeniedException
+	{
+		filters.setCurrentlyOnLunch(true);
+		filters.setRoleToView(Role.Administrator);
+		when(userRepository.countUsers()).thenReturn(10);
+		when(userRepository.estimateUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt())).thenReturn(3);
+		
+		ReportPlan actual = userService.explainUserActivity(USER_ID, filters);
+		
+		assertEquals(ReportAccessPath.Bitmaps, actual.getAccessPath());
+		assertEquals(3, actual.getEstimatedCandidates());
+		verify(userRepository, never()).snapshotUsers();
+		verify(userRepository, never()).snapshotUsersWith(any(), anyBoolean(), anyBoolean(), anyInt(), anyInt());
+	}
+	
+	//endregion
+	
+	//region findLiveStatus
+	
+	@ParameterizedTest
+	@ValueSource(strings = {USER_ID, "987654321"})
+	public void findLiveStatus_CallsUserRepositoryFindRole(String userId) throws AccessDeniedException, UserNotFoundException
+	{
+		userService.findLiveStatus(userId);
+		
+		verify(userRepository).findRole(userId);
+	}
+	
+	@Test
+	public void findLiveStatus_When_UserRepositoryFindRoleThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
+	{
+		when(userRepository.findRole(anyString())).thenThrow(new UserNotFoundException());
+		
+		assertThrows(UserNotFoundException.class, () -> userService.findLiveStatus(USER_ID));
+	}
+	
+	@Test
+	public void findLiveStatus_When_UserIsNotAdministrator_Then_ThrowsAccessDeniedException()
+	{
+		user.setRole(Role.NonAdministrator);
+		
+		assertThrows(AccessDeniedException.class, () -> userService.findLiveStatus(USER_ID));
+		verify(userRepository, never()).findLiveStatus();
+	}
+	
+	@Test
+	public void findLiveStatus_When_UserIsAdministrator_Then_ReturnsWhatUserRepositoryReturns() throws AccessDeniedException, UserNotFoundException
+	{
+		LiveStatus expected = new LiveStatus(singleton("111"), singleton("222"), emptySet());
+		when(userRepository.findLiveStatus()).thenReturn(expected);
+		
+		LiveStatus actual = userService.findLiveStatus(USER_ID);
+		
+		assertSame(expected, actual);
+	}
+	
+	//endregion
+	
+	//region findTopUsersByShiftCount
+	
+	@Test
+	public void findTopUsersByShiftCount_When_UserIsNotAdministrator_Then_ThrowsAccessDeniedException()
+	{
+		user.setRole(Role.NonAdministrator);
+		
+		assertThrows(AccessDeniedException.class, () -> userService.findTopUsersByShiftCount(USER_ID, 10));
+		verify(userRepository, never()).findTopUsersByShiftCount(anyInt());
+	}
+	
+	@Test
+	public void findTopUsersByShiftCount_When_UserRepositoryFindRoleThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
+	{
+		when(userRepository.findRole(anyString())).thenThrow(new UserNotFoundException());
+		
+		assertThrows(UserNotFoundException.class, () -> userService.findTopUsersByShiftCount(USER_ID, 10));
+	}
+	
+	@Test
+	public void findTopUsersByShiftCount_When_UserIsAdministrator_Then_ReturnsCountsOfUsersUserRepositoryFinds()
+			throws AccessDeniedException, UserNotFoundException
+	{
+		User twoShifts = new User("111");
+		twoShifts.setName("Bob");
+		twoShifts.getPriorWorkShifts().add(new WorkShift(START_TIME));
+		twoShifts.getPriorWorkShifts().add(new WorkShift(START_TIME.plusDays(1)));
+		User noShifts = new User("222");
+		when(userRepository.findTopUsersByShiftCount(2)).thenReturn(Arrays.asList(twoShifts, noShifts));
+		
+		List<UserShiftCount> actual = userService.findTopUsersByShiftCount(USER_ID, 2);
+		
+		assertEquals(2, actual.size());
+		assertEquals("111", actual.get(0).getUserId());
+		assertEquals("Bob", actual.get(0).getName());
+		assertEquals(2, actual.get(0).getShiftCount());
+		assertEquals("222", actual.get(1).getUserId());
+		assertEquals(0, actual.get(1).getShiftCount());
 	}
 	
 	//endregion
@@ -290,105 +1010,161 @@ public class UserServiceTests
 	
 	@ParameterizedTest
 	@ValueSource(strings = {USER_ID, "987654321"})
-	public void updateUser_CallsUserRepository(String userId) throws UserNotFoundException
+	public void updateUser_CallsUserRepository(String userId) throws UserNotFoundException, UserModifiedException
 	{
-		userService.updateUser(userId, NAME, Role.Administrator);
+		userService.updateUser(userId, NAME, Role.Administrator, null);
 		
 		verify(userRepository).find(userId);
 	}
 	
 	@Test
-	public void updateUser_When_UserRepositoryThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
+	public void updateUser_When_UserRepositoryThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException, UserModifiedException
 	{
 		when(userRepository.find(anyString())).thenThrow(new UserNotFoundException());
 		
-		assertThrows(UserNotFoundException.class, () -> userService.updateUser(USER_ID, NAME, Role.Administrator));
+		assertThrows(UserNotFoundException.class, () -> userService.updateUser(USER_ID, NAME, Role.Administrator, null));
 	}
 	
 	@Test
-	public void updateUser_When_UserExists_Then_UpdatesNonNullFieldsOnUser() throws UserNotFoundException
+	public void updateUser_When_UserExists_Then_UpdatesNonNullFieldsOnUser() throws UserNotFoundException, UserModifiedException
 	{
 		user.setName("Some name");
 		user.setRole(Role.NonAdministrator);
 		
-		userService.updateUser(USER_ID, NAME, Role.Administrator);
+		userService.updateUser(USER_ID, NAME, Role.Administrator, null);
 		
 		assertEquals(NAME, user.getName());
 		assertEquals(Role.Administrator, user.getRole());
 	}
 	
 	@Test
-	public void updateUser_When_UserExistsAndNameIsNull_Then_DoesNotOverrideName() throws UserNotFoundException
+	public void updateUser_When_UserExistsAndNameIsNull_Then_DoesNotOverrideName() throws UserNotFoundException, UserModifiedException
 	{
 		user.setName(NAME);
 		user.setRole(Role.NonAdministrator);
 		
-		userService.updateUser(USER_ID, null, Role.Administrator);
+		userService.updateUser(USER_ID, null, Role.Administrator, null);
 		
 		assertEquals(NAME, user.getName());
 		assertEquals(Role.Administrator, user.getRole());
 	}
 	
 	@Test
-	public void updateUser_When_UserExistsAndRoleIsNull_Then_DoesNotOverrideRole() throws UserNotFoundException
+	public void updateUser_When_UserExistsAndRoleIsNull_Then_DoesNotOverrideRole() throws UserNotFoundException, UserModifiedException
 	{
 		user.setName(NAME);
 		user.setRole(Role.NonAdministrator);
 		
-		userService.updateUser(USER_ID, "Bob", null);
+		userService.updateUser(USER_ID, "Bob", null, null);
 		
 		assertEquals("Bob", user.getName());
 		assertEquals(Role.NonAdministrator, user.getRole());
 	}
 	
 	@Test
-	public void updateUser_When_UserExistsAndFieldsAreNull_Then_DoesNotOverrideFields() throws UserNotFoundException
+	public void updateUser_When_UserExistsAndFieldsAreNull_Then_DoesNotOverrideFields() throws UserNotFoundException, UserModifiedException
 	{
 		user.setName(NAME);
 		user.setRole(Role.NonAdministrator);
 		
-		userService.updateUser(USER_ID, null, null);
+		userService.updateUser(USER_ID, null, null, null);
 		
 		assertEquals(NAME, user.getName());
 		assertEquals(Role.NonAdministrator, user.getRole());
 	}
 	
 	@Test
-	public void updateUser_When_UserExists_Then_UpdatesFieldsOnUser_AltParams() throws UserNotFoundException
+	public void updateUser_When_UserExists_Then_UpdatesFieldsOnUser_AltParams() throws UserNotFoundException, UserModifiedException
 	{
 		user.setName("Some name");
 		user.setRole(Role.NonAdministrator);
 		
-		userService.updateUser(USER_ID, "Bob", Role.NonAdministrator);
+		userService.updateUser(USER_ID, "Bob", Role.NonAdministrator, null);
 		
 		assertEquals("Bob", user.getName());
 		assertEquals(Role.NonAdministrator, user.getRole());
 	}
 	
 	@Test
-	public void updateUser_When_UserExists_Then_CallsUserRepositoryToUpdate() throws UserNotFoundException
+	public void updateUser_When_UserExists_Then_CallsUserRepositoryToUpdate() throws UserNotFoundException, UserModifiedException
 	{
-		userService.updateUser(USER_ID, NAME, Role.Administrator);
+		userService.updateUser(USER_ID, NAME, Role.Administrator, null);
 		
-		verify(userRepository).update(user);
+		verify(userRepository).update(eq(user), any());
 	}
 	
 	@Test
-	public void updateUser_When_UserRepositoryUpdateThrowsUserNotFoundException_Then_ThrowsSameExcetpion() throws UserNotFoundException
+	public void updateUser_When_UserExists_Then_RecordsUserUpdatedEvent() throws UserNotFoundException, UserModifiedException
 	{
-		when(userRepository.update(any())).thenThrow(new UserNotFoundException());
+		userService.updateUser(USER_ID, NAME, Role.Administrator, null);
 		
-		assertThrows(UserNotFoundException.class, () -> userService.updateUser(USER_ID, NAME, Role.Administrator));
+		verify(userRepository).update(eq(user), eventCaptor.capture());
+		assertEquals(UserEventType.UserUpdated, eventCaptor.getValue().getType());
+		assertEquals(USER_ID, eventCaptor.getValue().getUserId());
+		assertEquals(NAME, eventCaptor.getValue().getName());
+		assertEquals(Role.Administrator, eventCaptor.getValue().getRole());
 	}
 	
 	@Test
-	public void updateUser_When_UserExists_Then_ReturnsWhatUserRepositoryReturns() throws UserNotFoundException
+	public void updateUser_When_UserRepositoryUpdateThrowsUserNotFoundException_Then_ThrowsSameExcetpion() throws UserNotFoundException, UserModifiedException
 	{
-		User actual = userService.updateUser(USER_ID, NAME, Role.Administrator);
+		when(userRepository.update(any(), any())).thenThrow(new UserNotFoundException());
+		
+		assertThrows(UserNotFoundException.class, () -> userService.updateUser(USER_ID, NAME, Role.Administrator, null));
+	}
+	
+	@Test
+	public void updateUser_When_UserExists_Then_ReturnsWhatUserRepositoryReturns() throws UserNotFoundException, UserModifiedException
+	{
+		User actual = userService.updateUser(USER_ID, NAME, Role.Administrator, null);
 		
 		assertEquals(user, actual);
 	}
 	
+	@Test
+	public void updateUser_When_UserRepositoryUpdateThrowsUserModifiedException_Then_RetriesWithLatestUser() throws UserNotFoundException, UserModifiedException
+	{
+		User latestUser = new User(USER_ID);
+		latestUser.setVersion(3);
+		when(userRepository.find(anyString())).thenReturn(new User(USER_ID), latestUser);
+		when(userRepository.update(any(), any())).thenThrow(new UserModifiedException()).thenReturn(latestUser);
+		
+		User actual = userService.updateUser(USER_ID, NAME, Role.Administrator, null);
+		
+		verify(userRepository, times(2)).update(any(), eventCaptor.capture());
+		assertEquals(4, eventCaptor.getValue().getVersion());
+		assertEquals(latestUser, actual);
+	}
+	
+	@Test
+	public void updateUser_When_ExpectedVersionMatchesUser_Then_CallsUserRepositoryToUpdate() throws UserNotFoundException, UserModifiedException
+	{
+		user.setVersion(3);
+		
+		userService.updateUser(USER_ID, NAME, Role.Administrator, 3L);
+		
+		verify(userRepository).update(eq(user), any());
+	}
+	
+	@Test
+	public void updateUser_When_ExpectedVersionDoesNotMatchUser_Then_ThrowsUserModifiedException() throws UserNotFoundException, UserModifiedException
+	{
+		user.setVersion(3);
+		
+		assertThrows(UserModifiedException.class, () -> userService.updateUser(USER_ID, NAME, Role.Administrator, 2L));
+		verify(userRepository, never()).update(any(), any());
+	}
+	
+	@Test
+	public void updateUser_When_ExpectedVersionGivenAndUserRepositoryUpdateThrowsUserModifiedException_Then_ThrowsSameException()
+			throws UserNotFoundException, UserModifiedException
+	{
+		when(userRepository.update(any(), any())).thenThrow(new UserModifiedException());
+		
+		assertThrows(UserModifiedException.class, () -> userService.updateUser(USER_ID, NAME, Role.Administrator, 0L));
+		verify(userRepository).update(any(), any());
+	}
+	
 	//endregion
 	
 	//region startShift
@@ -427,21 +1203,57 @@ public class UserServiceTests
 	}
 	
 	@Test
-	public void startShift_When_NoCurrentWorkShiftExists_Then_CallsUserRepository() throws WorkShiftInProgressException, UserNotFoundException
+	public void startShift_When_NoCurrentWorkShiftExists_Then_CallsUserRepository() throws WorkShiftInProgressException, UserNotFoundException, UserModifiedException
 	{
 		userService.startShift(USER_ID);
 		
-		verify(userRepository).update(user);
+		verify(userRepository).update(eq(user), any());
 	}
 	
 	@Test
-	public void startShift_When_UserRepositorySaveThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
+	public void startShift_When_NoCurrentWorkShiftExists_Then_RecordsShiftStartedEvent() throws WorkShiftInProgressException, UserNotFoundException, UserModifiedException
 	{
-		when(userRepository.update(any())).thenThrow(new UserNotFoundException());
+		userService.startShift(USER_ID);
+		
+		verify(userRepository).update(eq(user), eventCaptor.capture());
+		assertEquals(UserEventType.ShiftStarted, eventCaptor.getValue().getType());
+		assertEquals(USER_ID, eventCaptor.getValue().getUserId());
+		assertEquals(START_TIME, eventCaptor.getValue().getTime());
+	}
+	
+	@Test
+	public void startShift_When_UserRepositorySaveThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException, UserModifiedException
+	{
+		when(userRepository.update(any(), any())).thenThrow(new UserNotFoundException());
 		
 		assertThrows(UserNotFoundException.class, () -> userService.startShift(USER_ID));
 	}
 	
+	@Test
+	public void startShift_When_UserRepositoryUpdateThrowsUserModifiedException_Then_RetriesWithLatestUser()
+			throws UserNotFoundException, WorkShiftInProgressException, UserModifiedException
+	{
+		when(userRepository.find(anyString())).thenReturn(new User(USER_ID), user);
+		when(userRepository.update(any(), any())).thenThrow(new UserModifiedException()).thenReturn(user);
+		
+		userService.startShift(USER_ID);
+		
+		verify(userRepository, times(2)).update(any(), any());
+		verify(userRepository).update(eq(user), any());
+	}
+	
+	@Test
+	public void startShift_When_UserStartedShiftBeforeRetry_Then_ThrowsWorkShiftInProgressException() throws UserNotFoundException, UserModifiedException
+	{
+		User latestUser = new User(USER_ID);
+		latestUser.setCurrentWorkShift(new WorkShift(START_TIME));
+		when(userRepository.find(anyString())).thenReturn(user, latestUser);
+		when(userRepository.update(any(), any())).thenThrow(new UserModifiedException());
+		
+		assertThrows(WorkShiftInProgressException.class, () -> userService.startShift(USER_ID));
+		verify(userRepository).update(any(), any());
+	}
+	
 	//endregion
 	
 	//region endShift
@@ -527,25 +1339,55 @@ public class UserServiceTests
 	
 	@Test
 	public void endShift_When_CurrentWorkShiftExists_Then_CallsUserRepository()
-			throws WorkShiftNotStartedException, UserNotFoundException, BreakInProgressException
+			throws WorkShiftNotStartedException, UserNotFoundException, BreakInProgressException, UserModifiedException
 	{
 		user.setCurrentWorkShift(new WorkShift(START_TIME));
 		
 		userService.endShift(USER_ID);
 		
-		verify(userRepository).update(user);
+		verify(userRepository).update(eq(user), any());
 	}
 	
 	@Test
-	public void endShift_When_UserRepositorySaveThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
+	public void endShift_When_CurrentWorkShiftExists_Then_RecordsShiftEndedEvent()
+			throws WorkShiftNotStartedException, UserNotFoundException, BreakInProgressException, UserModifiedException
 	{
+		when(clock.now()).thenReturn(END_TIME);
 		user.setCurrentWorkShift(new WorkShift(START_TIME));
 		
-		when(userRepository.update(any())).thenThrow(new UserNotFoundException());
+		userService.endShift(USER_ID);
+		
+		verify(userRepository).update(eq(user), eventCaptor.capture());
+		assertEquals(UserEventType.ShiftEnded, eventCaptor.getValue().getType());
+		assertEquals(END_TIME, eventCaptor.getValue().getTime());
+	}
+	
+	@Test
+	public void endShift_When_UserRepositorySaveThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException, UserModifiedException
+	{
+		user.setCurrentWorkShift(new WorkShift(START_TIME));
+		
+		when(userRepository.update(any(), any())).thenThrow(new UserNotFoundException());
 		
 		assertThrows(UserNotFoundException.class, () -> userService.endShift(USER_ID));
 	}
 	
+	@Test
+	public void endShift_When_UserRepositoryUpdateThrowsUserModifiedException_Then_RetriesWithLatestUser()
+			throws UserNotFoundException, WorkShiftNotStartedException, BreakInProgressException, UserModifiedException
+	{
+		User firstUser = new User(USER_ID);
+		firstUser.setCurrentWorkShift(new WorkShift(START_TIME));
+		user.setCurrentWorkShift(new WorkShift(START_TIME));
+		when(userRepository.find(anyString())).thenReturn(firstUser, user);
+		when(userRepository.update(any(), any())).thenThrow(new UserModifiedException()).thenReturn(user);
+		
+		userService.endShift(USER_ID);
+		
+		verify(userRepository, times(2)).update(any(), any());
+		verify(userRepository).update(eq(user), any());
+	}
+	
 	//endregion
 	
 	//region startBreak
@@ -654,24 +1496,54 @@ public class UserServiceTests
 	
 	@Test
 	public void startBreak_When_NoCurrentBreakExists_Then_CallsUserRepository()
-			throws BreakInProgressException, UserNotFoundException, WorkShiftNotStartedException
+			throws BreakInProgressException, UserNotFoundException, WorkShiftNotStartedException, UserModifiedException
 	{
 		user.setCurrentWorkShift(new WorkShift(START_TIME));
 		
 		userService.startBreak(USER_ID, BreakType.Break);
 		
-		verify(userRepository).update(user);
+		verify(userRepository).update(eq(user), any());
 	}
 	
 	@Test
-	public void startBreak_When_UserRepositorySaveThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
+	public void startBreak_When_NoCurrentBreakExists_Then_RecordsBreakStartedEvent()
+			throws BreakInProgressException, UserNotFoundException, WorkShiftNotStartedException, UserModifiedException
 	{
-		when(userRepository.update(any())).thenThrow(new UserNotFoundException());
+		user.setCurrentWorkShift(new WorkShift(START_TIME));
+		
+		userService.startBreak(USER_ID, BreakType.Lunch);
+		
+		verify(userRepository).update(eq(user), eventCaptor.capture());
+		assertEquals(UserEventType.BreakStarted, eventCaptor.getValue().getType());
+		assertEquals(BreakType.Lunch, eventCaptor.getValue().getBreakType());
+		assertEquals(START_TIME, eventCaptor.getValue().getTime());
+	}
+	
+	@Test
+	public void startBreak_When_UserRepositorySaveThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException, UserModifiedException
+	{
+		when(userRepository.update(any(), any())).thenThrow(new UserNotFoundException());
 		user.setCurrentWorkShift(new WorkShift(START_TIME));
 		
 		assertThrows(UserNotFoundException.class, () -> userService.startBreak(USER_ID, BreakType.Break));
 	}
 	
+	@Test
+	public void startBreak_When_UserRepositoryUpdateThrowsUserModifiedException_Then_RetriesWithLatestUser()
+			throws UserNotFoundException, BreakInProgressException, WorkShiftNotStartedException, UserModifiedException
+	{
+		User firstUser = new User(USER_ID);
+		firstUser.setCurrentWorkShift(new WorkShift(START_TIME));
+		user.setCurrentWorkShift(new WorkShift(START_TIME));
+		when(userRepository.find(anyString())).thenReturn(firstUser, user);
+		when(userRepository.update(any(), any())).thenThrow(new UserModifiedException()).thenReturn(user);
+		
+		userService.startBreak(USER_ID, BreakType.Break);
+		
+		verify(userRepository, times(2)).update(any(), any());
+		verify(userRepository).update(eq(user), any());
+	}
+	
 	//endregion
 	
 	//region endBreak
@@ -737,13 +1609,27 @@ public class UserServiceTests
 	}
 	
 	@Test
-	public void endBreak_When_CurrentBreakExists_Then_CallsUserRepository() throws BreakNotStartedException, UserNotFoundException
+	public void endBreak_When_CurrentBreakExists_Then_CallsUserRepository() throws BreakNotStartedException, UserNotFoundException, UserModifiedException
 	{
 		user.setCurrentBreak(new Break(BreakType.Break, START_TIME));
 		
 		userService.endBreak(USER_ID);
 		
-		verify(userRepository).update(user);
+		verify(userRepository).update(eq(user), any());
+	}
+	
+	@Test
+	public void endBreak_When_CurrentBreakExists_Then_RecordsBreakEndedEvent() throws BreakNotStartedException, UserNotFoundException, UserModifiedException
+	{
+		when(clock.now()).thenReturn(END_TIME);
+		user.setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		
+		userService.endBreak(USER_ID);
+		
+		verify(userRepository).update(eq(user), eventCaptor.capture());
+		assertEquals(UserEventType.BreakEnded, eventCaptor.getValue().getType());
+		assertEquals(BreakType.Break, eventCaptor.getValue().getBreakType());
+		assertEquals(END_TIME, eventCaptor.getValue().getTime());
 	}
 	
 	//endregion
@@ -784,13 +1670,25 @@ public class UserServiceTests
 	}
 	
 	@Test
-	public void endBreak_When_CurrentLunchBreakExists_Then_CallsUserRepository() throws BreakNotStartedException, UserNotFoundException
+	public void endBreak_When_CurrentLunchBreakExists_Then_CallsUserRepository() throws BreakNotStartedException, UserNotFoundException, UserModifiedException
+	{
+		user.setCurrentLunchBreak(new Break(BreakType.Lunch, START_TIME));
+		
+		userService.endBreak(USER_ID);
+		
+		verify(userRepository).update(eq(user), any());
+	}
+	
+	@Test
+	public void endBreak_When_CurrentLunchBreakExists_Then_RecordsBreakEndedEvent() throws BreakNotStartedException, UserNotFoundException, UserModifiedException
 	{
 		user.setCurrentLunchBreak(new Break(BreakType.Lunch, START_TIME));
 		
 		userService.endBreak(USER_ID);
 		
-		verify(userRepository).update(user);
+		verify(userRepository).update(eq(user), eventCaptor.capture());
+		assertEquals(UserEventType.BreakEnded, eventCaptor.getValue().getType());
+		assertEquals(BreakType.Lunch, eventCaptor.getValue().getBreakType());
 	}
 	
 	//endregion
@@ -810,14 +1708,31 @@ public class UserServiceTests
 	}
 	
 	@Test
-	public void endBreak_When_UserRepositorySaveThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException
+	public void endBreak_When_UserRepositorySaveThrowsUserNotFoundException_Then_ThrowsSameException() throws UserNotFoundException, UserModifiedException
 	{
 		user.setCurrentBreak(new Break(BreakType.Break, START_TIME));
 		
-		when(userRepository.update(any())).thenThrow(new UserNotFoundException());
+		when(userRepository.update(any(), any())).thenThrow(new UserNotFoundException());
 		
 		assertThrows(UserNotFoundException.class, () -> userService.endBreak(USER_ID));
 	}
 	
+	@Test
+	public void endBreak_When_UserRepositoryUpdateThrowsUserModifiedException_Then_RetriesWithLatestUser()
+			throws UserNotFoundException, BreakNotStartedException, UserModifiedException
+	{
+		User firstUser = new User(USER_ID);
+		firstUser.setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		user.setCurrentBreak(new Break(BreakType.Break, START_TIME));
+		when(userRepository.find(anyString())).thenReturn(firstUser, user);
+		when(userRepository.update(any(), any())).thenThrow(new UserModifiedException()).thenReturn(user);
+		
+		userService.endBreak(USER_ID);
+		
+		verify(userRepository, times(2)).update(any(), any());
+		verify(userRepository).update(eq(user), any());
+	}
+	
 	//endregion
+	
 }
\ No newline at end of file